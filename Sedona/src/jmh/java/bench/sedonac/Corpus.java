@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2007 Tridium, Inc.
+ * Licensed under the Academic Free License version 3.0
+ *
+ */
+
+package bench.sedonac;
+
+import sedona.kit.KitFile;
+import sedona.util.FileUtil;
+import sedonac.Compiler;
+import sedonac.CompilerStep;
+import sedonac.Location;
+import sedonac.ir.IrKit;
+import sedonac.steps.Generate;
+import sedonac.steps.InitImageCompile;
+import sedona.xml.XParser;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Generated Sedona kit used as the input of the compiler benchmarks.
+ * Each type has defines, fields, an inline array and methods with
+ * loops, branches, switches and calls, and every tenth type is a
+ * Component with properties so that the reflective paths are covered.
+ *
+ * The sizes are:
+ * <ul>
+ *   <li>small:  5 types with 4 methods each</li>
+ *   <li>medium: 50 types with 10 methods each</li>
+ *   <li>huge:   400 types with 20 methods each</li>
+ * </ul>
+ *
+ * The tokenizer and parser benchmarks only need the source text. The
+ * others compile the kit against the sys kit of the sedona home
+ * directory (-Dsedona.home), into a temporary output directory.  They
+ * run Compiler's own kit and image pipelines up to the step they
+ * measure.  The corpus directory is removed by delete(), which the
+ * benchmarks call from their @TearDown.
+ */
+public class Corpus {
+
+    public static Corpus make(String size) throws IOException {
+        if (size.equals("small")) return new Corpus(size, 5, 4);
+        if (size.equals("medium")) return new Corpus(size, 50, 10);
+        if (size.equals("huge")) return new Corpus(size, 400, 20);
+        throw new IllegalArgumentException(size);
+    }
+
+    private Corpus(String size, int numTypes, int numMethods) throws IOException {
+        this.name = "bench" + size;
+        this.numTypes = numTypes;
+        this.numMethods = numMethods;
+        this.fileNames = new String[numTypes];
+        this.sources = new String[numTypes];
+        for (int i = 0; i < numTypes; ++i) {
+            fileNames[i] = "Gen" + i + ".sedona";
+            sources[i] = typeSource(i);
+        }
+        this.dir = File.createTempFile("sedonac-" + name, "");
+        dir.delete();
+        dir.mkdirs();
+        write(new File(dir, "kit.xml"),
+                "<sedonaKit name='" + name + "' vendor='Tridium' version='1.0.0' description='benchmark corpus'>\n" +
+                "  <depend on='sys 1.0+' />\n" +
+                "  <source dir='.' />\n" +
+                "</sedonaKit>\n");
+        for (int i = 0; i < numTypes; ++i)
+            write(new File(dir, fileNames[i]), sources[i]);
+    }
+
+//////////////////////////////////////////////////////////////////////////
+// Source
+//////////////////////////////////////////////////////////////////////////
+
+    private String typeSource(int t) {
+        boolean comp = t % 10 == 0;
+        String base = comp ? "Component" : "Gen" + (t - t % 10);
+        StringBuilder s = new StringBuilder();
+        s.append("**\n** Generated benchmark type ").append(t).append("\n**\n");
+        s.append("class Gen").append(t).append(" extends ").append(base).append("\n{\n");
+        s.append("  define int SIZE").append(t).append(" = ").append(4 + t % 8).append("\n");
+        s.append("  define Str LABEL").append(t).append(" = \"gen").append(t).append("\"\n");
+        if (comp) {
+            s.append("  @config property int count").append(t).append(" = 3\n");
+            s.append("  property float level").append(t).append(" = 0.5f\n");
+            s.append("  @config property bool enabled").append(t).append(" = true\n");
+            s.append("  action void reset").append(t).append("() { count").append(t).append(" := 0 }\n");
+        }
+        s.append("  int total").append(t).append("\n");
+        s.append("  inline int[SIZE").append(t).append("] vals").append(t).append("\n\n");
+        for (int k = 0; k < numMethods; ++k)
+            methodSource(s, t, k);
+        s.append("  static int sum").append(t).append("(int[] a, int n)\n  {\n");
+        s.append("    int r = 0\n");
+        s.append("    for (int i = 0; i < n; ++i) r += a[i]\n");
+        s.append("    return r\n  }\n");
+        s.append("}\n");
+        return s.toString();
+    }
+
+    private void methodSource(StringBuilder s, int t, int k) {
+        String m = "m" + t + "_" + k;
+        s.append("  ** Method ").append(k).append(" of type ").append(t).append("\n");
+        s.append("  int ").append(m).append("(int a, int b)\n  {\n");
+        s.append("    int sum = 0\n");
+        s.append("    for (int i = 0; i < a; ++i)\n    {\n");
+        s.append("      if (i % 3 == 0) sum += b\n");
+        s.append("      else if (i % 3 == 1) sum -= i\n");
+        s.append("      else sum ^= (i << 2)\n");
+        s.append("    }\n");
+        s.append("    while (sum > 1000) sum = sum / 2\n");
+        s.append("    int x\n");
+        s.append("    switch (b & 3)\n    {\n");
+        s.append("      case 0: x = sum; break\n");
+        s.append("      case 1: x = -sum; break\n");
+        s.append("      default: x = ").append(k).append("\n");
+        s.append("    }\n");
+        s.append("    float f = (float)x * 1.5f\n");
+        s.append("    bool ok = f > 2.0f && sum != 0\n");
+        s.append("    if (ok) total").append(t).append(" = sum\n");
+        s.append("    vals").append(t).append("[").append(k).append(" % SIZE").append(t).append("] = x\n");
+        if (k > 0)
+            s.append("    return ").append(m.substring(0, m.lastIndexOf('_') + 1)).append(k - 1).append("(a, x)\n");
+        else
+            s.append("    return sum").append(t).append("(vals").append(t).append(", SIZE").append(t).append(")\n");
+        s.append("  }\n\n");
+    }
+
+//////////////////////////////////////////////////////////////////////////
+// Compile
+//////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Create a quiet compiler for the corpus kit.xml.
+     */
+    public Compiler newCompiler() throws Exception {
+        return init(new Compiler(), new File(dir, "kit.xml"));
+    }
+
+    /**
+     * Run Compiler.compileKit up to, but not including, the
+     * specified step and return the compiler.  If stop is null
+     * then run the whole pipeline.
+     */
+    public Compiler compileUntil(Class stop) throws Exception {
+        StopCompiler c = (StopCompiler) init(new StopCompiler(stop), new File(dir, "kit.xml"));
+        c.compileKit();
+        c.checkStopped();
+        return c;
+    }
+
+    /**
+     * Compile the corpus into a kit file under the output
+     * directory (once) and return it.
+     */
+    public File kitFile() throws Exception {
+        if (kitFile == null)
+            kitFile = compileUntil(null).kitFile;
+        return kitFile;
+    }
+
+    /**
+     * Create a compiler for an scode image of the sys kit and the
+     * compiled corpus kit, which has run Compiler.compileImage up to
+     * Generate.  The corpus kit isn't installed in the kit database,
+     * so it is added to the kits after InitImageCompile.
+     */
+    public Compiler prepareImage() throws Exception {
+        File kit = kitFile();
+        File xml = new File(dir, "image.xml");
+        if (!xml.exists())
+            write(xml,
+                    "<sedonaCode endian='little' blockSize='4' refSize='4' main='sys::Sys.main' debug='true' test='false'>\n" +
+                    "  <depend on='sys 1.0+' />\n" +
+                    "</sedonaCode>\n");
+
+        StopCompiler c = (StopCompiler) init(new StopCompiler(Generate.class), xml);
+        c.extraKit = kit;
+        c.compileImage();
+        c.checkStopped();
+        return c;
+    }
+
+    /**
+     * Remove the corpus directory and everything compiled into it.
+     */
+    public void delete() throws IOException {
+        FileUtil.delete(dir, null);
+    }
+
+    private Compiler init(Compiler c, File xml) throws Exception {
+        c.log.severity = 1000;
+        c.input = xml.getCanonicalFile();
+        c.xml = XParser.make(c.input).parse();
+        c.outDir = new File(dir, "out");
+        return c;
+    }
+
+    private static void write(File f, String s) throws IOException {
+        Writer out = new FileWriter(f);
+        try {
+            out.write(s);
+        } finally {
+            out.close();
+        }
+    }
+
+//////////////////////////////////////////////////////////////////////////
+// StopCompiler
+//////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Compiler which stops its pipeline before the given step, and
+     * mounts an extra kit file into an image compile.
+     */
+    static class StopCompiler extends Compiler {
+        StopCompiler(Class stop) {
+            this.stop = stop;
+        }
+
+        public void run(CompilerStep step) {
+            if (step.getClass() == stop) throw new Stop();
+            super.run(step);
+            if (step instanceof InitImageCompile && extraKit != null) {
+                IrKit[] x = new IrKit[kits.length + 1];
+                System.arraycopy(kits, 0, x, 0, kits.length);
+                x[kits.length] = new IrKit(new Location(extraKit), new KitFile(extraKit));
+                x[kits.length].test = false;
+                kits = x;
+            }
+        }
+
+        public void compileKit() {
+            try {
+                super.compileKit();
+            } catch (Stop e) {
+                stopped = true;
+            }
+        }
+
+        public void compileImage() {
+            try {
+                super.compileImage();
+            } catch (Stop e) {
+                stopped = true;
+            }
+        }
+
+        void checkStopped() {
+            if (stop != null && !stopped)
+                throw new IllegalStateException("Pipeline has no step " + stop.getName());
+        }
+
+        final Class stop;
+        File extraKit;
+        boolean stopped;
+    }
+
+    static class Stop extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+//////////////////////////////////////////////////////////////////////////
+// Fields
+//////////////////////////////////////////////////////////////////////////
+
+    public final String name;
+    public final int numTypes;
+    public final int numMethods;
+    public final String[] fileNames;
+    public final String[] sources;
+    public final File dir;
+    private File kitFile;
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2007 Tridium, Inc.
+ * Licensed under the Academic Free License version 3.0
+ *
+ */
+
+package bench.sedonac;
+
+import org.openjdk.jmh.annotations.*;
+import sedonac.Compiler;
+import sedonac.gen.ImageGen;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark ImageGen.generate for an image of the sys kit and the
+ * corpus kit.  ImageGen assigns block indexes to the IR in place, so
+ * every invocation gets a freshly prepared compiler.  Requires the
+ * sys kit in -Dsedona.home.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(1)
+public class ImageGenBench {
+
+    @Param({"small", "medium", "huge"})
+    public String size;
+
+    Corpus corpus;
+    Compiler compiler;
+
+    @Setup(Level.Trial)
+    public void setupCorpus() throws Exception {
+        corpus = Corpus.make(size);
+        corpus.kitFile();
+    }
+
+    @Setup(Level.Invocation)
+    public void setupCompiler() throws Exception {
+        compiler = corpus.prepareImage();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        corpus.delete();
+    }
+
+    @Benchmark
+    public Compiler generate() {
+        new ImageGen(compiler).generate();
+        return compiler;
+    }
+
+}
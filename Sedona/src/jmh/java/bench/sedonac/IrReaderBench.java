@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2007 Tridium, Inc.
+ * Licensed under the Academic Free License version 3.0
+ *
+ */
+
+package bench.sedonac;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import sedona.util.FileUtil;
+import sedonac.Compiler;
+import sedonac.Location;
+import sedonac.ir.IrBinaryReader;
+import sedonac.ir.IrKit;
+import sedonac.ir.IrReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Benchmark IrReader.readType (text IR) and IrBinaryReader.readType
+ * (binary IR) over the types of the compiled corpus kit.  The zip
+ * entries are read into memory up front.  Requires the sys kit in
+ * -Dsedona.home to compile the corpus.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IrReaderBench {
+
+    @Param({"small", "medium", "huge"})
+    public String size;
+
+    Corpus corpus;
+    Compiler compiler;
+    String[] textNames;
+    byte[][] text;
+    String[] binaryNames;
+    byte[][] binary;
+
+    @Setup
+    public void setup() throws Exception {
+        corpus = Corpus.make(size);
+        File file = corpus.kitFile();
+        compiler = corpus.newCompiler();
+
+        ArrayList tn = new ArrayList(), tb = new ArrayList(), bn = new ArrayList(), bb = new ArrayList();
+        ZipFile zip = new ZipFile(file);
+        try {
+            Enumeration it = zip.entries();
+            while (it.hasMoreElements()) {
+                ZipEntry e = (ZipEntry) it.nextElement();
+                if (e.getName().endsWith(".ir")) {
+                    tn.add(e.getName());
+                    tb.add(FileUtil.read(zip.getInputStream(e), e.getSize()));
+                } else if (e.getName().endsWith(".irb")) {
+                    bn.add(e.getName());
+                    bb.add(FileUtil.read(zip.getInputStream(e), e.getSize()));
+                }
+            }
+        } finally {
+            zip.close();
+        }
+        textNames = (String[]) tn.toArray(new String[tn.size()]);
+        text = (byte[][]) tb.toArray(new byte[tb.size()][]);
+        binaryNames = (String[]) bn.toArray(new String[bn.size()]);
+        binary = (byte[][]) bb.toArray(new byte[bb.size()][]);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        corpus.delete();
+    }
+
+    @Benchmark
+    public void readText(Blackhole bh) {
+        IrKit kit = new IrKit(new Location("bench"), "bench");
+        for (int i = 0; i < text.length; ++i)
+            bh.consume(new IrReader(compiler, new Location(textNames[i]), new ByteArrayInputStream(text[i])).readType(kit));
+    }
+
+    @Benchmark
+    public void readBinary(Blackhole bh) {
+        IrKit kit = new IrKit(new Location("bench"), "bench");
+        for (int i = 0; i < binary.length; ++i)
+            bh.consume(new IrBinaryReader(compiler, new Location(binaryNames[i]), binary[i]).readType(kit));
+    }
+
+}
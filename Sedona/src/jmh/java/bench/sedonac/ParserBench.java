@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2007 Tridium, Inc.
+ * Licensed under the Academic Free License version 3.0
+ *
+ */
+
+package bench.sedonac;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import sedonac.Compiler;
+import sedonac.Location;
+import sedonac.ast.KitDef;
+import sedonac.parser.Parser;
+import sedonac.parser.Token;
+import sedonac.parser.Tokenizer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark Parser.parse over the pre-tokenized source files of
+ * the corpus, so that only the parser itself is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBench {
+
+    @Param({"small", "medium", "huge"})
+    public String size;
+
+    Corpus corpus;
+    Compiler compiler;
+    Token[][] tokens;
+
+    @Setup
+    public void setup() throws Exception {
+        corpus = Corpus.make(size);
+        compiler = corpus.newCompiler();
+        compiler.ast = new KitDef(new Location(compiler.input));
+        compiler.ast.name = corpus.name;
+        tokens = new Token[corpus.sources.length][];
+        for (int i = 0; i < tokens.length; ++i)
+            tokens[i] = new Tokenizer(compiler, corpus.fileNames[i], corpus.sources[i].toCharArray()).tokenize();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        corpus.delete();
+    }
+
+    @Benchmark
+    public void parse(Blackhole bh) {
+        for (int i = 0; i < tokens.length; ++i)
+            bh.consume(new Parser(compiler, corpus.fileNames[i], tokens[i]).parse());
+    }
+
+}
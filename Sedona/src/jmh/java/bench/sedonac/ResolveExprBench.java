@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2007 Tridium, Inc.
+ * Licensed under the Academic Free License version 3.0
+ *
+ */
+
+package bench.sedonac;
+
+import org.openjdk.jmh.annotations.*;
+import sedonac.Compiler;
+import sedonac.steps.ResolveExpr;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark the ResolveExpr step.  ResolveExpr rewrites the AST in
+ * place, so every invocation gets a fresh compiler which has run the
+ * kit pipeline up to ResolveExpr; only the step itself is measured.
+ * Requires the sys kit in -Dsedona.home.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(1)
+public class ResolveExprBench {
+
+    @Param({"small", "medium", "huge"})
+    public String size;
+
+    Corpus corpus;
+    Compiler compiler;
+
+    @Setup(Level.Trial)
+    public void setupCorpus() throws Exception {
+        corpus = Corpus.make(size);
+    }
+
+    @Setup(Level.Invocation)
+    public void setupCompiler() throws Exception {
+        compiler = corpus.compileUntil(ResolveExpr.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        corpus.delete();
+    }
+
+    @Benchmark
+    public Compiler resolveExpr() {
+        new ResolveExpr(compiler).run();
+        return compiler;
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2007 Tridium, Inc.
+ * Licensed under the Academic Free License version 3.0
+ *
+ */
+
+package bench.sedonac;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import sedonac.Compiler;
+import sedonac.analysis.ControlFlowGraph;
+import sedonac.analysis.DefiniteAssignmentAnalysis;
+import sedonac.ast.MethodDef;
+import sedonac.ast.TypeDef;
+import sedonac.steps.StaticAnalysis;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark ControlFlowGraph.make and DefiniteAssignmentAnalysis over
+ * every method of the corpus once it has been resolved.  Neither one
+ * modifies the AST, so the compiler is prepared once per trial.
+ * Requires the sys kit in -Dsedona.home.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StaticAnalysisBench {
+
+    @Param({"small", "medium", "huge"})
+    public String size;
+
+    Corpus corpus;
+    Compiler compiler;
+    MethodDef[] methods;
+    ControlFlowGraph[] cfgs;
+
+    @Setup
+    public void setup() throws Exception {
+        corpus = Corpus.make(size);
+        compiler = corpus.compileUntil(StaticAnalysis.class);
+        ArrayList acc = new ArrayList();
+        TypeDef[] types = compiler.ast.types;
+        for (int i = 0; i < types.length; ++i) {
+            MethodDef[] m = types[i].methodDefs();
+            for (int j = 0; j < m.length; ++j) acc.add(m[j]);
+        }
+        methods = (MethodDef[]) acc.toArray(new MethodDef[acc.size()]);
+        cfgs = new ControlFlowGraph[methods.length];
+        for (int i = 0; i < methods.length; ++i)
+            cfgs[i] = ControlFlowGraph.make(methods[i]);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        corpus.delete();
+    }
+
+    @Benchmark
+    public void controlFlowGraph(Blackhole bh) {
+        for (int i = 0; i < methods.length; ++i)
+            bh.consume(ControlFlowGraph.make(methods[i]));
+    }
+
+    @Benchmark
+    public void definiteAssignment() {
+        for (int i = 0; i < cfgs.length; ++i)
+            new DefiniteAssignmentAnalysis(compiler, cfgs[i]).run();
+    }
+
+    @Benchmark
+    public void cfgAndDefiniteAssignment() {
+        for (int i = 0; i < methods.length; ++i)
+            new DefiniteAssignmentAnalysis(compiler, ControlFlowGraph.make(methods[i])).run();
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2007 Tridium, Inc.
+ * Licensed under the Academic Free License version 3.0
+ *
+ */
+
+package bench.sedonac;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import sedonac.Compiler;
+import sedonac.parser.Tokenizer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark Tokenizer.tokenize over every source file of the corpus.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizerBench {
+
+    @Param({"small", "medium", "huge"})
+    public String size;
+
+    Corpus corpus;
+    Compiler compiler;
+    char[][] chars;
+
+    @Setup
+    public void setup() throws Exception {
+        corpus = Corpus.make(size);
+        compiler = corpus.newCompiler();
+        chars = new char[corpus.sources.length][];
+        for (int i = 0; i < chars.length; ++i)
+            chars[i] = corpus.sources[i].toCharArray();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        corpus.delete();
+    }
+
+    @Benchmark
+    public void tokenize(Blackhole bh) {
+        for (int i = 0; i < chars.length; ++i)
+            bh.consume(new Tokenizer(compiler, corpus.fileNames[i], chars[i]).tokenize());
+    }
+
+}
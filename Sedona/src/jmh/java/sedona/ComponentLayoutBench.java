@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2008 Tridium, Inc.
+ * Licensed under the Academic Free License version 3.0
+ *
+ */
+
+package sedona;
+
+import org.openjdk.jmh.annotations.*;
+import sedona.manifest.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare components with boxed and with packed slot storage at the
+ * scale of a SoxClient mirroring many devices, 100k components by
+ * default.  The components are of a generated point type with a mix
+ * of bool, numeric and Buf properties, from a sys kit manifest which
+ * the benchmark saves to the manifest database of the sedona home
+ * directory (-Dsedona.home) under checksum 5ed0be7c.
+ *
+ * The setup prints the heap retained per component of each layout.
+ * Run with the GC profiler to see the allocation as well:
+ * <pre>
+ *   gradle jmh -Pjmh.args="ComponentLayoutBench -prof gc"
+ * </pre>
+ * gc.alloc.rate.norm of create is the heap of the new components,
+ * of update the garbage made by applying one runtime update to each
+ * of them like SoxClient does, which is near zero for packed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ComponentLayoutBench {
+
+    @Param({"boxed", "packed"})
+    public String layout;
+
+    @Param({"100000"})
+    public int components;
+
+    Type type;
+    Slot[] runtime;
+    Slot out;
+    Component[] comps;
+    Buf update;
+
+    @Setup
+    public void setup() throws Exception {
+        type = pointType();
+        runtime = type.runtimeProps();
+        out = type.slot("out");
+
+        // runtime update with every value changed
+        update = new Buf();
+        for (Slot slot : runtime) {
+            switch (slot.type.id) {
+                case Type.boolId:   Bool.TRUE.encodeBinary(update); break;
+                case Type.byteId:   Byte.make(3).encodeBinary(update); break;
+                case Type.intId:    Int.make(123456).encodeBinary(update); break;
+                case Type.longId:   Long.make(1L << 40).encodeBinary(update); break;
+                case Type.floatId:  Float.make(72.5f).encodeBinary(update); break;
+                case Type.doubleId: Double.make(1e6).encodeBinary(update); break;
+                default: throw new IllegalStateException(slot.toString());
+            }
+        }
+
+        // heap of the components as created, with the default values
+        // shared, and once their runtime properties have been updated
+        long before = usedHeap();
+        comps = create();
+        long created = usedHeap();
+        update();
+        long updated = usedHeap();
+        System.out.println();
+        System.out.println("ComponentLayoutBench " + layout + ": " +
+                (created - before) / components + " bytes/component created, " +
+                (updated - before) / components + " bytes/component updated");
+    }
+
+    /**
+     * Create the components in the layout measured.
+     */
+    @Benchmark
+    public Component[] create() {
+        boolean packed = layout.equals("packed");
+        Component[] comps = new Component[components];
+        for (int i = 0; i < comps.length; ++i)
+            comps[i] = new Point(type, i, packed);
+        return comps;
+    }
+
+    /**
+     * Decode a runtime update into every component.
+     */
+    @Benchmark
+    public Component[] update() throws Exception {
+        for (Component c : comps) {
+            update.seek(0);
+            for (Slot slot : runtime)
+                c.decodeBinary(slot, update);
+        }
+        return comps;
+    }
+
+    /**
+     * Read a float property of every component.
+     */
+    @Benchmark
+    public float read() {
+        float sum = 0f;
+        for (Component c : comps)
+            sum += c.getFloat(out);
+        return sum;
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean mem = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; ++i) System.gc();
+        return mem.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Load a sys kit with the primitive types, Component and
+     * a point type with some properties of each kind.
+     */
+    static Type pointType() throws Exception {
+        KitManifest km = new KitManifest("sys");
+        km.checksum = 0x5ed0be7c;
+        km.depends = new Depend[0];
+
+        String[] prims = {"void", "bool", "byte", "short", "int", "long", "float", "double", "Buf"};
+        TypeManifest[] types = new TypeManifest[prims.length + 2];
+        for (int i = 0; i < prims.length; ++i) {
+            types[i] = new TypeManifest(km, i, prims[i], Facets.empty, null, 0, 0);
+            types[i].slots = new SlotManifest[0];
+        }
+
+        TypeManifest comp = new TypeManifest(km, prims.length, "Component", Facets.empty, null, 4, Type.ABSTRACT);
+        comp.slots = new SlotManifest[]{
+                new SlotManifest(comp, 0, "meta", Facets.empty, "int", Slot.CONFIG, Int.make(1)),
+        };
+        types[prims.length] = comp;
+
+        TypeManifest point = new TypeManifest(km, prims.length + 1, "Point", Facets.empty, "sys::Component", 64, 0);
+        point.slots = new SlotManifest[]{
+                new SlotManifest(point, 0, "enabled",  Facets.empty, "bool",     Slot.CONFIG, Bool.TRUE),
+                new SlotManifest(point, 1, "priority", Facets.empty, "short",    Slot.CONFIG, Short.make(16)),
+                new SlotManifest(point, 2, "setpoint", Facets.empty, "float",    Slot.CONFIG, Float.make(70f)),
+                new SlotManifest(point, 3, "label",    Facets.empty, "sys::Buf", Slot.CONFIG | Slot.AS_STR, Str.make("")),
+                new SlotManifest(point, 4, "fault",    Facets.empty, "bool",     0, Bool.FALSE),
+                new SlotManifest(point, 5, "status",   Facets.empty, "byte",     0, Byte.make(0)),
+                new SlotManifest(point, 6, "count",    Facets.empty, "int",      0, Int.make(0)),
+                new SlotManifest(point, 7, "ticks",    Facets.empty, "long",     0, Long.make(0)),
+                new SlotManifest(point, 8, "out",      Facets.empty, "float",    0, Float.NULL),
+                new SlotManifest(point, 9, "total",    Facets.empty, "double",   0, Double.make(0)),
+                new SlotManifest(point, 10, "reset",   Facets.empty, "void",     Slot.ACTION, null),
+        };
+        types[prims.length + 1] = point;
+        km.types = types;
+
+        ManifestDb.save(km);
+        return Schema.load(new KitPart[]{km.part()}).type("sys::Point");
+    }
+
+    static class Point extends Component {
+        Point(Type type, int id, boolean packed) {
+            super(type, packed);
+            this.id = id;
+        }
+
+        public int id() { return id; }
+        public String name() { return "p" + id; }
+        public Component getParent() { return null; }
+        public Component[] getChildren() { return new Component[0]; }
+        public Component getChild(String name) { return null; }
+        public Link[] links() { return new Link[0]; }
+
+        final int id;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2008 Tridium, Inc.
+ * Licensed under the Academic Free License version 3.0
+ *
+ */
+
+package sedona.dasp;
+
+import org.openjdk.jmh.annotations.*;
+import sedona.util.UserUtil;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark the DASP send and receive path of a datagram round
+ * trip between a client and a server session.  The two sockets are
+ * connected by an in-memory interface which dispatches each encoded
+ * datagram straight into the other socket on the sending thread, so
+ * only the protocol stack is measured.  The house keeping timers
+ * are never driven, there is nothing to retry on a lossless link.
+ *
+ * Run with the GC profiler to see the allocation per round trip:
+ * <pre>
+ *   gradle jmh -Pjmh.args="DaspAllocBench -prof gc"
+ * </pre>
+ * gc.alloc.rate.norm should be near zero for roundTrip, which
+ * releases the received messages; roundTripUnreleased leaves them
+ * to the garbage collector for comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DaspAllocBench {
+
+    @Param({"16", "256"})
+    public int payloadSize;
+
+    DaspSocket server;
+    DaspSocket client;
+    DaspSession clientSession;
+    DaspSession serverSession;
+    byte[] payload;
+
+    @Setup
+    public void setup() throws Exception {
+        LoopbackInterface serverIface = new LoopbackInterface(1001);
+        LoopbackInterface clientIface = new LoopbackInterface(1002);
+        serverIface.peer = clientIface;
+        clientIface.peer = serverIface;
+
+        server = DaspSocket.open(serverIface, new DaspAcceptor() {
+            public byte[] credentials(String u) {
+                return u.equals("bench") ? UserUtil.credentials("bench", "pass") : null;
+            }
+
+            public Hashtable options() {
+                return new Hashtable();
+            }
+        }, DaspSocket.SESSION_QUEUING);
+        client = DaspSocket.open(clientIface, null, DaspSocket.SESSION_QUEUING);
+
+        clientSession = client.connect(LoopbackInterface.LOCAL, serverIface.port, "bench", "pass", new Hashtable());
+        serverSession = server.sessions()[0];
+        payload = new byte[payloadSize];
+    }
+
+    @TearDown
+    public void teardown() {
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public int roundTrip() throws Exception {
+        clientSession.send(payload);
+        DaspMessage req = serverSession.receive(0);
+        serverSession.send(req.payload());
+        req.release();
+        DaspMessage res = clientSession.receive(0);
+        int n = res.payload().length;
+        res.release();
+        return n;
+    }
+
+    @Benchmark
+    public int roundTripUnreleased() throws Exception {
+        clientSession.send(payload);
+        DaspMessage req = serverSession.receive(0);
+        serverSession.send(req.payload());
+        DaspMessage res = clientSession.receive(0);
+        return res.payload().length;
+    }
+
+    /**
+     * In-memory interface which dispatches sent datagrams
+     * into its peer's socket on the calling thread.
+     */
+    static class LoopbackInterface extends DaspSocketInterface {
+
+        static final InetAddress LOCAL = InetAddress.getLoopbackAddress();
+
+        LoopbackInterface(int port) {
+            this.port = port;
+            this.inbound = new DatagramPacket(new byte[DaspConst.ABS_MAX_VAL], DaspConst.ABS_MAX_VAL);
+        }
+
+        public boolean routes(InetAddress addr, int port) {
+            return true;
+        }
+
+        public int localPort() {
+            return port;
+        }
+
+        public void send(DatagramPacket p) throws IOException {
+            synchronized (peer.inbound) {
+                System.arraycopy(p.getData(), p.getOffset(), peer.inbound.getData(), 0, p.getLength());
+                peer.inbound.setLength(p.getLength());
+                peer.inbound.setAddress(LOCAL);
+                peer.inbound.setPort(port);
+                try {
+                    peer.daspSocket.dispatch(peer, peer.inbound);
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException(e.toString());
+                }
+            }
+        }
+
+        protected void receive(DatagramPacket p) throws IOException {
+            throw new IOException("not used");
+        }
+
+        public void close() {
+        }
+
+        public void start(DaspSocket s) {
+            daspSocket = s;
+            timers = new DaspTimerWheel(null);
+        }
+
+        public void stop() {
+        }
+
+        final int port;
+        final DatagramPacket inbound;
+        LoopbackInterface peer;
+    }
+
+}
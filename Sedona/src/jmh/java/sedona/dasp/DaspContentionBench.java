@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2008 Tridium, Inc.
+ * Licensed under the Academic Free License version 3.0
+ *
+ */
+
+package sedona.dasp;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the monitor based ReceiveQueue and SendWindow with the
+ * lock free ones selected by "dasp.lockFree" under contention.
+ *
+ * enqueue has the benchmark threads play the receiving threads of
+ * several interfaces, all enqueuing onto one queue which a background
+ * thread drains like the application would.  send has the benchmark
+ * threads all sending on one session, blocking whenever its window is
+ * full, while a background thread plays the remote endpoint and acks
+ * everything sent so far.  Datagrams are dropped by a test hook
+ * instead of going on the wire.  Vary the number of contending
+ * threads with -t:
+ * <pre>
+ *   gradle jmh -Pjmh.args="DaspContentionBench -t 8"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class DaspContentionBench {
+
+    @Param({"false", "true"})
+    public boolean lockFree;
+
+    @Param({"8", "31"})
+    public int sendSize;
+
+    DaspSocket socket;
+    DaspSession session;
+    ReceiveQueue queue;
+    byte[] payload = new byte[64];
+    volatile boolean stopped;
+    Thread consumer;
+    Thread acker;
+
+    @Setup
+    public void setup() throws Exception {
+        Hashtable sockOptions = new Hashtable();
+        sockOptions.put("dasp.lockFree", String.valueOf(lockFree));
+        socket = DaspSocket.open(new DefaultDaspSocketInterface(-1), null, DaspSocket.SESSION_QUEUING, sockOptions);
+
+        Hashtable options = new Hashtable();
+        options.put("dasp.test", new DaspTestHooks() {
+            public boolean send(int msgType, int num, byte[] msg) {
+                return false;
+            }
+        });
+        session = new DaspSession(socket.interfaces[0], 1, null, 0, true, options);
+        session.sendWindow.sendSize = sendSize;
+
+        queue = ReceiveQueue.make(1024, lockFree);
+        consumer = new Thread("DaspContentionBench.consumer") {
+            public void run() {
+                try {
+                    while (!stopped) queue.dequeue(-1);
+                } catch (InterruptedException e) {
+                }
+            }
+        };
+        acker = new Thread("DaspContentionBench.acker") {
+            public void run() {
+                DaspMsg ack = new DaspMsg();
+                while (!stopped) {
+                    ack.ack = (session.sendWindow.curSeqNum() - 1) & 0xffff;
+                    session.sendWindow.checkAckHeaders(ack);
+                    Thread.yield();
+                }
+            }
+        };
+        consumer.setDaemon(true);
+        acker.setDaemon(true);
+        consumer.start();
+        acker.start();
+    }
+
+    @TearDown
+    public void teardown() throws Exception {
+        stopped = true;
+        queue.kill();
+        session.sendWindow.kill();
+        consumer.join(1000);
+        acker.join(1000);
+        socket.close();
+    }
+
+    @Benchmark
+    public boolean enqueue() {
+        try {
+            queue.enqueue(new DaspMessage());
+            return true;
+        } catch (ReceiveQueue.FullException e) {
+            return false;
+        }
+    }
+
+    @Benchmark
+    public void send() throws Exception {
+        session.sendWindow.send(payload);
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2008 Tridium, Inc.
+ * Licensed under the Academic Free License version 3.0
+ *
+ */
+
+package sedona.dasp;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark the session table of a busy DaspSocket: receiving
+ * threads dispatch keep alive datagrams to a population of long
+ * lived sessions while another thread keeps opening and closing
+ * short lived sessions on the same socket.  Every dispatch looks
+ * its session up by id, every open and close allocates and frees
+ * an id, so the two groups contend on nothing but the table.
+ * Datagrams sent by the sessions are dropped and the house keeping
+ * timers are never driven.
+ * <pre>
+ *   gradle jmh -Pjmh.args="DaspSessionBench"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DaspSessionBench {
+
+    static final InetAddress LOCAL = InetAddress.getLoopbackAddress();
+    static final int PORT = 1001;
+
+    @Param({"100", "5000"})
+    public int numSessions;
+
+    @Param({"64"})
+    public int churnSessions;
+
+    DaspSocket socket;
+    DropInterface iface;
+    Hashtable options = new Hashtable();
+    byte[][] datagrams;
+    DaspSession[] churn;
+    int churnNext;
+
+    @Setup
+    public void setup() throws Exception {
+        iface = new DropInterface();
+        socket = DaspSocket.open(iface, null, DaspSocket.SESSION_QUEUING);
+
+        // a keep alive datagram addressed to each long lived session
+        datagrams = new byte[numSessions][];
+        DaspMsg msg = new DaspMsg();
+        msg.setMsgType(DaspConst.KEEPALIVE);
+        for (int i = 0; i < numSessions; ++i) {
+            DaspSession s = socket.alloc(iface, LOCAL, PORT, DaspSession.CLIENT, options);
+            msg.setSessionId(s.id);
+            byte[] buf = new byte[DaspConst.ABS_MAX_VAL];
+            int len = msg.encode(buf);
+            datagrams[i] = new byte[len];
+            System.arraycopy(buf, 0, datagrams[i], 0, len);
+        }
+
+        churn = new DaspSession[churnSessions];
+        for (int i = 0; i < churnSessions; ++i)
+            churn[i] = socket.alloc(iface, LOCAL, PORT, DaspSession.CLIENT, options);
+    }
+
+    @TearDown
+    public void teardown() {
+        socket.close();
+    }
+
+    /**
+     * Per receiving thread packet, cycling through the sessions
+     * from a different start in each thread.
+     */
+    @State(Scope.Thread)
+    public static class Receiver {
+        DatagramPacket packet = new DatagramPacket(new byte[0], 0, LOCAL, PORT);
+        int next = (int) (Math.random() * Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    @Group("churnAndDispatch")
+    @GroupThreads(3)
+    public void dispatch(Receiver r) throws Exception {
+        byte[] d = datagrams[(r.next++ & Integer.MAX_VALUE) % datagrams.length];
+        r.packet.setData(d, 0, d.length);
+        socket.dispatch(iface, r.packet);
+    }
+
+    @Benchmark
+    @Group("churnAndDispatch")
+    @GroupThreads(1)
+    public int churn() throws Exception {
+        int i = churnNext;
+        churnNext = (i + 1) % churn.length;
+        churn[i].shutdown("churn");
+        churn[i] = socket.alloc(iface, LOCAL, PORT, DaspSession.CLIENT, options);
+        return churn[i].id;
+    }
+
+    /**
+     * Interface which drops everything sent.
+     */
+    static class DropInterface extends DaspSocketInterface {
+
+        public boolean routes(InetAddress addr, int port) {
+            return true;
+        }
+
+        public int localPort() {
+            return PORT;
+        }
+
+        public void send(DatagramPacket p) {
+        }
+
+        protected void receive(DatagramPacket p) throws IOException {
+            throw new IOException("not used");
+        }
+
+        public void close() {
+        }
+
+        public void start(DaspSocket s) {
+            daspSocket = s;
+            timers = new DaspTimerWheel(null);
+        }
+
+        public void stop() {
+        }
+    }
+
+}
@@ -8,11 +8,21 @@
 
 package sedona;
 
+import java.io.IOException;
 import java.util.ArrayList;
 
 /**
  * Component is the abstract base class of
  * OfflineComponent and SoxComponent.
+ *
+ * By default each slot value is stored as a Value, replaced on
+ * every set.  Components created as packed store their bool and
+ * numeric properties in place in an int array laid out from
+ * Type.slots instead, and only box them when read with get(Slot).
+ * This saves most of the memory and allocation of mirroring large
+ * numbers of components, as long as their properties are accessed
+ * with the typed getters and setters such as getFloat and setFloat,
+ * and decoded with decodeBinary(Slot, Buf).
  */
 public abstract class Component
 {
@@ -22,14 +32,37 @@ public abstract class Component
 //////////////////////////////////////////////////////////////////////////
 
   public Component(Type type)
+  {
+    this(type, false);
+  }
+
+  /**
+   * Create a component with packed slot storage
+   * if packed is true, else with boxed Values.
+   */
+  public Component(Type type, boolean packed)
   {
     if (type == null)
       throw new NullPointerException("null type");
 
-    this.type  = type;
-    this.slots = new Value[type.slots.length];
-    for (int i=0; i<slots.length; ++i)
-      this.slots[i] = type.slots[i].def();
+    this.type = type;
+    if (!packed)
+    {
+      this.slots = new Value[type.slots.length];
+      for (int i=0; i<slots.length; ++i)
+        this.slots[i] = type.slots[i].def();
+    }
+    else
+    {
+      SlotLayout layout = type.layout();
+      this.words = layout.words == 0 ? noWords : new int[layout.words];
+      this.slots = layout.refs == 0 ? noRefs : new Value[layout.refs];
+      for (int i=0; i<type.slots.length; ++i)
+      {
+        Value def = type.slots[i].def();
+        if (def != null) pack(layout, type.slots[i], def);
+      }
+    }
   }
 
 //////////////////////////////////////////////////////////////////////////
@@ -97,6 +130,14 @@ public abstract class Component
     return type.qname + "[" + id() + " " + name() + "]";
   }
 
+  /**
+   * Return true if the slots are stored packed.
+   */
+  public final boolean isPacked()
+  {
+    return words != null;
+  }
+
   /**
    * Equals is always == reference equality.
    */
@@ -138,17 +179,25 @@ public abstract class Component
    */
   public Value get(Slot slot)
   {
-    return slots[slot.id];
+    if (words == null) return slots[slot.id];
+    return unpack(type.layout(), slot);
   }
 
   ////// by slot //////
 
   /** Get a bool property. */
-  public boolean getBool(Slot slot) { return ((Bool)get(slot)).val; }
+  public boolean getBool(Slot slot)
+  {
+    int off = offset(slot, SlotLayout.BOOL);
+    if (off >= 0) return words[off] != 0;
+    return ((Bool)get(slot)).val;
+  }
 
   /** Get an integer (byte, short, or int) property. */
   public int getInt(Slot slot)
   {
+    int off = offset(slot, SlotLayout.INT);
+    if (off >= 0) return words[off];
     switch (slot.type.id)
     {
       case Type.byteId:  return ((Byte)get(slot)).val;
@@ -158,13 +207,28 @@ public abstract class Component
   }
 
   /** Get a long property. */
-  public long getLong(Slot slot) { return ((Long)get(slot)).val; }
+  public long getLong(Slot slot)
+  {
+    int off = offset(slot, SlotLayout.LONG);
+    if (off >= 0) return getWords(off);
+    return ((Long)get(slot)).val;
+  }
 
   /** Get a float property. */
-  public float getFloat(Slot slot) { return ((Float)get(slot)).val; }
+  public float getFloat(Slot slot)
+  {
+    int off = offset(slot, SlotLayout.FLOAT);
+    if (off >= 0) return java.lang.Float.intBitsToFloat(words[off]);
+    return ((Float)get(slot)).val;
+  }
 
   /** Get a double property. */
-  public double getDouble(Slot slot) { return ((Double)get(slot)).val; }
+  public double getDouble(Slot slot)
+  {
+    int off = offset(slot, SlotLayout.DOUBLE);
+    if (off >= 0) return java.lang.Double.longBitsToDouble(getWords(off));
+    return ((Double)get(slot)).val;
+  }
 
   /** Get a Buf property. */
   public Buf getBuf(Slot slot) { return (Buf)get(slot); }
@@ -208,7 +272,8 @@ public abstract class Component
   public void set(Slot slot, Value value)
   {
     if (!testMode) slot.assertValue(value);
-    slots[slot.id] = value;
+    if (words == null) slots[slot.id] = value;
+    else pack(type.layout(), slot, value);
   }
   
   /**
@@ -219,11 +284,27 @@ public abstract class Component
   ////// by slot //////
 
   /** Set a bool property. */
-  public void setBool(Slot slot, boolean x) { set(slot, Bool.make(x)); }
+  public void setBool(Slot slot, boolean x)
+  {
+    int off = offset(slot, SlotLayout.BOOL);
+    if (off >= 0) words[off] = x ? 1 : 0;
+    else set(slot, Bool.make(x));
+  }
 
   /** Set an integer (byte, short, or int) property. */
   public void setInt(Slot slot, int x)
   {
+    int off = offset(slot, SlotLayout.INT);
+    if (off >= 0)
+    {
+      switch (slot.type.id)
+      {
+        case Type.byteId:  x = Byte.make(x).val; break;
+        case Type.shortId: x = Short.check(x); break;
+      }
+      words[off] = x;
+      return;
+    }
     switch (slot.type.id)
     {
       case Type.byteId:  set(slot, Byte.make(x)); break;
@@ -233,13 +314,28 @@ public abstract class Component
   }
 
   /** Set a long property. */
-  public void setLong(Slot slot, long x) { set(slot, Long.make(x)); }
+  public void setLong(Slot slot, long x)
+  {
+    int off = offset(slot, SlotLayout.LONG);
+    if (off >= 0) setWords(off, x);
+    else set(slot, Long.make(x));
+  }
 
   /** Set a float property. */
-  public void setFloat(Slot slot, float x) { set(slot, Float.make(x)); }
+  public void setFloat(Slot slot, float x)
+  {
+    int off = offset(slot, SlotLayout.FLOAT);
+    if (off >= 0) words[off] = floatBits(x);
+    else set(slot, Float.make(x));
+  }
 
   /** Set a double property. */
-  public void setDouble(Slot slot, double x) { set(slot, Double.make(x)); }
+  public void setDouble(Slot slot, double x)
+  {
+    int off = offset(slot, SlotLayout.DOUBLE);
+    if (off >= 0) setWords(off, doubleBits(x));
+    else set(slot, Double.make(x));
+  }
 
   /** Set a Buf property. */
   public void setBuf(Slot slot, Buf x) { set(slot, x); }
@@ -270,6 +366,123 @@ public abstract class Component
   /** Set a Buf asStr property by name. */
   public void setStr(String name, String x) { setStr(slot(name, true), x); }
 
+  ////// decoding //////
+
+  /**
+   * Decode a property from its binary format and set it.  This is
+   * the same as <code>set(slot, get(slot).decodeBinary(in))</code>,
+   * except numeric properties of packed components are decoded
+   * in place without boxing them.
+   */
+  public void decodeBinary(Slot slot, Buf in)
+    throws IOException
+  {
+    if (words != null)
+    {
+      SlotLayout layout = type.layout();
+      int off = layout.offsets[slot.id];
+      switch (layout.kinds[slot.id])
+      {
+        case SlotLayout.BYTE:   words[off] = in.u1(); return;
+        case SlotLayout.SHORT:  words[off] = in.u2(); return;
+        case SlotLayout.INT:    words[off] = in.i4(); return;
+        case SlotLayout.LONG:   setWords(off, in.i8()); return;
+        case SlotLayout.FLOAT:  words[off] = floatBits(in.f4()); return;
+        case SlotLayout.DOUBLE: setWords(off, doubleBits(in.f8())); return;
+      }
+    }
+    set(slot, get(slot).decodeBinary(in));
+  }
+
+////////////////////////////////////////////////////////////////
+// Packed Storage
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Box the value of a slot of a packed component.
+   */
+  private Value unpack(SlotLayout layout, Slot slot)
+  {
+    int off = layout.offsets[slot.id];
+    switch (layout.kinds[slot.id])
+    {
+      case SlotLayout.BOOL:
+        int w = words[off];
+        return w == SlotLayout.BOOL_NULL ? Bool.NULL : Bool.make(w != 0);
+      case SlotLayout.BYTE:   return Byte.make(words[off]);
+      case SlotLayout.SHORT:  return Short.make(words[off]);
+      case SlotLayout.INT:    return Int.make(words[off]);
+      case SlotLayout.LONG:   return Long.make(getWords(off));
+      case SlotLayout.FLOAT:  return Float.make(java.lang.Float.intBitsToFloat(words[off]));
+      case SlotLayout.DOUBLE: return Double.make(java.lang.Double.longBitsToDouble(getWords(off)));
+      default:                return slots[off];
+    }
+  }
+
+  /**
+   * Store the value of a slot of a packed component.
+   */
+  private void pack(SlotLayout layout, Slot slot, Value value)
+  {
+    int off = layout.offsets[slot.id];
+    switch (layout.kinds[slot.id])
+    {
+      case SlotLayout.BOOL:
+        words[off] = value == Bool.NULL ? SlotLayout.BOOL_NULL : ((Bool)value).val ? 1 : 0;
+        break;
+      case SlotLayout.BYTE:   words[off] = ((Byte)value).val; break;
+      case SlotLayout.SHORT:  words[off] = ((Short)value).val; break;
+      case SlotLayout.INT:    words[off] = ((Int)value).val; break;
+      case SlotLayout.LONG:   setWords(off, ((Long)value).val); break;
+      case SlotLayout.FLOAT:  words[off] = floatBits(((Float)value).val); break;
+      case SlotLayout.DOUBLE: setWords(off, doubleBits(((Double)value).val)); break;
+      default:                slots[off] = value; break;
+    }
+  }
+
+  /**
+   * Get the word offset of a slot stored packed as the given kind,
+   * where INT stands for any of byte, short and int.  Return -1 if
+   * the component isn't packed or the slot is of another kind.
+   */
+  private int offset(Slot slot, int kind)
+  {
+    if (words == null) return -1;
+    SlotLayout layout = type.layout();
+    int k = layout.kinds[slot.id];
+    if (k == SlotLayout.BYTE || k == SlotLayout.SHORT) k = SlotLayout.INT;
+    return k == kind ? layout.offsets[slot.id] : -1;
+  }
+
+  private long getWords(int off)
+  {
+    return ((long)words[off] << 32) | (words[off+1] & 0xffffffffL);
+  }
+
+  private void setWords(int off, long x)
+  {
+    words[off]   = (int)(x >>> 32);
+    words[off+1] = (int)x;
+  }
+
+  /**
+   * Bits of a float the way Float.make stores it,
+   * with a single zero and a single NaN for null.
+   */
+  private static int floatBits(float x)
+  {
+    return x == 0f ? 0 : java.lang.Float.floatToIntBits(x);
+  }
+
+  /**
+   * Bits of a double the way Double.make stores it,
+   * with a single zero and a single NaN for null.
+   */
+  private static long doubleBits(double x)
+  {
+    return x == 0.0 ? 0L : java.lang.Double.doubleToLongBits(x);
+  }
+
 ////////////////////////////////////////////////////////////////
 // Utils
 ////////////////////////////////////////////////////////////////
@@ -320,8 +533,12 @@ public abstract class Component
   /** Set to false to disable error checking */
   public static boolean testMode = false;
 
+  private static final int[] noWords = new int[0];
+  private static final Value[] noRefs = new Value[0];
+
   public final Type type;
-  Value[] slots;
+  Value[] slots;          // by slot id, or Buf and action slots of packed storage
+  int[] words;            // bool and numeric props of packed storage or null
 
 }
 
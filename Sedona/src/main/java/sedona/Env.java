@@ -141,9 +141,12 @@ public class Env
   {
     try
     {
+      // common case without reflection or boxing
+      if (ticksMethodInNanos) return System.nanoTime() / 1000000L;
+
       if (ticksMethod != null)
       {
-        long x = ((java.lang.Long)ticksMethod.invoke(null, (Object)null)).longValue();
+        long x = ((java.lang.Long)ticksMethod.invoke(null, (Object[])null)).longValue();
         if (ticksMethodInNanos) x /= 1000000L;
         return x;
       }
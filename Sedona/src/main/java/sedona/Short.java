@@ -23,8 +23,7 @@ public final class Short
 
   public static Short make(int val)
   {
-    if (val < 0 || val > MAX.val)
-      throw new IllegalArgumentException("Valid Short range [0-"+MAX.val+"]: val = " + val);
+    check(val);
     if (val < predefined.length)
       return predefined[val];
     return new Short(val);
@@ -32,6 +31,16 @@ public final class Short
 
   private Short(int val) { this.val = val; }
 
+  /**
+   * Throw IllegalArgumentException if val is out of range.
+   */
+  static int check(int val)
+  {
+    if (val < 0 || val > MAX.val)
+      throw new IllegalArgumentException("Valid Short range [0-"+MAX.val+"]: val = " + val);
+    return val;
+  }
+
   static final Short[] predefined = new Short[256];
   static
   {
@@ -0,0 +1,82 @@
+//
+// Copyright (c) 2008 Tridium, Inc.
+// Licensed under the Academic Free License version 3.0
+//
+
+package sedona;
+
+/**
+ * SlotLayout maps the slots of a Type to their place in the packed
+ * storage of a Component.  Each bool, byte, short, int and float
+ * property takes one word of the component's int array, and each
+ * long and double property takes two.  Buf properties and actions
+ * are kept as Values in a separate array indexed by the order they
+ * are declared in.
+ */
+final class SlotLayout
+{
+
+//////////////////////////////////////////////////////////////////////////
+// Constructor
+//////////////////////////////////////////////////////////////////////////
+
+  SlotLayout(Slot[] slots)
+  {
+    this.kinds   = new byte[slots.length];
+    this.offsets = new int[slots.length];
+
+    int words = 0, refs = 0;
+    for (int i=0; i<slots.length; ++i)
+    {
+      Slot slot = slots[i];
+      int kind = slot.isProp() ? kind(slot.type.id) : REF;
+      kinds[i] = (byte)kind;
+      switch (kind)
+      {
+        case REF:    offsets[i] = refs++; break;
+        case LONG:
+        case DOUBLE: offsets[i] = words; words += 2; break;
+        default:     offsets[i] = words++; break;
+      }
+    }
+    this.words = words;
+    this.refs  = refs;
+  }
+
+  private static int kind(int typeId)
+  {
+    switch (typeId)
+    {
+      case Type.boolId:   return BOOL;
+      case Type.byteId:   return BYTE;
+      case Type.shortId:  return SHORT;
+      case Type.intId:    return INT;
+      case Type.longId:   return LONG;
+      case Type.floatId:  return FLOAT;
+      case Type.doubleId: return DOUBLE;
+      default:            return REF;
+    }
+  }
+
+//////////////////////////////////////////////////////////////////////////
+// Fields
+//////////////////////////////////////////////////////////////////////////
+
+  static final int REF    = 0;
+  static final int BOOL   = 1;
+  static final int BYTE   = 2;
+  static final int SHORT  = 3;
+  static final int INT    = 4;
+  static final int LONG   = 5;
+  static final int FLOAT  = 6;
+  static final int DOUBLE = 7;
+
+  /** Word of a null bool, false and true are 0 and 1 */
+  static final int BOOL_NULL = 2;
+
+  final byte[] kinds;    // kind by slot id
+  final int[] offsets;   // word or ref index by slot id
+  final int words;       // size of the int array
+  final int refs;        // size of the Value array
+
+}
@@ -194,6 +194,18 @@ public class Type
       if (slots[i].isRuntime()) acc.add(slots[i]);
     return (Slot[])acc.toArray(new Slot[acc.size()]);
   }              
+
+  /**
+   * Get the layout of packed components of this type, created
+   * the first time it is used.  Layouts are immutable, so threads
+   * racing to create it just end up with equal copies.
+   */
+  SlotLayout layout()
+  {
+    SlotLayout l = layout;
+    if (l == null) layout = l = new SlotLayout(slots);
+    return l;
+  }
   
   /**
    * Convenience for <code>facet(name, false)</code>. 
@@ -359,5 +371,6 @@ public class Type
   public Type base;             // base class type (treat as readonly)
   public Slot[] slots;          // by id; includes inheritance (treat as readonly)
   HashMap slotsByName;          // by name; includes inheritance
+  private SlotLayout layout;    // packed component storage, see layout()
 
 }
@@ -28,7 +28,10 @@ public interface DaspConst
 
   static final int SESSION_QUEUE_MAX = 2000;
   static final int SOCKET_QUEUE_MAX  = 10000;                     
-  static final long SEND_RETRY_VAL = 1000;  // ms
+  static final long SEND_RETRY_VAL = 1000;  // ms, until first rtt sample
+  static final long SEND_RETRY_MIN = 200;   // ms, floor of adaptive retry
+  static final long SEND_RETRY_MAX = 10000; // ms, ceiling of retry backoff
+  static final int  SEND_WINDOW_INIT = 4;   // msgs, initial congestion window
 
 ////////////////////////////////////////////////////////////////
 // Specification Defaults
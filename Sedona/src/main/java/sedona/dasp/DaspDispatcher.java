@@ -0,0 +1,162 @@
+//
+// Copyright (c) 2008 Tridium, Inc.
+// Licensed under the Academic Free License version 3.0
+//
+
+package sedona.dasp;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * DaspDispatcher moves the processing of received datagrams off
+ * the receiving threads onto a pool of worker threads, for sockets
+ * opened with the "dasp.dispatchThreads" option.  The receiving
+ * thread only decodes a datagram and hands it to the worker its
+ * session id hashes to, which then does the ack processing, window
+ * updates and queuing for the session.  All the datagrams of one
+ * session go to the same worker in the order they were received,
+ * so per session ordering is the same as with inline dispatch,
+ * while the sessions of a socket are spread over several cores.
+ *
+ * Each worker has its own receive queue.  If a worker falls so far
+ * behind that its queue is full, further datagrams for it are
+ * dropped like datagrams lost on the wire and recovered by the
+ * DASP retries.
+ */
+final class DaspDispatcher
+{
+
+////////////////////////////////////////////////////////////////
+// Constructor
+////////////////////////////////////////////////////////////////
+
+  DaspDispatcher(DaspSocket socket, int numThreads, int queueMax)
+  {
+    this.socket  = socket;
+    this.workers = new Worker[numThreads];
+    for (int i=0; i<workers.length; ++i)
+    {
+      workers[i] = new Worker(i, ReceiveQueue.make(queueMax, socket.lockFree));
+      workers[i].start();
+    }
+  }
+
+////////////////////////////////////////////////////////////////
+// Dispatch
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Hand a decoded message to the worker of its session,
+   * return false if the worker's queue is full.
+   */
+  boolean dispatch(DaspSocketInterface iface, InetAddress host, int port, DaspMessage msg)
+  {
+    msg.iface = iface;
+    msg.host  = host;
+    msg.port  = port;
+    try
+    {
+      workers[(msg.sessionId & 0xffff) % workers.length].queue.enqueue(msg);
+      return true;
+    }
+    catch (ReceiveQueue.FullException e)
+    {
+      msg.iface = null;
+      msg.host  = null;
+      dropped.increment();
+      return false;
+    }
+  }
+
+  /**
+   * Get the number of worker threads.
+   */
+  int numThreads()
+  {
+    return workers.length;
+  }
+
+  /**
+   * Get the number of datagrams dropped on full worker queues.
+   */
+  long dropped()
+  {
+    return dropped.sum();
+  }
+
+  /**
+   * Stop the workers, datagrams still queued are discarded.
+   */
+  void close()
+  {
+    for (int i=0; i<workers.length; ++i)
+      workers[i].queue.kill();
+  }
+
+////////////////////////////////////////////////////////////////
+// Worker
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Worker dispatches the messages on its queue to their sessions.
+   */
+  class Worker extends Thread
+  {
+    Worker(int index, ReceiveQueue queue)
+    {
+      super("DaspDispatcher-" + index);
+      setDaemon(true);
+      this.queue = queue;
+    }
+
+    public void run()
+    {
+      while (socket.isAlive)
+      {
+        DaspMessage msg;
+        try
+        {
+          msg = queue.dequeue(-1);
+        }
+        catch (InterruptedException e)
+        {
+          continue;
+        }
+        if (msg == null) break;
+
+        boolean queued = false;
+        try
+        {
+          DaspSocketInterface iface = msg.iface;
+          InetAddress host = msg.host;
+          msg.iface = null;
+          msg.host  = null;
+          queued = socket.dispatch(iface, host, msg.port, msg);
+        }
+        catch (Throwable e)
+        {
+          if (socket.isAlive) e.printStackTrace();
+        }
+        finally
+        {
+          if (!queued) msg.release();
+        }
+      }
+
+      // drop whatever was left behind
+      queue.clear();
+    }
+
+    final ReceiveQueue queue;
+  }
+
+////////////////////////////////////////////////////////////////
+// Fields
+////////////////////////////////////////////////////////////////
+
+  final DaspSocket socket;
+  final Worker[] workers;
+  private final LongAdder dropped = new LongAdder();
+
+}
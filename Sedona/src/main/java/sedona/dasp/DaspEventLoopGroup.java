@@ -0,0 +1,241 @@
+//
+// Copyright (c) 2008 Tridium, Inc.
+// Licensed under the Academic Free License version 3.0
+//
+
+package sedona.dasp;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * DaspEventLoopGroup is a small fixed set of event loop threads
+ * which multiplex the channels of many NioDaspSocketInterfaces.
+ * Each loop owns a Selector; an interface is bound to one loop
+ * (round robin) which reads and dispatches all of its datagrams
+ * and drives the DaspTimerWheel its sessions schedule their house
+ * keeping chores on.  So thousands of sessions spread over any
+ * number of sockets only cost a handful of threads instead of two
+ * threads per socket.
+ */
+public class DaspEventLoopGroup
+{
+
+////////////////////////////////////////////////////////////////
+// Constructor
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Get the group shared by interfaces created without
+   * an explicit group.  The number of threads is configured
+   * with the "dasp.nioThreads" property (default 2).
+   */
+  public static synchronized DaspEventLoopGroup shared()
+    throws IOException
+  {
+    if (shared == null || shared.isClosed())
+      shared = new DaspEventLoopGroup(sedona.Env.getProperty("dasp.nioThreads", 2));
+    return shared;
+  }
+  private static DaspEventLoopGroup shared;
+
+  /**
+   * Create a group with the specified number of event loop threads.
+   */
+  public DaspEventLoopGroup(int numThreads)
+    throws IOException
+  {
+    if (numThreads < 1) throw new IllegalArgumentException("numThreads < 1");
+    this.loops = new Loop[numThreads];
+    for (int i=0; i<loops.length; ++i)
+    {
+      loops[i] = new Loop(i);
+      loops[i].start();
+    }
+  }
+
+////////////////////////////////////////////////////////////////
+// Methods
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Get the number of event loop threads.
+   */
+  public int numThreads()
+  {
+    return loops.length;
+  }
+
+  /**
+   * Return if the group has been closed.
+   */
+  public boolean isClosed()
+  {
+    return !isAlive;
+  }
+
+  /**
+   * Stop all the event loop threads.  Interfaces still
+   * registered with the group stop receiving.
+   */
+  public void close()
+  {
+    isAlive = false;
+    for (int i=0; i<loops.length; ++i)
+      loops[i].selector.wakeup();
+  }
+
+  /**
+   * Bind an interface's channel to one of the event loops.
+   */
+  void register(NioDaspSocketInterface iface)
+  {
+    if (!isAlive) throw new IllegalStateException("DaspEventLoopGroup is closed");
+    Loop loop;
+    synchronized (this) { loop = loops[next++ % loops.length]; }
+    iface.loop = loop;
+    iface.timers = loop.timers;
+    synchronized (loop.pending) { loop.pending.add(iface); }
+    loop.selector.wakeup();
+  }
+
+////////////////////////////////////////////////////////////////
+// Loop
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Loop is one event loop thread.  New registrations are
+   * handed over through the pending list.  The sessions of
+   * all the loop's interfaces share its timer wheel, so the
+   * selector sleeps until a datagram arrives or a timer is due.
+   */
+  class Loop extends Thread
+  {
+    Loop(int index)
+      throws IOException
+    {
+      super("DaspEventLoop-" + index);
+      setDaemon(true);
+      this.selector = Selector.open();
+      this.timers = new DaspTimerWheel(new Runnable()
+      {
+        public void run() { selector.wakeup(); }
+      });
+    }
+
+    public void run()
+    {
+      // reusable datagram, the packet wraps the same array
+      // as the buffer so received data is never copied
+      byte[] buf = new byte[DaspConst.ABS_MAX_VAL];
+      ByteBuffer bb = ByteBuffer.wrap(buf);
+      DatagramPacket packet = new DatagramPacket(buf, buf.length);
+
+      while (isAlive)
+      {
+        try
+        {
+          registerPending();
+
+          long wait = timers.timeout(DaspSession.ticks());
+          if (wait < 0) selector.select();
+          else if (wait > 0) selector.select(wait);
+          else selector.selectNow();
+
+          Iterator it = selector.selectedKeys().iterator();
+          while (it.hasNext())
+          {
+            SelectionKey key = (SelectionKey)it.next();
+            it.remove();
+            if (key.isValid() && key.isReadable())
+              read((NioDaspSocketInterface)key.attachment(), bb, packet);
+          }
+
+          timers.advance(DaspSession.ticks());
+        }
+        catch (Throwable e)
+        {
+          if (isAlive) e.printStackTrace();
+        }
+      }
+
+      try { selector.close(); } catch (IOException e) {}
+    }
+
+    private void registerPending()
+    {
+      synchronized (pending)
+      {
+        for (int i=0; i<pending.size(); ++i)
+        {
+          NioDaspSocketInterface iface = (NioDaspSocketInterface)pending.get(i);
+          try
+          {
+            iface.channel.register(selector, SelectionKey.OP_READ, iface);
+          }
+          catch (ClosedChannelException e)
+          {
+            // closed before we got to it
+          }
+        }
+        pending.clear();
+      }
+    }
+
+    /**
+     * Read and dispatch the datagrams available on the interface's
+     * channel.  We read at most MAX_READS per wakeup so that a busy
+     * channel doesn't starve the others on this loop.
+     */
+    private void read(NioDaspSocketInterface iface, ByteBuffer bb, DatagramPacket packet)
+    {
+      DatagramChannel channel = iface.channel;
+      DaspSocket socket = iface.daspSocket;
+      for (int i=0; i<MAX_READS && socket.isAlive; ++i)
+      {
+        try
+        {
+          bb.clear();
+          InetSocketAddress from = (InetSocketAddress)channel.receive(bb);
+          if (from == null) return;
+
+          packet.setAddress(from.getAddress());
+          packet.setPort(from.getPort());
+          packet.setLength(bb.position());
+          socket.dispatch(iface, packet);
+        }
+        catch (ClosedChannelException e)
+        {
+          return;
+        }
+        catch (Throwable e)
+        {
+          if (socket.isAlive) e.printStackTrace();
+        }
+      }
+    }
+
+    final Selector selector;
+    final DaspTimerWheel timers;
+    final ArrayList pending = new ArrayList();  // registered, not yet on selector
+  }
+
+////////////////////////////////////////////////////////////////
+// Fields
+////////////////////////////////////////////////////////////////
+
+  static final int MAX_READS = 64;  // datagrams per channel per wakeup
+
+  final Loop[] loops;
+  volatile boolean isAlive = true;
+  private int next;
+
+}
@@ -0,0 +1,250 @@
+//
+// Copyright (c) 2008 Tridium, Inc.
+// Licensed under the Academic Free License version 3.0
+//
+
+package sedona.dasp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * DaspHistogram records the distribution of non-negative values
+ * such as latencies in a fixed set of buckets.  Values below 4 get
+ * a bucket each, above that every power of two range is split into
+ * four buckets, so a percentile is never off by more than a quarter
+ * of its value.  Values are clamped to 2^26.  Recording is an atomic
+ * increment without locks or allocation, so it may be left on
+ * permanently and called from any thread.
+ */
+public final class DaspHistogram
+{
+
+////////////////////////////////////////////////////////////////
+// Constructor
+////////////////////////////////////////////////////////////////
+
+  DaspHistogram()
+  {
+  }
+
+////////////////////////////////////////////////////////////////
+// Recording
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Record a value, negative values count as zero.
+   */
+  void record(long v)
+  {
+    if (v < 0) v = 0;
+    else if (v > MAX_VALUE) v = MAX_VALUE;
+    buckets.incrementAndGet(index(v));
+    sum.addAndGet(v);
+    long m;
+    while (v > (m = max.get()) && !max.compareAndSet(m, v)) {}
+  }
+
+  /**
+   * Add all the values recorded by h to this histogram.
+   */
+  void add(DaspHistogram h)
+  {
+    for (int i=0; i<NUM_BUCKETS; ++i)
+    {
+      long n = h.buckets.get(i);
+      if (n != 0) buckets.addAndGet(i, n);
+    }
+    sum.addAndGet(h.sum.get());
+    long v = h.max.get(), m;
+    while (v > (m = max.get()) && !max.compareAndSet(m, v)) {}
+  }
+
+  /**
+   * Get a copy of this histogram which isn't updated anymore.
+   */
+  public DaspHistogram snapshot()
+  {
+    DaspHistogram h = new DaspHistogram();
+    h.add(this);
+    return h;
+  }
+
+////////////////////////////////////////////////////////////////
+// Access
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Get the number of values recorded.
+   */
+  public long count()
+  {
+    long n = 0;
+    for (int i=0; i<NUM_BUCKETS; ++i) n += buckets.get(i);
+    return n;
+  }
+
+  /**
+   * Get the sum of the values recorded.
+   */
+  public long sum()
+  {
+    return sum.get();
+  }
+
+  /**
+   * Get the largest value recorded, or zero.
+   */
+  public long max()
+  {
+    return max.get();
+  }
+
+  /**
+   * Get the mean of the values recorded, or zero.
+   */
+  public double mean()
+  {
+    long n = count();
+    return n == 0 ? 0 : (double)sum.get() / n;
+  }
+
+  /**
+   * Get the value at or below which the fraction p (0.0 to 1.0)
+   * of the recorded values fall.  The result is the upper bound
+   * of the bucket the percentile falls into, or zero if nothing
+   * was recorded.  Use on a snapshot for consistent results.
+   */
+  public long percentile(double p)
+  {
+    long n = count();
+    if (n == 0) return 0;
+    long rank = Math.max(1, (long)Math.ceil(p * n));
+    long acc = 0;
+    for (int i=0; i<NUM_BUCKETS; ++i)
+    {
+      acc += buckets.get(i);
+      if (acc >= rank) return Math.min(upper(i), max.get());
+    }
+    return max.get();
+  }
+
+  public String toString()
+  {
+    return "count=" + count() + " mean=" + (long)mean() +
+      " p50=" + percentile(0.5) + " p99=" + percentile(0.99) + " max=" + max();
+  }
+
+////////////////////////////////////////////////////////////////
+// Buckets
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Get the bucket of a value between 0 and MAX_VALUE.
+   */
+  static int index(long v)
+  {
+    if (v < 4) return (int)v;
+    int e = 63 - Long.numberOfLeadingZeros(v);
+    return ((e - 1) << 2) + (int)((v >>> (e - 2)) & 3);
+  }
+
+  /**
+   * Get the smallest value of a bucket.
+   */
+  static long lower(int i)
+  {
+    if (i < 4) return i;
+    int e = (i >> 2) + 1;
+    return (long)(4 + (i & 3)) << (e - 2);
+  }
+
+  /**
+   * Get the largest value of a bucket.
+   */
+  static long upper(int i)
+  {
+    if (i < 4) return i;
+    return lower(i) + (1L << ((i >> 2) - 1)) - 1;
+  }
+
+////////////////////////////////////////////////////////////////
+// Test
+////////////////////////////////////////////////////////////////
+
+  public static void main(String[] args)
+  {
+    long t1 = System.currentTimeMillis();
+
+    // buckets are contiguous and within a quarter of their values
+    verify(index(0) == 0 && index(3) == 3 && index(4) == 4 && index(7) == 7);
+    verify(index(8) == 8 && index(9) == 8 && index(10) == 9 && index(15) == 11 && index(16) == 12);
+    verify(index(MAX_VALUE) == NUM_BUCKETS - 1 && upper(NUM_BUCKETS-1) == MAX_VALUE);
+    for (int i=0; i<NUM_BUCKETS; ++i)
+    {
+      verify(index(lower(i)) == i && index(upper(i)) == i);
+      if (i > 0) verify(lower(i) == upper(i-1) + 1);
+      verify(upper(i) - lower(i) <= lower(i) / 4);
+    }
+
+    // percentiles
+    DaspHistogram h = new DaspHistogram();
+    verify(h.count() == 0 && h.percentile(0.5) == 0 && h.mean() == 0);
+    for (int i=1; i<=1000; ++i) h.record(i);
+    verify(h.count() == 1000 && h.sum() == 500500 && h.max() == 1000);
+    long p50 = h.percentile(0.5), p99 = h.percentile(0.99);
+    verify(p50 >= 500 && p50 <= 500 * 5 / 4);
+    verify(p99 >= 990 && p99 <= 1000);
+    verify(h.percentile(1.0) == 1000 && h.percentile(0) == 1);
+    h.record(-5);
+    h.record(Long.MAX_VALUE);
+    verify(h.count() == 1002 && h.max() == MAX_VALUE && h.percentile(0) == 0);
+
+    // snapshots don't change, add merges
+    DaspHistogram s = h.snapshot();
+    h.record(7);
+    verify(s.count() == 1002 && h.count() == 1003);
+    s.add(h);
+    verify(s.count() == 2005 && s.max() == MAX_VALUE && s.sum() == 2 * h.sum() - 7);
+
+    // concurrent recorders lose nothing
+    final DaspHistogram c = new DaspHistogram();
+    Thread[] threads = new Thread[4];
+    for (int t=0; t<threads.length; ++t)
+    {
+      threads[t] = new Thread()
+      {
+        public void run() { for (int i=0; i<100000; ++i) c.record(i & 0xff); }
+      };
+      threads[t].start();
+    }
+    for (int t=0; t<threads.length; ++t)
+    {
+      try { threads[t].join(); } catch (InterruptedException e) {}
+    }
+    verify(c.count() == 400000 && c.max() == 0xff);
+
+    long t2 = System.currentTimeMillis();
+    System.out.println("  DaspHistogram Success: " + verifies + " verifies [" + (t2-t1) + "ms]");
+  }
+
+  private static void verify(boolean x)
+  {
+    if (!x) throw new RuntimeException();
+    verifies++;
+  }
+
+  private static int verifies;
+
+////////////////////////////////////////////////////////////////
+// Fields
+////////////////////////////////////////////////////////////////
+
+  static final long MAX_VALUE   = (1L << 26) - 1;
+  static final int  NUM_BUCKETS = index(MAX_VALUE) + 1;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+}
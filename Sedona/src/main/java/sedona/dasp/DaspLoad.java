@@ -0,0 +1,551 @@
+//
+// Copyright (c) 2008 Tridium, Inc.
+// Licensed under the Academic Free License version 3.0
+//
+
+package sedona.dasp;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import sedona.util.UserUtil;
+
+/**
+ * DaspLoad is a load generator for the DASP stack.  It simulates
+ * a number of devices, each a server DaspSocket on its own loopback
+ * UDP port which echoes every datagram it receives, and a number of
+ * clients, each a DaspSocket with a session to every device.  Every
+ * session keeps a window of requests outstanding, sending the next
+ * one as soon as a response arrives, for a warmup and then for the
+ * measured time.
+ *
+ * Once all the sessions are connected, datagrams pass through a
+ * simulated link which can drop them, delay them by a latency plus
+ * random jitter, and reorder them by holding some back while later
+ * ones overtake them.
+ *
+ * The report gives the round trips per second, the round trip
+ * latency percentiles, the CPU time of the whole process per round
+ * trip, and the retries, duplicates and backoffs of the sessions.
+ * Devices and clients run in the same process, so the CPU time
+ * covers both ends of each exchange.
+ *
+ * usage: DaspLoad [options], see usage().
+ */
+public class DaspLoad
+{
+
+////////////////////////////////////////////////////////////////
+// Main
+////////////////////////////////////////////////////////////////
+
+  public static void main(String[] args)
+    throws Exception
+  {
+    DaspLoad load = new DaspLoad();
+    for (int i=0; i<args.length; ++i)
+    {
+      String a = args[i];
+      if (a.equals("-lockFree")) { load.lockFree = true; continue; }
+      if (i+1 >= args.length || !a.startsWith("-")) { usage(); return; }
+      String v = args[++i];
+      if (a.equals("-devices"))      load.devices  = Integer.parseInt(v);
+      else if (a.equals("-clients")) load.clients  = Integer.parseInt(v);
+      else if (a.equals("-window"))  load.window   = Integer.parseInt(v);
+      else if (a.equals("-size"))    load.size     = Integer.parseInt(v);
+      else if (a.equals("-time"))    load.time     = (long)(Double.parseDouble(v) * 1000);
+      else if (a.equals("-warmup"))  load.warmup   = (long)(Double.parseDouble(v) * 1000);
+      else if (a.equals("-loss"))    load.loss     = Double.parseDouble(v);
+      else if (a.equals("-reorder")) load.reorder  = Double.parseDouble(v);
+      else if (a.equals("-latency")) load.latency  = Integer.parseInt(v);
+      else if (a.equals("-jitter"))  load.jitter   = Integer.parseInt(v);
+      else if (a.equals("-dispatch")) load.dispatchThreads = Integer.parseInt(v);
+      else { usage(); return; }
+    }
+    System.out.println(load.run());
+  }
+
+  public static void usage()
+  {
+    System.out.println();
+    System.out.println("usage:");
+    System.out.println("  DaspLoad [options]");
+    System.out.println("options:");
+    System.out.println("  -devices <n>      simulated devices (default 10)");
+    System.out.println("  -clients <n>      clients, each with a session to every device (default 1)");
+    System.out.println("  -window <n>       requests outstanding per session (default 4)");
+    System.out.println("  -size <bytes>     request and response payload size (default 64)");
+    System.out.println("  -time <sec>       measured time (default 10)");
+    System.out.println("  -warmup <sec>     warmup before measuring (default 2)");
+    System.out.println("  -loss <0-1>       fraction of datagrams dropped (default 0)");
+    System.out.println("  -reorder <0-1>    fraction of datagrams held back past later ones (default 0)");
+    System.out.println("  -latency <ms>     one way link latency (default 0)");
+    System.out.println("  -jitter <ms>      random extra latency up to (default 0)");
+    System.out.println("  -dispatch <n>     dispatch on n worker threads per socket (default 0, inline)");
+    System.out.println("  -lockFree         open the sockets with dasp.lockFree");
+    System.out.println();
+  }
+
+////////////////////////////////////////////////////////////////
+// Run
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Open the devices and connect the clients, drive the load
+   * for warmup and then for time, and return the results.
+   */
+  public Result run()
+    throws Exception
+  {
+    if (size < STAMP_SIZE) throw new IllegalArgumentException("size < " + STAMP_SIZE);
+
+    Hashtable sockOptions = new Hashtable();
+    sockOptions.put("dasp.lockFree", String.valueOf(lockFree));
+    sockOptions.put("dasp.dispatchThreads", String.valueOf(dispatchThreads));
+    final Hashtable options = new Hashtable();
+    DaspAcceptor acceptor = new DaspAcceptor()
+    {
+      public byte[] credentials(String u) { return u.equals(USER) ? UserUtil.credentials(USER, PASS) : null; }
+      public Hashtable options() { return options; }
+    };
+
+    link = new Link();
+    link.start();
+    ArrayList devs = new ArrayList();
+    ArrayList clis = new ArrayList();
+    try
+    {
+      for (int i=0; i<devices; ++i)
+      {
+        Device d = new Device(DaspSocket.open(new LinkInterface(), acceptor, DaspSocket.SOCKET_QUEUING, sockOptions));
+        devs.add(d);
+        d.start();
+      }
+
+      long t1 = System.currentTimeMillis();
+      for (int i=0; i<clients; ++i)
+      {
+        Client c = new Client(i, DaspSocket.open(new LinkInterface(), null, DaspSocket.SOCKET_QUEUING, sockOptions));
+        clis.add(c);
+        for (int j=0; j<devices; ++j)
+        {
+          Device d = (Device)devs.get(j);
+          c.socket.connect(LOCAL, d.port, USER, PASS, options);
+        }
+      }
+      long connectTime = System.currentTimeMillis() - t1;
+      link.impaired = true;
+
+      // every session starts with a full window of requests
+      for (int i=0; i<clis.size(); ++i)
+      {
+        Client c = (Client)clis.get(i);
+        c.start();
+        DaspSession[] sessions = c.socket.sessions();
+        for (int j=0; j<sessions.length; ++j)
+          for (int k=0; k<window; ++k)
+            c.request(sessions[j], new byte[size]);
+      }
+
+      Thread.sleep(warmup);
+      long cpu1 = cpuTime();
+      long n1 = System.nanoTime();
+      measuring = true;
+      Thread.sleep(time);
+      measuring = false;
+      long n2 = System.nanoTime();
+      long cpu2 = cpuTime();
+
+      Result r = new Result();
+      r.config      = toString();
+      r.connectTime = connectTime;
+      r.latency     = rtts.snapshot();
+      r.roundTrips  = r.latency.count();
+      r.seconds     = (n2 - n1) / 1e9;
+      r.cpuPerRoundTrip = cpu1 < 0 || r.roundTrips == 0 ? -1 : (cpu2 - cpu1) / r.roundTrips;
+      r.errors      = errors.sum();
+      r.dropped     = link.dropped.sum();
+      r.delayed     = link.delayed.sum();
+      for (int i=0; i<devs.size(); ++i) r.add(((Device)devs.get(i)).socket.metrics());
+      for (int i=0; i<clis.size(); ++i) r.add(((Client)clis.get(i)).socket.metrics());
+      return r;
+    }
+    finally
+    {
+      stopped = true;
+      for (int i=0; i<clis.size(); ++i) ((Client)clis.get(i)).shutdown();
+      for (int i=0; i<devs.size(); ++i) ((Device)devs.get(i)).shutdown();
+      link.interrupt();
+    }
+  }
+
+  /**
+   * Process CPU time in ns, or -1 if the JVM doesn't tell.
+   */
+  static long cpuTime()
+  {
+    OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    if (os instanceof com.sun.management.OperatingSystemMXBean)
+      return ((com.sun.management.OperatingSystemMXBean)os).getProcessCpuTime();
+    return -1;
+  }
+
+  public String toString()
+  {
+    return devices + " devices, " + clients + " clients, " + (devices * clients) + " sessions, window " +
+      window + ", " + size + " bytes, loss " + loss + ", reorder " + reorder + ", latency " +
+      latency + "ms, jitter " + jitter + "ms" + (lockFree ? ", lockFree" : "") +
+      (dispatchThreads > 0 ? ", " + dispatchThreads + " dispatch threads" : "");
+  }
+
+////////////////////////////////////////////////////////////////
+// Device
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Device echoes every datagram back to the session it came from.
+   */
+  class Device extends Thread
+  {
+    Device(DaspSocket socket)
+    {
+      super("DaspLoad.Device");
+      this.socket = socket;
+      this.port   = socket.interfaces()[0].localPort();
+      setDaemon(true);
+    }
+
+    public void run()
+    {
+      while (!stopped)
+      {
+        try
+        {
+          DaspMessage m = socket.receive(100);
+          if (m == null) continue;
+          try { m.session().send(m.payload()); }
+          finally { m.release(); }
+        }
+        catch (Exception e)
+        {
+          if (!stopped) errors.increment();
+        }
+      }
+    }
+
+    void shutdown()
+    {
+      socket.close();
+      try { join(1000); } catch (InterruptedException e) {}
+    }
+
+    final DaspSocket socket;
+    final int port;
+  }
+
+////////////////////////////////////////////////////////////////
+// Client
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Client times each response and answers it with the next request.
+   */
+  class Client extends Thread
+  {
+    Client(int id, DaspSocket socket)
+    {
+      super("DaspLoad.Client" + id);
+      this.socket = socket;
+      setDaemon(true);
+    }
+
+    public void run()
+    {
+      while (!stopped)
+      {
+        try
+        {
+          DaspMessage m = socket.receive(100);
+          if (m == null) continue;
+          try
+          {
+            byte[] p = m.payload();
+            if (measuring) rtts.record((System.nanoTime() - stamp(p)) / 1000);
+            if (!stopped) request(m.session(), p);
+          }
+          finally
+          {
+            m.release();
+          }
+        }
+        catch (Exception e)
+        {
+          if (!stopped) errors.increment();
+        }
+      }
+    }
+
+    /**
+     * Stamp the request with the time and send it.
+     */
+    void request(DaspSession s, byte[] p)
+      throws Exception
+    {
+      long t = System.nanoTime();
+      for (int i=0; i<STAMP_SIZE; ++i) p[i] = (byte)(t >>> (56 - 8*i));
+      s.send(p);
+    }
+
+    long stamp(byte[] p)
+    {
+      long t = 0;
+      for (int i=0; i<STAMP_SIZE; ++i) t = (t << 8) | (p[i] & 0xff);
+      return t;
+    }
+
+    void shutdown()
+    {
+      socket.close();
+      try { join(1000); } catch (InterruptedException e) {}
+    }
+
+    final DaspSocket socket;
+  }
+
+////////////////////////////////////////////////////////////////
+// Link
+////////////////////////////////////////////////////////////////
+
+  /**
+   * LinkInterface is a loopback UDP interface which sends
+   * through the simulated link.
+   */
+  class LinkInterface extends DaspSocketInterface
+  {
+    LinkInterface()
+      throws IOException
+    {
+      this.sock = new DatagramSocket(0, LOCAL);
+    }
+
+    public boolean routes(InetAddress addr, int port)
+    {
+      return true;
+    }
+
+    public int localPort()
+    {
+      return sock.getLocalPort();
+    }
+
+    public void send(DatagramPacket p)
+      throws IOException
+    {
+      link.send(sock, p);
+    }
+
+    protected void receive(DatagramPacket p)
+      throws IOException
+    {
+      sock.receive(p);
+    }
+
+    public void close()
+    {
+      sock.close();
+    }
+
+    final DatagramSocket sock;
+  }
+
+  /**
+   * Link drops, delays and reorders datagrams.  Delayed datagrams
+   * are copied and sent by the link thread when they are due, those
+   * due at the same time in the order they were sent.
+   */
+  class Link extends Thread
+  {
+    Link()
+    {
+      super("DaspLoad.Link");
+      setDaemon(true);
+    }
+
+    void send(DatagramSocket sock, DatagramPacket p)
+      throws IOException
+    {
+      if (!impaired) { sock.send(p); return; }
+
+      ThreadLocalRandom rand = ThreadLocalRandom.current();
+      if (loss > 0 && rand.nextDouble() < loss) { dropped.increment(); return; }
+
+      long delay = latency;
+      if (jitter > 0) delay += rand.nextInt(jitter + 1);
+      if (reorder > 0 && rand.nextDouble() < reorder)
+      {
+        delay += Math.max(REORDER_MIN, latency);
+        delayed.increment();
+      }
+      if (delay == 0) { sock.send(p); return; }
+
+      byte[] data = new byte[p.getLength()];
+      System.arraycopy(p.getData(), p.getOffset(), data, 0, data.length);
+      queue.put(new Pending(sock, new DatagramPacket(data, data.length, p.getAddress(), p.getPort()), delay));
+    }
+
+    public void run()
+    {
+      while (!stopped)
+      {
+        try
+        {
+          Pending x = (Pending)queue.take();
+          x.sock.send(x.packet);
+        }
+        catch (InterruptedException e)
+        {
+        }
+        catch (IOException e)
+        {
+          // socket closed under us
+        }
+      }
+    }
+
+    volatile boolean impaired;
+    final DelayQueue queue = new DelayQueue();
+    final LongAdder dropped = new LongAdder();
+    final LongAdder delayed = new LongAdder();
+    final AtomicLong order = new AtomicLong();
+
+    final class Pending implements Delayed
+    {
+      Pending(DatagramSocket sock, DatagramPacket packet, long delay)
+      {
+        this.sock   = sock;
+        this.packet = packet;
+        this.due    = System.nanoTime() + delay * 1000000L;
+        this.seq    = order.getAndIncrement();
+      }
+
+      public long getDelay(TimeUnit unit)
+      {
+        return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+      }
+
+      public int compareTo(Delayed o)
+      {
+        Pending x = (Pending)o;
+        if (due != x.due) return due < x.due ? -1 : 1;
+        return seq < x.seq ? -1 : (seq == x.seq ? 0 : 1);
+      }
+
+      final DatagramSocket sock;
+      final DatagramPacket packet;
+      final long due;
+      final long seq;
+    }
+  }
+
+////////////////////////////////////////////////////////////////
+// Result
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Result of a load run.
+   */
+  public static class Result
+  {
+    void add(DaspMetrics.Snapshot m)
+    {
+      retries    += m.retries;
+      duplicates += m.duplicates;
+      backoffs   += m.backoffs;
+      acks       += m.acks;
+    }
+
+    /**
+     * Round trips per second.
+     */
+    public double throughput()
+    {
+      return seconds > 0 ? roundTrips / seconds : 0;
+    }
+
+    public String toString()
+    {
+      StringBuffer s = new StringBuffer();
+      s.append("DaspLoad: ").append(config).append('\n')
+       .append("  connect:     ").append(connectTime).append("ms\n")
+       .append("  round trips: ").append(roundTrips).append(" in ").append((long)(seconds * 1000))
+         .append("ms [").append((long)throughput()).append("/sec]\n")
+       .append("  latency us:  p50=").append(latency.percentile(0.5))
+         .append(" p99=").append(latency.percentile(0.99))
+         .append(" max=").append(latency.max()).append('\n')
+       .append("  cpu:         ");
+      if (cpuPerRoundTrip < 0) s.append("n/a\n");
+      else s.append(cpuPerRoundTrip / 1000.0).append("us/round trip\n");
+      s.append("  link:        ").append(dropped).append(" dropped, ").append(delayed).append(" reordered\n")
+       .append("  dasp:        ").append(retries).append(" retries, ").append(duplicates).append(" duplicates, ")
+         .append(backoffs).append(" backoffs, ").append(acks).append(" standalone acks, ")
+         .append(errors).append(" errors");
+      return s.toString();
+    }
+
+    public String config;         // options of the run
+    public long connectTime;      // ms to connect all the sessions
+    public long roundTrips;       // measured round trips
+    public double seconds;        // measured time
+    public DaspHistogram latency; // round trip latency in us
+    public long cpuPerRoundTrip;  // process cpu ns per round trip or -1
+    public long dropped;          // datagrams dropped by the link
+    public long delayed;          // datagrams held back by the link
+    public long retries;          // summed over all sockets
+    public long duplicates;
+    public long backoffs;
+    public long acks;
+    public long errors;           // send and receive exceptions
+  }
+
+////////////////////////////////////////////////////////////////
+// Fields
+////////////////////////////////////////////////////////////////
+
+  static final InetAddress LOCAL = InetAddress.getLoopbackAddress();
+  static final String USER = "load";
+  static final String PASS = "load";
+  static final int STAMP_SIZE  = 8;   // request time at the start of each payload
+  static final int REORDER_MIN = 5;   // min ms a reordered datagram is held back
+
+  public int devices = 10;     // simulated devices
+  public int clients = 1;      // clients, each connects to every device
+  public int window = 4;       // requests outstanding per session
+  public int size = 64;        // payload bytes
+  public long time = 10000;    // measured ms
+  public long warmup = 2000;   // ms before measuring
+  public double loss;          // fraction of datagrams dropped
+  public double reorder;       // fraction of datagrams held back
+  public int latency;          // ms one way
+  public int jitter;           // max random extra ms
+  public boolean lockFree;     // sockets use dasp.lockFree
+  public int dispatchThreads;  // sockets use dasp.dispatchThreads
+
+  Link link;
+  volatile boolean measuring;
+  volatile boolean stopped;
+  final DaspHistogram rtts = new DaspHistogram();  // measured round trips in us
+  final LongAdder errors = new LongAdder();
+
+}
@@ -10,6 +10,7 @@
 package sedona.dasp;
 
 import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
 
 /**
  * DaspSessionMessage models a DASP message and is bound to a DaspSession.
@@ -32,6 +33,15 @@ public class DaspMessage extends DaspMsg
    */
   public DaspSession session() { return session; }
 
+  /**
+   * Called when the application takes the message off
+   * a receive queue to record how long it waited there.
+   */
+  void dequeued()
+  {
+    session.metrics.queueWait.record((System.nanoTime() - enqueued) / 1000);
+  }
+
   /**
    * String representation.
    */
@@ -49,4 +59,12 @@ public class DaspMessage extends DaspMsg
 
   // DaspSession
   DaspSession session;
+
+  // System.nanoTime() when put on a receive queue
+  long enqueued;
+
+  // where it came from while queued for a dispatch worker
+  DaspSocketInterface iface;
+  InetAddress host;
+  int port;
 }
@@ -0,0 +1,219 @@
+//
+// Copyright (c) 2008 Tridium, Inc.
+// Licensed under the Academic Free License version 3.0
+//
+
+package sedona.dasp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * DaspMetrics records the counters and latency histograms of a
+ * session as it runs.  Counters are LongAdders and histograms are
+ * DaspHistograms, so recording never blocks the sending and the
+ * receiving threads and is cheap enough to stay on in production.
+ *
+ * Applications read them through DaspSession.metrics() and
+ * DaspSocket.metrics(), which return a Snapshot along with the
+ * current gauges.  A socket's snapshot adds up the sessions still
+ * open and the ones already closed.
+ */
+public final class DaspMetrics
+{
+
+////////////////////////////////////////////////////////////////
+// Constructor
+////////////////////////////////////////////////////////////////
+
+  DaspMetrics()
+  {
+  }
+
+  /**
+   * Add everything recorded by m to these metrics.
+   */
+  void add(DaspMetrics m)
+  {
+    sent.add(m.sent.sum());
+    received.add(m.received.sum());
+    retries.add(m.retries.sum());
+    duplicates.add(m.duplicates.sum());
+    acks.add(m.acks.sum());
+    backoffs.add(m.backoffs.sum());
+    rtt.add(m.rtt);
+    sendBlocked.add(m.sendBlocked);
+    queueWait.add(m.queueWait);
+    retriesPerPacket.add(m.retriesPerPacket);
+  }
+
+////////////////////////////////////////////////////////////////
+// Snapshot
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Snapshot is a point in time copy of the metrics of a
+   * session or socket, with the gauges read at the same time.
+   * Gauges which only make sense per session are -1 in the
+   * snapshot of a socket.
+   */
+  public static final class Snapshot
+  {
+    Snapshot(DaspMetrics m, int sessions, int sendWindow, int sendInFlight,
+             int receiveQueue, int receiveQueuePeak,
+             long retryTimeout, long smoothedRtt, long rttVariation)
+    {
+      this.time             = System.currentTimeMillis();
+      this.sessions         = sessions;
+      this.sendWindow       = sendWindow;
+      this.sendInFlight     = sendInFlight;
+      this.receiveQueue     = receiveQueue;
+      this.receiveQueuePeak = receiveQueuePeak;
+      this.retryTimeout     = retryTimeout;
+      this.smoothedRtt      = smoothedRtt;
+      this.rttVariation     = rttVariation;
+      this.sent             = m.sent.sum();
+      this.received         = m.received.sum();
+      this.retries          = m.retries.sum();
+      this.duplicates       = m.duplicates.sum();
+      this.acks             = m.acks.sum();
+      this.backoffs         = m.backoffs.sum();
+      this.rtt              = m.rtt.snapshot();
+      this.sendBlocked      = m.sendBlocked.snapshot();
+      this.queueWait        = m.queueWait.snapshot();
+      this.retriesPerPacket = m.retriesPerPacket.snapshot();
+    }
+
+    /**
+     * Get the metrics as a flat map of names to Long and Double
+     * values, ready to be exported to a monitoring system.  Each
+     * histogram adds its count, mean, p50, p99 and max.
+     */
+    public Map toMap()
+    {
+      Map map = new LinkedHashMap();
+      map.put("sent",             Long.valueOf(sent));
+      map.put("received",         Long.valueOf(received));
+      map.put("retries",          Long.valueOf(retries));
+      map.put("duplicates",       Long.valueOf(duplicates));
+      map.put("acks",             Long.valueOf(acks));
+      map.put("backoffs",         Long.valueOf(backoffs));
+      map.put("sessions",         Long.valueOf(sessions));
+      map.put("sendWindow",       Long.valueOf(sendWindow));
+      map.put("sendInFlight",     Long.valueOf(sendInFlight));
+      map.put("receiveQueue",     Long.valueOf(receiveQueue));
+      map.put("receiveQueuePeak", Long.valueOf(receiveQueuePeak));
+      map.put("retryTimeout",     Long.valueOf(retryTimeout));
+      map.put("smoothedRtt",      Long.valueOf(smoothedRtt));
+      map.put("rttVariation",     Long.valueOf(rttVariation));
+      put(map, "rtt",              rtt);
+      put(map, "sendBlocked",      sendBlocked);
+      put(map, "queueWait",        queueWait);
+      put(map, "retriesPerPacket", retriesPerPacket);
+      return map;
+    }
+
+    private static void put(Map map, String name, DaspHistogram h)
+    {
+      map.put(name + ".count", Long.valueOf(h.count()));
+      map.put(name + ".mean",  Double.valueOf(h.mean()));
+      map.put(name + ".p50",   Long.valueOf(h.percentile(0.5)));
+      map.put(name + ".p99",   Long.valueOf(h.percentile(0.99)));
+      map.put(name + ".max",   Long.valueOf(h.max()));
+    }
+
+    public String toString()
+    {
+      StringBuffer s = new StringBuffer();
+      s.append("sent=").append(sent)
+       .append(" received=").append(received)
+       .append(" retries=").append(retries)
+       .append(" duplicates=").append(duplicates)
+       .append(" acks=").append(acks)
+       .append(" backoffs=").append(backoffs)
+       .append(" sessions=").append(sessions)
+       .append(" sendWindow=").append(sendInFlight).append('/').append(sendWindow)
+       .append(" receiveQueue=").append(receiveQueue).append(" (peak ").append(receiveQueuePeak).append(')');
+      if (smoothedRtt >= 0) s.append(" srtt=").append(smoothedRtt).append("ms");
+      s.append("\n  rtt ms:             ").append(rtt)
+       .append("\n  sendBlocked us:     ").append(sendBlocked)
+       .append("\n  queueWait us:       ").append(queueWait)
+       .append("\n  retriesPerPacket:   ").append(retriesPerPacket);
+      return s.toString();
+    }
+
+    /** System time in ms the snapshot was taken */
+    public final long time;
+
+    /** Datagrams and other messages sent, including retries */
+    public final long sent;
+
+    /** Messages received */
+    public final long received;
+
+    /** Datagrams resent because they weren't acked in time */
+    public final long retries;
+
+    /** Datagrams received again or outside the receive window */
+    public final long duplicates;
+
+    /** Keep-alives sent just to carry acks */
+    public final long acks;
+
+    /** Loss episodes which halved the congestion window */
+    public final long backoffs;
+
+    /** Gauge: number of open sessions */
+    public final int sessions;
+
+    /** Gauge: current send window size in datagrams */
+    public final int sendWindow;
+
+    /** Gauge: datagrams sent and not yet acked */
+    public final int sendInFlight;
+
+    /** Gauge: messages waiting in the receive queues */
+    public final int receiveQueue;
+
+    /** Gauge: peak size any receive queue has reached */
+    public final int receiveQueuePeak;
+
+    /** Gauge: retry timeout in ms for new datagrams, or -1 */
+    public final long retryTimeout;
+
+    /** Gauge: smoothed round trip time in ms, or -1 */
+    public final long smoothedRtt;
+
+    /** Gauge: round trip time variation in ms, or -1 */
+    public final long rttVariation;
+
+    /** Round trip time in ms of datagrams acked on their first send */
+    public final DaspHistogram rtt;
+
+    /** Time in us senders were blocked waiting for room in the send window */
+    public final DaspHistogram sendBlocked;
+
+    /** Time in us datagrams waited in the receive queue */
+    public final DaspHistogram queueWait;
+
+    /** Resends per datagram by the time it was acked */
+    public final DaspHistogram retriesPerPacket;
+  }
+
+////////////////////////////////////////////////////////////////
+// Fields
+////////////////////////////////////////////////////////////////
+
+  final LongAdder sent       = new LongAdder();
+  final LongAdder received   = new LongAdder();
+  final LongAdder retries    = new LongAdder();
+  final LongAdder duplicates = new LongAdder();
+  final LongAdder acks       = new LongAdder();
+  final LongAdder backoffs   = new LongAdder();
+  final DaspHistogram rtt              = new DaspHistogram();  // ms
+  final DaspHistogram sendBlocked      = new DaspHistogram();  // us
+  final DaspHistogram queueWait        = new DaspHistogram();  // us
+  final DaspHistogram retriesPerPacket = new DaspHistogram();
+
+}
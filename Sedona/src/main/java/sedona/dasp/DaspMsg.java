@@ -10,6 +10,7 @@ package sedona.dasp;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.DatagramPacket;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import sedona.dasp.DaspConst;
 import sedona.util.TextUtil;
@@ -98,6 +99,11 @@ public class DaspMsg implements DaspConst
 
   protected void doDecode(byte[] buf, final int length) throws UnsupportedEncodingException
   {
+    // a recycled message reuses its arrays if they fit exactly
+    byte[] oldAckMore = ackMore;
+    byte[] oldPayload = payload;
+    reset();
+
     // header
     sessionId = ((buf[0] & 0xff) << 8) | (buf[1] & 0xff);
     seqNum    = ((buf[2] & 0xff) << 8) | (buf[3] & 0xff);
@@ -126,7 +132,7 @@ public class DaspMsg implements DaspConst
           break;
         case 3:
           int blen = buf[pos++] & 0xff;
-          bytes = blen == 0 ? noBytes : new byte[blen];
+          bytes = blen == 0 ? noBytes : alloc(id == ACK_MORE ? oldAckMore : null, blen);
           System.arraycopy(buf, pos, bytes, 0, blen);
           pos += blen;
           break;
@@ -156,9 +162,43 @@ public class DaspMsg implements DaspConst
     
     // payload is whatever is left
     int len = length - pos;
-    payload = (len == 0) ? noBytes : new byte[len];
+    payload = (len == 0) ? noBytes : alloc(oldPayload, len);
     System.arraycopy(buf, pos, payload, 0, len);
   }
+
+  private static byte[] alloc(byte[] old, int len)
+  {
+    if (old != null && old.length == len && old != noBytes) return old;
+    return new byte[len];
+  }
+
+  /**
+   * Clear all the fields back to their defaults.
+   */
+  void reset()
+  {
+    sessionId       = -1;
+    msgType         = -1;
+    seqNum          = -1;
+    version         = -1;
+    remoteId        = -1;
+    digestAlgorithm = null;
+    nonce           = null;
+    username        = null;
+    digest          = null;
+    idealMax        = -1;
+    absMax          = -1;
+    ack             = -1;
+    ackMore         = null;
+    ackMoreBits     = 0;
+    ackMoreLen      = 0;
+    receiveMax      = -1;
+    receiveTimeout  = -1;
+    errorCode       = -1;
+    platformId      = null;
+    payload         = noBytes;
+    payloadLen      = -1;
+  }
   
 ////////////////////////////////////////////////////////////////
 // Encode
@@ -197,6 +237,7 @@ public class DaspMsg implements DaspConst
     if (hasAbsMax)               { num++; buf[pos++] = (byte)ABS_MAX;          pos = u2(pos, buf, absMax); }
     if (ack > -1)                { num++; buf[pos++] = (byte)ACK;              pos = u2(pos, buf, ack); }
     if (ackMore != null)         { num++; buf[pos++] = (byte)ACK_MORE;         pos = bytes(pos, buf, ackMore); }
+    else if (ackMoreLen > 0)     { num++; buf[pos++] = (byte)ACK_MORE;         pos = bits(pos, buf, ackMoreBits, ackMoreLen); }
     if (hasReceiveMax)           { num++; buf[pos++] = (byte)RECEIVE_MAX;      pos = u2(pos, buf, receiveMax); }
     if (hasReceiveTimeout)       { num++; buf[pos++] = (byte)RECEIVE_TIMEOUT;  pos = u2(pos, buf, (int)(receiveTimeout/1000L)); }
     if (errorCode > -1)          { num++; buf[pos++] = (byte)ERROR_CODE;       pos = u2(pos, buf, errorCode); }
@@ -207,8 +248,9 @@ public class DaspMsg implements DaspConst
 
     if (payload != null)
     {
-      System.arraycopy(payload, 0, buf, pos, payload.length);
-      pos += payload.length;
+      int len = payloadLength();
+      System.arraycopy(payload, 0, buf, pos, len);
+      pos += len;
     }
 
     return pos;
@@ -228,6 +270,18 @@ public class DaspMsg implements DaspConst
     return pos+val.length;
   }
 
+  /**
+   * Write the low len bytes of bits as a byte header, most
+   * significant first, the same as ReceiveWindow.toAckMore.
+   */
+  private int bits(int pos, byte[] buf, int bits, int len)
+  {
+    buf[pos++] = (byte)len;
+    for (int i=len-1; i>=0; --i)
+      buf[pos++] = (byte)(bits >>> (i*8));
+    return pos;
+  }
+
   private int str(int pos, byte[] buf, String val)
   {
     for (int i=0; i<val.length(); ++i)
@@ -319,6 +373,7 @@ public class DaspMsg implements DaspConst
    */
   public final void setPayload(byte[] payload)
   {
+    payloadLen = -1;
     if (payload == null || payload.length == 0)
       this.payload = noBytes;
     else
@@ -593,6 +648,7 @@ public class DaspMsg implements DaspConst
    */
   public final void setAckMore(byte[] ackMore)
   {
+    this.ackMoreLen = 0;
     if (ackMore == null)
       this.ackMore = null;
     else
@@ -645,6 +701,87 @@ public class DaspMsg implements DaspConst
   }
 
 
+  /**
+   * Get the number of payload bytes.  This is payload().length,
+   * except for messages the stack builds to send which refer to
+   * the start of a pooled buffer.
+   */
+  final int payloadLength()
+  {
+    return payloadLen >= 0 ? payloadLen : payload.length;
+  }
+
+  /**
+   * Get the payload as an array of exactly payloadLength() bytes.
+   */
+  final byte[] payloadBytes()
+  {
+    if (payloadLen < 0 || payloadLen == payload.length) return payload;
+    byte[] copy = new byte[payloadLen];
+    System.arraycopy(payload, 0, copy, 0, payloadLen);
+    return copy;
+  }
+
+  /**
+   * Set the ackMore header from the low len bytes of a bit
+   * mask, which is encoded without allocating an array.
+   */
+  final void setAckMore(int bits, int len)
+  {
+    this.ackMore     = null;
+    this.ackMoreBits = bits;
+    this.ackMoreLen  = len;
+  }
+
+////////////////////////////////////////////////////////////////
+// Reference Counting
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Messages received by a DaspSocket come from a pool.  The
+   * receiver of a message owns one reference to it; when it is
+   * done with the message and its payload it may release() it so
+   * the message is recycled for a later datagram.  Call retain()
+   * to hand an additional reference to another owner.  Releasing
+   * is optional: a message which is never released is just left
+   * to the garbage collector.  Messages created with the public
+   * constructors aren't pooled and release() only counts down.
+   *
+   * @return this
+   */
+  public final DaspMsg retain()
+  {
+    if (refs.getAndIncrement(this) <= 0)
+    {
+      refs.getAndDecrement(this);
+      throw new IllegalStateException("DaspMsg already released");
+    }
+    return this;
+  }
+
+  /**
+   * Release one reference to this message, see retain().
+   * The message must not be used after its last release.
+   */
+  public final void release()
+  {
+    int n = refs.decrementAndGet(this);
+    if (n < 0)
+    {
+      refs.incrementAndGet(this);
+      throw new IllegalStateException("DaspMsg already released");
+    }
+    if (n == 0 && pool != null) pool.free((DaspMessage)this);
+  }
+
+  /**
+   * Get the number of references to this message.
+   */
+  public final int refCount()
+  {
+    return refCount;
+  }
+
 ////////////////////////////////////////////////////////////////
 //Debug
 ////////////////////////////////////////////////////////////////
@@ -665,6 +802,7 @@ public class DaspMsg implements DaspConst
    if (absMax > -1)             out.println("  absMax          = " + absMax);
    if (ack > -1)                out.println("  ack             = " + ack);
    if (ackMore != null)         out.println("  ackMore         = " + toString(ackMore));
+   else if (ackMoreLen > 0)     out.println("  ackMore         = 0x" + Integer.toHexString(ackMoreBits));
    if (receiveMax > -1)         out.println("  receiveMax      = " + receiveMax);
    if (receiveTimeout > -1)     out.println("  receiveTimeout  = " + receiveTimeout);
    if (errorCode > -1)          out.println("  errorCode       = " + errorCode);
@@ -711,4 +849,14 @@ public class DaspMsg implements DaspConst
   
   // payload bytes
   protected byte[] payload = noBytes;
+
+  // stack internal
+  int payloadLen = -1;    // payload length if payload is a pooled buffer
+  int ackMoreBits;        // ackMore to encode if ackMore is null
+  int ackMoreLen;         // number of bytes of ackMoreBits
+  DaspPool pool;          // pool to recycle to or null
+  volatile int refCount = 1;
+
+  private static final AtomicIntegerFieldUpdater refs =
+    AtomicIntegerFieldUpdater.newUpdater(DaspMsg.class, "refCount");
 }
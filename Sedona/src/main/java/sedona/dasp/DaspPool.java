@@ -0,0 +1,199 @@
+//
+// Copyright (c) 2008 Tridium, Inc.
+// Licensed under the Academic Free License version 3.0
+//
+
+package sedona.dasp;
+
+/**
+ * DaspPool recycles the objects the DASP stack would otherwise
+ * allocate for every datagram: the DaspMessages decoded by the
+ * receive path and the fixed size payload buffers held by the
+ * SendWindow until a datagram is acked.  Each free list is a
+ * bounded stack; beyond "dasp.poolMax" (default 1024) entries
+ * released objects are left to the garbage collector.
+ */
+final class DaspPool
+{
+
+////////////////////////////////////////////////////////////////
+// Constructor
+////////////////////////////////////////////////////////////////
+
+  static final DaspPool shared = new DaspPool(sedona.Env.getProperty("dasp.poolMax", 1024));
+
+  DaspPool(int max)
+  {
+    this.messages = new DaspMessage[max];
+    this.buffers  = new byte[max][];
+  }
+
+////////////////////////////////////////////////////////////////
+// Messages
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Get a message with a reference count of one.
+   */
+  DaspMessage message()
+  {
+    DaspMessage m = null;
+    synchronized (this)
+    {
+      if (numMessages > 0)
+      {
+        m = messages[--numMessages];
+        messages[numMessages] = null;
+      }
+    }
+    if (m == null)
+    {
+      m = new DaspMessage();
+      m.pool = this;
+      synchronized (this) { messagesCreated++; }
+    }
+    m.refCount = 1;
+    return m;
+  }
+
+  /**
+   * Called by DaspMsg.release when the last reference is dropped.
+   */
+  void free(DaspMessage m)
+  {
+    m.session = null;
+    m.next = null;
+    synchronized (this)
+    {
+      if (numMessages < messages.length) messages[numMessages++] = m;
+    }
+  }
+
+////////////////////////////////////////////////////////////////
+// Buffers
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Get a payload buffer of BUFFER_SIZE bytes.
+   */
+  byte[] buffer()
+  {
+    synchronized (this)
+    {
+      if (numBuffers > 0)
+      {
+        byte[] b = buffers[--numBuffers];
+        buffers[numBuffers] = null;
+        return b;
+      }
+      buffersCreated++;
+    }
+    return new byte[BUFFER_SIZE];
+  }
+
+  /**
+   * Return a buffer allocated with buffer().
+   */
+  void free(byte[] b)
+  {
+    if (b.length != BUFFER_SIZE) return;
+    synchronized (this)
+    {
+      if (numBuffers < buffers.length) buffers[numBuffers++] = b;
+    }
+  }
+
+////////////////////////////////////////////////////////////////
+// Debug
+////////////////////////////////////////////////////////////////
+
+  synchronized int messagesCreated() { return messagesCreated; }
+  synchronized int buffersCreated() { return buffersCreated; }
+
+  public String toString()
+  {
+    synchronized (this)
+    {
+      return "DaspPool messages=" + numMessages + "/" + messagesCreated +
+        " buffers=" + numBuffers + "/" + buffersCreated;
+    }
+  }
+
+////////////////////////////////////////////////////////////////
+// Test
+////////////////////////////////////////////////////////////////
+
+  public static void main(String[] args)
+    throws Exception
+  {
+    long t1 = System.currentTimeMillis();
+    DaspPool pool = new DaspPool(2);
+
+    // released messages are recycled, arrays reused on decode
+    DaspMessage m = pool.message();
+    byte[] buf = { 0, 1, 0, 2, (byte)(DaspConst.DATAGRAM << 4), 'a', 'b', 'c' };
+    m.doDecode(buf, buf.length);
+    byte[] payload = m.payload();
+    verify(payload.length == 3 && payload[0] == 'a');
+    verify(m.retain() == m && m.refCount() == 2);
+    m.release();
+    verify(pool.message() != m);
+    m.release();
+    DaspMessage m2 = pool.message();
+    verify(m2 == m && m2.refCount() == 1);
+    buf[5] = 'x';
+    m2.doDecode(buf, buf.length);
+    verify(m2.payload() == payload && payload[0] == 'x');
+    verify(m2.sessionId() == 1 && m2.seqNum() == 2);
+
+    // double release and retain after release are errors
+    m2.release();
+    try { m2.release(); verify(false); } catch (IllegalStateException e) { verify(true); }
+    try { m2.retain(); verify(false); } catch (IllegalStateException e) { verify(true); }
+
+    // only up to max entries are kept
+    DaspMessage a = pool.message(), b = pool.message(), c = pool.message();
+    verify(pool.messagesCreated() == 4);
+    a.release(); b.release(); c.release();
+    verify(pool.message() == b);
+    verify(pool.message() == a);
+    verify(pool.message() != c);
+
+    // buffers
+    byte[] x = pool.buffer();
+    verify(x.length == BUFFER_SIZE);
+    pool.free(x);
+    pool.free(new byte[10]);
+    verify(pool.buffer() == x);
+
+    // messages which don't come from a pool just count down
+    DaspMsg plain = new DaspMsg();
+    plain.release();
+    verify(plain.refCount() == 0);
+
+    long t2 = System.currentTimeMillis();
+    System.out.println("  DaspPool Success: " + verifies + " verifies [" + (t2-t1) + "ms]");
+  }
+
+  private static void verify(boolean x)
+  {
+    if (!x) throw new RuntimeException();
+    verifies++;
+  }
+
+  private static int verifies;
+
+////////////////////////////////////////////////////////////////
+// Fields
+////////////////////////////////////////////////////////////////
+
+  static final int BUFFER_SIZE = DaspConst.ABS_MAX_VAL;
+
+  private final DaspMessage[] messages;
+  private final byte[][] buffers;
+  private int numMessages;
+  private int numBuffers;
+  private int messagesCreated;
+  private int buffersCreated;
+
+}
@@ -38,7 +38,7 @@ public class DaspSession
     this.port            = port;
     this.isClient        = isClient;
     this.isServer        = !isClient;
-    this.receiveQueue    = new ReceiveQueue(option(options, "dasp.sessionQueueMax", SESSION_QUEUE_MAX));
+    this.receiveQueue    = ReceiveQueue.make(option(options, "dasp.sessionQueueMax", SESSION_QUEUE_MAX), socket.lockFree);
     this.receiveWindow   = new ReceiveWindow(this);
     this.sendWindow      = new SendWindow(this);
     this.idealMax        = option(options, "dasp.idealMax",       IDEAL_MAX_DEF);
@@ -47,11 +47,18 @@ public class DaspSession
     this.connectTimeout  = option(options, "dasp.connectTimeout", CONNECT_TIMEOUT_VAL);
     sendWindow.sendRetry = option(options, "dasp.sendRetry",      SEND_RETRY_VAL);
     sendWindow.maxSend   = option(options, "dasp.maxSend",        MAX_SEND);
+    sendWindow.minRetry  = option(options, "dasp.minRetry",       SEND_RETRY_MIN);
+    sendWindow.maxRetry  = option(options, "dasp.maxRetry",       SEND_RETRY_MAX);
+    sendWindow.initWindow = option(options, "dasp.initWindow",    SEND_WINDOW_INIT);
+    this.ackDelay        = option(options, "dasp.ackDelay",       ACK_DELAY_DEF);
+    this.ackEvery        = option(options, "dasp.ackEvery",       ACK_EVERY_DEF);
     this.lastReceive     = ticks();
     this.connectTime     = ticks();
 
     test = (DaspTestHooks)options.get("dasp.test");
     if (test != null) test.session = this;
+
+    startTimers();
   }
 
   static boolean option(Hashtable options, String key, boolean def)
@@ -159,9 +166,7 @@ public class DaspSession
     throws Exception
   {
     if (isClosed) throw new DaspException("DaspSession is closed: " + closeCause);
-    byte[] payload = new byte[len];
-    System.arraycopy(buf, off, payload, 0, len);
-    sendWindow.send(payload);
+    sendWindow.send(buf, off, len);
   }
 
   /**
@@ -169,6 +174,8 @@ public class DaspSession
    * method blocks until a datagram has been received or
    * a timeout occurs.  Return null on timeout.  This
    * method can only be called if using session queuing.
+   * The caller may release() the message when done with
+   * it so it is recycled.
    *
    * @param timeout number of milliseconds to wait
    *    before timing out or -1 to wait forever.
@@ -183,6 +190,7 @@ public class DaspSession
     if (isClosed) throw new DaspException("DaspSession is closed: " + closeCause);
     if (msg == null) return null;
     if (msg.msgType != DATAGRAM) throw new DaspException("Invalid message received: " + msg.msgType);
+    msg.dequeued();
     return msg;
   }
 
@@ -285,6 +293,9 @@ public class DaspSession
       // kill send and receive queues
       sendWindow.kill();
       receiveQueue.kill();
+
+      // nothing more to keep house for
+      cancelTimers();
     }
   }
 
@@ -494,8 +505,9 @@ public class DaspSession
     this.absMax           = Math.min(x.absMax(), this.absMax);
     this.remoteReceiveMax = x.receiveMax();
     this.receiveTimeout   = Math.max(x.receiveTimeout(), this.receiveTimeout);
-    sendWindow.sendSize   = this.remoteReceiveMax;
+    sendWindow.open(this.remoteReceiveMax);
     receiveWindow.init(x.seqNum);
+    scheduleAck();
   }
 
 ////////////////////////////////////////////////////////////////
@@ -504,29 +516,36 @@ public class DaspSession
 
   /**
    * Dispatch a message for this session - this callback
-   * occurs on the DaspSocket Receiver thread.
+   * occurs on the DaspSocket Receiver thread.  Return true
+   * if the message was queued, otherwise the caller still
+   * owns it.
    */
-  void dispatch(DaspMessage msg)
+  boolean dispatch(DaspMessage msg)
   {
     // test hooks to drop received packets
-    if (test != null && !test.receive(msg.msgType, msg.seqNum, msg.payload)) return;
+    if (test != null && !test.receive(msg.msgType, msg.seqNum, msg.payload)) return false;
 
     // increment counter
-    numReceived++;
+    metrics.received.increment();
 
     // keep track of last time we message is received
     lastReceive = ticks();
 
     // authenticate is always immediately
     // processed on the receiver thread
-    if (msg.msgType == AUTHENTICATE) { welcome(msg); return; }
+    if (msg.msgType == AUTHENTICATE) { welcome(msg); return false; }
 
     // let send window check for acks
     sendWindow.checkAckHeaders(msg);
 
-    // if not within the receiving window then toss it
-    if (msg.msgType == DATAGRAM && !receiveWindow.receive(msg.seqNum))
-      return;
+    // if not within the receiving window then toss it, either
+    // way the remote endpoint is owed an ack
+    if (msg.msgType == DATAGRAM)
+    {
+      boolean inWindow = receiveWindow.receive(msg.seqNum);
+      scheduleAck();
+      if (!inWindow) { metrics.duplicates.increment(); return false; }
+    }
 
     // these message types just get stuck onto the queue
     switch (msg.msgType)
@@ -535,34 +554,33 @@ public class DaspSession
       // so the connecting thread can do the processing
       case CHALLENGE:
       case WELCOME:
-        enqueue(msg);
-        return;
+        return enqueue(msg);
 
       // close gets stuck on the queue during handshake
       // so the connecting thread can do the processing,
       // but we also shutdown the session (we don't use
       // close b/c we don't need to send the close msg)
       case CLOSE:
-        enqueue(msg);
+        boolean queued = enqueue(msg);
         shutdown("remote endpoint sent close (" + msg.errorCode + ")");
-        return;
+        return queued;
 
       // datagrams always stuck on the queue to
       // be dequeued in the receive method
       case DATAGRAM:
         if (socket.qMode == DaspSocket.SOCKET_QUEUING)
-          socket.enqueue(msg);
+          return socket.enqueue(msg);
         else
-          enqueue(msg);
-        return;
+          return enqueue(msg);
 
       // keep alives don't need further processing
       case KEEPALIVE:
-        return;
+        return false;
 
       // huh?
       default:
         System.out.println("DaspSession unexpected msgType=" + msg.msgType);
+        return false;
     }
   }
 
@@ -570,18 +588,21 @@ public class DaspSession
    * Enqueue a message for the session - if the queue is full then
    * we assume something bad has happened to the application processing
    * this queue, so we kill the session (we never want to block the
-   * socket receiver thread).
+   * socket receiver thread).  Return if the message was queued.
    */
-  void enqueue(DaspMessage msg)
+  boolean enqueue(DaspMessage msg)
   {
     try
     {
+      msg.enqueued = System.nanoTime();
       receiveQueue.enqueue(msg);
+      return true;
     }
     catch (ReceiveQueue.FullException e)
     {
       System.out.println("ERROR: DaspSession queue full!");
       close(TIMEOUT, "receive queue full");
+      return false;
     }
   }
 
@@ -590,34 +611,103 @@ public class DaspSession
 ////////////////////////////////////////////////////////////////
 
   /**
-   * House keeping is called every 100ms on a background thread
-   * shared by all sessions on a given socket.  House keeping is
-   * used to check for retries, acks, keep-alives, and timeouts.
+   * House keeping chores are scheduled on the timer wheel of
+   * the session's interface so they only run when due:
+   *   - receive timeout: if we haven't heard from the remote
+   *     endpoint in a while, then its curtains for this session
+   *   - keep-alive: send a keep-alive if we haven't sent
+   *     anything in receiveTimeout/3
+   *   - ack: send a keep-alive to carry the ack headers if
+   *     a received datagram hasn't been acked within ackDelay
+   * Retries and the unacked send timeout are scheduled per
+   * packet by the SendWindow.
+   */
+  private void startTimers()
+  {
+    timers = iface.timers;
+    if (timers == null) return;
+    timers.schedule(receiveTimer, lastReceive + receiveTimeout + 1);
+    timers.schedule(keepAliveTimer, connectTime + receiveTimeout/3 + 1);
+  }
+
+  private void cancelTimers()
+  {
+    if (timers == null) return;
+    timers.cancel(receiveTimer);
+    timers.cancel(keepAliveTimer);
+    timers.cancel(ackTimer);
+  }
+
+  /**
+   * Make sure an ack goes out within ackDelay, either piggy
+   * backed on a datagram we send or as a keep-alive.  Acks for
+   * datagrams received in the meantime are coalesced into it,
+   * unless ackEvery datagrams are waiting or one was received
+   * again, then the keep-alive is sent right away.  An ackDelay
+   * of zero acks every datagram as it is received.
    */
-  void houseKeeping()
+  void scheduleAck()
   {
-    // if we haven't heard from the remote endpoint in a
-    // while, then its curtains for this session
+    if (isClosed || !receiveWindow.unacked()) return;
+    int every = ackDelay <= 0 ? 1 : ackEvery;
+    if (receiveWindow.ackDue(every))
+    {
+      metrics.acks.increment();
+      keepAlive();
+    }
+    else if (timers != null)
+    {
+      timers.expedite(ackTimer, ticks() + ackDelay);
+    }
+  }
+
+  void checkReceiveTimeout()
+  {
+    if (isClosed) return;
     if (ticks() - lastReceive > receiveTimeout)
     {
       close(TIMEOUT, "receive timeout");
       return;
     }
+    timers.schedule(receiveTimer, lastReceive + receiveTimeout + 1);
+  }
+
+  void checkKeepAlive()
+  {
+    if (isClosed) return;
+    long period = receiveTimeout/3;
+    if (ticks() - lastSend > period) keepAlive();
+    timers.schedule(keepAliveTimer, lastSend + period + 1);
+  }
+
+  void checkAck()
+  {
+    if (!isClosed && receiveWindow.unacked())
+    {
+      metrics.acks.increment();
+      keepAlive();
+    }
+  }
 
-    // check for retries, if we've had something enqueued
-    // longer than receive time out, then the remote endpoint
-    // isn't acking anymore and we close the session
-    long oldestPacket = sendWindow.sendRetries();
-    if (oldestPacket > receiveTimeout)
+  /**
+   * SessionTimer routes a timer wheel callback to one
+   * of the check methods.
+   */
+  class SessionTimer extends DaspTimerWheel.Timer
+  {
+    SessionTimer(int kind) { this.kind = kind; }
+
+    void fire()
     {
-      close(TIMEOUT, "unacked send timeout");
-      return;
+      switch (kind)
+      {
+        case RECEIVE_TIMER:    checkReceiveTimeout(); break;
+        case KEEP_ALIVE_TIMER: checkKeepAlive(); break;
+        case ACK_TIMER:        checkAck(); break;
+      }
     }
 
-    // send keep-alive if we have pending acks or
-    // just haven't sent anything in a while
-    if (receiveWindow.unacked() || ticks() - lastSend > receiveTimeout/3)
-      keepAlive();
+    final int kind;
   }
 
   /**
@@ -625,12 +715,15 @@ public class DaspSession
    */
   void keepAlive()
   {
-    DaspMsg keepAlive = new DaspMsg();
-    keepAlive.msgType    = KEEPALIVE;
-    keepAlive.sessionId  = remoteId;
-    keepAlive.seqNum     = 0xffff;
-    receiveWindow.setAckHeaders(keepAlive);
-    send(keepAlive);
+    synchronized (keepAlive)
+    {
+      keepAlive.reset();
+      keepAlive.msgType    = KEEPALIVE;
+      keepAlive.sessionId  = remoteId;
+      keepAlive.seqNum     = 0xffff;
+      receiveWindow.setAckHeaders(keepAlive);
+      send(keepAlive);
+    }
   }
 
 ////////////////////////////////////////////////////////////////
@@ -640,12 +733,21 @@ public class DaspSession
   protected void send(DaspMsg msg)
   {
     lastSend = ticks();
-    if (test != null && !test.send(msg.msgType, msg.seqNum, msg.payload)) return;
+    if (test != null && !test.send(msg.msgType, msg.seqNum, msg.payloadBytes())) return;
     socket.send(this, msg);
   }
 
   static long ticks() { return sedona.Env.ticks(); }
 
+  /**
+   * Get the remote endpoint's socket address.
+   */
+  InetSocketAddress address()
+  {
+    if (address == null) address = new InetSocketAddress(host, port);
+    return address;
+  }
+
 ////////////////////////////////////////////////////////////////
 // Debug
 ////////////////////////////////////////////////////////////////
@@ -653,13 +755,32 @@ public class DaspSession
   public long uptime()          { return ticks() - connectTime; }
   public long lastSend()        { return lastSend; }
   public long lastReceive()     { return lastReceive; }
-  public int numSent()          { return numSent; }
-  public int numReceived()      { return numReceived; }
-  public int numRetries()       { return numRetries; }
+  public int numSent()          { return (int)metrics.sent.sum(); }
+  public int numReceived()      { return (int)metrics.received.sum(); }
+  public int numRetries()       { return (int)metrics.retries.sum(); }
+  public int numAcks()          { return (int)metrics.acks.sum(); }
   public int sendWindowSize()   { return sendWindow.sendSize; }
-  public long sendWindowRetry() { return sendWindow.sendRetry; }
+  public int sendWindowMax()    { return sendWindow.maxSize; }
+  public int sendUnacked()      { return sendWindow.size(); }
+  public int slowStartThreshold() { return (int)sendWindow.ssthresh; }
+  public long sendWindowRetry() { return sendWindow.rto; }
+  public long rtt()             { return sendWindow.srtt8 < 0 ? -1 : sendWindow.srtt8 >> 3; }
+  public long rttVariation()    { return sendWindow.srtt8 < 0 ? -1 : sendWindow.rttVar4 >> 2; }
+  public int numBackoffs()      { return (int)metrics.backoffs.sum(); }
   public int[] ackTimes()       { return (int[])sendWindow.ackTimes.clone(); }
 
+  /**
+   * Get a snapshot of the session's counters, gauges and
+   * latency histograms.
+   */
+  public DaspMetrics.Snapshot metrics()
+  {
+    return new DaspMetrics.Snapshot(metrics, isClosed ? 0 : 1,
+      sendWindow.sendSize, sendWindow.size(),
+      receiveQueue.size(), receiveQueue.peak(),
+      sendWindow.rto, rtt(), rttVariation());
+  }
+
 ////////////////////////////////////////////////////////////////
 // Listeners
 ////////////////////////////////////////////////////////////////
@@ -676,6 +797,12 @@ public class DaspSession
   static final boolean CLIENT = true;
   static final boolean SERVER = false;
 
+  static final long ACK_DELAY_DEF = 100; // ms before a pending ack is sent alone
+  static final int ACK_EVERY_DEF  = 2;   // datagrams before an ack is sent alone
+  static final int RECEIVE_TIMER    = 0;
+  static final int KEEP_ALIVE_TIMER = 1;
+  static final int ACK_TIMER        = 2;
+
   public final int id;             // local session id
   public final boolean isClient;   // true for client, false for server
   public final boolean isServer;   // false for client, true for server
@@ -690,9 +817,9 @@ public class DaspSession
   public boolean traceReceive;     // trace messages for session
   int remoteId;                    // remote session id
   volatile boolean isClosed;       // has the session been closed
-  int numSent;                     // number packets sent
-  int numReceived;                 // number packets sent
-  int numRetries;                  // number of retries
+  final DaspMetrics metrics = new DaspMetrics();  // counters and histograms
+  long ackDelay;                   // max ms an ack waits to be piggy backed
+  int ackEvery;                    // datagrams received before acking alone
   String closeCause = "???";       // why was the session closed
   String user;                     // username
   String pass;                     // password client side only
@@ -708,5 +835,11 @@ public class DaspSession
   long connectTime;                // ticks we connected
   long lastSend;                   // ms ticks
   long lastReceive;                // ms ticks
+  DaspTimerWheel timers;           // house keeping timers of iface
+  final SessionTimer receiveTimer   = new SessionTimer(RECEIVE_TIMER);
+  final SessionTimer keepAliveTimer = new SessionTimer(KEEP_ALIVE_TIMER);
+  final SessionTimer ackTimer       = new SessionTimer(ACK_TIMER);
+  final DaspMsg keepAlive           = new DaspMsg();  // scratch keep-alive message
+  InetSocketAddress address;       // cached host and port
 
 }
@@ -0,0 +1,269 @@
+//
+// Copyright (c) 2008 Tridium, Inc.
+// Licensed under the Academic Free License version 3.0
+//
+
+package sedona.dasp;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * DaspSessionTable maps the 16-bit session ids of a socket to
+ * their sessions.  Since the key space is so small, ids index
+ * straight into a two level table of 256 pages of 256 slots, the
+ * pages allocated as ids in their range are first used.  Lookups
+ * by the receiving threads never lock or box the id.
+ *
+ * Ids are handed out by an allocator with constant cost however
+ * full the table is: fresh ids are taken in sequence from a random
+ * start until all 0xffff have been used once, after that freed ids
+ * are reused in the order they were freed.  So an id is reused as
+ * late as possible, and stale datagrams for a closed session are
+ * unlikely to reach a new one.  Allocating and freeing ids take
+ * the table's lock.
+ */
+final class DaspSessionTable
+{
+
+////////////////////////////////////////////////////////////////
+// Constructor
+////////////////////////////////////////////////////////////////
+
+  DaspSessionTable(int max, Random rand)
+  {
+    this.max    = max;
+    this.next   = rand.nextInt(NUM_IDS);
+    this.unused = NUM_IDS;
+    this.freed  = new short[64];
+  }
+
+////////////////////////////////////////////////////////////////
+// Lookup
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Get the session with the given id or null.
+   */
+  DaspSession get(int id)
+  {
+    if (id < 0 || id >= NUM_IDS) return null;
+    AtomicReferenceArray page = (AtomicReferenceArray)pages.get(id >>> 8);
+    if (page == null) return null;
+    return (DaspSession)page.get(id & 0xff);
+  }
+
+  /**
+   * Get the number of sessions in the table.
+   */
+  synchronized int size()
+  {
+    return size;
+  }
+
+  /**
+   * Get a snapshot of all the sessions in the table.
+   */
+  DaspSession[] sessions()
+  {
+    DaspSession[] acc = new DaspSession[size()];
+    int n = 0;
+    for (int i=0; i<pages.length(); ++i)
+    {
+      AtomicReferenceArray page = (AtomicReferenceArray)pages.get(i);
+      if (page == null) continue;
+      for (int j=0; j<PAGE_SIZE; ++j)
+      {
+        DaspSession s = (DaspSession)page.get(j);
+        if (s == null) continue;
+        if (n == acc.length)
+        {
+          DaspSession[] temp = new DaspSession[n*2+1];
+          System.arraycopy(acc, 0, temp, 0, n);
+          acc = temp;
+        }
+        acc[n++] = s;
+      }
+    }
+    if (n == acc.length) return acc;
+    DaspSession[] result = new DaspSession[n];
+    System.arraycopy(acc, 0, result, 0, n);
+    return result;
+  }
+
+////////////////////////////////////////////////////////////////
+// Allocation
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Reserve a free id, or return -1 if the table already
+   * holds max sessions.
+   */
+  synchronized int reserve()
+  {
+    if (size >= max) return -1;
+
+    int id;
+    if (unused > 0)
+    {
+      id = next;
+      next = next + 1 == NUM_IDS ? 0 : next + 1;
+      unused--;
+    }
+    else
+    {
+      id = freed[freedHead] & 0xffff;
+      freedHead = (freedHead + 1) & (freed.length - 1);
+      numFreed--;
+    }
+    size++;
+
+    // make sure the id's page exists before put
+    int p = id >>> 8;
+    if (pages.get(p) == null) pages.set(p, new AtomicReferenceArray(PAGE_SIZE));
+    return id;
+  }
+
+  /**
+   * Put the session under the id it reserved.
+   */
+  void put(DaspSession s)
+  {
+    ((AtomicReferenceArray)pages.get(s.id >>> 8)).set(s.id & 0xff, s);
+  }
+
+  /**
+   * Remove the session if it is still in the table and make
+   * its id available for reuse.  Return if it was removed.
+   */
+  boolean remove(DaspSession s)
+  {
+    AtomicReferenceArray page = (AtomicReferenceArray)pages.get(s.id >>> 8);
+    if (page == null || !page.compareAndSet(s.id & 0xff, s, null)) return false;
+    release(s.id);
+    return true;
+  }
+
+  /**
+   * Give back a reserved id.
+   */
+  synchronized void release(int id)
+  {
+    if (numFreed == freed.length)
+    {
+      // grow the ring, unrolling it to start at zero
+      short[] temp = new short[freed.length * 2];
+      for (int i=0; i<numFreed; ++i)
+        temp[i] = freed[(freedHead + i) & (freed.length - 1)];
+      freed = temp;
+      freedHead = 0;
+    }
+    freed[(freedHead + numFreed) & (freed.length - 1)] = (short)id;
+    numFreed++;
+    size--;
+  }
+
+////////////////////////////////////////////////////////////////
+// Test
+////////////////////////////////////////////////////////////////
+
+  public static void main(String[] args)
+    throws Exception
+  {
+    long t1 = System.currentTimeMillis();
+    DaspSocket sock = DaspSocket.open(-1, null, DaspSocket.SESSION_QUEUING);
+    try
+    {
+      DaspSocketInterface iface = sock.interfaces[0];
+      java.util.Hashtable options = new java.util.Hashtable();
+
+      // fresh ids in sequence from a random start, wrapping at 0xffff
+      DaspSessionTable t = new DaspSessionTable(3, new Random(1));
+      t.next = NUM_IDS - 2;
+      DaspSession a = session(t, iface, options);
+      DaspSession b = session(t, iface, options);
+      DaspSession c = session(t, iface, options);
+      verify(a.id == 0xfffd && b.id == 0xfffe && c.id == 0);
+      verify(t.get(a.id) == a && t.get(b.id) == b && t.get(0) == c);
+      verify(t.get(1) == null && t.get(0xffff) == null && t.get(-1) == null && t.get(70000) == null);
+      verify(t.size() == 3 && t.sessions().length == 3);
+
+      // full
+      verify(t.reserve() == -1);
+      verify(t.remove(b));
+      verify(t.get(b.id) == null && t.size() == 2);
+      verify(!t.remove(b));
+      verify(t.size() == 2);
+      DaspSession d = session(t, iface, options);
+      verify(d.id == 1);
+
+      // once every id was used once, freed ids come back in order
+      t = new DaspSessionTable(NUM_IDS, new Random(2));
+      boolean[] seen = new boolean[NUM_IDS];
+      DaspSession[] all = new DaspSession[NUM_IDS];
+      for (int i=0; i<NUM_IDS; ++i)
+      {
+        int id = t.reserve();
+        verify(!seen[id]);
+        seen[id] = true;
+        t.release(id);
+      }
+      verify(t.size() == 0 && t.unused == 0 && t.numFreed == NUM_IDS);
+      for (int i=0; i<100; ++i)
+      {
+        int id = t.reserve();
+        verify(id == (t.next + i) % NUM_IDS);
+      }
+      verify(t.reserve() != -1);
+
+      // sessions is a snapshot of the table
+      t = new DaspSessionTable(100, new Random(3));
+      for (int i=0; i<50; ++i) all[i] = session(t, iface, options);
+      for (int i=0; i<50; i+=2) t.remove(all[i]);
+      DaspSession[] snap = t.sessions();
+      verify(snap.length == 25);
+      java.util.HashSet set = new java.util.HashSet(java.util.Arrays.asList(snap));
+      for (int i=0; i<50; ++i) verify(set.contains(all[i]) == (i % 2 == 1));
+    }
+    finally
+    {
+      sock.close();
+    }
+    long t2 = System.currentTimeMillis();
+    System.out.println("  DaspSessionTable Success: " + verifies + " verifies [" + (t2-t1) + "ms]");
+  }
+
+  private static DaspSession session(DaspSessionTable t, DaspSocketInterface iface, java.util.Hashtable options)
+  {
+    int id = t.reserve();
+    DaspSession s = new DaspSession(iface, id, null, 0, true, options);
+    t.put(s);
+    s.shutdown("test");
+    return s;
+  }
+
+  private static void verify(boolean x)
+  {
+    if (!x) throw new RuntimeException();
+    verifies++;
+  }
+
+  private static int verifies;
+
+////////////////////////////////////////////////////////////////
+// Fields
+////////////////////////////////////////////////////////////////
+
+  static final int NUM_IDS   = 0xffff;   // 0xffff itself is reserved
+  static final int PAGE_SIZE = 256;
+
+  private final AtomicReferenceArray pages = new AtomicReferenceArray(NUM_IDS / PAGE_SIZE + 1);
+  private final int max;
+  private int size;        // reserved ids
+  private int next;        // next fresh id
+  private int unused;      // fresh ids left
+  private short[] freed;   // ring of freed ids, power of two length
+  private int freedHead;
+  private int numFreed;
+
+}
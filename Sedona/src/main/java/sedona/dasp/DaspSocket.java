@@ -53,32 +53,104 @@ public class DaspSocket
     if (queuingMode != SOCKET_QUEUING && queuingMode != SESSION_QUEUING)
       throw new IllegalArgumentException("invalid queueingMode");
       
-    DaspSocket s = new DaspSocket(acceptor, queuingMode);
-    s.addInterface(new DefaultDaspSocketInterface(port));
-    return s;                                                                        
+    return open(new DefaultDaspSocketInterface(port), acceptor, queuingMode);
   }                
+
+  /**
+   * Open a socket like open(int, DaspAcceptor, int), but using the
+   * specified interface as the default interface - for example a
+   * NioDaspSocketInterface to share event loop threads with other
+   * sockets.
+   */
+  public static DaspSocket open(DaspSocketInterface iface, DaspAcceptor acceptor, int queuingMode)
+    throws Exception
+  {
+    if (queuingMode != SOCKET_QUEUING && queuingMode != SESSION_QUEUING)
+      throw new IllegalArgumentException("invalid queueingMode");
+
+    DaspSocket s = new DaspSocket(acceptor, queuingMode);
+    s.addInterface(iface);
+    return s;
+  }
+
+  /**
+   * Open a socket like open(DaspSocketInterface, DaspAcceptor, int),
+   * but configured by the specified socket options instead of the
+   * acceptor's options or the environment's properties:
+   *   - dasp.socketQueueMax: backlog of the socket queue
+   *   - dasp.lockFree: use the lock free receive queues and send
+   *     windows, see isLockFree()
+   *   - dasp.dispatchThreads: process received datagrams on this
+   *     many session affine worker threads, see dispatchThreads()
+   *   - dasp.dispatchQueueMax: backlog of each worker's queue
+   *   - dasp.traceSend, dasp.traceReceive: debug tracing
+   */
+  public static DaspSocket open(DaspSocketInterface iface, DaspAcceptor acceptor, int queuingMode, Hashtable options)
+    throws Exception
+  {
+    if (queuingMode != SOCKET_QUEUING && queuingMode != SESSION_QUEUING)
+      throw new IllegalArgumentException("invalid queueingMode");
+
+    DaspSocket s = new DaspSocket(acceptor, queuingMode, options);
+    s.addInterface(iface);
+    return s;
+  }
   
   protected DaspSocket(DaspAcceptor a, int qMode)
   {
-    Hashtable options = Env.getProperties();
-    if (a != null) options = a.options();
-    
+    this(a, qMode, a != null ? a.options() : Env.getProperties());
+  }
+
+  protected DaspSocket(DaspAcceptor a, int qMode, Hashtable options)
+  {
     this.acceptor       = a;  
     this.isAlive        = true;
-    this.sessions       = new HashMap(300);      
     this.rand           = new Random();     
+    this.sessions       = new DaspSessionTable(MAX_SESSIONS_VAL, rand);      
     this.interfacesLock = new Object();  
     this.interfaces     = new DaspSocketInterface[0]; 
     this.qMode          = qMode;      
-    this.queue          = new ReceiveQueue(DaspSession.option(options, "dasp.socketQueueMax", SOCKET_QUEUE_MAX));   
+    this.lockFree       = DaspSession.option(options, "dasp.lockFree", false);   
+    this.queue          = ReceiveQueue.make(DaspSession.option(options, "dasp.socketQueueMax", SOCKET_QUEUE_MAX), lockFree);   
     this.traceSend      = DaspSession.option(options, "dasp.traceSend", false);   
     this.traceReceive   = DaspSession.option(options, "dasp.traceReceive", false);   
+
+    int threads = DaspSession.option(options, "dasp.dispatchThreads", 0);
+    if (threads > 0)
+      this.dispatcher = new DaspDispatcher(this, threads, DaspSession.option(options, "dasp.dispatchQueueMax", DISPATCH_QUEUE_MAX));
   }
     
 ////////////////////////////////////////////////////////////////
 // Methods
 ////////////////////////////////////////////////////////////////
 
+  /**
+   * Return if this socket's sessions use lock free receive queues
+   * and send windows: receiving threads enqueue onto a ring buffer
+   * by CAS, and senders reserve room in the window by CAS and park
+   * when it is full, rather than all of them synchronizing on one
+   * monitor.  Configured by the "dasp.lockFree" option, off by
+   * default.
+   */
+  public boolean isLockFree()
+  {
+    return lockFree;
+  }
+
+  /**
+   * Get the number of worker threads received datagrams are
+   * processed on, or 0 if they are processed inline by the
+   * interfaces' receiving threads.  Each session is bound to
+   * one worker by its id, so its datagrams are still processed
+   * one at a time in the order received, but the sessions are
+   * spread over the workers.  Configured by the
+   * "dasp.dispatchThreads" option, 0 by default.
+   */
+  public int dispatchThreads()
+  {
+    return dispatcher == null ? 0 : dispatcher.numThreads();
+  }
+
   /**
    * Return if this socket is setup for session based 
    * queuing or socket based queuing.
@@ -179,10 +251,36 @@ public class DaspSocket
    */
   public DaspSession[] sessions()
   {                    
-    synchronized (sessions)
+    return sessions.sessions();
+  }
+
+  /**
+   * Get a snapshot of the counters and latency histograms of all
+   * the sessions of this socket, the open ones and the ones closed
+   * since it was opened.  The gauges are summed up over the open
+   * sessions, the peak receive queue size is the largest of them.
+   */
+  public DaspMetrics.Snapshot metrics()
+  {
+    DaspMetrics m = new DaspMetrics();
+    m.add(closed);
+    DaspSession[] list = sessions();
+    int window = 0, inFlight = 0, queued = 0, peak = 0;
+    for (int i=0; i<list.length; ++i)
+    {
+      DaspSession s = list[i];
+      m.add(s.metrics);
+      window   += s.sendWindow.sendSize;
+      inFlight += s.sendWindow.size();
+      queued   += s.receiveQueue.size();
+      peak      = Math.max(peak, s.receiveQueue.peak());
+    }
+    if (qMode == SOCKET_QUEUING)
     {
-      return (DaspSession[])sessions.values().toArray(new DaspSession[sessions.size()]); 
+      queued = queue.size();
+      peak   = queue.peak();
     }
+    return new DaspMetrics.Snapshot(m, list.length, window, inFlight, queued, peak, -1, -1, -1);
   }
 
   /**
@@ -190,10 +288,7 @@ public class DaspSocket
    */
   public DaspSession session(int id)
   {
-    synchronized (sessions)
-    {
-      return (DaspSession)sessions.get(new Integer(id)); 
-    }
+    return sessions.get(id);
   }     
 
   /**
@@ -201,7 +296,7 @@ public class DaspSocket
    */
   public int port()                             
   {
-    return ((DefaultDaspSocketInterface)interfaces[0]).sock.getLocalPort();
+    return interfaces[0].localPort();
   }
   
   /**
@@ -231,8 +326,9 @@ public class DaspSocket
       }     
     } 
         
-    // close down interfaces
+    // close down interfaces and dispatch workers
     this.isAlive = false;
+    if (dispatcher != null) dispatcher.close();
     DaspSocketInterface[] interfaces = interfaces();
     for (int i=0; i<interfaces.length; ++i)
     {
@@ -284,6 +380,8 @@ public class DaspSocket
    * method blocks until a datagram has been received or
    * a timeout occurs.  Return null on timeout.  This
    * method can only be called if using socket queuing.
+   * The caller may release() the message when done with
+   * it so it is recycled.
    *
    * @param timeout number of milliseconds to wait
    *    before timing out or -1 to wait forever.
@@ -297,22 +395,27 @@ public class DaspSocket
     DaspMessage msg = queue.dequeue(timeout);
     if (msg == null) return null;
     if (msg.msgType != DATAGRAM) throw new DaspException("Invalid message received: " + msg.msgType);
+    msg.dequeued();
     return msg;
   }                           
 
   /**
    * Enqueue a message for the socket - if the 
    * queue is full then we have big problems.
+   * Return if the message was queued.
    */
-  void enqueue(DaspMessage msg)
+  boolean enqueue(DaspMessage msg)
   {
     try
     {                    
+      msg.enqueued = System.nanoTime();
       queue.enqueue(msg);
+      return true;
     }
     catch (ReceiveQueue.FullException e)
     { 
       System.out.println("ERROR: DaspSocket queue full!");
+      return false;
     }
   }
     
@@ -333,9 +436,30 @@ public class DaspSocket
     byte[] buf       = packet.getData();
     int len          = packet.getLength();  
 
-    // parse into Msg
-    DaspMessage msg = new DaspMessage(buf, len);
-    
+    // parse into a pooled Msg, which we release unless the
+    // session queued it or it was handed to a dispatch worker
+    DaspMessage msg = DaspPool.shared.message();
+    boolean queued = false;
+    try
+    {
+      msg.doDecode(buf, len);
+      if (dispatcher != null)
+        queued = dispatcher.dispatch(iface, host, port, msg);
+      else
+        queued = dispatch(iface, host, port, msg);
+    }
+    finally
+    {
+      if (!queued) msg.release();
+    }
+  }
+
+  /**
+   * Dispatch a decoded message, return true if it was queued.
+   */
+  boolean dispatch(DaspSocketInterface iface, InetAddress host, int port, DaspMessage msg)
+    throws Exception
+  {
     // lookup session
     DaspSession session = session(msg.sessionId);
     
@@ -352,7 +476,7 @@ public class DaspSocket
       // allocate a new server session
       DaspSession s = alloc(iface, host, port, DaspSession.SERVER, acceptor.options());
       s.challenge(msg);
-      return;
+      return false;
     }
     else if (msg.msgType == DISCOVER) 
     {
@@ -366,11 +490,11 @@ public class DaspSocket
     // otherwise ensure host/port are valid
     if (session == null || 
         !session.host.equals(host) || 
-        session.port != port) return;
+        session.port != port) return false;
     
     // dispatch to session for handling  
     msg.session = session;
-    session.dispatch(msg);    
+    return session.dispatch(msg);
   }                           
     
 ////////////////////////////////////////////////////////////////
@@ -383,30 +507,28 @@ public class DaspSocket
   DaspSession alloc(DaspSocketInterface iface, InetAddress host, int port, boolean isClient, Hashtable options)
     throws Exception
   {         
-    synchronized (sessions)
-    {                      
-      // if busy
-      if (sessions.size() >= MAX_SESSIONS_VAL)
-        throw new Exception("busy - too many sessions");
-      
-      // pick random key until we find free one
-      Integer id = null;
-      while (true)
-      {
-        int r = rand.nextInt() & 0xffff;
-        if (r == 0xffff) continue;
-        if (sessions.get(id = new Integer(r)) == null) break;
-      }       
+    // reserve a free id, if none we are busy
+    int id = sessions.reserve();
+    if (id < 0)
+      throw new Exception("busy - too many sessions");
       
-      // create new session
-      DaspSession s = createDaspSession(iface, id.intValue(), host, port, isClient, options);
-      if (s.id != id.intValue()) throw new IllegalStateException("session not created with required id: " + id);
+    // create new session
+    DaspSession s;
+    try
+    {
+      s = createDaspSession(iface, id, host, port, isClient, options);
+      if (s.id != id) throw new IllegalStateException("session not created with required id: " + id);
+    }
+    catch (RuntimeException e)
+    {
+      sessions.release(id);
+      throw e;
+    }
       
-      // put into tables
-      sessions.put(id, s);
+    // put into tables
+    sessions.put(s);
       
-      return s;
-    }
+    return s;
   }
   
   protected DaspSession createDaspSession(DaspSocketInterface iface, int id, InetAddress host, int port, boolean isClient, Hashtable options)
@@ -419,10 +541,7 @@ public class DaspSocket
    */
   void free(DaspSession s)
   {
-    synchronized (sessions)
-    {                     
-      sessions.remove(new Integer(s.id)); 
-    }
+    if (sessions.remove(s)) closed.add(s.metrics);
   }
 
 
@@ -517,8 +636,8 @@ public class DaspSocket
   {
     if (traceSend || session.traceSend) trace("->", msg);   
     session.iface.send(session, msg);    
-    session.numSent++;
-    session.iface.numSent++;
+    session.metrics.sent.increment();
+    session.iface.numSent.increment();
   }
 
   /**
@@ -527,7 +646,7 @@ public class DaspSocket
   void received(DaspSocketInterface iface, DaspSession session, DaspMsg msg)
   {
     if (traceReceive || (session != null && session.traceReceive)) trace("<-", msg);
-    iface.numReceived++;
+    iface.numReceived.increment();
   }                                 
   
   /**
@@ -549,20 +668,23 @@ public class DaspSocket
       sb.append(" ack=").append(Integer.toHexString(msg.ack));
       if (msg.ackMore != null)
         sb.append(" ackMore=").append(new Buf(msg.ackMore));
+      else if (msg.ackMoreLen > 0)
+        sb.append(" ackMore=0x").append(Integer.toHexString(msg.ackMoreBits));
     }
     
+    byte[] payload = msg.payloadBytes();
     if (msg.msgType == DaspConst.DATAGRAM)
     {          
-      final String r = (msg.payload[1] == -1) ? "ff" : Integer.toHexString(msg.payload[1]);
-      sb.append(" c=").append((char)msg.payload[0])
+      final String r = (payload[1] == -1) ? "ff" : Integer.toHexString(payload[1]);
+      sb.append(" c=").append((char)payload[0])
         .append(" r=").append(r)
-        .append(' ').append(new Buf(msg.payload));
+        .append(' ').append(new Buf(payload));
     }                          
     else if (msg.msgType == DaspConst.CLOSE)
     {                  
       sb.append(" err=").append(Integer.toHexString(msg.errorCode))
         .append(" msgType=").append(msg.msgType).append(' ')
-        .append(new Buf(msg.payload));
+        .append(new Buf(payload));
     }                          
     else
     {
@@ -587,10 +709,15 @@ public class DaspSocket
   volatile boolean isAlive;         // to keep receiver alive
   DaspSocketInterface[] interfaces; // network interfaces
   Object interfacesLock;            // lock for accessing interfaces
-  HashMap sessions;                 // Integer -> DaspSession  
+  DaspSessionTable sessions;        // session id -> DaspSession  
   Random rand;                      // randomizer
   int qMode;                        // session or socket queueing mode
   ReceiveQueue queue;               // used for socket queuing
+  final DaspMetrics closed = new DaspMetrics();  // metrics of closed sessions
+  final boolean lockFree;           // lock free queues and windows
+  DaspDispatcher dispatcher;        // worker threads or null for inline dispatch
+
+  static final int DISPATCH_QUEUE_MAX = 2000;
 
   ArrayList discovered;   // collects responses to discover msg
 }
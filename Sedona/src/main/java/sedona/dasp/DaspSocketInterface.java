@@ -12,6 +12,7 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * DaspSocketInterface is used to route specific InetAddresses
@@ -60,6 +61,14 @@ public abstract class DaspSocketInterface
   protected abstract void receive(DatagramPacket p)
     throws IOException;
 
+  /**
+   * Get the local port of this interface or -1 if unknown.
+   */
+  public int localPort()
+  {
+    return -1;
+  }
+
   /**
    * Close down this socket interface.
    */
@@ -80,6 +89,7 @@ public abstract class DaspSocketInterface
     receiver = new Receiver();
     receiver.start();
 
+    timers = new DaspTimerWheel(null);
     houseKeeping = new HouseKeeping();
     houseKeeping.start();
   }
@@ -101,16 +111,39 @@ public abstract class DaspSocketInterface
 // Debug
 ////////////////////////////////////////////////////////////////
 
-  public int numSent() { return numSent; }
-  public int numReceived() { return numReceived; }
-  public int numRetries() { return numRetries; }
+  public int numSent() { return (int)numSent.sum(); }
+  public int numReceived() { return (int)numReceived.sum(); }
+  public int numRetries() { return (int)numRetries.sum(); }
+
+  /**
+   * Number of session timers (retries, keep-alives, acks,
+   * timeouts) currently pending for this interface.
+   */
+  public int timerQueueSize() { return timers == null ? 0 : timers.size(); }
+
+  /**
+   * Highest number of session timers pending at once.
+   */
+  public int maxTimerQueueSize() { return timers == null ? 0 : timers.maxSize(); }
+
+  /**
+   * Milliseconds the house keeping thread was late
+   * processing the last tick which had timers due.
+   */
+  public long timerTickLag() { return timers == null ? 0 : timers.tickLag(); }
+
+  /**
+   * Highest timer tick lag observed in milliseconds.
+   */
+  public long maxTimerTickLag() { return timers == null ? 0 : timers.maxTickLag(); }
 
 ////////////////////////////////////////////////////////////////
 // Send
 ////////////////////////////////////////////////////////////////
 
   /**
-   * DaspSessions route here to send a packet.
+   * DaspSessions route here to send a packet.  The message
+   * is encoded straight into our reusable outbound packet.
    */
   void send(DaspSession session, DaspMsg msg)
   {
@@ -125,16 +158,24 @@ public abstract class DaspSocketInterface
       }
       catch (IOException e)
       {
-        if (daspSocket.traceSend)
-        {
-          System.out.println("ERROR: DaspSocket error on send - " + e.getMessage());
-          e.printStackTrace();
-        }
-        session.shutdown(e.getMessage());
+        sendFailed(session, e);
       }
     }
   }
 
+  /**
+   * A send to the session failed, shut it down.
+   */
+  void sendFailed(DaspSession session, IOException e)
+  {
+    if (daspSocket.traceSend)
+    {
+      System.out.println("ERROR: DaspSocket error on send - " + e.getMessage());
+      e.printStackTrace();
+    }
+    session.shutdown(e.getMessage());
+  }
+
 ////////////////////////////////////////////////////////////////
 // Receiver
 ////////////////////////////////////////////////////////////////
@@ -181,10 +222,10 @@ public abstract class DaspSocketInterface
 ////////////////////////////////////////////////////////////////
 
   /**
-   * This is a background thread which periodically walks all
-   * the sessions and gives them a chance to do house keeping
-   * chores such as retries, keep-alives, and timeouts.  We
-   * try to run housekeeping every 100ms.
+   * This is a background thread which drives the timer wheel
+   * the sessions of this interface schedule their house keeping
+   * chores on: retries, keep-alives, acks, and timeouts.  It
+   * sleeps until the next timer is due.
    */
   class HouseKeeping extends Thread
   {
@@ -192,33 +233,16 @@ public abstract class DaspSocketInterface
 
     public void run()
     {
-      // loop forever receiving messages
+      DaspTimerWheel timers = DaspSocketInterface.this.timers;
       while (daspSocket.isAlive)
       {
         try
         {
-          long t1 = System.currentTimeMillis();
-
-          // call house keeping callback on each session
-          DaspSession[] sessions = daspSocket.sessions();
-          for (int i=0; i<sessions.length; ++i)
-          {
-            try
-            {
-              DaspSession session = sessions[i];
-              if (session.iface == DaspSocketInterface.this)
-                sessions[i].houseKeeping();
-            }
-            catch (Throwable e)
-            {
-              if (daspSocket.isAlive) e.printStackTrace();
-            }
-          }
-
-          // attempt to run every 100ms
-          long t2 = System.currentTimeMillis();
-          long snooze = 100 - (t2-t1);
-          if (snooze > 5) Thread.sleep(snooze);
+          timers.await();
+          timers.advance(DaspSession.ticks());
+        }
+        catch (InterruptedException e)
+        {
         }
         catch (Throwable e)
         {
@@ -234,10 +258,12 @@ public abstract class DaspSocketInterface
 
   Receiver receiver;            // receiver thread
   HouseKeeping houseKeeping;    // house keeping thread
+  DaspTimerWheel timers;        // session timers, set by start
   DaspSocket daspSocket;        // set by DaspSocket
   DatagramPacket sendPacket;    // reusable packet for sends
-  int numSent;
-  int numReceived;
-  int numRetries;
+  // counted by the sending, dispatcher and timer threads at once
+  final LongAdder numSent = new LongAdder();
+  final LongAdder numReceived = new LongAdder();
+  final LongAdder numRetries = new LongAdder();
 }
 
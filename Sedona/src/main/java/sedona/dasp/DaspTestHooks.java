@@ -49,6 +49,11 @@ public class DaspTestHooks
   {                                                   
     SendWindow.main(null);
     ReceiveWindow.main(null);
+    DaspTimerWheel.main(null);
+    DaspPool.main(null);
+    RingReceiveQueue.main(null);
+    DaspSessionTable.main(null);
+    DaspHistogram.main(null);
   }    
 
 ////////////////////////////////////////////////////////////////
@@ -0,0 +1,576 @@
+//
+// Copyright (c) 2008 Tridium, Inc.
+// Licensed under the Academic Free License version 3.0
+//
+
+package sedona.dasp;
+
+import java.util.ArrayList;
+
+/**
+ * DaspTimerWheel is a hierarchical hashed timer wheel used to run
+ * the per-session house keeping chores (retries, keep-alives, acks
+ * and timeouts) only when they are due instead of polling every
+ * session on a fixed period.
+ *
+ * Time is divided into ticks of tickMs.  The wheel has LEVELS levels
+ * of SLOTS slots each, a slot of level L spanning SLOTS^L ticks; a timer
+ * due within SLOTS ticks lives in a level 0 slot, a timer due further
+ * out lives in the slot of the first level which reaches it within one
+ * revolution and is cascaded down a level when that slot comes up.
+ * So scheduling, cancelling and each tick are O(1) regardless of how
+ * many timers are pending.  With the default 10ms tick the levels cover
+ * about 46 hours; timers further out are parked in the last slot of the
+ * top level and re-hashed when it is cascaded.
+ *
+ * The wheel is driven by a single thread which calls timeout() to find
+ * out how long it may sleep and advance() to fire the due timers.  Any
+ * thread may schedule or cancel timers; if a timer is due before the
+ * driver planned to wake up the driver is woken with notifyAll() or
+ * the wakeup callback.  Timers are fired on the driver thread outside
+ * of the wheel's lock, so callbacks are free to reschedule themselves.
+ */
+final class DaspTimerWheel
+{
+
+////////////////////////////////////////////////////////////////
+// Constructor
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Create a wheel with the tick configured by the
+   * "dasp.timerTick" property (default 10ms).
+   */
+  DaspTimerWheel(Runnable wakeup)
+  {
+    this(sedona.Env.getProperty("dasp.timerTick", TICK_DEF), wakeup);
+  }
+
+  /**
+   * Create a wheel with the specified tick in milliseconds.  If
+   * wakeup is null the driver is expected to block in await(),
+   * otherwise wakeup is called to interrupt the driver's wait.
+   */
+  DaspTimerWheel(long tickMs, Runnable wakeup)
+  {
+    if (tickMs < 1) throw new IllegalArgumentException("tickMs < 1");
+    this.tickMs = tickMs;
+    this.wakeup = wakeup;
+    this.origin = DaspSession.ticks();
+  }
+
+////////////////////////////////////////////////////////////////
+// Timer
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Timer is an entry in the wheel.  A timer can be scheduled on
+   * one wheel at a time and is linked directly into its slot so that
+   * cancel doesn't need to search.
+   */
+  static abstract class Timer
+  {
+    /**
+     * Callback on the driver thread when the timer expires.  The
+     * wheel only skips firings it knows are stale when it releases
+     * its lock to fire; a callback which races with other threads
+     * must compare fireGen with the gen schedule() returned itself.
+     */
+    abstract void fire();
+
+    long deadline;     // ms ticks
+    long tick;         // wheel tick the timer expires on
+    int slot = -1;     // index into slots or -1 if not scheduled
+    int gen;           // bumped on every schedule/cancel
+    int fireGen;       // gen when collected for firing (driver only)
+    Timer slotPrev;    // links within the slot
+    Timer slotNext;
+  }
+
+////////////////////////////////////////////////////////////////
+// Schedule
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Schedule the timer to fire at the specified deadline
+   * in ms ticks.  If the timer is already scheduled it is
+   * moved to the new deadline.  Return the timer's generation
+   * for this schedule, it is the fireGen when it fires.
+   */
+  int schedule(Timer t, long deadline)
+  {
+    boolean wake;
+    int gen;
+    synchronized (this)
+    {
+      wake = relink(t, deadline);
+      gen = t.gen;
+    }
+    if (wake && wakeup != null) wakeup.run();
+    return gen;
+  }
+
+  /**
+   * Schedule the timer for the specified deadline unless it is
+   * already scheduled to fire at or before then.
+   */
+  void expedite(Timer t, long deadline)
+  {
+    boolean wake;
+    synchronized (this)
+    {
+      if (t.slot >= 0 && t.deadline <= deadline) return;
+      wake = relink(t, deadline);
+    }
+    if (wake && wakeup != null) wakeup.run();
+  }
+
+  /**
+   * Move the timer to the deadline under our lock.  Return
+   * true if the driver must be woken by the wakeup callback.
+   */
+  private boolean relink(Timer t, long deadline)
+  {
+    if (t.slot >= 0) unlink(t); else size++;
+    if (size > maxSize) maxSize = size;
+    t.gen++;
+    t.deadline = deadline;
+    t.tick = toTick(deadline);
+    insert(t);
+    if (t.tick >= wakeTick) return false;
+    wakeTick = t.tick;
+    if (wakeup == null) notifyAll();
+    return true;
+  }
+
+  /**
+   * Cancel the timer.  This is a no-op if the timer
+   * isn't scheduled.  A timer which has already been
+   * collected for firing by advance() won't be fired.
+   */
+  synchronized void cancel(Timer t)
+  {
+    t.gen++;
+    if (t.slot < 0) return;
+    unlink(t);
+    size--;
+  }
+
+  /**
+   * Return if the timer is currently scheduled.
+   */
+  synchronized boolean isScheduled(Timer t)
+  {
+    return t.slot >= 0;
+  }
+
+////////////////////////////////////////////////////////////////
+// Drive
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Get the number of milliseconds the driver may sleep before
+   * it needs to call advance(), or -1 if no timers are pending.
+   * This is the next non-empty level 0 slot or the next block
+   * boundary where the upper levels cascade, whichever is first.
+   */
+  synchronized long timeout(long now)
+  {
+    if (size == 0)
+    {
+      wakeTick = Long.MAX_VALUE;
+      return -1;
+    }
+
+    long t = currentTick + 1;
+    while ((t & MASK) != 0 && slots[(int)(t & MASK)] == null) ++t;
+    wakeTick = t;
+
+    long ms = origin + t*tickMs - now;
+    return ms < 0 ? 0 : ms;
+  }
+
+  /**
+   * Block the calling driver thread until timeout() elapses
+   * or an earlier timer is scheduled.
+   */
+  synchronized void await()
+    throws InterruptedException
+  {
+    long ms = timeout(DaspSession.ticks());
+    if (ms < 0) wait();
+    else if (ms > 0) wait(ms);
+  }
+
+  /**
+   * Process every tick up to now and fire the expired timers.
+   * Return the number of timers fired.  This method must only
+   * be called by the driver thread.
+   */
+  int advance(long now)
+  {
+    ArrayList expired = this.expired;
+    synchronized (this)
+    {
+      long nowTick = (now - origin) / tickMs;
+      if (nowTick <= currentTick) return 0;
+
+      // nothing pending, just jump ahead
+      if (size == 0)
+      {
+        currentTick = nowTick;
+        return 0;
+      }
+
+      long lag = -1;
+      for (long t = currentTick+1; t <= nowTick; ++t)
+      {
+        currentTick = t;
+
+        // cascade the upper levels whose block starts on this
+        // tick, highest first so they can land in a lower slot
+        // which cascades on this same tick
+        for (int level=LEVELS-1; level>0; --level)
+          if ((t & ((1L << (BITS*level)) - 1)) == 0)
+            cascade(level*SLOTS + (int)((t >>> (BITS*level)) & MASK));
+
+        int index = (int)(t & MASK);
+        if (slots[index] == null) continue;
+        collect(index, expired);
+        long tickLag = now - (origin + t*tickMs);
+        if (tickLag > lag) lag = tickLag;
+      }
+
+      if (lag >= 0)
+      {
+        lastTickLag = lag;
+        if (lag > maxTickLag) maxTickLag = lag;
+      }
+    }
+
+    // fire outside of our lock, skipping timers which were
+    // rescheduled or cancelled since they were collected; this
+    // doesn't catch a cancel between the check and fire()
+    int n = 0;
+    for (int i=0; i<expired.size(); ++i)
+    {
+      Timer t = (Timer)expired.get(i);
+      synchronized (this)
+      {
+        if (t.gen != t.fireGen) continue;
+      }
+      try
+      {
+        t.fire();
+        n++;
+      }
+      catch (Throwable e)
+      {
+        e.printStackTrace();
+      }
+    }
+    expired.clear();
+    synchronized (this) { numFired += n; }
+    return n;
+  }
+
+////////////////////////////////////////////////////////////////
+// Metrics
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Number of timers currently scheduled.
+   */
+  synchronized int size() { return size; }
+
+  /**
+   * Highest number of timers scheduled at once.
+   */
+  synchronized int maxSize() { return maxSize; }
+
+  /**
+   * Milliseconds between when the last tick which fired
+   * timers was due and when the driver processed it.
+   */
+  synchronized long tickLag() { return lastTickLag; }
+
+  /**
+   * Highest tick lag observed in milliseconds.
+   */
+  synchronized long maxTickLag() { return maxTickLag; }
+
+  /**
+   * Total number of timers fired.
+   */
+  synchronized long numFired() { return numFired; }
+
+  /**
+   * Tick length in milliseconds.
+   */
+  long tickMs() { return tickMs; }
+
+////////////////////////////////////////////////////////////////
+// Slots
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Map a deadline to the first tick which starts at or
+   * after it, but never a tick which was already processed.
+   */
+  private long toTick(long deadline)
+  {
+    long rel = deadline - origin;
+    long tick = rel <= 0 ? 0 : (rel + tickMs - 1) / tickMs;
+    return tick <= currentTick ? currentTick + 1 : tick;
+  }
+
+  /**
+   * Link the timer into the slot of the lowest level which can
+   * reach its tick within one revolution: level L holds ticks less
+   * than SLOTS units of SLOTS^L ticks away.  Ticks beyond the top
+   * level go into the top level slot which cascades last.
+   */
+  private void insert(Timer t)
+  {
+    long tick = t.tick;
+    int index = -1;
+    for (int level=0; level<LEVELS; ++level)
+    {
+      int shift = BITS*level;
+      if ((tick >>> shift) - (currentTick >>> shift) < SLOTS)
+      {
+        index = level*SLOTS + (int)((tick >>> shift) & MASK);
+        break;
+      }
+    }
+    if (index < 0)
+      index = (LEVELS-1)*SLOTS + (int)(((currentTick >>> (BITS*(LEVELS-1))) + MASK) & MASK);
+
+    Timer head = slots[index];
+    t.slot = index;
+    t.slotPrev = null;
+    t.slotNext = head;
+    if (head != null) head.slotPrev = t;
+    slots[index] = t;
+  }
+
+  private void unlink(Timer t)
+  {
+    if (t.slotPrev != null) t.slotPrev.slotNext = t.slotNext;
+    else slots[t.slot] = t.slotNext;
+    if (t.slotNext != null) t.slotNext.slotPrev = t.slotPrev;
+    t.slot = -1;
+    t.slotPrev = t.slotNext = null;
+  }
+
+  /**
+   * Re-hash every timer of an upper level slot.
+   */
+  private void cascade(int index)
+  {
+    Timer t = slots[index];
+    slots[index] = null;
+    while (t != null)
+    {
+      Timer next = t.slotNext;
+      insert(t);
+      t = next;
+    }
+  }
+
+  /**
+   * Move the timers of a level 0 slot to the expired list.
+   */
+  private void collect(int index, ArrayList expired)
+  {
+    Timer t = slots[index];
+    slots[index] = null;
+    while (t != null)
+    {
+      Timer next = t.slotNext;
+      t.slot = -1;
+      t.slotPrev = t.slotNext = null;
+      size--;
+      t.fireGen = t.gen;
+      expired.add(t);
+      t = next;
+    }
+  }
+
+////////////////////////////////////////////////////////////////
+// Test
+////////////////////////////////////////////////////////////////
+
+  public static void main(String[] args)
+    throws Exception
+  {
+    long t1 = System.currentTimeMillis();
+    testBasics();
+    testRandom(10, 5000, 200000L);
+    testRandom(1, 2000, 20000000L);
+    testCancel();
+    long t2 = System.currentTimeMillis();
+    System.out.println("  DaspTimerWheel Success: " + verifies + " verifies [" + (t2-t1) + "ms]");
+  }
+
+  private static void testBasics()
+  {
+    DaspTimerWheel w = new DaspTimerWheel(10, null);
+    long t0 = w.origin;
+    verify(w.timeout(t0) == -1);
+
+    TestTimer a = new TestTimer();
+    w.schedule(a, t0+25);
+    verify(w.size() == 1);
+    verify(w.timeout(t0) == 30);
+    verify(adv(w, t0+20) == 0);
+    verify(adv(w, t0+31) == 1);
+    verify(a.fired == 1 && a.firedAt == t0+31);
+    verify(w.size() == 0);
+    verify(w.tickLag() == 1);
+
+    // timer beyond level 0 wakes the driver at the cascade boundary
+    w.schedule(a, t0+5000);
+    verify(w.timeout(t0+31) == 640-31);
+    verify(adv(w, t0+4999) == 0);
+    verify(adv(w, t0+5000) == 1);
+    verify(a.fired == 2);
+
+    // deadline in the past fires on the next tick
+    w.schedule(a, t0);
+    verify(adv(w, t0+5010) == 1);
+    verify(a.fired == 3);
+
+    // reschedule moves the timer
+    w.schedule(a, t0+6000);
+    w.schedule(a, t0+5500);
+    verify(w.size() == 1);
+    verify(adv(w, t0+5500) == 1);
+    verify(adv(w, t0+6000) == 0);
+    verify(a.fired == 4);
+
+    // expedite only moves the timer earlier
+    w.expedite(a, t0+7000);
+    w.expedite(a, t0+8000);
+    verify(adv(w, t0+7000) == 1);
+    w.schedule(a, t0+9000);
+    w.expedite(a, t0+8500);
+    verify(adv(w, t0+8500) == 1);
+    verify(w.size() == 0);
+    verify(w.numFired() == 6);
+  }
+
+  /**
+   * Schedule timers at random deadlines up to range and advance
+   * the clock in random steps: each must fire exactly once, never
+   * early and no later than the tick after the step it was due in.
+   */
+  private static void testRandom(long tickMs, int num, long range)
+  {
+    java.util.Random rand = new java.util.Random(num);
+    DaspTimerWheel w = new DaspTimerWheel(tickMs, null);
+    long t0 = w.origin;
+    TestTimer[] timers = new TestTimer[num];
+    for (int i=0; i<num; ++i)
+    {
+      timers[i] = new TestTimer();
+      long d = i % 10 == 0 ? (long)(rand.nextDouble() * range) : rand.nextInt(1000);
+      w.schedule(timers[i], t0 + d);
+    }
+    verify(w.size() == num);
+    verify(w.maxSize() == num);
+
+    long now = t0;
+    long end = t0 + range + 2*tickMs;
+    while (now < end)
+    {
+      long step = 1 + rand.nextInt(now - t0 < 1000 ? 20 : 50000);
+      now += step;
+      adv(w, now);
+      for (int i=0; i<num; ++i)
+      {
+        TestTimer t = timers[i];
+        if (t.fired == 0) verify(now < t.deadline + tickMs);
+        if (t.fired == 1 && t.firedAt == now) verify(now >= t.deadline);
+      }
+    }
+    for (int i=0; i<num; ++i)
+      verify(timers[i].fired == 1);
+    verify(w.size() == 0);
+  }
+
+  private static void testCancel()
+  {
+    final DaspTimerWheel w = new DaspTimerWheel(10, null);
+    long t0 = w.origin;
+    TestTimer a = new TestTimer();
+    TestTimer b = new TestTimer();
+    w.schedule(a, t0+100);
+    w.schedule(b, t0+100000);
+    w.cancel(a);
+    w.cancel(b);
+    w.cancel(b);
+    verify(w.size() == 0);
+    verify(!w.isScheduled(a));
+    verify(adv(w, t0+200000) == 0);
+    verify(a.fired == 0 && b.fired == 0);
+
+    // a timer cancelled by another timer fired on the
+    // same tick is skipped even though it was collected
+    final TestTimer c = new TestTimer();
+    TestTimer d = new TestTimer()
+    {
+      void fire() { super.fire(); w.cancel(c); }
+    };
+    w.schedule(c, t0+200100);
+    w.schedule(d, t0+200100);
+    verify(adv(w, t0+200100) == 1);
+    verify(c.fired == 0 && d.fired == 1);
+  }
+
+  static class TestTimer extends Timer
+  {
+    void fire() { fired++; firedAt = clock; }
+    int fired;
+    long firedAt;
+  }
+
+  private static int adv(DaspTimerWheel w, long now)
+  {
+    clock = now;
+    return w.advance(now);
+  }
+
+  private static void verify(boolean x)
+  {
+    if (!x) throw new RuntimeException();
+    verifies++;
+  }
+
+  private static int verifies;
+  private static long clock;
+
+////////////////////////////////////////////////////////////////
+// Fields
+////////////////////////////////////////////////////////////////
+
+  static final long TICK_DEF = 10;              // ms
+  static final int BITS   = 6;
+  static final int SLOTS  = 1 << BITS;          // slots per level
+  static final int MASK   = SLOTS - 1;
+  static final int LEVELS = 4;
+
+  private final long tickMs;
+  private final long origin;                    // ms ticks of tick 0
+  private final Runnable wakeup;
+  private final Timer[] slots = new Timer[LEVELS*SLOTS];
+  private final ArrayList expired = new ArrayList();  // driver only
+  private long currentTick;                     // last processed tick
+  private long wakeTick = Long.MAX_VALUE;       // tick the driver wakes on
+  private int size;
+  private int maxSize;
+  private long lastTickLag;
+  private long maxTickLag;
+  private long numFired;
+
+}
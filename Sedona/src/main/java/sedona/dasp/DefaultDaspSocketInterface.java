@@ -31,6 +31,11 @@ public final class DefaultDaspSocketInterface extends DaspSocketInterface
     return true;
   }                                          
 
+  public int localPort()
+  {
+    return sock.getLocalPort();
+  }
+
   public void send(DatagramPacket p) throws IOException 
   {
     sock.send(p);
@@ -0,0 +1,146 @@
+//
+// Copyright (c) 2008 Tridium, Inc.
+// Licensed under the Academic Free License version 3.0
+//
+
+package sedona.dasp;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * NioDaspSocketInterface uses a non-blocking DatagramChannel
+ * serviced by a DaspEventLoopGroup.  Unlike DefaultDaspSocketInterface
+ * it doesn't start its own receiver and house keeping threads, so
+ * a process can open many sockets with many sessions on a small
+ * fixed set of threads:
+ *
+ * <pre>
+ *   DaspEventLoopGroup group = new DaspEventLoopGroup(2);
+ *   DaspSocket s = DaspSocket.open(new NioDaspSocketInterface(group, -1), null, DaspSocket.SESSION_QUEUING);
+ * </pre>
+ */
+public final class NioDaspSocketInterface extends DaspSocketInterface
+{
+
+  /**
+   * Open on the specified port (or ephemeral port if -1)
+   * using the shared event loop group.
+   */
+  public NioDaspSocketInterface(int port)
+    throws IOException
+  {
+    this(DaspEventLoopGroup.shared(), port);
+  }
+
+  /**
+   * Open on the specified port (or ephemeral port if -1)
+   * using the specified event loop group.
+   */
+  public NioDaspSocketInterface(DaspEventLoopGroup group, int port)
+    throws IOException
+  {
+    this.group = group;
+    this.channel = DatagramChannel.open();
+    try
+    {
+      channel.configureBlocking(false);
+      channel.socket().bind(new InetSocketAddress(port < 0 ? 0 : port));
+    }
+    catch (IOException e)
+    {
+      channel.close();
+      throw e;
+    }
+  }
+
+  public boolean routes(InetAddress addr, int port)
+  {
+    return true;
+  }
+
+  public int localPort()
+  {
+    return channel.socket().getLocalPort();
+  }
+
+  /**
+   * Send without blocking.  If the channel's send buffer is
+   * full the datagram is dropped like any other lost packet
+   * and recovered by the DASP retry logic.
+   */
+  public void send(DatagramPacket p) throws IOException
+  {
+    channel.send(ByteBuffer.wrap(p.getData(), p.getOffset(), p.getLength()),
+                 new InetSocketAddress(p.getAddress(), p.getPort()));
+  }
+
+  /**
+   * Encode straight into a buffer over our outbound packet's
+   * array and send it to the session's cached address, so a
+   * send doesn't allocate.
+   */
+  void send(DaspSession session, DaspMsg msg)
+  {
+    synchronized (sendPacket)
+    {
+      try
+      {
+        sendBuf.clear();
+        sendBuf.limit(msg.encode(sendBuf.array()));
+        channel.send(sendBuf, session.address());
+      }
+      catch (IOException e)
+      {
+        sendFailed(session, e);
+      }
+    }
+  }
+
+  /**
+   * Not used: datagrams are read by the event loop.
+   */
+  protected void receive(DatagramPacket p) throws IOException
+  {
+    throw new IOException("NioDaspSocketInterface is read by its DaspEventLoopGroup");
+  }
+
+  public void close() throws IOException
+  {
+    channel.close();
+  }
+
+////////////////////////////////////////////////////////////////
+// Lifecycle
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Register with the event loop group instead of
+   * starting receiver and house keeping threads.
+   */
+  public void start(DaspSocket s)
+  {
+    daspSocket = s;
+    group.register(this);
+  }
+
+  public void stop()
+  {
+    // closing the channel cancels its key, the loop drops us
+    try { close(); } catch (Exception e) {}
+  }
+
+////////////////////////////////////////////////////////////////
+// Fields
+////////////////////////////////////////////////////////////////
+
+  final DaspEventLoopGroup group;
+  final DatagramChannel channel;
+  final ByteBuffer sendBuf = ByteBuffer.wrap(sendPacket.getData());
+  DaspEventLoopGroup.Loop loop;   // set by DaspEventLoopGroup.register
+
+}
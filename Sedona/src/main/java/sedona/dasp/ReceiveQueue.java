@@ -10,67 +10,56 @@ package sedona.dasp;
 
 /**
  * ReceiveQueue manages the incoming DaspSessionMessage queue.
+ * The receiving threads of the socket's interfaces enqueue, the
+ * application dequeues.  MonitorReceiveQueue synchronizes both
+ * sides on one monitor, RingReceiveQueue is a lock free ring for
+ * sockets opened with the "dasp.lockFree" option.
  */
-final class ReceiveQueue
-{                       
+abstract class ReceiveQueue
+{
 
 ////////////////////////////////////////////////////////////////
-// Constructor.
-////////////////////////////////////////////////////////////////  
-  
+// Factory
+////////////////////////////////////////////////////////////////
+
   /**
-   * Constructor. 
+   * Make a queue which tolerates a backlog of max messages.
    */
-  ReceiveQueue(int max)
+  static ReceiveQueue make(int max, boolean lockFree)
   {
-    this.max = max;
+    if (lockFree) return new RingReceiveQueue(max);
+    return new MonitorReceiveQueue(max);
   }
-  
+
 ////////////////////////////////////////////////////////////////
 // Access
-////////////////////////////////////////////////////////////////  
+////////////////////////////////////////////////////////////////
 
   /**
    * Get the if size is zero.
    */
-  public final synchronized boolean isEmpty()
-  {
-    return size == 0;
-  }
+  public abstract boolean isEmpty();
 
   /**
    * Get the number of frames currently in the queue.
    */
-  public final synchronized int size()
-  {
-    return size;
-  }
+  public abstract int size();
 
   /**
    * Get the peak size this queue has ever reached.
    */
-  public final int peak()
-  {
-    return peak;
-  }
+  public abstract int peak();
 
   /**
-   * Return current queue backlog which will be tolerated. 
+   * Return current queue backlog which will be tolerated.
    */
-  public final int max()
-  {
-    return max;
-  }
+  public abstract int max();
 
   /**
-   * Clear the isAlive flag which will wake up blocked enqueuers.
+   * Clear the isAlive flag which will wake up a blocked dequeuer.
    */
-  public final synchronized void kill()
-  {
-    isAlive = false;
-    notifyAll();
-  }
-  
+  public abstract void kill();
+
   /**
    * Read off the oldest message from the queue.  If
    * no messages exist on the queue, then wait for
@@ -82,62 +71,21 @@ final class ReceiveQueue
    *    if the queue is empty and the timeout
    *    expired.
    */
-  public synchronized DaspMessage dequeue(long timeout)   
-    throws InterruptedException
-  {
-    while (isAlive && size == 0 && timeout != 0)
-    {
-      if (timeout == -1) wait();
-      else { wait(timeout); break; }
-    }
-    
-    DaspMessage m = head;
-    if (m == null) return null;
-    head = m.next;
-    if (head == null) tail = null;
-    m.next = null;
-    size--;
-    notifyAll();
-    return m;
-  }
+  public abstract DaspMessage dequeue(long timeout)
+    throws InterruptedException;
 
   /**
    * Add a message to the end of the Queue.
    * Throw FullException if queue is full.
    */
-  public synchronized void enqueue(DaspMessage m)
-    throws FullException
-  {                     
-    if (isAlive && size >= max()) 
-      throw new FullException();
-    
-    if (m.next != null) throw new IllegalStateException();
-    if (tail == null) { head = tail = m; }
-    else { tail.next = m; tail = m; }
-    size++;
-    if (size > peak) peak = size;
-    notifyAll();
-  }
-  
+  public abstract void enqueue(DaspMessage m)
+    throws FullException;
+
   /**
    * Remove all the enqueued entries.
    */
-  public synchronized void clear()
-  {
-    size = 0;
-    head = null;
-    tail = null;
-    notifyAll();
-  }
-  
-  /**
-   * To string.
-   */
-  public String toString()
-  {
-    return "MsgQueue size=" + size + " peak=" + peak + " max=" + max();
-  }
-  
+  public abstract void clear();
+
 ////////////////////////////////////////////////////////////////
 // FullException
 ////////////////////////////////////////////////////////////////
@@ -146,15 +94,4 @@ final class ReceiveQueue
   {
   }
 
-////////////////////////////////////////////////////////////////
-// Attributes
-////////////////////////////////////////////////////////////////
-
-  private DaspMessage head;
-  private DaspMessage tail;
-  private int size;
-  private int peak;
-  private boolean isAlive = true;
-  private int max;   
-  
 }
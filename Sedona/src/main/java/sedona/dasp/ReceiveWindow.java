@@ -10,6 +10,12 @@ package sedona.dasp;
 
 /**
  * ReceiveWindow manages the incoming message sequences and acknowledgements.
+ *
+ * Acks are cumulative: ack is the last in order seqNum and the
+ * ackMore bitmap covers every datagram received out of order in the
+ * rest of the window.  The window only counts as acked once a message
+ * carried the whole bitmap, a piggy backed ack which had to drop some
+ * of it leaves the session owing the remote endpoint an ack.
  */    
 final class ReceiveWindow  
 {                        
@@ -35,6 +41,17 @@ final class ReceiveWindow
     return !acked;
   }
   
+  /**
+   * Return if a standalone ack should be sent right away rather
+   * than wait to be piggy backed: every datagrams have been received
+   * since the last ack, or a datagram was received again which means
+   * the remote endpoint didn't get our ack.
+   */
+  final synchronized boolean ackDue(int every)
+  {
+    return !acked && (resend || numUnacked >= every);
+  }
+
   /**
    * If we have room within idealMax then 
    * add the ack and ackMore headers. 
@@ -43,20 +60,46 @@ final class ReceiveWindow
   {   
     // if we have room within idealMax always add ack 
     // header where 8 = 5 fixed header + 3 ack header
-    int payloadLen = msg.payload.length;
+    int payloadLen = msg.payloadLength();
     if (payloadLen+8 <= session.idealMax)
     {
       msg.ack = seqNum;
-      acked = true;
+      boolean whole = true;
       
       // if we have ackMores and we have room for another 3 
       // bytes (total 11 bytes), then add the ackMore header
-      if (seqMore > 0x1 && payloadLen+11 <= session.idealMax)
+      // as bits so the message encodes them without allocating
+      if (seqMore > 0x1)
+      {
+        whole = false;
+        if (payloadLen+11 <= session.idealMax)
+        {
+          int len = ackMoreLen(seqMore, session.idealMax - payloadLen - 10);
+          msg.setAckMore(seqMore, len);
+          whole = len == ackMoreLen(seqMore, 4);
+        }
+      }
+
+      // only a whole bitmap settles what we owe
+      if (whole)
       {
-        msg.ackMore = toAckMore(seqMore, session.idealMax - payloadLen - 10);
+        acked = true;
+        resend = false;
+        numUnacked = 0;
       }
     }
   }      
+
+  /**
+   * Get the number of bytes toAckMore would use for the bitmask.
+   */
+  static int ackMoreLen(int seqMore, int max)
+  {
+    if (seqMore <= 0xff     || max <= 1) return 1;
+    if (seqMore <= 0xffff   || max <= 2) return 2;
+    if (seqMore <= 0xffffff || max <= 3) return 3;
+    return 4;
+  }
   
   /**
    * Given a 32-bit seqMore bitmask, return the ackMore header.
@@ -128,6 +171,7 @@ final class ReceiveWindow
       if (num <= start || num > end) 
       {
         acked = false;  // force next outgoing msg to include ackNum
+        resend = true;
         return false;   
       }
     }                                                     
@@ -137,6 +181,7 @@ final class ReceiveWindow
       if (num <= start && num > end) 
       {
         acked = false;  // force next outgoing msg to include ackNum
+        resend = true;
         return false;
       }
     }             
@@ -158,12 +203,13 @@ final class ReceiveWindow
     else
     {                   
       int bit = 1 << ((num - start) & 0xffff);
-      if ((seqMore & bit) != 0) return false;
+      if ((seqMore & bit) != 0) { acked = false; resend = true; return false; }
       seqMore |= bit;
     }
 
     // clean acked flag so that we know to ack these received
     acked = false;
+    numUnacked++;
               
     // successful received    
     return true;
@@ -188,6 +234,8 @@ final class ReceiveWindow
   
   private void test()
   {                          
+    testAckMoreBits();
+    testAckDue();
     verify(-1, -1);   
     seqNum = -1; init(1);    
     
@@ -253,6 +301,87 @@ final class ReceiveWindow
   }           
   
     
+  /**
+   * The ackMore bits set by setAckHeaders must
+   * encode exactly like the toAckMore bytes.
+   */
+  private void testAckMoreBits()
+  {
+    java.util.Random rand = new java.util.Random(31);
+    byte[] a = new byte[64];
+    byte[] b = new byte[64];
+    for (int i=0; i<2000; ++i)
+    {
+      int seqMore = rand.nextInt() >>> rand.nextInt(32);
+      int max = 1 + rand.nextInt(4);
+      DaspMsg x = new DaspMsg();
+      DaspMsg y = new DaspMsg();
+      x.msgType = y.msgType = DaspConst.KEEPALIVE;
+      x.ack = y.ack = 7;
+      x.ackMore = toAckMore(seqMore, max);
+      y.setAckMore(seqMore, ackMoreLen(seqMore, max));
+      int n = x.encode(a);
+      verify(n == y.encode(b), "len " + seqMore);
+      for (int j=0; j<n; ++j) verify(a[j] == b[j], "byte " + j + " of " + seqMore);
+    }
+  }
+
+  /**
+   * Standalone acks are due every so many datagrams or for a
+   * datagram received again, and only a message carrying the
+   * whole ackMore bitmap settles them.
+   */
+  private void testAckDue()
+  {
+    seqNum = -1; init(1);
+    verify(!ackDue(2) && unacked());
+    DaspMsg ka = new DaspMsg();
+    setAckHeaders(ka);
+    verify(!unacked() && ka.ack == 0);
+
+    verify(receive(1));
+    verify(unacked() && !ackDue(2));
+    verify(receive(2));
+    verify(ackDue(2));
+    setAckHeaders(ka = new DaspMsg());
+    verify(ka.ack == 2 && !unacked() && !ackDue(1));
+
+    // duplicate, out of window, and already received out of order
+    verify(!receive(2));
+    verify(ackDue(8));
+    setAckHeaders(new DaspMsg());
+    verify(!receive(40));
+    verify(ackDue(8));
+    setAckHeaders(new DaspMsg());
+    verify(receive(5));
+    verify(!receive(5));
+    verify(ackDue(8));
+
+    // a datagram with no room for the whole bitmap leaves us owing
+    int idealMax = session.idealMax;
+    for (int i=6; i<=30; ++i) verify(receive(i));
+    DaspMsg d = new DaspMsg();
+    d.payload = new byte[idealMax - 12];
+    setAckHeaders(d);
+    verify(d.ack == 2 && d.ackMoreLen == 2 && unacked());
+    d.payload = new byte[idealMax - 8];
+    d.ackMoreLen = 0;
+    setAckHeaders(d);
+    verify(d.ack == 2 && d.ackMoreLen == 0 && unacked());
+    setAckHeaders(ka = new DaspMsg());
+    verify(ka.ack == 2 && ka.ackMoreLen == 4 && !unacked());
+
+    // and one carrying it after a standalone ack doesn't
+    verify(receive(3));
+    setAckHeaders(ka);
+    d.payload = new byte[idealMax - 12];
+    d.ackMoreLen = 0;
+    setAckHeaders(d);
+    verify(!unacked());
+    seqNum = -1;
+    seqMore = -1;
+  }
+
   private void verify(int seqNum, int seqMore)
   {                                
     if (this.seqNum != seqNum) throw new RuntimeException(this.seqNum + " != " + seqNum);
@@ -279,5 +408,7 @@ final class ReceiveWindow
   private int seqNum  = -1;    // successful received - start of window
   private int seqMore = -1;    // successful received out of order
   private boolean acked;       // have we acked seqNum and seqMore
+  private boolean resend;      // got a datagram again since we acked
+  private int numUnacked;      // datagrams received since we acked
   
 }
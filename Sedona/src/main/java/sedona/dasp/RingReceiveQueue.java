@@ -0,0 +1,280 @@
+//
+// Copyright (c) 2008 Tridium, Inc.
+// Licensed under the Academic Free License version 3.0
+//
+
+package sedona.dasp;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * RingReceiveQueue is a multiple producer, single consumer ring
+ * buffer.  Enqueuers claim a slot by advancing tail with a CAS and
+ * then publish the message into it, they never block each other or
+ * the dequeuer.  The dequeuer parks when the ring is empty and is
+ * unparked by the next enqueue.  Concurrent dequeuers are serialized
+ * by a consumer lock, which is uncontended for the usual single
+ * application thread.
+ */
+final class RingReceiveQueue
+  extends ReceiveQueue
+{
+
+////////////////////////////////////////////////////////////////
+// Constructor
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Constructor, the ring is sized to the next power of two.
+   */
+  RingReceiveQueue(int max)
+  {
+    int cap = 1;
+    while (cap < max) cap <<= 1;
+    this.max   = max;
+    this.mask  = cap - 1;
+    this.slots = new AtomicReferenceArray(cap);
+  }
+
+////////////////////////////////////////////////////////////////
+// Access
+////////////////////////////////////////////////////////////////
+
+  public final boolean isEmpty()
+  {
+    return tail == head;
+  }
+
+  public final int size()
+  {
+    return (int)(tail - head);
+  }
+
+  public final int peak()
+  {
+    return peak;
+  }
+
+  public final int max()
+  {
+    return max;
+  }
+
+  public final void kill()
+  {
+    isAlive = false;
+    Thread w = waiter;
+    if (w != null) LockSupport.unpark(w);
+  }
+
+  public DaspMessage dequeue(long timeout)
+    throws InterruptedException
+  {
+    if (timeout == -1) consumer.lockInterruptibly();
+    else if (!consumer.tryLock(timeout, TimeUnit.MILLISECONDS)) return null;
+    try
+    {
+      long deadline = System.nanoTime() + timeout * 1000000L;
+      while (true)
+      {
+        DaspMessage m = poll();
+        if (m != null || !isAlive || timeout == 0) return m;
+
+        // advertise ourselves before the final check, an enqueuer
+        // which advances tail after it will see us and unpark
+        waiter = Thread.currentThread();
+        if (tail == head)
+        {
+          if (timeout == -1)
+          {
+            LockSupport.park(this);
+          }
+          else
+          {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) { waiter = null; return poll(); }
+            LockSupport.parkNanos(this, left);
+          }
+        }
+        waiter = null;
+        if (Thread.interrupted()) throw new InterruptedException();
+      }
+    }
+    finally
+    {
+      consumer.unlock();
+    }
+  }
+
+  public void enqueue(DaspMessage m)
+    throws FullException
+  {
+    long t;
+    while (true)
+    {
+      t = tail;
+      int limit = isAlive ? max : slots.length();
+      if (t - head >= limit) throw new FullException();
+      if (tails.compareAndSet(this, t, t+1)) break;
+    }
+    slots.set((int)t & mask, m);
+
+    int size = (int)(t + 1 - head);
+    if (size > peak) peak = size;
+
+    Thread w = waiter;
+    if (w != null) LockSupport.unpark(w);
+  }
+
+  public void clear()
+  {
+    consumer.lock();
+    try
+    {
+      while (poll() != null) {}
+    }
+    finally
+    {
+      consumer.unlock();
+    }
+  }
+
+  /**
+   * Take the message at head, or null if empty.  If an enqueuer
+   * has claimed the slot but not yet published to it, then spin
+   * the few instructions until it has.  Caller must hold the
+   * consumer lock.
+   */
+  private DaspMessage poll()
+  {
+    long h = head;
+    if (h == tail) return null;
+    int i = (int)h & mask;
+    DaspMessage m;
+    while ((m = (DaspMessage)slots.get(i)) == null) Thread.yield();
+    slots.lazySet(i, null);
+    head = h + 1;
+    return m;
+  }
+
+  public String toString()
+  {
+    return "RingQueue size=" + size() + " peak=" + peak + " max=" + max;
+  }
+
+////////////////////////////////////////////////////////////////
+// Test
+////////////////////////////////////////////////////////////////
+
+  public static void main(String[] args)
+    throws Exception
+  {
+    long t1 = System.currentTimeMillis();
+
+    // basics, ring of 4 wraps around many times
+    final RingReceiveQueue q = new RingReceiveQueue(3);
+    verify(q.slots.length() == 4);
+    verify(q.isEmpty() && q.dequeue(0) == null);
+    for (int i=0; i<100; ++i)
+    {
+      DaspMessage a = new DaspMessage(), b = new DaspMessage(), c = new DaspMessage();
+      q.enqueue(a); q.enqueue(b); q.enqueue(c);
+      verify(q.size() == 3);
+      try { q.enqueue(new DaspMessage()); verify(false); } catch (FullException e) { verify(true); }
+      verify(q.dequeue(0) == a);
+      verify(q.dequeue(-1) == b);
+      verify(q.dequeue(10) == c);
+      verify(q.isEmpty());
+    }
+    verify(q.peak() == 3);
+    long t = System.currentTimeMillis();
+    verify(q.dequeue(50) == null);
+    verify(System.currentTimeMillis() - t >= 45);
+
+    // blocked dequeuer is woken by enqueue and by kill
+    final DaspMessage x = new DaspMessage();
+    new Thread() { public void run() { pause(50); try { q.enqueue(x); } catch (Exception e) {} } }.start();
+    verify(q.dequeue(-1) == x);
+    new Thread() { public void run() { pause(50); q.kill(); } }.start();
+    verify(q.dequeue(-1) == null);
+
+    // producers hammer a ring while one consumer checks that
+    // every producer's messages arrive exactly once and in order
+    final int producers = 4, perProducer = 50000;
+    final RingReceiveQueue r = new RingReceiveQueue(64);
+    Thread[] threads = new Thread[producers];
+    for (int p=0; p<producers; ++p)
+    {
+      final int id = p;
+      threads[p] = new Thread()
+      {
+        public void run()
+        {
+          for (int i=0; i<perProducer; ++i)
+          {
+            DaspMessage m = new DaspMessage();
+            m.sessionId = id;
+            m.seqNum = i;
+            while (true)
+            {
+              try { r.enqueue(m); break; }
+              catch (FullException e) { Thread.yield(); }
+            }
+          }
+        }
+      };
+      threads[p].start();
+    }
+    int[] next = new int[producers];
+    boolean inOrder = true;
+    for (int n=0; n<producers*perProducer; ++n)
+    {
+      DaspMessage m = r.dequeue(5000);
+      if (m == null) throw new RuntimeException("lost message");
+      if (m.seqNum != next[m.sessionId]) inOrder = false;
+      next[m.sessionId] = m.seqNum + 1;
+    }
+    verify(inOrder);
+    for (int p=0; p<producers; ++p) { threads[p].join(); verify(next[p] == perProducer); }
+    verify(r.isEmpty() && r.dequeue(0) == null);
+    verify(r.peak() <= 64);
+
+    long t2 = System.currentTimeMillis();
+    System.out.println("  RingReceiveQueue Success: " + verifies + " verifies [" + (t2-t1) + "ms]");
+  }
+
+  private static void pause(long ms)
+  {
+    try { Thread.sleep(ms); } catch (InterruptedException e) {}
+  }
+
+  private static void verify(boolean x)
+  {
+    if (!x) throw new RuntimeException();
+    verifies++;
+  }
+
+  private static int verifies;
+
+////////////////////////////////////////////////////////////////
+// Fields
+////////////////////////////////////////////////////////////////
+
+  private static final AtomicLongFieldUpdater tails =
+    AtomicLongFieldUpdater.newUpdater(RingReceiveQueue.class, "tail");
+
+  private final AtomicReferenceArray slots;
+  private final int mask;
+  private final int max;
+  private final ReentrantLock consumer = new ReentrantLock();
+  private volatile long head;            // next slot to dequeue
+  private volatile long tail;            // next slot to claim
+  private volatile Thread waiter;        // parked dequeuer
+  private volatile boolean isAlive = true;
+  private int peak;
+
+}
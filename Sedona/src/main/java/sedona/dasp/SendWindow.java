@@ -8,8 +8,30 @@
 
 package sedona.dasp;
 
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * SendWindow manages the outgoing datagram queue.
+ *
+ * By default senders block on the window's monitor, and every
+ * enqueue and ack wakes all of them to recheck for room.  On
+ * sockets opened with "dasp.lockFree" room in the window is
+ * instead reserved with a CAS on an in flight count, and blocked
+ * senders park on a waiter queue and are unparked one per slot
+ * freed by acks.  The monitor is then only held briefly to link
+ * and transmit a packet or to slide the window.
+ *
+ * Unacked datagrams are resent after an adaptive retry timeout
+ * computed from the smoothed round trip time and its variation,
+ * sampled from the acks of datagrams sent only once (RFC 6298).
+ * Each resend of a datagram doubles its own timeout.  The window
+ * size is a congestion window: it starts small and grows by one per
+ * ack up to the slow start threshold and by one per window above it
+ * (additive increase), never beyond the remote's receiveMax.  The
+ * first resend of a loss episode halves it and doubles the retry
+ * timeout for new datagrams (multiplicative decrease and backoff).
  */
 final class SendWindow
 {                   
@@ -26,6 +48,7 @@ final class SendWindow
     this.session  = session;
     this.socket   = session.socket;
     this.seqNum   = socket.rand.nextInt();             
+    this.lockFree = socket.lockFree;
     this.ackTimes = new int[20];                
     for (int i=0; i<ackTimes.length; ++i)
       ackTimes[i] = -1;                     
@@ -46,10 +69,11 @@ final class SendWindow
   /**
    * Clear the isAlive flag which will wake up a blocked enqueuer.
    */
-  final synchronized void kill()
+  final void kill()
   {
-    isAlive = false;
-    notifyAll();
+    synchronized (this) { isAlive = false; }
+    clear();
+    if (lockFree) wakeAll();
   }
 
   /**
@@ -66,62 +90,230 @@ final class SendWindow
   final int curSeqNum() { return seqNum & 0xffff; }
   
   /**
-   * Add a datagram to the end of the queue - block if full.
+   * Convenience for <code>send(payload, 0, payload.length)</code>.
    */
   void send(byte[] payload)
     throws InterruptedException
+  {
+    send(payload, 0, payload.length);
+  }
+
+  /**
+   * Copy the datagram into a pooled packet, add it to the end
+   * of the queue - block if full - and send it.
+   */
+  void send(byte[] buf, int off, int len)
+    throws InterruptedException
   {                     
-    Packet p = new Packet();
+    Packet p = alloc(len);
+    System.arraycopy(buf, off, p.buf, 0, len);
+    p.len = len;
     p.enqueuedTime = DaspSession.ticks();
-    p.seqNum  = nextSeqNum();
-    p.payload = payload;         
 
-    // will block until send window has room
+    if (lockFree)
+    {
+      // park until we get a slot, then fire away
+      try { reserve(); }
+      catch (InterruptedException e) { synchronized (this) { free(p); } throw e; }
+      append(p);
+      return;
+    }
+
+    p.seqNum = nextSeqNum();
+
+    // will block until send window has room, then fires away
     enqueue(p);                             
-    
-    // fire away
-    p.sentTime = DaspSession.ticks();
-    session.send(toMsg(p));
   }
   
   /**
-   * Convert a packet item in our linked list to a message, we
-   * always do this on-the-fly to get the latest ack headers.
+   * Send a packet item in our linked list.  The message is built
+   * on-the-fly to get the latest ack headers, into a scratch
+   * message which is encoded straight into the interface's
+   * outbound buffer.  Caller must hold our lock.
    */
-  private DaspMsg toMsg(Packet packet)
+  private void transmit(Packet p)
   { 
+    p.sentTime = DaspSession.ticks();
+
     // construct datagram message                  
-    DaspMsg msg = new DaspMsg();
-    msg.msgType   = DaspConst.DATAGRAM;
-    msg.sessionId = session.remoteId;
-    msg.seqNum    = packet.seqNum;
-    msg.payload   = packet.payload;  
+    DaspMsg msg = out;
+    msg.reset();
+    msg.msgType    = DaspConst.DATAGRAM;
+    msg.sessionId  = session.remoteId;
+    msg.seqNum     = p.seqNum;
+    msg.payload    = p.buf;
+    msg.payloadLen = p.len;
 
     // let receive window add ack headers if room
     session.receiveWindow.setAckHeaders(msg);  
         
-    return msg;
+    session.send(msg);
   }
 
   /**
-   * Add a datagram to the end of the queue - block if full.
+   * Add a datagram to the end of the queue - block if full,
+   * then send it and schedule its first retry.
    */
   private synchronized void enqueue(Packet p)
     throws InterruptedException
   {                     
-    while(isAlive && full()) 
+    if (isAlive && full())
     {
-      try { blocked = Thread.currentThread().getName(); } catch(Exception e) {}
-      wait();
+      long t = System.nanoTime();
+      try
+      {
+        while(isAlive && full()) 
+        {
+          try { blocked = Thread.currentThread().getName(); } catch(Exception e) {}
+          wait();
+        }
+      }
+      finally
+      {
+        blocked = null;
+        session.metrics.sendBlocked.record((System.nanoTime() - t) / 1000);
+      }
     }
-    blocked = null;
     
     if (p.next != null) throw new IllegalStateException();
     if (tail == null) { head = tail = p; }
     else { tail.next = p; tail = p; }
     size++;
     notifyAll();
+
+    p.rto = rto;
+    transmit(p);
+    if (isAlive) scheduleRetry(p);
   }                     
+
+  /**
+   * Add a datagram for which a slot has been reserved to the end
+   * of the queue, then send it and schedule its first retry.  The
+   * sequence number is allocated here so the queue stays in order.
+   */
+  private synchronized void append(Packet p)
+  {
+    p.seqNum = seqNum++ & 0xffff;
+    if (tail == null) { head = tail = p; }
+    else { tail.next = p; tail = p; }
+    size++;
+
+    p.rto = rto;
+    transmit(p);
+    if (isAlive) scheduleRetry(p);
+  }
+
+  /**
+   * Reserve a slot in the window, parking until acks free one.
+   * Once the window is killed the reservation always succeeds,
+   * like the monitor enqueue it lets blocked senders through.
+   */
+  private void reserve()
+    throws InterruptedException
+  {
+    if (tryReserve()) return;
+
+    // acks usually free a slot soon, so give them a chance
+    // before paying for a park and unpark
+    long t = System.nanoTime();
+    Thread me = Thread.currentThread();
+    try
+    {
+      for (int i=0; i<SPINS; ++i)
+      {
+        Thread.yield();
+        if (tryReserve()) return;
+      }
+      while (true)
+      {
+        // queue ourselves before the recheck, so a release
+        // after it is sure to find and unpark us
+        waiters.add(me);
+        if (tryReserve()) return;
+        blocked = me.getName();
+        LockSupport.park(this);
+        waiters.remove(me);
+        if (Thread.interrupted())
+        {
+          // pass on a wakeup we may have been given
+          if (inFlight < sendSize) wake(1);
+          throw new InterruptedException();
+        }
+      }
+    }
+    finally
+    {
+      waiters.remove(me);
+      blocked = null;
+      session.metrics.sendBlocked.record((System.nanoTime() - t) / 1000);
+    }
+  }
+
+  private boolean tryReserve()
+  {
+    while (true)
+    {
+      int n = inFlight;
+      if (isAlive && n >= sendSize) return false;
+      if (inFlights.compareAndSet(this, n, n+1)) return true;
+    }
+  }
+
+  /**
+   * Give back n reserved slots and unpark as many waiters.
+   */
+  private void release(int n)
+  {
+    if (n <= 0) return;
+    inFlights.addAndGet(this, -n);
+    wake(n);
+  }
+
+  private void wake(int n)
+  {
+    while (n-- > 0)
+    {
+      Thread t = (Thread)waiters.poll();
+      if (t == null) return;
+      LockSupport.unpark(t);
+    }
+  }
+
+  private void wakeAll()
+  {
+    Thread t;
+    while ((t = (Thread)waiters.poll()) != null)
+      LockSupport.unpark(t);
+  }
+
+  /**
+   * Get a packet from our free list with a buffer for len bytes.
+   */
+  private synchronized Packet alloc(int len)
+  {
+    Packet p = free;
+    if (p != null) { free = p.next; p.next = null; numFree--; }
+    else p = new Packet();
+    p.buf = len <= DaspPool.BUFFER_SIZE ? DaspPool.shared.buffer() : new byte[len];
+    return p;
+  }
+
+  /**
+   * Return an acked packet and its buffer for reuse.  Its retry
+   * timer has been cancelled, but the wheel may be about to fire
+   * it already, so we also clear retryGen for retry() to skip it.
+   */
+  private void free(Packet p)
+  {
+    DaspPool.shared.free(p.buf);
+    p.buf = null;
+    p.retryGen = 0;
+    p.len = 0;
+    p.acked = false;
+    p.sendAttempts = 1;
+    p.next = null;
+    if (numFree < FREE_MAX) { p.next = free; free = p; numFree++; }
+  }
   
   /**
    * Return if our sending window is filled up.
@@ -134,12 +326,26 @@ final class SendWindow
   /**
    * Remove all the enqueued entries.
    */
-  public synchronized void clear()
+  public void clear()
   {
-    size = 0;
-    head = null;
-    tail = null;
-    notifyAll();
+    int freed;
+    synchronized (this)
+    {
+      cancelRetries();
+      Packet p = head;
+      while (p != null)
+      {
+        Packet next = p.next;
+        free(p);
+        p = next;
+      }
+      freed = size;
+      size = 0;
+      head = null;
+      tail = null;
+      if (!lockFree) notifyAll();
+    }
+    if (lockFree) release(freed);
   }
   
   /**
@@ -156,7 +362,9 @@ final class SendWindow
       if (p.acked) s.append("a");
       p = p.next;
     }
+    s.append(" cwnd=").append(cwnd).append(" rto=").append(rto);
     if (blocked != null) s.append(" blocked=").append(blocked);
+    if (lockFree) s.append(" inFlight=").append(inFlight).append(" waiters=").append(waiters.size());
     return s.toString();
   }
 
@@ -164,10 +372,27 @@ final class SendWindow
    * Check if we've got some acks which will let us 
    * slide our sending window. 
    */
-  synchronized void checkAckHeaders(DaspMsg msg)
+  void checkAckHeaders(DaspMsg msg)
+  {
+    if (msg.ack < 0) return;
+    int before = sendSize;
+    int freed = slide(msg);
+    if (lockFree)
+    {
+      release(freed);
+      int grown = sendSize - before;
+      if (grown > 0) wake(grown);
+    }
+  }
+
+  /**
+   * Mark the acked packets and slide head past them, return
+   * the number of packets removed from the window.
+   */
+  private synchronized int slide(DaspMsg msg)
   {
     int ackNum = msg.ack;
-    if (ackNum < 0 || head == null) return;              
+    if (ackNum < 0 || head == null) return 0;              
     
     // create the new "unacked window" - anything outside
     // of start and end inclusive is now considered ack'ed
@@ -177,23 +402,36 @@ final class SendWindow
     // check each packet for ack, and slide head as appriopiate
     Packet p = head;                         
     long now = DaspSession.ticks();
+    int freed = 0;
     while (p != null)
     {                    
       if (!p.acked && isAcked(unackStart, unackEnd, msg, p.seqNum))
       {
         p.acked = true;
+        if (p.sendAttempts == 1)
+        {
+          sample(now - p.sentTime);
+          session.metrics.rtt.record(now - p.sentTime);
+        }
+        session.metrics.retriesPerPacket.record(p.sendAttempts - 1);
+        grow();
+        if (session.timers != null) session.timers.cancel(p);
         ackTimes[ackTimesPos] = (int)(now - p.enqueuedTime);
         ackTimesPos = (ackTimesPos + 1) % ackTimes.length;
       }               
+      Packet next = p.next;
       if (p == head && p.acked)
       {               
-        head = p.next; 
+        head = next; 
         size--;
+        freed++;
+        free(p);
       }         
-      p = p.next;       
+      p = next;       
     } 
     if (head == null) tail = null;               
-    notifyAll();
+    if (!lockFree) notifyAll();
+    return freed;
   }               
   
   /**
@@ -235,58 +473,176 @@ final class SendWindow
     return false;
   }
 
+////////////////////////////////////////////////////////////////
+// Retry Timeout and Congestion Window
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Open the window once the handshake has negotiated the remote
+   * endpoint's receiveMax: the congestion window starts at
+   * initWindow and may grow up to max.
+   */
+  synchronized void open(int max)
+  {
+    maxSize  = max;
+    ssthresh = max;
+    cwnd     = Math.min(initWindow, max);
+    sendSize = (int)cwnd;
+    rto      = sendRetry;
+    srtt8    = -1;
+    rttVar4  = 0;
+    recover  = -1;
+  }
+
   /**
-   * Anything that hasn't been acked which was sent a while 
-   * ago needs to get resent.  Return the longest duration we've
-   * had an unacked packet enqueued.
+   * Update the smoothed round trip time and its variation
+   * with a new sample and recompute the retry timeout, which
+   * also ends any backoff.  Caller must hold our lock.
    */
-  synchronized long sendRetries()
-  {                      
-    long now = DaspSession.ticks();
-    long oldest = 0;
-    Packet p = head;
-    while (p != null)
+  private void sample(long rtt)
+  {
+    if (srtt8 < 0)
+    {
+      srtt8   = rtt << 3;
+      rttVar4 = rtt << 1;
+    }
+    else
+    {
+      long err = rtt - (srtt8 >> 3);
+      srtt8 += err;
+      if (err < 0) err = -err;
+      rttVar4 += err - (rttVar4 >> 2);
+    }
+    long x = (srtt8 >> 3) + Math.max(1, rttVar4);
+    rto = Math.max(minRetry, Math.min(x, maxRetry));
+  }
+
+  /**
+   * Grow the congestion window for an acked datagram: by
+   * one in slow start, else by one per window's worth of
+   * acks.  Caller must hold our lock.
+   */
+  private void grow()
+  {
+    if (cwnd < ssthresh) cwnd += 1;
+    else cwnd += 1 / cwnd;
+    if (cwnd > maxSize) cwnd = maxSize;
+    sendSize = (int)cwnd;
+  }
+
+  /**
+   * Called when a packet is resent: double its retry timeout.
+   * If it was sent after the last decrease it starts a new loss
+   * episode, so halve the congestion window and double the retry
+   * timeout for new datagrams until the next rtt sample.  Caller
+   * must hold our lock.
+   */
+  private void backoff(Packet p)
+  {
+    p.rto = Math.min(p.rto * 2, maxRetry);
+
+    // packets sent before the last decrease are the same episode
+    if (recover >= 0)
+    {
+      int d = (recover - p.seqNum) & 0xffff;
+      if (d != 0 && d < 0x8000) return;
+    }
+
+    recover  = seqNum & 0xffff;
+    ssthresh = Math.max(cwnd / 2, 2);
+    cwnd     = Math.max(cwnd / 2, 1);
+    sendSize = (int)cwnd;
+    rto      = Math.min(rto * 2, maxRetry);
+    session.metrics.backoffs.increment();
+  }
+
+  /**
+   * Schedule the packet's next retry: its retry timeout after it
+   * was last sent, or just past receiveTimeout after it was enqueued
+   * if that comes first, so that the unacked send timeout isn't late.
+   */
+  private void scheduleRetry(Packet p)
+  {
+    DaspTimerWheel timers = session.timers;
+    if (timers == null) return;
+    long deadline = Math.min(p.sentTime + p.rto, p.enqueuedTime + session.receiveTimeout + 1);
+    p.retryGen = timers.schedule(p, deadline);
+  }
+
+  private void cancelRetries()
+  {
+    DaspTimerWheel timers = session.timers;
+    if (timers == null) return;
+    for (Packet p = head; p != null; p = p.next)
+      timers.cancel(p);
+  }
+
+  /**
+   * Called by the packet's timer when it is due.  If it still
+   * hasn't been acked it gets resent.  If it has been enqueued
+   * longer than receive time out, then the remote endpoint isn't
+   * acking anymore and we close the session.  The gen is the
+   * timer generation which fired: if the packet was acked and
+   * freed (and maybe reused) or rescheduled since, it is stale.
+   */
+  void retry(Packet p, int gen)
+  {
+    synchronized (this)
     {
-      if (!p.acked)
+      if (!isAlive || p.acked || p.buf == null || gen != p.retryGen) return;
+
+      // MG - do not implement maxSend timeouts right now. The default
+      // behavior of the specification is too aggressive.
+      // With the retry timeout backing off exponentially the unacked
+      // send timeout below bounds the number of resends instead.
+//      if (p.sendAttempts >= maxSend)
+//      {
+//        // packet was never ack'd after maxSend attempts, so close the session.
+//        session.close(DaspConst.TIMEOUT, "maxSend limit exceeded for seqNum="+Integer.toHexString(p.seqNum));
+//        return;
+//      }
+
+      long now = DaspSession.ticks();
+      if (now - p.enqueuedTime <= session.receiveTimeout)
       {
-        // MG - do not implement maxSend timeouts right now. The default
-        // behavior of the specification is too aggressive.
-//        if (p.sendAttempts >= maxSend)
-//        {
-//          // packet was never ack'd after maxSend attempts, so close the session.
-//          session.close(DaspConst.TIMEOUT, "maxSend limit exceeded for seqNum="+Integer.toHexString(p.seqNum));
-//          return oldest;
-//        }
-        
-        if (now - p.sentTime >= sendRetry)
+        if (now - p.sentTime >= p.rto)
         {
-          p.sentTime = now;        
           ++p.sendAttempts;
-          ++session.numRetries;
-          ++session.iface.numRetries;
-          session.send(toMsg(p));  
+          backoff(p);
+          session.metrics.retries.increment();
+          session.iface.numRetries.increment();
+          transmit(p);
         }
-        
-        oldest = Math.max(oldest, now-p.enqueuedTime);
+        scheduleRetry(p);
+        return;
       }
-      
-      p = p.next;
-    }    
-    return oldest;
+    }
+
+    // close outside of our lock since it kills the window
+    session.close(DaspConst.TIMEOUT, "unacked send timeout");
   }
-      
+
 ////////////////////////////////////////////////////////////////
 // Packet
 ////////////////////////////////////////////////////////////////
 
-  static class Packet
-  {                  
+  /**
+   * Packet is an unacked datagram in the window, it is its
+   * own retry timer on the session's timer wheel.
+   */
+  final class Packet extends DaspTimerWheel.Timer
+  {
+    void fire() { retry(this, fireGen); }
+
     int seqNum;
-    byte[] payload;
+    byte[] buf;           // pooled unless larger than a pool buffer
+    int len;
     boolean acked;  
     long enqueuedTime;
     long sentTime;
     int sendAttempts = 1; // only incremented during retry
+    long rto;             // retry timeout, doubled by each resend
+    int retryGen;         // timer gen of the scheduled retry, 0 if none
     Packet next;
   }
 
@@ -298,7 +654,18 @@ final class SendWindow
     throws Exception
   {                          
     long t1 = System.currentTimeMillis();
-    DaspSocket sock = DaspSocket.open(-1, null, DaspSocket.SESSION_QUEUING);                   
+    test(false);
+    test(true);
+    long t2 = System.currentTimeMillis();
+    System.out.println("  SendWindow Success: " + verifies + " verifies [" + (t2-t1) + "ms]");
+  }                            
+
+  private static void test(boolean lockFree)
+    throws Exception
+  {
+    java.util.Hashtable sockOptions = new java.util.Hashtable();
+    sockOptions.put("dasp.lockFree", String.valueOf(lockFree));
+    DaspSocket sock = DaspSocket.open(new DefaultDaspSocketInterface(-1), null, DaspSocket.SESSION_QUEUING, sockOptions);
     java.util.Hashtable options = new java.util.Hashtable();
     options.put("dasp.test", new DaspTestHooks()
       {
@@ -307,17 +674,18 @@ final class SendWindow
     );
     DaspSession s = new DaspSession(sock.interfaces[0], 0, null, 0, true, options);
     SendWindow x = new SendWindow(s);
+    x.verify(x.lockFree == lockFree);
     x.test();
-    long t2 = System.currentTimeMillis();
-    System.out.println("  SendWindow Success: " + verifies + " verifies [" + (t2-t1) + "ms]");
+    if (lockFree) x.testBlocked();
+    else x.testAdaptive();
     sock.close();
-  }                            
+  }
   
   private void test() 
     throws Exception
   {                          
     seqNum = 0;     
-    sendSize = 4;         
+    window(4);
     byte[] b = new byte[0];
     
     verify("");  
@@ -402,7 +770,7 @@ final class SendWindow
     ack(2); verify("");  
     
     seqNum = 100;     
-    sendSize = 32;     
+    window(32);
     for (int i=0; i<18; ++i) send(b);     
     verify("100 101 102 103 104 105 106 107 108 109 110 111 112 113 114 115 116 117");
     ack(99, 107, 117);  
@@ -415,6 +783,152 @@ final class SendWindow
     verify("108 109 110 111a 112 113 114 115 116 117a");
   }        
   
+  /**
+   * Senders parked on a full window are let through one per
+   * acked slot, and all of them once the window is killed.
+   */
+  private void testBlocked()
+    throws Exception
+  {
+    clear();
+    verify(inFlight == 0);
+    seqNum = 0;
+    window(2);
+    final byte[] b = new byte[0];
+    send(b); send(b);
+    verify("0 1 full");
+
+    Thread[] senders = new Thread[3];
+    for (int i=0; i<senders.length; ++i)
+    {
+      senders[i] = new Thread()
+      {
+        public void run() { try { send(b); } catch (InterruptedException e) {} }
+      };
+      senders[i].start();
+    }
+    while (waiters.size() < 3) Thread.sleep(1);
+    verify(inFlight == 2);
+
+    ack(0);
+    while (waiters.size() > 2 || size < 2) Thread.sleep(1);
+    verify("1 2 full");
+    verify(inFlight == 2);
+
+    ack(2);
+    while (waiters.size() > 0 || size < 2) Thread.sleep(1);
+    verify("3 4 full");
+
+    kill();
+    for (int i=0; i<senders.length; ++i) senders[i].join(5000);
+    for (int i=0; i<senders.length; ++i) verify(!senders[i].isAlive());
+  }
+
+  /**
+   * Retry timeout from rtt samples, slow start and congestion
+   * avoidance, and backoff once per loss episode.
+   */
+  private void testAdaptive()
+    throws Exception
+  {
+    clear();
+    session.timers = null;  // we fire the retries ourselves
+    sendRetry = 1000;
+    initWindow = 2;
+    open(8);
+    verify(sendSize == 2 && rto == 1000 && srtt8 == -1);
+
+    // first sample: srtt = r, rttvar = r/2, rto = srtt + 4*rttvar
+    sample(100);
+    verify(srtt8 >> 3 == 100 && rttVar4 >> 2 == 50 && rto == 300);
+    sample(100);
+    verify(srtt8 >> 3 == 100 && rto == 250);
+    sample(20);
+    verify(srtt8 >> 3 == 90 && rto == 90 + rttVar4);
+    for (int i=0; i<50; ++i) sample(1);
+    verify(rto == minRetry);
+    for (int i=0; i<50; ++i) sample(100000);
+    verify(rto == maxRetry);
+
+    // slow start doubles per window of acks up to maxSize
+    seqNum = 0;
+    byte[] b = new byte[0];
+    send(b); send(b);
+    verify("0 1 full");
+    ack(1);
+    verify(sendSize == 4);
+    send(b); send(b); send(b); send(b);
+    verify("2 3 4 5 full");
+    ack(5);
+    verify(sendSize == 8);
+    for (int i=0; i<8; ++i) send(b);
+    ack(13);
+    verify(sendSize == 8 && cwnd == 8);
+
+    // a resend halves the window once per loss episode, and the
+    // datagrams sent before the decrease don't decrease it again
+    rto = 200;
+    for (int i=0; i<4; ++i) send(b);
+    verify("14 15 16 17");
+    Packet p = head;
+    p.sentTime -= p.rto;
+    retry(p, p.retryGen);
+    verify(p.sendAttempts == 2 && p.rto == 400);
+    verify(cwnd == 4 && ssthresh == 4 && sendSize == 4);
+    verify(session.numBackoffs() == 1 && rto == 400);
+    verify(full());
+    Packet q = p.next;
+    q.sentTime -= q.rto;
+    retry(q, q.retryGen);
+    verify(q.sendAttempts == 2 && cwnd == 4 && session.numBackoffs() == 1);
+    p.sentTime -= p.rto;
+    retry(p, p.retryGen);
+    verify(p.sendAttempts == 3 && p.rto == 800 && session.numBackoffs() == 1);
+
+    // acks of resent datagrams aren't sampled (Karn), others are
+    long srtt = srtt8;
+    ack(15);
+    verify(srtt8 == srtt && rto == 400);
+    verify("16 17");
+    ack(17);
+    verify(rto != 400);
+
+    // congestion avoidance above ssthresh: one per window,
+    // here for the four datagrams acked since the decrease
+    double w = 4;
+    for (int i=0; i<4; ++i) w += 1 / w;
+    verify(cwnd == w && sendSize == 4);
+
+    // new datagrams sent after the decrease start a new episode
+    send(b);
+    p = head;
+    p.sentTime -= p.rto;
+    retry(p, p.retryGen);
+    verify(session.numBackoffs() == 2 && sendSize == 2);
+    ack(18);
+
+    // a retry firing collected before its packet was acked is
+    // stale, also once the freed packet is reused for a new send
+    session.timers = new DaspTimerWheel(10, null);
+    send(b);
+    p = head;
+    int stale = p.retryGen;
+    verify(stale != 0);
+    ack(19);
+    verify(p.buf == null && p.retryGen == 0);
+    retry(p, stale);
+    send(b);
+    verify(head == p && p.retryGen != stale);
+    p.sentTime -= p.rto;
+    retry(p, stale);
+    verify(p.sendAttempts == 1);
+    retry(p, p.retryGen);
+    verify(p.sendAttempts == 2);
+    ack(20);
+    session.timers.cancel(p);
+    session.timers = null;
+  }
+
   private void ack(int a) { ack(new int[] { a }); }
   private void ack(int a, int b) { ack(new int[] { a, b }); }
   private void ack(int a, int b, int c) { ack(new int[] { a, b, c }); }
@@ -438,6 +952,14 @@ final class SendWindow
     checkAckHeaders(msg);
   }
   
+  private void window(int n)
+  {
+    maxSize = n;
+    ssthresh = n;
+    cwnd = n;
+    sendSize = n;
+  }
+
   private void verify(String expected)
   {                     
     StringBuffer s = new StringBuffer();
@@ -487,13 +1009,33 @@ final class SendWindow
   private Packet head;
   private Packet tail;
   private String blocked;
-  private boolean isAlive = true;
+  private volatile boolean isAlive = true;
+  private final boolean lockFree;  // reserve slots by CAS and park instead of wait
+  private volatile int inFlight;   // reserved slots in lockFree mode
+  private final ConcurrentLinkedQueue waiters = new ConcurrentLinkedQueue();  // parked senders
   private int size;                // current number of messages
   private int seqNum;              // next outgoing sequence number
-  long sendRetry = 1000;           // ms
+  long sendRetry = 1000;           // ms, retry timeout until the first rtt sample
+  long minRetry = DaspConst.SEND_RETRY_MIN;  // ms, floor of the adaptive retry timeout
+  long maxRetry = DaspConst.SEND_RETRY_MAX;  // ms, ceiling of the retry backoff
+  int initWindow = DaspConst.SEND_WINDOW_INIT; // initial congestion window
   int  maxSend = 3;                // max number of times to send a datagram packet
-  int sendSize = 8;                // current max num for sending window
+  volatile int sendSize = 8;       // current max num for sending window
+  int maxSize = 8;                 // remote's receiveMax bounds sendSize
+  double cwnd = 8;                 // congestion window, sendSize is its floor
+  double ssthresh = 8;             // slow start threshold
+  long rto = DaspConst.SEND_RETRY_VAL;  // ms, current retry timeout
+  long srtt8 = -1;                 // smoothed rtt << 3, or -1 before any sample
+  long rttVar4;                    // rtt variation << 2
+  int recover = -1;                // seqNum sent first after the last decrease
   int[] ackTimes;                  // circular list of ack times in ms
   private int ackTimesPos;         // next index to write in ackTimes
+  private final DaspMsg out = new DaspMsg();  // scratch message for transmit
+  private Packet free;             // recycled packets
+  private int numFree;
+  static final int FREE_MAX = DaspConst.RECEIVE_MAX_VAL + 1;
+  private static final int SPINS = 16;
+  private static final AtomicIntegerFieldUpdater inFlights =
+    AtomicIntegerFieldUpdater.newUpdater(SendWindow.class, "inFlight");
   
 }
@@ -18,6 +18,15 @@ import sedona.sox.ISoxComm.TransferListener;
 
 /**
  * FileTransfer manages file get/puts
+ *
+ * A transfer with the "resume" header set to true records which
+ * chunks are done in a TransferState kept by the SoxFile.  If it is
+ * interrupted, running it again with the same uri and headers only
+ * transfers the chunks still missing: each run of missing chunks is
+ * opened as a transfer of its own, positioned with the "offset"
+ * header, and a put writes into the existing file with mode "m".
+ * Resuming assumes the remote file of a get, and the local file of
+ * a put, didn't change in between.
  */
 public class FileTransfer
 {
@@ -50,6 +59,7 @@ public class FileTransfer
     this.reqHeaders  = reqHeaders;
     this.offset      = geti(reqHeaders, "offset", 0);
     this.chunkSize   = geti(reqHeaders, "chunkSize", defaultChunkSize);
+    this.resume      = getb(reqHeaders, "resume", false);
     this.lock        = new Object();
     this.startTicks  = Env.ticks();
   }
@@ -61,34 +71,33 @@ public class FileTransfer
   public Properties getFile()
     throws Exception
   {
-    file.open("w");
+    this.method = "g";
+    this.stats  = new TransferStats(uri, method);
+    TransferState resumed = resumable(geti(reqHeaders, "fileSize", 0));
+    file.open(resumed != null ? "rw" : "w");
     try
     {
-      doGetFile();
+      transfer(resumed);
       return resHeaders;
     }
     finally
     {
       file.close();
+      finish();
     }
   }
 
-  private void doGetFile()
+  /**
+   * Receive the chunks of the current run until all are done.
+   */
+  private void receiveRun()
     throws Exception
   {
-    // start a "get" transaction
-    this.method = "g";
-    this.fileSize = geti(reqHeaders, "fileSize", 0);
-    start();
-
-    // wait until we've received the entire file
+    // wait until we've received the entire run
     lastReceiveTicks = Env.ticks();
     synchronized (lock)
     {
-      // force a flush of all queued chunks
-      receiveChunk(null);
-
-      while (transferedChunks < numChunks)
+      while (!runDone())
       {
         // sanity check
         if (comm.session()==null)
@@ -99,6 +108,7 @@ public class FileTransfer
 
         // wait to receive chunks
         try { lock.wait(1000); } catch(Exception e) {}
+        checkpoint();
       }
     }
 
@@ -106,58 +116,37 @@ public class FileTransfer
     Msg req = Msg.prepareRequest('z');
     Msg res = comm.request(req);
     res.checkResponse('Z');
+  }
 
-    // update progress and report done
-    progress();
-    done();
+  private boolean runDone()
+  {
+    return state.nextMissing(runFirst) >= runEnd;
   }
 
+  /**
+   * Queue a received chunk and write the queued chunks to the
+   * file, unless another thread is already doing so.  The file
+   * is written without holding the lock the caller waits on.
+   */
   public void receiveChunk(Msg msg)
   {
-    try
+    synchronized (lock)
     {
-      if (msg != null)
-        chunkQueue.add(msg);
-
-      if (!opened)
-        return;
+      if (msg != null) chunkQueue.add(msg);
+      if (!opened || writing) return;
+      writing = true;
+    }
 
-      synchronized (lock)
+    try
+    {
+      while (true)
       {
-        while (!chunkQueue.isEmpty())
+        synchronized (lock)
         {
-          msg = (Msg)chunkQueue.remove(0);
-          int cmd           = msg.u1();
-          int replyNum      = msg.u1();
-          int chunkNum      = msg.u2();
-          int thisChunkSize = msg.u2();
-          lastReceiveTicks  = Env.ticks();
-
-  //        System.out.println("Received chunk# " + chunkNum + " of file");  // DIAG
-
-          // sanity check - should never receive this if not 'k'
-          if (cmd != 'k')
-          {
-            System.out.println("WARNING: This code is hosed up " + (char)cmd);
-            return;
-          }
-
-          // check that my chunkNum is within expected range
-          if (chunkNum >= numChunks)
-          {
-            System.out.println("WARNING: Received received out of range chunk " +  chunkNum + " >= " + numChunks);
-            return;
-          }
-
-          // increment our transfer chunk count
-          transferedChunks++;
-
-          // write this chunk to the file
-          file.write(chunkNum*chunkSize, msg, thisChunkSize);
+          if (chunkQueue.isEmpty() || !opened) { writing = false; lock.notifyAll(); break; }
+          msg = (Msg)chunkQueue.removeFirst();
         }
-
-        // notify the calling thread
-        lock.notifyAll();
+        writeChunk(msg);
       }
 
       // notify application
@@ -165,10 +154,48 @@ public class FileTransfer
     }
     catch (Exception e)
     {
+      synchronized (lock) { writing = false; lock.notifyAll(); }
       e.printStackTrace();
     }
   }
 
+  private void writeChunk(Msg msg)
+    throws Exception
+  {
+    int cmd           = msg.u1();
+    int replyNum      = msg.u1();
+    int chunkNum      = msg.u2();
+    int thisChunkSize = msg.u2();
+    lastReceiveTicks  = Env.ticks();
+
+    // sanity check - should never receive this if not 'k'
+    if (cmd != 'k')
+    {
+      System.out.println("WARNING: This code is hosed up " + (char)cmd);
+      return;
+    }
+
+    // chunk numbers count from the start of the run
+    int chunk = runFirst + chunkNum;
+    if (chunk >= runEnd)
+    {
+      System.out.println("WARNING: Received received out of range chunk " +  chunkNum + " >= " + (runEnd-runFirst));
+      return;
+    }
+
+    // ignore chunks we already have
+    if (state.isDone(chunk))
+    {
+      stats.duplicate();
+      return;
+    }
+
+    // write this chunk to the file, then mark it done
+    file.write(chunk*chunkSize, msg, thisChunkSize);
+    state.setDone(chunk);
+    stats.chunk(thisChunkSize);
+  }
+
 //////////////////////////////////////////////////////////////
 // Put
 //////////////////////////////////////////////////////////////
@@ -176,33 +203,39 @@ public class FileTransfer
   public Properties putFile()
     throws Exception
   {
+    this.method = "p";
+    this.stats  = new TransferStats(uri, method);
     file.open("r");
     try
     {
-      doPutFile();
+      transfer(resumable(geti(reqHeaders, "fileSize", file.size())));
       return resHeaders;
     }
     finally
     {
       file.close();
+      finish();
     }
   }
 
-  private void doPutFile()
+  /**
+   * Send the chunks of the current run and wait for the device
+   * to close it.  Chunks are done once the device acked them,
+   * which happens in order, so every chunk sent before the
+   * datagrams still unacked in the send window is done.
+   */
+  private void sendRun()
     throws Exception
   {
-    // start a "put" transaction
-    this.method   = "p";
-    this.fileSize = geti(reqHeaders, "fileSize", file.size());
-    start();
-
     // start sending chunks - the send window will block
     // us automatically to provide flow control
-    for (int i=0; i<numChunks || (i==0 && numChunks==0); ++i)
+    for (int i=runFirst; i<runEnd; ++i)
     {
       sendChunk(i);
       transferedChunks++;
+      state.setDone(runFirst, i+1 - comm.session().sendUnacked());
       progress();
+      checkpoint();
     }
 
     // wait for close command
@@ -222,19 +255,16 @@ public class FileTransfer
         try { lock.wait(1000); } catch(Exception e) {}
       }
     }
-
-    // update progress and report done
-    progress();
-    done();
+    state.setDone(runFirst, runEnd);
   }
 
-  private void sendChunk(int chunkNum)
+  private void sendChunk(int chunk)
     throws Exception
   {
     // compute this specific chunk's size (in case
     // we are processing the last odd-sized chunk)
     int thisChunkSize = chunkSize;
-    if (chunkNum == numChunks-1)
+    if (chunk == numChunks-1)
     {
       if (fileSize % chunkSize > 0)
         thisChunkSize = fileSize % chunkSize;
@@ -243,16 +273,17 @@ public class FileTransfer
     }
 
     Msg req = Msg.prepareRequest('k', 0);
-    req.u2(chunkNum);
+    req.u2(chunk - runFirst);
     req.u2(thisChunkSize);
-    file.read(chunkNum*chunkSize, req, thisChunkSize);
+    file.read(chunk*chunkSize, req, thisChunkSize);
 
     comm.send(req);
+    stats.chunk(thisChunkSize);
   }
 
   public void receiveClose(Msg msg)
   {
-    synchronized (lock) { closeReceived = true; }
+    synchronized (lock) { closeReceived = true; lock.notifyAll(); }
   }
 
 //////////////////////////////////////////////////////////////
@@ -260,68 +291,223 @@ public class FileTransfer
 //////////////////////////////////////////////////////////////
 
   /**
-   * Start the file transaction via the 'f' request and response.
-   * This is common code for both gets and puts.
+   * Get the stats of this transfer.
+   */
+  public TransferStats stats()
+  {
+    return stats;
+  }
+
+  /**
+   * Get the state of an interrupted transfer to resume,
+   * or null to transfer the whole file.  The state of a get
+   * is dropped if the local file has been deleted or cut
+   * short since, as it no longer holds the chunks done.
+   */
+  private TransferState resumable(int requested)
+    throws IOException
+  {
+    this.requested = requested;
+    if (!resume) return null;
+    TransferState s = file.loadState();
+    if (s == null || !s.matches(uri, method, offset, requested) || s.numDone() == 0) return null;
+    if (method.equals("g") && file.size() < s.doneSize())
+    {
+      file.clearState();
+      return null;
+    }
+    return s;
+  }
+
+  /**
+   * Transfer the whole file, or the chunks missing from the
+   * state of an interrupted transfer, one run at a time.
    */
-  private void start()
+  private void transfer(TransferState resumed)
+    throws Exception
+  {
+    if (resumed == null)
+    {
+      // the device tells us the file and chunk size
+      start(0, requested, false);
+      state = new TransferState(uri, method, offset, requested, fileSize, chunkSize, numChunks);
+      started();
+      if (method.equals("g")) file.setSize(fileSize);
+      run(0, numChunks);
+    }
+    else
+    {
+      // keep the chunk size of the first attempt
+      state = resumed;
+      transferedChunks = state.numDone();
+      stats.resumed(transferedChunks, Math.min(transferedChunks*state.chunkSize, state.fileSize));
+      if (method.equals("g")) file.setSize(state.fileSize);
+
+      for (int first = state.nextMissing(0); first < state.numChunks; first = state.nextMissing(first))
+      {
+        // chunks received out of order leave the missing ones
+        // scattered, so take short gaps of done chunks along
+        // rather than opening a transfer for each run
+        int end = state.nextDone(first);
+        for (int next; (next = state.nextMissing(end)) < state.numChunks && next - end <= resumeGapMax; )
+          end = state.nextDone(next);
+        int size = Math.min(end*state.chunkSize, state.fileSize) - first*state.chunkSize;
+        chunkSize = state.chunkSize;
+        start(first*chunkSize, size, true);
+        if (fileSize != size || chunkSize != state.chunkSize)
+        {
+          file.clearState();
+          state = null;
+          throw new IOException("Cannot resume " + uri + ", device changed size to " + fileSize + "/" + chunkSize);
+        }
+        started();
+        run(first, end);
+      }
+    }
+
+    // update progress and report done
+    progress();
+  }
+
+  /**
+   * Setup for the whole transfer once the state is known.
+   */
+  private void started()
+  {
+    fileSize  = state.fileSize;
+    chunkSize = state.chunkSize;
+    numChunks = state.numChunks;
+    stats.opened(fileSize, chunkSize, numChunks);
+    resHeaders.put("fileSize",   ""+fileSize);
+    resHeaders.put("chunkSize",  ""+chunkSize);
+  }
+
+  /**
+   * Transfer the chunks from first up to end, which the
+   * device has just opened as a transfer of its own.
+   */
+  private void run(int first, int end)
+    throws Exception
+  {
+    synchronized (lock)
+    {
+      runFirst = first;
+      runEnd   = end;
+      opened   = true;
+    }
+
+    if (method.equals("g"))
+    {
+      // force a flush of all queued chunks
+      receiveChunk(null);
+      receiveRun();
+    }
+    else
+    {
+      sendRun();
+    }
+  }
+
+  /**
+   * Start a file transaction via the 'f' request and response.
+   * This is common code for both gets and puts.  A run of a
+   * resumed transfer starts at pos from the start of the
+   * transfer, and a put of it modifies the existing file.
+   */
+  private void start(int pos, int size, boolean resumed)
     throws Exception
   {
     synchronized (lock)
     {
       opened = false;
+      closeReceived = false;
       chunkQueue.clear();
+    }
 
-      // build request
-      Msg req = Msg.prepareRequest('f');
-      req.str(method);
-      req.str(uri);
-      req.i4(fileSize);
-      req.u2(chunkSize);
-
-      Iterator it = reqHeaders.keySet().iterator();
-      while (it.hasNext())
-      {
-        String key = (String)it.next();
-        if (key.equals("fileSize")) continue;
+    // build request
+    Msg req = Msg.prepareRequest('f');
+    req.str(method);
+    req.str(uri);
+    req.i4(size);
+    req.u2(chunkSize);
+
+    Properties headers = new Properties();
+    headers.putAll(reqHeaders);
+    headers.remove("fileSize");
+    headers.remove("resume");
+    if (resumed)
+    {
+      headers.put("offset", Integer.toString(offset + pos));
+      if (method.equals("p")) headers.put("mode", "m");
+    }
 
-        String val = (String)reqHeaders.get(key);
-        req.str(key);
-        req.str(val);
-      }
-      req.u1(0);  // end of headers
+    Iterator it = headers.keySet().iterator();
+    while (it.hasNext())
+    {
+      String key = (String)it.next();
+      String val = (String)headers.get(key);
+      req.str(key);
+      req.str(val);
+    }
+    req.u1(0);  // end of headers
 
-      // send request
-      Msg res = comm.request(req);
+    // send request
+    Msg res = comm.request(req);
 
-      // parse response
-      res.checkResponse('F');
-      this.fileSize   = res.i4();
-      this.chunkSize  = res.u2();
-      this.resHeaders = new Properties();
-      while (true)
-      {
-        String key = res.str();
-        if (key.equals("")) break;
-        String val = res.str();
-        resHeaders.put(key, val);
-      }
-      resHeaders.put("fileSize",   ""+fileSize);
-      resHeaders.put("chunkSize",  ""+chunkSize);
+    // parse response
+    res.checkResponse('F');
+    this.fileSize   = res.i4();
+    this.chunkSize  = res.u2();
+    this.resHeaders = new Properties();
+    while (true)
+    {
+      String key = res.str();
+      if (key.equals("")) break;
+      String val = res.str();
+      resHeaders.put(key, val);
+    }
 
-      // compute how many chunks we're going to transfer,
-      // take into account last remainder chunk
-      this.numChunks = fileSize/chunkSize;
-      if (fileSize % chunkSize > 0) this.numChunks++;
+    // compute how many chunks we're going to transfer,
+    // take into account last remainder chunk
+    this.numChunks = fileSize/chunkSize;
+    if (fileSize % chunkSize > 0) this.numChunks++;
 
-      // if the file size is zero, then send at least one
-      // chunk of zero bytes to keep the server side simple
-      if (numChunks == 0 && method.equals("p"))
-        numChunks = 1;
+    // if the file size is zero, then send at least one
+    // chunk of zero bytes to keep the server side simple
+    if (numChunks == 0 && method.equals("p"))
+      numChunks = 1;
+  }
 
-      // initialize our transfer chunk count
-      transferedChunks = 0;
+  /**
+   * Save the state of a resumable transfer every so often,
+   * so it can be resumed even if this process dies.
+   */
+  private void checkpoint()
+    throws IOException
+  {
+    if (!resume || Env.ticks() - lastCheckpoint < checkpointFreq) return;
+    lastCheckpoint = Env.ticks();
+    file.saveState(state);
+  }
 
-      opened = true;
+  /**
+   * Called when transfer is complete or failed.  Save the
+   * state of an incomplete resumable transfer after the file
+   * was closed, so it never claims chunks not written yet.
+   */
+  private void finish()
+  {
+    boolean ok = state != null && state.isComplete();
+    stats.done(ok);
+    if (!resume || state == null) return;
+    try
+    {
+      if (ok) file.clearState();
+      else file.saveState(state);
+    }
+    catch (IOException e)
+    {
+      e.printStackTrace();
     }
   }
 
@@ -357,7 +543,8 @@ public class FileTransfer
     if (listener == null) return;
     try
     {
-      listener.progress(transferedChunks*chunkSize, fileSize);
+      int done = method.equals("g") ? state.numDone() : transferedChunks;
+      listener.progress(Math.min(done*chunkSize, fileSize), fileSize);
     }
     catch (Throwable e)
     {
@@ -365,27 +552,16 @@ public class FileTransfer
     }
   }
 
-  /**
-   * Called when transfer is complete.
-   */
-  private void done()
-  {
-    long dur = Env.ticks() - startTicks;
-    if (!comm.client().traceXferStats) return;
-
-    System.out.println();
-    System.out.println("Done [" + uri + "]");
-    System.out.println("  duration:    " + dur + "ms");
-    System.out.println("  fileSize:    " + fileSize + " bytes");
-    System.out.println("  chunkSize:   " + chunkSize + " bytes");
-    System.out.println("  numChunks:   " + numChunks);
-    System.out.println();
-  }
-
 //////////////////////////////////////////////////////////////
 // Fields
 //////////////////////////////////////////////////////////////
 
+  /** ms between saves of the state of a resumable transfer */
+  static long checkpointFreq = 1000;
+
+  /** done chunks transferred again to join two runs of missing ones */
+  static int resumeGapMax = 8;
+
   ISoxComm comm;
   TransferListener listener;  // progress callback
   String uri;             // filename to read/write
@@ -393,16 +569,23 @@ public class FileTransfer
   String method;          // "g" for get and "p" for put
   int fileSize;           // number of bytes in file
   int offset;             // byte offset into file for reading/writing
+  int requested;          // fileSize header, the size to read/write
   int chunkSize;          // number of bytes in chunk (last may be smaller)
   int numChunks;          // number of chunks expected to be transfered
-  int transferedChunks;   // number of chunks transfers so far
+  int transferedChunks;   // number of chunks sent so far (put only)
+  int runFirst;           // first chunk of the run being transferred
+  int runEnd;             // chunk after the last of the run
+  boolean resume;         // keep state to resume if interrupted
+  TransferState state;    // chunks done
+  TransferStats stats;    // throughput
   Properties reqHeaders;  // client specified request headers
   Properties resHeaders;  // server specified response headers
   long startTicks;        // starting time
   long lastReceiveTicks;  // last chunk received (get only)
+  long lastCheckpoint;    // last time the state was saved
   boolean closeReceived;  // have we received closed command (put only)
+  boolean writing;        // a thread is writing queued chunks (get only)
   Object lock;            // b/w caller and Receiver
   volatile boolean opened;
   final LinkedList chunkQueue = new LinkedList();
 }
-
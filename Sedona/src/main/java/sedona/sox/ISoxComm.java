@@ -2,6 +2,7 @@ package sedona.sox;
 
 import java.util.Hashtable;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 import sedona.dasp.DaspSession;
 
@@ -28,6 +29,27 @@ public interface ISoxComm
   Msg[] request(Msg[] req)
     throws Exception;
 
+  /**
+   * Send a request and return a future completed with the response,
+   * without waiting for it.  Implementations which can't multiplex
+   * requests fall back to sending it synchronously.
+   * @param req the request to send
+   * @return future of the response
+   */
+  default CompletableFuture<Msg> requestAsync(Msg req)
+  {
+    CompletableFuture<Msg> future = new CompletableFuture<Msg>();
+    try
+    {
+      future.complete(request(req));
+    }
+    catch (Throwable e)
+    {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
   /**
    * Connect to the remote Sedona server using the parameters
    * passed to the constructor.
@@ -78,6 +100,8 @@ public interface ISoxComm
    * specified headers.  Return the response headers.
    * Standard headers:
    *   - chunkSize: client's preference for chunk size in bytes
+   *   - resume: true to only get the chunks an interrupted get
+   *     of the same uri, offset and fileSize didn't (defaults to false)
    */
   Properties getFile(String           uri,
                      SoxFile          file,
@@ -91,6 +115,8 @@ public interface ISoxComm
    * Standard headers:
    *   - chunkSize: client's preference for chunk size in bytes
    *   - staged: true to put as staged file (defaults to false)
+   *   - resume: true to only put the chunks an interrupted put
+   *     of the same uri, offset and fileSize didn't (defaults to false)
    */
   Properties putFile(String           uri,
                      SoxFile          file,
@@ -98,6 +124,15 @@ public interface ISoxComm
                      TransferListener listener)
     throws Exception;
 
+  /**
+   * Get the stats of the file transfer in progress, or of the
+   * last one if none is.  Return null if there was none.
+   */
+  default TransferStats transferStats()
+  {
+    return null;
+  }
+
   /**
    * Does this ISoxComm have an underlying subscription for this
    * SoxComponent?
@@ -111,6 +111,7 @@ public class Main
     c.putFile(f.getName(), SoxFile.make(f), null, null);
     
     println("Complete.");
+    println(c.transferStats().toString());
     
     return 0;
   }
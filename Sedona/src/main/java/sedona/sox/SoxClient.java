@@ -1,9 +1,12 @@
 package sedona.sox;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.InetAddress;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import sedona.*;
 import sedona.dasp.DaspSession;
@@ -17,6 +20,13 @@ import sedona.util.Version;
 /**
  * SoxClient implements the client side functionality
  * of Sox for a Java VM.
+ *
+ * The Async variants of readProp, write, invoke and load return
+ * a CompletableFuture without waiting for the response, so any
+ * number of them may be outstanding at once along with the
+ * requests of other threads.  Their futures complete on the
+ * SoxReceiver thread, so dependent actions shouldn't make
+ * blocking calls on the client.
  */
 public class SoxClient
 {
@@ -255,7 +265,7 @@ public class SoxClient
   /**
    * Read a property.
    */
-  public synchronized Value readProp(SoxComponent comp, Slot slot)
+  public Value readProp(SoxComponent comp, Slot slot)
     throws Exception
   {
     checkMine(comp);
@@ -265,26 +275,44 @@ public class SoxClient
   /**
    * Read a property using raw component id and slot.
    */
-  public synchronized Value readProp(int compId, Slot slot)
+  public Value readProp(int compId, Slot slot)
     throws Exception
+  {
+    return SoxExchange.await(readPropAsync(compId, slot));
+  }
+
+  /**
+   * Read a property without waiting for the response.
+   */
+  public CompletableFuture<Value> readPropAsync(SoxComponent comp, Slot slot)
+  {
+    checkMine(comp);
+    return readPropAsync(comp.id(), slot);
+  }
+
+  /**
+   * Read a property using raw component id and slot without
+   * waiting for the response.
+   */
+  public CompletableFuture<Value> readPropAsync(int compId, final Slot slot)
   {
     // build request
     Msg req = Msg.prepareRequest('r');
     req.u2(compId);
     req.u1(slot.id);
 
-    // send request
-    Msg res = request(req);
-
-    // parse response
-    res.checkResponse('R');
-    res.u2();     // resCompId
-    res.u1();     // resPropId
-    int resTypeId = res.u1();
+    // send request and parse response
+    return requestAsync(req, res ->
+    {
+      res.checkResponse('R');
+      res.u2();     // resCompId
+      res.u1();     // resPropId
+      int resTypeId = res.u1();
 
-    // return value
-    Value v = slot.isAsStr() ? Str.make("") : Value.defaultForType(resTypeId);
-    return v.decodeBinary(res);
+      // return value
+      Value v = slot.isAsStr() ? Str.make("") : Value.defaultForType(resTypeId);
+      return v.decodeBinary(res);
+    });
   }
 
 //////////////////////////////////////////////////////////////////////////
@@ -333,44 +361,243 @@ public class SoxClient
   public synchronized SoxComponent[] load(int[] ids, boolean checked)
     throws Exception
   {
-    readSchema();
-    int n = ids.length;
-    SoxComponent[] result = new SoxComponent[n];
+    return SoxExchange.await(loadAsync(ids, checked));
+  }
 
-    // check cache and if not found add to req accumulator
-    ArrayList reqs = new ArrayList();
+  /**
+   * Convenience for <code>loadAsync(int[], true)</code>.
+   */
+  public CompletableFuture<SoxComponent[]> loadAsync(int[] ids)
+  {
+    return loadAsync(ids, true);
+  }
+
+  /**
+   * Load the component meta-data definitions of the specified
+   * ids like <code>load(int[], boolean)</code> without waiting
+   * for the responses.  The components are added to the cache
+   * before the future completes.  If the schema hasn't been read
+   * yet it is read first, before this method returns.
+   */
+  public CompletableFuture<SoxComponent[]> loadAsync(final int[] ids, final boolean checked)
+  {
+    final int n = ids.length;
+    final SoxComponent[] result = new SoxComponent[n];
+    try
+    {
+      if (util.schema == null) readSchema();
+    }
+    catch (Exception e)
+    {
+      return failed(e);
+    }
+
+    // check cache and if not found send a tree request
+    ArrayList pending = new ArrayList();
     for (int i=0; i<n; ++i)
     {
       int id = ids[i];
       result[i] = cache(id);
       if (result[i] == null)
-        reqs.add(Msg.makeUpdateReq(id, 't'));
+        pending.add(comm().requestAsync(Msg.makeUpdateReq(id, 't')));
     }
 
-    // if reqs is empty then we found them all in the cache
-    if (reqs.size() == 0)
+    // if nothing is pending then we found them all in the cache
+    if (pending.size() == 0)
+      return CompletableFuture.completedFuture(result);
+
+    // parse responses and apply once they are all in
+    final CompletableFuture[] responses = (CompletableFuture[])pending.toArray(new CompletableFuture[pending.size()]);
+    return parseAsync(CompletableFuture.allOf(responses), x ->
+    {
+      for (int i=0; i<responses.length; ++i)
+      {
+        Msg res = (Msg)responses[i].join();
+        if (!checked && res.isError()) continue;
+        res.checkResponse('C');
+        applyToCache(res);
+      }
+
+      // everything should be in app cache now
+      for (int i=0; i<n; ++i)
+      {
+        int id = ids[i];
+        result[i] = cache(id);
+        if (checked && result[i] == null) throw new IllegalStateException(""+id);
+      }
       return result;
+    });
+  }
 
-    // send requests
-    Msg[] responses = requests((Msg[])reqs.toArray(new Msg[reqs.size()]));
+//////////////////////////////////////////////////////////////////////////
+// Load Tree
+//////////////////////////////////////////////////////////////////////////
 
-    // parse responses and apply
-    for (int i=0; i<responses.length; ++i)
+  /**
+   * Convenience for <code>loadTree(0, mask, listener)</code>.
+   */
+  public TreeLoader loadAppTree(int mask, TreeLoader.Listener listener)
+    throws Exception
+  {
+    return loadTree(0, mask, listener);
+  }
+
+  /**
+   * Load the component rootId and all its descendants into the
+   * cache and wait until done.  The tree of every component is
+   * always loaded, mask specifies what else to load (CONFIG,
+   * RUNTIME, LINKS).  The requests are pipelined, see TreeLoader.
+   * Return the finished loader with the counts and throughput.
+   */
+  public TreeLoader loadTree(int rootId, int mask, TreeLoader.Listener listener)
+    throws Exception
+  {
+    return SoxExchange.await(loadTreeAsync(rootId, mask, listener));
+  }
+
+  /**
+   * Start loading the component rootId and all its descendants
+   * into the cache like <code>loadTree</code> without waiting.
+   * If the schema hasn't been read yet it is read first, before
+   * this method returns.
+   */
+  public CompletableFuture<TreeLoader> loadTreeAsync(int rootId, int mask, TreeLoader.Listener listener)
+  {
+    try
     {
-      Msg res = responses[i];
-      if (!checked && res.isError()) continue;
-      res.checkResponse('C');
-      applyToCache(res);
+      if (util.schema == null) readSchema();
+      restoreSnapshot();
+    }
+    catch (Exception e)
+    {
+      return failed(e);
     }
 
-    // everything should be in app cache now
-    for (int i=0; i<n; ++i)
+    // without a snapshot just load
+    if (snapshotDir == null)
+      return new TreeLoader(this, rootId, mask, listener, SoxExchange.MAX_OUTSTANDING).start();
+
+    // validate the snapshot and save the result
+    return new TreeLoader(this, rootId, mask, listener, SoxExchange.MAX_OUTSTANDING, snapshot, snapshotValidate)
+      .start().thenApply(loader ->
+      {
+        try
+        {
+          saveSnapshot();
+        }
+        catch (Exception e)
+        {
+          System.out.println("WARNING: Cannot save sox snapshot: " + e);
+        }
+        return loader;
+      });
+  }
+
+//////////////////////////////////////////////////////////////////////////
+// Snapshot
+//////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Keep an on-disk snapshot of the component cache and links under
+   * dir, or pass null to turn it off.  The snapshot is keyed by the
+   * device address and port and the Schema.key, and stores the device
+   * platform id as the app identity.
+   *
+   * The first loadTree of a session restores the saved snapshot into
+   * the cache and validates it by reading just the tree of every
+   * component.  Only components whose tree changed, and new ones, are
+   * read in full; config and links of the others are read again only
+   * if included in snapshotValidate.  Sox has no change stamps, so
+   * config changes which don't touch the tree are only picked up that
+   * way, by update, or by subscribing.
+   *
+   * From then on the tree, config and links read into the cache or
+   * received as events are recorded, and the snapshot is saved when
+   * a loadTree finishes and when the session is closed.
+   */
+  public synchronized void setSnapshotDir(File dir)
+  {
+    this.snapshotDir = dir;
+    if (dir == null) this.snapshot = null;
+  }
+
+  /**
+   * Get the snapshot directory or null if disabled.
+   */
+  public File snapshotDir()
+  {
+    return snapshotDir;
+  }
+
+  /**
+   * Save the snapshot of the cache now, if enabled.
+   */
+  public void saveSnapshot()
+    throws IOException
+  {
+    SoxSnapshot s = this.snapshot;
+    Schema schema = util == null ? null : util.schema;
+    if (snapshotDir == null || s == null || schema == null) return;
+    s.save(SoxSnapshot.file(snapshotDir, addr, port, s.schemaKey));
+  }
+
+  /**
+   * Load the snapshot for this device into the cache if this is
+   * the first loadTree of the session.
+   */
+  private synchronized void restoreSnapshot()
+    throws Exception
+  {
+    if (snapshotDir == null || snapshot != null) return;
+
+    // app identity is the platform id, if the device reports one
+    String platformId = "";
+    try { platformId = readVersion().platformId; } catch (Exception e) {}
+
+    String key = util.schema.key;
+    SoxSnapshot s = null;
+    try
     {
-      int id = ids[i];
-      result[i] = cache(id);
-      if (checked && result[i] == null) throw new IllegalStateException(""+id);
+      s = SoxSnapshot.load(SoxSnapshot.file(snapshotDir, addr, port, key), key, platformId);
     }
-    return result;
+    catch (IOException e)
+    {
+      System.out.println("WARNING: Cannot load sox snapshot: " + e);
+    }
+    if (s == null)
+    {
+      snapshot = new SoxSnapshot(key, platformId);
+      return;
+    }
+
+    // trees first so config and links have components to go to
+    int[] ids = s.ids();
+    for (int i=0; i<ids.length; ++i)
+      if (cache(ids[i]) == null) applyToCache(s.get(ids[i], 't'), false);
+    for (int i=0; i<ids.length; ++i)
+    {
+      Msg c = s.get(ids[i], 'c');
+      if (c != null) applyToCache(c, false);
+      Msg l = s.get(ids[i], 'l');
+      if (l != null) applyToCache(l, false);
+    }
+    snapshot = s;
+  }
+
+  /**
+   * Save and drop the snapshot when the session closes.
+   */
+  void closeSnapshot()
+  {
+    try
+    {
+      saveSnapshot();
+    }
+    catch (Exception e)
+    {
+      System.out.println("WARNING: Cannot save sox snapshot: " + e);
+    }
+    snapshot = null;
   }
 
 //////////////////////////////////////////////////////////////////////////
@@ -712,7 +939,7 @@ public class SoxClient
   /**
    * Invoke an action.
    */
-  public synchronized void invoke(SoxComponent comp, Slot slot, Value arg)
+  public void invoke(SoxComponent comp, Slot slot, Value arg)
     throws Exception
   {
     checkMine(comp);
@@ -722,8 +949,26 @@ public class SoxClient
   /**
    * Invoke an action using raw component id.
    */
-  public synchronized void invoke(int compId, Slot slot, Value arg)
+  public void invoke(int compId, Slot slot, Value arg)
     throws Exception
+  {
+    SoxExchange.await(invokeAsync(compId, slot, arg));
+  }
+
+  /**
+   * Invoke an action without waiting for the response.
+   */
+  public CompletableFuture<Void> invokeAsync(SoxComponent comp, Slot slot, Value arg)
+  {
+    checkMine(comp);
+    return invokeAsync(comp.id, slot, arg);
+  }
+
+  /**
+   * Invoke an action using raw component id without
+   * waiting for the response.
+   */
+  public CompletableFuture<Void> invokeAsync(int compId, Slot slot, Value arg)
   {
     if (!Component.testMode) slot.assertValue(arg);
 
@@ -734,11 +979,8 @@ public class SoxClient
     if (arg != null)
       arg.encodeBinary(req);
 
-    // send request
-    Msg res = request(req);
-
-    // parse response
-    res.checkResponse('I');
+    // send request and parse response
+    return requestAsync(req, res -> { res.checkResponse('I'); return null; });
   }
 
 //////////////////////////////////////////////////////////////////////////
@@ -748,7 +990,7 @@ public class SoxClient
   /**
    * Write a property.
    */
-  public synchronized void write(SoxComponent comp, Slot slot, Value val)
+  public void write(SoxComponent comp, Slot slot, Value val)
     throws Exception
   {
     checkMine(comp);
@@ -758,8 +1000,26 @@ public class SoxClient
   /**
    * Write a property using raw component id.
    */
-  public synchronized void write(int compId, Slot slot, Value val)
+  public void write(int compId, Slot slot, Value val)
     throws Exception
+  {
+    SoxExchange.await(writeAsync(compId, slot, val));
+  }
+
+  /**
+   * Write a property without waiting for the response.
+   */
+  public CompletableFuture<Void> writeAsync(SoxComponent comp, Slot slot, Value val)
+  {
+    checkMine(comp);
+    return writeAsync(comp.id, slot, val);
+  }
+
+  /**
+   * Write a property using raw component id without
+   * waiting for the response.
+   */
+  public CompletableFuture<Void> writeAsync(int compId, Slot slot, Value val)
   {
     if (!Component.testMode) slot.assertValue(val);
 
@@ -769,11 +1029,8 @@ public class SoxClient
     req.u1(slot.id);
     val.encodeBinary(req);
 
-    // send request
-    Msg res = request(req);
-
-    // parse response
-    res.checkResponse('W');
+    // send request and parse response
+    return requestAsync(req, res -> { res.checkResponse('W'); return null; });
   }
 
 //////////////////////////////////////////////////////////////////////////
@@ -1087,6 +1344,8 @@ public class SoxClient
    * specified headers.  Return the response headers.
    * Standard headers:
    *   - chunkSize: client's preference for chunk size in bytes
+   *   - resume: true to only get the chunks an interrupted get
+   *     of the same uri, offset and fileSize didn't (defaults to false)
    */
   public synchronized Properties getFile(String uri, SoxFile file,
                                          Properties headers,
@@ -1102,6 +1361,8 @@ public class SoxClient
    * Standard headers:
    *   - chunkSize: client's preference for chunk size in bytes
    *   - staged: true to put as staged file (defaults to false)
+   *   - resume: true to only put the chunks an interrupted put
+   *     of the same uri, offset and fileSize didn't (defaults to false)
    */
   public synchronized Properties putFile(String uri, SoxFile file,
                                          Properties headers,
@@ -1111,6 +1372,15 @@ public class SoxClient
     return comm().putFile(uri, file, headers, listener);
     }
 
+  /**
+   * Get the stats of the file transfer in progress, or of the
+   * last one if none is.  Return null if there was none.
+   */
+  public TransferStats transferStats()
+  {
+    return comm().transferStats();
+  }
+
 
   /**
    * Rename a file on the remote device.
@@ -1187,6 +1457,9 @@ public class SoxClient
   {
     final boolean isEvent = msg.command() == 'e';
 
+    SoxSnapshot s = this.snapshot;
+    if (s != null) s.record(msg);
+
     int compId = msg.u2();
     int what = msg.u1();
     SoxComponent cached = cache(compId);
@@ -1273,6 +1546,9 @@ public class SoxClient
       if (kid != null) cacheRemove(kid);
     }
     cache[c.id] = null;
+
+    SoxSnapshot s = this.snapshot;
+    if (s != null) s.remove(c.id);
   }
 
   /**
@@ -1316,6 +1592,52 @@ public class SoxClient
     return comm().request(reqs);
   }
 
+  /**
+   * Send a request without waiting and parse its response
+   * when it arrives.
+   */
+  <T> CompletableFuture<T> requestAsync(Msg req, Parser<Msg, T> parser)
+  {
+    return parseAsync(comm().requestAsync(req), parser);
+  }
+
+  /**
+   * Apply parser to the result of a future, failing the
+   * returned future with whatever the parser throws.
+   */
+  static <S, T> CompletableFuture<T> parseAsync(CompletableFuture<S> future, final Parser<S, T> parser)
+  {
+    return future.thenApply(x ->
+    {
+      try
+      {
+        return parser.parse(x);
+      }
+      catch (Exception e)
+      {
+        throw new CompletionException(e);
+      }
+    });
+  }
+
+  /**
+   * Get a future which has already failed with e.
+   */
+  static <T> CompletableFuture<T> failed(Throwable e)
+  {
+    CompletableFuture<T> future = new CompletableFuture<T>();
+    future.completeExceptionally(e);
+    return future;
+  }
+
+  /**
+   * Parser turns a response into the result of a request.
+   */
+  interface Parser<S, T>
+  {
+    T parse(S res) throws Exception;
+  }
+
 //////////////////////////////////////////////////////////////////////////
 // Listeners
 //////////////////////////////////////////////////////////////////////////
@@ -1359,15 +1681,19 @@ public class SoxClient
   /** dump sends/receives */
   public boolean traceMsg = false;
 
-  /** dump stats when file transfer completes */
-  public boolean traceXferStats = false;
+  /** what to read again for unchanged trees when validating a
+      restored snapshot: SoxComponent.CONFIG and/or LINKS */
+  public int snapshotValidate = 0;
+
+  /** store the slots of cached components packed, see Component */
+  public boolean packedSlots = false;
 
   public void initOptions()
   {
     try
     {
       traceMsg       = Env.getProperty("sox.traceMsg", traceMsg);
-      traceXferStats = Env.getProperty("sox.xfer.traceStats", traceXferStats);
+      packedSlots    = Env.getProperty("sox.packedSlots", packedSlots);
     }
     catch (Throwable e)
     {
@@ -1379,7 +1705,6 @@ public class SoxClient
   public void printOptions(PrintWriter out)
   {
     out.println("  traceMsg        = " + traceMsg);
-    out.println("  xfer.traceStats = " + traceXferStats);
     out.flush();
   }
 
@@ -1398,6 +1723,8 @@ public class SoxClient
   SoxComponent[] cache = new SoxComponent[1024];
 
   ISoxComm comm;
+  File snapshotDir;                   // where to keep snapshots or null
+  volatile SoxSnapshot snapshot;      // records the cache or null
 
   SoxUtil util;
   private final Object subscribeSyncLock = new Object();
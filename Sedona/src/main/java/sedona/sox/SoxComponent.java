@@ -32,7 +32,15 @@ public class SoxComponent
    */
   public SoxComponent(SoxClient client, int id, Type type)
   {
-    super(type);
+    this(client, id, type, client != null && client.packedSlots);
+  }
+
+  /**
+   * Public constructor for testing only - always load from SoxClient.
+   */
+  public SoxComponent(SoxClient client, int id, Type type, boolean packed)
+  {
+    super(type, packed);
     this.client = client;
     this.id = id;
   }
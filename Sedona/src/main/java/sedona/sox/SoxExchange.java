@@ -9,8 +9,13 @@
 package sedona.sox;
 
 import java.net.InetAddress;
+import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.LinkedList;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import sedona.dasp.DaspMsg;
 import sedona.dasp.DaspSession;
@@ -65,7 +70,7 @@ public class SoxExchange
   public Msg request(Msg req)
     throws Exception
   {
-    return request(new Msg[] { req })[0];
+    return await(requestAsync(req));
   }
 
   /**
@@ -73,62 +78,144 @@ public class SoxExchange
    * we receive a response for each one.  The reply numbers
    * of all the requests will be automatically set (but the caller
    * must have left a one byte spacer).  The requests may be
-   * processed out of order on the other side.  There can only
-   * be one batch of requests outstanding (this entire method
-   * will block all but one caller).
+   * processed out of order on the other side.  Batches of other
+   * callers are multiplexed over the session at the same time.
    */
   public Msg[] request(Msg[] req)
     throws Exception
   {
-    checkOpen();
+    CompletableFuture[] futures = new CompletableFuture[req.length];
+    for (int i=0; i<req.length; ++i)
+      futures[i] = requestAsync(req[i]);
 
-    // if we have more than 255, break it up into chunks of 255
-    if (req.length > 0xff) 
-      return chunkRequests(req);
+    Msg[] res = new Msg[req.length];
+    for (int i=0; i<req.length; ++i)
+      res[i] = (Msg)await(futures[i]);
+    return res;
+  }
 
-    synchronized (this)
+  /**
+   * Send a single request and return a future completed with its
+   * response.  The request is queued for the SoxSender thread which
+   * sets its reply number to a free one (but the caller must have
+   * left a one byte spacer), so up to 255 requests of any number of
+   * callers may be outstanding at once; further requests are sent as
+   * responses free up reply numbers.  The future is completed on the
+   * SoxReceiver thread, so dependent actions must not block waiting
+   * for other responses.  If the session closes first it completes
+   * exceptionally with a SoxException.
+   */
+  public CompletableFuture<Msg> requestAsync(Msg req)
+  {
+    Pending p = new Pending(req);
+    synchronized (pending)
     {
-      // assign reply numbers, all req/res messages look like:
-      //   [0] u1 command
-      //   [1] u1 replyNum
-      for (int i=0; i<req.length; ++i)
-        req[i].setReplyNum(i);  
-
-      // set req/res fields and init times
-      this.requests = req;
-      this.responses = new Msg[req.length];
-
-      // send them on their way; this call will block if we fill
-      // up our send window, but that is ok because the SoxReceiver
-      // should still be pulling off the responses and sticking
-      // them into our responses array
-      for (int i=0; i<req.length; ++i)
+      if (closing || isClosed())
       {
-        send(req[i]);
+        p.future.completeExceptionally(new SoxException("SoxClient closed: " + closeCause));
+        return p.future;
       }
+      backlog.add(p);
+      pending.notifyAll();
+    }
+    return p.future;
+  }
+
+  /**
+   * Wait for a queued request and a free reply number, assign the
+   * reply number and return the request.  Return null if nothing
+   * could be sent before the timeout or the exchange is closing.
+   * Called by the SoxSender.
+   */
+  Pending nextToSend(long timeout)
+    throws InterruptedException
+  {
+    synchronized (pending)
+    {
+      if (backlog.isEmpty() || outstanding >= MAX_OUTSTANDING)
+        pending.wait(timeout);
+      if (closing || backlog.isEmpty() || outstanding >= MAX_OUTSTANDING)
+        return null;
+
+      // rotate through the reply numbers so a number isn't
+      // reused right after the response which freed it
+      Pending p = (Pending)backlog.removeFirst();
+      while (pending[nextReplyNum] != null)
+        nextReplyNum = (nextReplyNum + 1) % MAX_OUTSTANDING;
+      p.req.setReplyNum(nextReplyNum);
+      pending[nextReplyNum] = p;
+      nextReplyNum = (nextReplyNum + 1) % MAX_OUTSTANDING;
+      ++outstanding;
+      return p;
+    }
+  }
+
+  /**
+   * Send a request assigned by nextToSend, this call will block if
+   * we fill up our send window.  Only the SoxSender sends requests,
+   * so the SoxReceiver is never held up and keeps pulling off the
+   * responses which open the window again.
+   */
+  void transmit(Pending p)
+  {
+    try
+    {
+      send(p.req);
+    }
+    catch (Throwable e)
+    {
+      synchronized (pending)
+      {
+        int replyNum = p.req.replyNum() & 0xff;
+        if (pending[replyNum] != p) return;
+        pending[replyNum] = null;
+        --outstanding;
+        pending.notifyAll();
+      }
+      p.future.completeExceptionally(e);
+    }
+  }
+
+  /**
+   * Fail all the outstanding and queued requests.
+   */
+  private void failPending(Exception e)
+  {
+    ArrayList failed = new ArrayList();
+    synchronized (pending)
+    {
+      for (int i=0; i<pending.length; ++i)
+      {
+        if (pending[i] != null) failed.add(pending[i]);
+        pending[i] = null;
+      }
+      failed.addAll(backlog);
+      backlog.clear();
+      outstanding = 0;
+      pending.notifyAll();
+    }
+    for (int i=0; i<failed.size(); ++i)
+      ((Pending)failed.get(i)).future.completeExceptionally(e);
+  }
 
-      // wait until we receive all the responses or timeout
-      while (true)
-      {    
-        // check if we've gotten all our responses
-        boolean gotAllResponses = true;
-        for (int i=responses.length-1; i>=0; --i)
-          if (responses[i] == null) { gotAllResponses = false; break; }
-
-        // if we've gotten them all then we're done!
-        if (gotAllResponses)
-        {
-          Msg[] res = this.responses;
-          this.requests  = null;
-          this.responses = null;
-          return res;
-        }
-
-        // wait a bit - dispatcher thread should wake us up
-        try { wait(500); } catch(InterruptedException e) {}
-        checkOpen();
-      }        
-    }        
+  /**
+   * Wait for a request future, rethrowing the exception
+   * it failed with.
+   */
+  static <T> T await(Future<T> future)
+    throws Exception
+  {
+    try
+    {
+      return future.get();
+    }
+    catch (ExecutionException e)
+    {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) throw (Exception)cause;
+      if (cause instanceof Error) throw (Error)cause;
+      throw e;
+    }
   }
 
   /**
@@ -154,9 +241,11 @@ public class SoxExchange
     };
     closeCause = "???";
 
-    // launch receiver thread
+    // launch receiver and sender threads
     receiver = new SoxReceiver(this);
     receiver.start();
+    sender = new SoxSender(this);
+    sender.start();
   }
 
   /**
@@ -213,12 +302,15 @@ public class SoxExchange
     if (this.closing) return;
     this.closing = true;
 
-    // shut down receiver
+    // shut down receiver and sender
     try
     {
       SoxReceiver r = this.receiver;
       if (r != null) r.kill();
       this.receiver = null;
+      SoxSender s = this.sender;
+      if (s != null) s.kill();
+      this.sender = null;
     }
     catch (Exception e)
     {
@@ -237,9 +329,16 @@ public class SoxExchange
       e.printStackTrace();
     }
 
+    // fail requests still waiting for a response
+    failPending(new SoxException("SoxClient closed: " + closeCause));
+
+    // save the cache snapshot before the cache goes
+    client.closeSnapshot();
+
     // null out cached state
     this.session  = null;
     this.receiver = null;
+    this.sender   = null;
     client.cache    = new SoxComponent[1024];
     client.allTreeEvents = false;
     client.util  = null;
@@ -278,33 +377,35 @@ public class SoxExchange
 //////////////////////////////////////////////////////////////////////////
 
   /**
-   * Receive a response message.
+   * Receive a response message and complete the request
+   * with its reply number.
    */
   void receive(Msg msg)
   {
     try
-    {             
-      synchronized (this)
-      {
-        // parse command and reply number
-        int cmd = msg.bytes[0];
-        int replyNum = msg.bytes[1] & 0xFF;
-        int index = replyNum;
+    {
+      // parse command and reply number
+      int cmd = msg.bytes[0];
+      int replyNum = msg.bytes[1] & 0xFF;
 
-        // check if replyNum is inside my current window
-        if (requests == null || responses == null ||
-            index < 0 || index >= requests.length)
-          return;
+      Pending p;
+      synchronized (pending)
+      {
+        // check if replyNum is outstanding
+        p = pending[replyNum];
+        if (p == null) return;
 
         // verify response command code (capital of req command)
-        Msg req = requests[index];       
-        if (cmd != '!' && cmd != (req.bytes[0] & ~0x20))
-          throw new SoxException("Invalid response code " + cmd + " for " + req.bytes[0]);
+        if (cmd != '!' && cmd != (p.req.bytes[0] & ~0x20))
+          throw new SoxException("Invalid response code " + cmd + " for " + p.req.bytes[0]);
 
-        // store response and notify requestor thread
-        this.responses[index] = msg;
-        notify();           
+        // free the reply number for the sender
+        pending[replyNum] = null;
+        --outstanding;
+        pending.notifyAll();
       }
+
+      p.future.complete(msg);
     }
     catch(Exception e)
     {
@@ -313,6 +414,21 @@ public class SoxExchange
     }
   }
 
+//////////////////////////////////////////////////////////////////////////
+// Pending
+//////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Pending is a request waiting for its response.
+   */
+  static final class Pending
+  {
+    Pending(Msg req) { this.req = req; }
+
+    final Msg req;
+    final CompletableFuture<Msg> future = new CompletableFuture<Msg>();
+  }
+
   
 //////////////////////////////////////////////////////////////////////////
 // File Transfer
@@ -323,6 +439,8 @@ public class SoxExchange
    * specified headers.  Return the response headers.
    * Standard headers:
    *   - chunkSize: client's preference for chunk size in bytes
+   *   - resume: true to only get the chunks an interrupted get
+   *     of the same uri, offset and fileSize didn't (defaults to false)
    */
   public synchronized Properties getFile(String uri, SoxFile file,
                                          Properties headers,
@@ -336,6 +454,7 @@ public class SoxExchange
     }
     finally
     {
+      lastTransferStats = fileTransfer.stats();
       fileTransfer = null;
     }
   }
@@ -346,6 +465,8 @@ public class SoxExchange
    * Standard headers:
    *   - chunkSize: client's preference for chunk size in bytes
    *   - staged: true to put as staged file (defaults to false)
+   *   - resume: true to only put the chunks an interrupted put
+   *     of the same uri, offset and fileSize didn't (defaults to false)
    */
   public synchronized Properties putFile(String uri, SoxFile file,
                                          Properties headers,
@@ -359,10 +480,17 @@ public class SoxExchange
     }
     finally
     {
+      lastTransferStats = fileTransfer.stats();
       fileTransfer = null;
     }
   }
 
+  public TransferStats transferStats()
+  {
+    FileTransfer t = fileTransfer;
+    return t != null ? t.stats() : lastTransferStats;
+  }
+
 
   /**
    * Rename a file on the remote device.
@@ -395,26 +523,6 @@ public class SoxExchange
     connect(null);
   }
 
-  /**
-   * Break a big request into 255 request chunks since 
-   * we only have a one byte reply number.
-   */
-  private Msg[] chunkRequests(Msg[] req)
-    throws Exception
-  {                       
-    int total = req.length;
-    Msg[] res = new Msg[total];
-    for (int i=0; i < total;)
-    {
-      Msg[] chunkReq = new Msg[Math.min(0xff, total-i)];
-      System.arraycopy(req, i, chunkReq, 0, chunkReq.length);
-      Msg[] chunkRes = request(chunkReq);
-      System.arraycopy(chunkRes, 0, res, i, chunkRes.length);      
-      i += chunkReq.length;
-    } 
-    return res;
-  }                   
-
   Msg receive(long timeout)
     throws Exception
   {
@@ -436,9 +544,13 @@ public class SoxExchange
 // Fields
 ////////////////////////////////////////////////////////////////
 
+  static final int MAX_OUTSTANDING = 0xff;  // reply number 0xff is never assigned
+
   SoxClient client;         // parent client
-  Msg[] requests;           // current batch of requests
-  Msg[] responses;          // current batch of responses
+  final Pending[] pending = new Pending[MAX_OUTSTANDING];  // outstanding requests by reply number
+  final LinkedList backlog = new LinkedList();             // requests waiting to be sent
+  int outstanding;          // number of non-null pending slots
+  int nextReplyNum;         // where to start looking for a free reply number
 
   public final DaspSocket socket;
   public final InetAddress addr;
@@ -448,6 +560,8 @@ public class SoxExchange
   DaspSession session;
   String closeCause = "never opened";
   SoxReceiver receiver;
-  FileTransfer fileTransfer;
+  SoxSender sender;
+  volatile FileTransfer fileTransfer;
+  volatile TransferStats lastTransferStats;
   volatile boolean closing;
 }
@@ -9,6 +9,8 @@
 package sedona.sox;
 
 import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
 import sedona.*;
 import sedona.util.*;
@@ -16,8 +18,13 @@ import sedona.util.*;
 /**
  * SoxFile is used to represent the local side of a file
  * being read/written using SoxClient.  There are two
- * read to use implementations - one for java.io.File
- * and another for byte[].
+ * read to use implementations - one for java.io.File,
+ * memory mapping large files, and another for byte[].
+ *
+ * A SoxFile also keeps the state of an interrupted resumable
+ * transfer, see FileTransfer.  Files on the local file system
+ * keep it next to the file with an ".xfer" extension, so the
+ * transfer can be resumed by another SoxClient or process.
  */
 public abstract class SoxFile
 {
@@ -32,7 +39,16 @@ public abstract class SoxFile
    */
   public static SoxFile make(File f)
   {
-    return new LocalFile(f);
+    return new LocalFile(f, f.length() >= mapThreshold);
+  }
+
+  /**
+   * Make a SoxFile to read/write to a file on the local
+   * file system through a memory mapped buffer.
+   */
+  public static SoxFile makeMapped(File f)
+  {
+    return new LocalFile(f, true);
   }
   
   /**
@@ -54,8 +70,9 @@ public abstract class SoxFile
   public abstract int size();
 
   /**
-   * Open this file for I/O.  Mode is "r" for
-   * reading and "w" for writing.
+   * Open this file for I/O.  Mode is "r" for reading,
+   * "w" for writing from scratch and "rw" for writing
+   * without truncating what is there.
    */
   public abstract void open(String mode)
     throws IOException;
@@ -77,13 +94,72 @@ public abstract class SoxFile
    */
   public abstract void close();
 
+  /**
+   * Called once the size of a file opened for
+   * writing is known, before the first write.
+   */
+  public void setSize(int size)
+    throws IOException
+  {
+  }
+
+////////////////////////////////////////////////////////////////
+// Transfer State
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Load the state of an interrupted resumable
+   * transfer of this file or return null.
+   */
+  TransferState loadState()
+    throws IOException
+  {
+    return state;
+  }
+
+  /**
+   * Save the state of an interrupted resumable transfer.
+   */
+  void saveState(TransferState state)
+    throws IOException
+  {
+    this.state = state;
+  }
+
+  /**
+   * Forget the state of a transfer which completed.
+   */
+  void clearState()
+  {
+    this.state = null;
+  }
+
+  private TransferState state;
+
 ////////////////////////////////////////////////////////////////
 // LocalFile
 ////////////////////////////////////////////////////////////////
 
+  /**
+   * LocalFile reads and writes a file on the local file system.
+   * A file at least mapThreshold big, or which will be once its
+   * size is given to setSize, is accessed through a memory mapped
+   * buffer, so chunks are copied straight from and to the page
+   * cache without a system call each.  A mapped file being written
+   * is grown and mapped again if written beyond its size.
+   *
+   * Java can't unmap a buffer, close() only drops it and the mapping
+   * lives on until it is garbage collected.  On Windows truncating
+   * the file meanwhile fails, so don't reopen a mapped file with "w"
+   * right after closing it.
+   */
   static class LocalFile extends SoxFile
   {
-    LocalFile(File f) { file = f; }
+    LocalFile(File f, boolean mapped)
+    {
+      this.file = f;
+      this.mapped = mapped;
+    }
 
     public int size()
     {
@@ -93,27 +169,60 @@ public abstract class SoxFile
     public void open(String mode)
       throws IOException
     {
-      if (mode.equals("w")) mode = "rw";
-      fp = new RandomAccessFile(file, mode);
-      if (mode.indexOf('w') >= 0) fp.setLength(0);
+      fp = new RandomAccessFile(file, mode.equals("r") ? "r" : "rw");
+      if (mode.equals("w")) fp.setLength(0);
+      writable = !mode.equals("r");
+      if (mapped && fp.length() > 0) map((int)fp.length());
     }
 
-    public void read(int pos, Buf buf, int n)
+    public void setSize(int size)
       throws IOException
     {
-      fp.seek(pos);
-      buf.readFrom(fp, n);
+      if (size >= mapThreshold) mapped = true;
+      if (!mapped) return;
+      if (size > fp.length()) fp.setLength(size);
+      map((int)fp.length());
     }
 
-    public void write(int pos, Buf buf, int n)
+    public synchronized void read(int pos, Buf buf, int n)
       throws IOException
     {
-      fp.seek(pos);
-      buf.writeTo(fp, n);
+      if (!mapped)
+      {
+        fp.seek(pos);
+        buf.readFrom(fp, n);
+        return;
+      }
+      if (n == 0) return;
+      if (map == null || pos+n > map.capacity())
+        throw new EOFException("Read past end of " + file + ": " + (pos+n));
+      map.position(pos);
+      buf.readFrom(map, n);
+    }
+
+    public synchronized void write(int pos, Buf buf, int n)
+      throws IOException
+    {
+      if (!mapped)
+      {
+        fp.seek(pos);
+        buf.writeTo(fp, n);
+        return;
+      }
+      if (n == 0) return;
+      if (map == null || pos+n > map.capacity())
+      {
+        fp.setLength(Math.max(pos+n, fp.length()));
+        map((int)fp.length());
+      }
+      map.position(pos);
+      buf.writeTo(map, n);
     }
 
-    public void close()
+    public synchronized void close()
     {
+      if (map != null && writable) map.force();
+      map = null;
       try
       {
         if (fp != null)
@@ -126,8 +235,40 @@ public abstract class SoxFile
       fp = null;
     }
 
+    private void map(int size)
+      throws IOException
+    {
+      FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+      map = fp.getChannel().map(mode, 0, size);
+    }
+
+    TransferState loadState()
+      throws IOException
+    {
+      return TransferState.load(stateFile());
+    }
+
+    void saveState(TransferState state)
+      throws IOException
+    {
+      state.save(stateFile());
+    }
+
+    void clearState()
+    {
+      stateFile().delete();
+    }
+
+    File stateFile()
+    {
+      return new File(file.getPath() + ".xfer");
+    }
+
     File file;
     RandomAccessFile fp;
+    boolean mapped;
+    boolean writable;
+    MappedByteBuffer map;
   }
 
 ////////////////////////////////////////////////////////////////
@@ -143,7 +284,7 @@ public abstract class SoxFile
 
     public void open(String mode) throws IOException
     {
-      if (mode.indexOf('w') >= 0) b.clear();
+      if (mode.equals("w")) b.clear();
       b.seek(0);
     }
 
@@ -161,4 +302,11 @@ public abstract class SoxFile
     Buf b;
   }
 
+////////////////////////////////////////////////////////////////
+// Fields
+////////////////////////////////////////////////////////////////
+
+  /** Local files at least this big (before or once written) are memory mapped */
+  public static int mapThreshold = 1024*1024;
+
 }
@@ -0,0 +1,69 @@
+//
+// Copyright (c) 2008 Tridium, Inc.
+// Licensed under the Academic Free License version 3.0
+//
+
+package sedona.sox;
+
+/**
+ * SoxSender is responsible for sending the requests queued
+ * on the SoxExchange as reply numbers become free.  Requests
+ * are only ever sent from this thread, so callers never block
+ * on a full send window and the SoxReceiver is always free to
+ * pull the responses off the network.
+ */
+class SoxSender
+  extends Thread
+{
+
+////////////////////////////////////////////////////////////////
+// Constructor
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Create sender for use by specified exchange.
+   */
+  SoxSender(SoxExchange exchange)
+  {
+    super("SoxSender");
+    this.exchange = exchange;
+  }
+
+////////////////////////////////////////////////////////////////
+// Lifecycle
+////////////////////////////////////////////////////////////////
+
+  public void kill()
+  {
+    interrupt();
+  }
+
+  public void run()
+  {
+    while (!exchange.isClosed())
+    {
+      try
+      {
+        // wait for a request and a free reply number
+        SoxExchange.Pending p = exchange.nextToSend(1000);
+
+        // send it on its way
+        if (p != null) exchange.transmit(p);
+      }
+      catch (InterruptedException e)
+      {
+      }
+      catch (Exception e)
+      {
+        if (!exchange.closing && !exchange.isClosed()) e.printStackTrace();
+      }
+    }
+  }
+
+////////////////////////////////////////////////////////////////
+// Fields
+////////////////////////////////////////////////////////////////
+
+  SoxExchange exchange;  // parent exchange
+
+}
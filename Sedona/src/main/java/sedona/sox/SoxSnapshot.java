@@ -0,0 +1,268 @@
+//
+// Copyright (c) 2008 Tridium, Inc.
+// Licensed under the Academic Free License version 3.0
+//
+
+package sedona.sox;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.util.Arrays;
+import sedona.util.FileUtil;
+
+/**
+ * SoxSnapshot keeps the tree, config and links of every component
+ * in a SoxClient's cache in their wire format, so they can be saved
+ * to disk and loaded into the cache again on a later connection
+ * without reading them from the device.  It records the payload of
+ * the full 't', 'c' and 'l' responses and events applied to the
+ * cache, starting at the component id.
+ *
+ * A snapshot file is keyed by device address and port and by the
+ * Schema.key, and stores the platform id of the device as the app
+ * identity.  A snapshot is only used if all of them still match.
+ * See SoxClient.setSnapshotDir for how it is validated against the
+ * device when loading the tree.
+ */
+final class SoxSnapshot
+{
+
+//////////////////////////////////////////////////////////////
+// Constructor
+//////////////////////////////////////////////////////////////
+
+  SoxSnapshot(String schemaKey, String platformId)
+  {
+    this.schemaKey  = schemaKey;
+    this.platformId = platformId;
+  }
+
+//////////////////////////////////////////////////////////////
+// Recording
+//////////////////////////////////////////////////////////////
+
+  /**
+   * Record a response or event positioned at its component id, if
+   * it is one of the categories kept.  Return true if it differs
+   * from what was recorded for the component before.
+   */
+  synchronized boolean record(Msg msg)
+  {
+    int i = index(msg);
+    if (i < 0) return false;
+    int id = ((msg.bytes[msg.pos] & 0xff) << 8) | (msg.bytes[msg.pos+1] & 0xff);
+    byte[][] list = list(i, id);
+    if (matches(list[id], msg)) return false;
+    list[id] = Arrays.copyOfRange(msg.bytes, msg.pos, msg.size);
+    return true;
+  }
+
+  /**
+   * Return true if the message positioned at its component id
+   * is the same as what was recorded for the component.
+   */
+  synchronized boolean matches(Msg msg)
+  {
+    int i = index(msg);
+    if (i < 0) return false;
+    int id = ((msg.bytes[msg.pos] & 0xff) << 8) | (msg.bytes[msg.pos+1] & 0xff);
+    return id < records[i].length && matches(records[i][id], msg);
+  }
+
+  /**
+   * Return true if the message is for a component of a
+   * different type than the one recorded with the same id.
+   */
+  synchronized boolean typeChanged(Msg msg)
+  {
+    if (index(msg) != TREE) return false;
+    int id = ((msg.bytes[msg.pos] & 0xff) << 8) | (msg.bytes[msg.pos+1] & 0xff);
+    if (id >= records[TREE].length || records[TREE][id] == null) return false;
+    byte[] r = records[TREE][id];
+    return r[3] != msg.bytes[msg.pos+3] || r[4] != msg.bytes[msg.pos+4];
+  }
+
+  /**
+   * Forget everything recorded for a component.
+   */
+  synchronized void remove(int id)
+  {
+    for (int i=0; i<records.length; ++i)
+      if (id < records[i].length) records[i][id] = null;
+  }
+
+  /**
+   * Get the ids of all components with a recorded tree.
+   */
+  synchronized int[] ids()
+  {
+    byte[][] trees = records[TREE];
+    int n = 0;
+    for (int id=0; id<trees.length; ++id)
+      if (trees[id] != null) n++;
+    int[] ids = new int[n];
+    n = 0;
+    for (int id=0; id<trees.length; ++id)
+      if (trees[id] != null) ids[n++] = id;
+    return ids;
+  }
+
+  /**
+   * Get the recorded 't', 'c' or 'l' message of a component,
+   * positioned at its id, or null.
+   */
+  synchronized Msg get(int id, int what)
+  {
+    int i = index(what);
+    if (i < 0 || id >= records[i].length || records[i][id] == null) return null;
+    return new Msg(records[i][id]);
+  }
+
+  /**
+   * Return true if a 't', 'c' or 'l' message of a component
+   * is recorded.
+   */
+  synchronized boolean has(int id, int what)
+  {
+    int i = index(what);
+    return i >= 0 && id < records[i].length && records[i][id] != null;
+  }
+
+  private static int index(int what)
+  {
+    switch (what)
+    {
+      case 't': return TREE;
+      case 'c': return CONFIG;
+      case 'l': return LINKS;
+      default:  return -1;
+    }
+  }
+
+  private static int index(Msg msg)
+  {
+    if (msg.size - msg.pos < 3) return -1;
+    return index(msg.bytes[msg.pos+2]);
+  }
+
+  private byte[][] list(int i, int id)
+  {
+    if (id >= records[i].length)
+    {
+      byte[][] temp = new byte[Math.max(records[i].length*2, id+32)][];
+      System.arraycopy(records[i], 0, temp, 0, records[i].length);
+      records[i] = temp;
+    }
+    return records[i];
+  }
+
+  private static boolean matches(byte[] r, Msg msg)
+  {
+    if (r == null || r.length != msg.size - msg.pos) return false;
+    for (int i=0; i<r.length; ++i)
+      if (r[i] != msg.bytes[msg.pos+i]) return false;
+    return true;
+  }
+
+//////////////////////////////////////////////////////////////
+// IO
+//////////////////////////////////////////////////////////////
+
+  /**
+   * Get the snapshot file for a device and schema under dir.
+   */
+  static File file(File dir, InetAddress addr, int port, String schemaKey)
+  {
+    String device = addr.getHostAddress().replace(':', '_') + "-" + port;
+    String schema = Integer.toHexString(schemaKey.hashCode());
+    return new File(new File(dir, device), schema + ".snapshot");
+  }
+
+  /**
+   * Load a snapshot, return null if the file doesn't exist or
+   * was written for another schema or app.
+   */
+  static SoxSnapshot load(File file, String schemaKey, String platformId)
+    throws IOException
+  {
+    if (!file.exists()) return null;
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try
+    {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+      if (!in.readUTF().equals(schemaKey) || !in.readUTF().equals(platformId)) return null;
+
+      SoxSnapshot s = new SoxSnapshot(schemaKey, platformId);
+      for (int i=0; i<s.records.length; ++i)
+      {
+        int n = in.readInt();
+        byte[][] list = new byte[n][];
+        for (int id=0; id<n; ++id)
+        {
+          int len = in.readInt();
+          if (len < 0) continue;
+          list[id] = new byte[len];
+          in.readFully(list[id]);
+        }
+        s.records[i] = list;
+      }
+      return s;
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+
+  /**
+   * Save the snapshot to a temp file which then atomically
+   * replaces the file (see FileUtil.replace), so a crash never
+   * leaves a partial snapshot behind.
+   */
+  synchronized void save(File file)
+    throws IOException
+  {
+    file.getParentFile().mkdirs();
+    File temp = FileUtil.tempFile(file);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+    try
+    {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(schemaKey);
+      out.writeUTF(platformId);
+      for (int i=0; i<records.length; ++i)
+      {
+        byte[][] list = records[i];
+        out.writeInt(list.length);
+        for (int id=0; id<list.length; ++id)
+        {
+          if (list[id] == null) { out.writeInt(-1); continue; }
+          out.writeInt(list[id].length);
+          out.write(list[id]);
+        }
+      }
+    }
+    finally
+    {
+      out.close();
+    }
+    FileUtil.replace(temp, file);
+  }
+
+//////////////////////////////////////////////////////////////
+// Fields
+//////////////////////////////////////////////////////////////
+
+  static final int MAGIC   = 0x736f7873;  // "soxs"
+  static final int VERSION = 1;
+
+  static final int TREE   = 0;
+  static final int CONFIG = 1;
+  static final int LINKS  = 2;
+
+  final String schemaKey;
+  final String platformId;
+  private final byte[][][] records = { new byte[0][], new byte[0][], new byte[0][] };  // TREE, CONFIG, LINKS by id
+
+}
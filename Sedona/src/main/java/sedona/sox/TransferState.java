@@ -0,0 +1,190 @@
+//
+// Copyright (c) 2008 Tridium, Inc.
+// Licensed under the Academic Free License version 3.0
+//
+
+package sedona.sox;
+
+import java.io.*;
+import java.util.BitSet;
+import sedona.util.FileUtil;
+
+/**
+ * TransferState records which chunks of a resumable file transfer
+ * are done, so that an interrupted transfer can be continued by
+ * transferring only the missing chunks.  For a get a chunk is done
+ * once it was written to the local file, for a put once the device
+ * acked the datagram carrying it.
+ *
+ * The state is identified by the uri, method, offset and requested
+ * size of the transfer, and keeps the file and chunk size the device
+ * chose for it.  SoxFile stores it along with the local file.
+ */
+final class TransferState
+{
+
+//////////////////////////////////////////////////////////////
+// Constructor
+//////////////////////////////////////////////////////////////
+
+  TransferState(String uri, String method, int offset, int requested,
+                int fileSize, int chunkSize, int numChunks)
+  {
+    this.uri       = uri;
+    this.method    = method;
+    this.offset    = offset;
+    this.requested = requested;
+    this.fileSize  = fileSize;
+    this.chunkSize = chunkSize;
+    this.numChunks = numChunks;
+    this.done      = new BitSet(numChunks);
+  }
+
+//////////////////////////////////////////////////////////////
+// Access
+//////////////////////////////////////////////////////////////
+
+  /**
+   * Return true if this is the state of the same transfer.
+   */
+  boolean matches(String uri, String method, int offset, int requested)
+  {
+    return this.uri.equals(uri) && this.method.equals(method) &&
+           this.offset == offset && this.requested == requested;
+  }
+
+  /**
+   * Get the number of chunks done.
+   */
+  synchronized int numDone()
+  {
+    return done.cardinality();
+  }
+
+  /**
+   * Return true if every chunk is done.
+   */
+  synchronized boolean isComplete()
+  {
+    return done.nextClearBit(0) >= numChunks;
+  }
+
+  synchronized boolean isDone(int chunk)
+  {
+    return done.get(chunk);
+  }
+
+  synchronized void setDone(int chunk)
+  {
+    done.set(chunk);
+  }
+
+  synchronized void setDone(int from, int to)
+  {
+    if (from < to) done.set(from, to);
+  }
+
+  /**
+   * Get the number of bytes up to the end of the last
+   * chunk done, the file written must be at least as big.
+   */
+  synchronized int doneSize()
+  {
+    return Math.min(done.length()*chunkSize, fileSize);
+  }
+
+  /**
+   * Get the first chunk at or after from which isn't done,
+   * or numChunks if there is none.
+   */
+  synchronized int nextMissing(int from)
+  {
+    return Math.min(done.nextClearBit(from), numChunks);
+  }
+
+  /**
+   * Get the first chunk at or after from which is done,
+   * or numChunks if there is none.
+   */
+  synchronized int nextDone(int from)
+  {
+    int i = done.nextSetBit(from);
+    return i < 0 ? numChunks : Math.min(i, numChunks);
+  }
+
+//////////////////////////////////////////////////////////////
+// IO
+//////////////////////////////////////////////////////////////
+
+  /**
+   * Load a state, return null if the file doesn't exist.
+   */
+  static TransferState load(File file)
+    throws IOException
+  {
+    if (!file.exists()) return null;
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try
+    {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+      TransferState s = new TransferState(in.readUTF(), in.readUTF(),
+        in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt());
+      byte[] bits = new byte[in.readInt()];
+      in.readFully(bits);
+      s.done.or(BitSet.valueOf(bits));
+      return s;
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+
+  /**
+   * Save the state through FileUtil.replace, so an interrupted
+   * transfer always finds a complete state to resume from.
+   */
+  synchronized void save(File file)
+    throws IOException
+  {
+    File temp = FileUtil.tempFile(file);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+    try
+    {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(uri);
+      out.writeUTF(method);
+      out.writeInt(offset);
+      out.writeInt(requested);
+      out.writeInt(fileSize);
+      out.writeInt(chunkSize);
+      out.writeInt(numChunks);
+      byte[] bits = done.toByteArray();
+      out.writeInt(bits.length);
+      out.write(bits);
+    }
+    finally
+    {
+      out.close();
+    }
+    FileUtil.replace(temp, file);
+  }
+
+//////////////////////////////////////////////////////////////
+// Fields
+//////////////////////////////////////////////////////////////
+
+  static final int MAGIC   = 0x736f7878;  // "soxx"
+  static final int VERSION = 1;
+
+  final String uri;        // remote file
+  final String method;     // "g" for get and "p" for put
+  final int offset;        // offset header of the transfer
+  final int requested;     // fileSize header of the transfer
+  final int fileSize;      // number of bytes transferred
+  final int chunkSize;     // chunk size chosen by the device
+  final int numChunks;     // number of chunks
+  private final BitSet done;
+
+}
@@ -0,0 +1,202 @@
+//
+// Copyright (c) 2008 Tridium, Inc.
+// Licensed under the Academic Free License version 3.0
+//
+
+package sedona.sox;
+
+/**
+ * TransferStats counts the chunks and bytes of a file transfer as
+ * it runs, along with the chunks skipped because a previous attempt
+ * already transferred them.  Get the stats of the transfer in
+ * progress or of the last one from SoxClient.transferStats().
+ */
+public class TransferStats
+{
+
+//////////////////////////////////////////////////////////////
+// Constructor
+//////////////////////////////////////////////////////////////
+
+  TransferStats(String uri, String method)
+  {
+    this.uri        = uri;
+    this.method     = method;
+    this.startTicks = System.currentTimeMillis();
+  }
+
+//////////////////////////////////////////////////////////////
+// Recording
+//////////////////////////////////////////////////////////////
+
+  /**
+   * The device opened the transfer of a run of chunks.
+   */
+  synchronized void opened(int fileSize, int chunkSize, int numChunks)
+  {
+    this.fileSize  = fileSize;
+    this.chunkSize = chunkSize;
+    this.numChunks = numChunks;
+    this.opens++;
+  }
+
+  /**
+   * Chunks done by a previous attempt were skipped.
+   */
+  synchronized void resumed(int chunks, int bytes)
+  {
+    this.resumed      += chunks;
+    this.resumedBytes += bytes;
+  }
+
+  /**
+   * A chunk was received or sent.
+   */
+  synchronized void chunk(int bytes)
+  {
+    this.chunks++;
+    this.bytes += bytes;
+  }
+
+  /**
+   * A chunk was received again and ignored.
+   */
+  synchronized void duplicate()
+  {
+    this.duplicates++;
+  }
+
+  /**
+   * The transfer completed or failed.
+   */
+  synchronized void done(boolean ok)
+  {
+    this.endTicks = System.currentTimeMillis();
+    this.ok = ok;
+  }
+
+//////////////////////////////////////////////////////////////
+// Access
+//////////////////////////////////////////////////////////////
+
+  /**
+   * Get the uri of the remote file.
+   */
+  public String uri() { return uri; }
+
+  /**
+   * Return true for a put, false for a get.
+   */
+  public boolean isPut() { return method.equals("p"); }
+
+  /**
+   * Get the size of the file in bytes.
+   */
+  public synchronized int fileSize() { return fileSize; }
+
+  /**
+   * Get the chunk size the device chose.
+   */
+  public synchronized int chunkSize() { return chunkSize; }
+
+  /**
+   * Get the number of chunks in the file.
+   */
+  public synchronized int numChunks() { return numChunks; }
+
+  /**
+   * Get the number of chunks transferred by this attempt.
+   */
+  public synchronized int chunks() { return chunks; }
+
+  /**
+   * Get the number of bytes transferred by this attempt.
+   */
+  public synchronized long bytes() { return bytes; }
+
+  /**
+   * Get the number of chunks skipped because a previous
+   * attempt of a resumable transfer did them.
+   */
+  public synchronized int resumed() { return resumed; }
+
+  /**
+   * Get the number of bytes skipped with the resumed chunks.
+   */
+  public synchronized long resumedBytes() { return resumedBytes; }
+
+  /**
+   * Get the number of chunks received more than once.
+   */
+  public synchronized int duplicates() { return duplicates; }
+
+  /**
+   * Get the number of times the transfer of a run of
+   * chunks was opened, more than one when resuming.
+   */
+  public synchronized int opens() { return opens; }
+
+  /**
+   * Return true once the transfer is over.
+   */
+  public synchronized boolean isDone() { return endTicks != 0; }
+
+  /**
+   * Return true if the transfer completed.
+   */
+  public synchronized boolean isOk() { return ok; }
+
+  /**
+   * Get the milliseconds spent so far.
+   */
+  public synchronized long elapsed()
+  {
+    return (endTicks != 0 ? endTicks : System.currentTimeMillis()) - startTicks;
+  }
+
+  /**
+   * Get the number of bytes transferred per second.
+   */
+  public synchronized double bytesPerSec()
+  {
+    return bytes * 1000d / Math.max(1, elapsed());
+  }
+
+  /**
+   * Get the number of chunks transferred per second.
+   */
+  public synchronized double chunksPerSec()
+  {
+    return chunks * 1000d / Math.max(1, elapsed());
+  }
+
+  public synchronized String toString()
+  {
+    return "TransferStats " + (isPut() ? "put " : "get ") + uri + " " +
+      bytes + "/" + fileSize + " bytes, " + chunks + "/" + numChunks + " chunks of " + chunkSize + ", " +
+      resumed + " resumed, " + duplicates + " duplicates, " + opens + " opens in " + elapsed() + "ms (" +
+      (int)bytesPerSec() + " bytes/sec, " +
+      (int)chunksPerSec() + " chunks/sec)" +
+      (!isDone() ? "" : ok ? " ok" : " failed");
+  }
+
+//////////////////////////////////////////////////////////////
+// Fields
+//////////////////////////////////////////////////////////////
+
+  final String uri;
+  final String method;        // "g" for get and "p" for put
+  private int fileSize;       // bytes in file
+  private int chunkSize;      // bytes per chunk (last may be smaller)
+  private int numChunks;      // chunks in file
+  private int chunks;         // chunks transferred
+  private long bytes;         // bytes transferred
+  private int resumed;        // chunks skipped
+  private long resumedBytes;  // bytes skipped
+  private int duplicates;     // chunks received again
+  private int opens;          // runs opened
+  private boolean ok;
+  private long startTicks;
+  private long endTicks;
+
+}
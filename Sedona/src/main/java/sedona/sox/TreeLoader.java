@@ -0,0 +1,325 @@
+//
+// Copyright (c) 2008 Tridium, Inc.
+// Licensed under the Academic Free License version 3.0
+//
+
+package sedona.sox;
+
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * TreeLoader loads a whole component tree into the SoxClient
+ * cache, such as to mirror a device's app.  Instead of loading one
+ * tree level per round trip, it requests the tree of each child as
+ * soon as the children ids of its parent arrive and keeps up to
+ * maxOutstanding update requests in flight, which keeps the DASP
+ * send window full even over links with a long round trip time.
+ * Tree requests go ahead of the config, runtime and links requests
+ * so that discovery runs as far ahead as possible.
+ *
+ * Responses are applied to the cache as they arrive, on the
+ * SoxReceiver thread, and reported to the Listener along with
+ * the counts and throughput so far.
+ *
+ * When the cache was restored from a SoxSnapshot the loader
+ * validates it instead: tree responses which are the same as the
+ * snapshot's leave the cached component alone and only the
+ * categories in the validate mask are read again for it.  A
+ * component whose tree changed, or which is new, gets everything
+ * in the mask read like without a snapshot.
+ */
+public class TreeLoader
+{
+
+//////////////////////////////////////////////////////////////
+// Constructor
+//////////////////////////////////////////////////////////////
+
+  /**
+   * Create a loader for the tree under rootId.  The mask specifies
+   * what to load besides the tree (CONFIG, RUNTIME, LINKS).
+   */
+  TreeLoader(SoxClient client, int rootId, int mask, Listener listener, int maxOutstanding)
+  {
+    this(client, rootId, mask, listener, maxOutstanding, null, 0);
+  }
+
+  /**
+   * Create a loader which validates the components restored
+   * from snapshot, reading the categories in the validate mask
+   * (CONFIG, LINKS) again even for unchanged trees.
+   */
+  TreeLoader(SoxClient client, int rootId, int mask, Listener listener, int maxOutstanding,
+             SoxSnapshot snapshot, int validate)
+  {
+    this.client         = client;
+    this.rootId         = rootId;
+    this.mask           = mask;
+    this.listener       = listener;
+    this.maxOutstanding = maxOutstanding;
+    this.snapshot       = snapshot;
+    this.validate       = validate;
+  }
+
+//////////////////////////////////////////////////////////////
+// Load
+//////////////////////////////////////////////////////////////
+
+  /**
+   * Start loading, the future completes once every
+   * component of the tree has been loaded.
+   */
+  synchronized CompletableFuture<TreeLoader> start()
+  {
+    startTicks = System.currentTimeMillis();
+    discover(rootId);
+    fill();
+    return future;
+  }
+
+  /**
+   * Queue the tree request of a newly found component.
+   */
+  private void discover(int id)
+  {
+    if (id < 0 || seen.get(id)) return;
+    seen.set(id);
+    found++;
+    trees.add(Integer.valueOf(id));
+  }
+
+  /**
+   * Send queued requests until maxOutstanding are in flight.
+   */
+  private void fill()
+  {
+    while (outstanding < maxOutstanding && !future.isDone())
+    {
+      final int id, what;
+      if (!trees.isEmpty())
+      {
+        id = ((Integer)trees.removeFirst()).intValue();
+        what = 't';
+      }
+      else if (!details.isEmpty())
+      {
+        int x = ((Integer)details.removeFirst()).intValue();
+        id = x >> 8;
+        what = x & 0xff;
+      }
+      else
+      {
+        break;
+      }
+
+      outstanding++;
+      client.comm().requestAsync(Msg.makeUpdateReq(id, what))
+        .whenComplete((res, err) -> receive(id, what, res, err));
+    }
+
+    if (outstanding == 0 && !future.isDone())
+    {
+      endTicks = System.currentTimeMillis();
+      future.complete(this);
+    }
+  }
+
+  /**
+   * Apply a response, queue the requests for what it
+   * revealed and send more.
+   */
+  private synchronized void receive(int id, int what, Msg res, Throwable err)
+  {
+    outstanding--;
+    if (future.isDone()) return;
+    try
+    {
+      if (err != null) throw err;
+      requests++;
+
+      // components removed since their parent was read fail
+      // with an error response, skip them like load does
+      if (res.isError())
+      {
+        errors++;
+      }
+      else
+      {
+        res.checkResponse('C');
+        boolean changed = apply(id, res);
+        if (what == 't') loaded(id, changed);
+      }
+
+      if (listener != null) listener.progress(this);
+      fill();
+    }
+    catch (Throwable e)
+    {
+      endTicks = System.currentTimeMillis();
+      future.completeExceptionally(e);
+    }
+  }
+
+  /**
+   * Apply a response positioned at its component id to the cache
+   * unless it is the same as the snapshot.  Return true if applied.
+   */
+  private boolean apply(int id, Msg res)
+    throws Exception
+  {
+    if (snapshot != null && client.cache(id) != null)
+    {
+      // a different component reusing the id of a deleted one
+      if (snapshot.typeChanged(res))
+        client.cacheRemove(client.cache(id));
+      else if (snapshot.matches(res))
+      {
+        unchanged++;
+        return false;
+      }
+    }
+    client.applyToCache(res);
+    return true;
+  }
+
+  /**
+   * A component's tree was loaded, queue its children and details.
+   */
+  private void loaded(int id, boolean changed)
+  {
+    SoxComponent c = client.cache(id);
+    if (c == null) return;
+    loaded++;
+
+    if (detail(id, 'c', SoxComponent.CONFIG, changed))  details.add(Integer.valueOf(id << 8 | 'c'));
+    if (detail(id, 'r', SoxComponent.RUNTIME, changed)) details.add(Integer.valueOf(id << 8 | 'r'));
+    if (detail(id, 'l', SoxComponent.LINKS, changed))   details.add(Integer.valueOf(id << 8 | 'l'));
+
+    int[] kids = c.children;
+    for (int i=0; i<kids.length; ++i)
+      discover(kids[i]);
+  }
+
+  /**
+   * Does a category of a loaded component need to be read.
+   */
+  private boolean detail(int id, int what, int bit, boolean changed)
+  {
+    if ((mask & bit) == 0) return false;
+    if (snapshot == null || changed || (validate & bit) != 0) return true;
+    return !snapshot.has(id, what);
+  }
+
+//////////////////////////////////////////////////////////////
+// Access
+//////////////////////////////////////////////////////////////
+
+  /**
+   * Get the id of the root component.
+   */
+  public int rootId() { return rootId; }
+
+  /**
+   * Get the number of components found so far.
+   */
+  public synchronized int found() { return found; }
+
+  /**
+   * Get the number of components whose tree has been loaded.
+   */
+  public synchronized int loaded() { return loaded; }
+
+  /**
+   * Get the number of responses received.
+   */
+  public synchronized int requests() { return requests; }
+
+  /**
+   * Get the number of error responses, for components
+   * removed on the device while loading.
+   */
+  public synchronized int errors() { return errors; }
+
+  /**
+   * Get the number of responses which were the same as the
+   * snapshot the cache was restored from.
+   */
+  public synchronized int unchanged() { return unchanged; }
+
+  /**
+   * Get the number of requests in flight.
+   */
+  public synchronized int outstanding() { return outstanding; }
+
+  /**
+   * Get the milliseconds spent loading so far.
+   */
+  public synchronized long elapsed()
+  {
+    return (endTicks != 0 ? endTicks : System.currentTimeMillis()) - startTicks;
+  }
+
+  /**
+   * Get the number of components loaded per second.
+   */
+  public synchronized double componentsPerSec()
+  {
+    return loaded * 1000d / Math.max(1, elapsed());
+  }
+
+  /**
+   * Get the number of responses received per second.
+   */
+  public synchronized double requestsPerSec()
+  {
+    return requests * 1000d / Math.max(1, elapsed());
+  }
+
+  public synchronized String toString()
+  {
+    return "TreeLoader " + loaded + "/" + found + " components, " +
+      requests + " requests, " + errors + " errors, " + unchanged + " unchanged in " + elapsed() + "ms (" +
+      (int)componentsPerSec() + " components/sec, " +
+      (int)requestsPerSec() + " requests/sec)";
+  }
+
+//////////////////////////////////////////////////////////////
+// Listener
+//////////////////////////////////////////////////////////////
+
+  public static interface Listener
+  {
+    /**
+     * Called on the SoxReceiver thread after each response
+     * is applied.  The loader is locked during the call.
+     */
+    public void progress(TreeLoader loader);
+  }
+
+//////////////////////////////////////////////////////////////
+// Fields
+//////////////////////////////////////////////////////////////
+
+  final SoxClient client;
+  final int rootId;
+  final int mask;                   // CONFIG, RUNTIME, LINKS to load
+  final Listener listener;
+  final int maxOutstanding;         // max requests in flight
+  final SoxSnapshot snapshot;       // snapshot the cache was restored from or null
+  final int validate;               // CONFIG, LINKS to read again for unchanged trees
+  final CompletableFuture<TreeLoader> future = new CompletableFuture<TreeLoader>();
+  private final BitSet seen = new BitSet();               // ids found
+  private final LinkedList trees = new LinkedList();      // ids to send tree requests for
+  private final LinkedList details = new LinkedList();    // id << 8 | what to send
+  private int outstanding;          // requests in flight
+  private int found;                // components found
+  private int loaded;               // trees applied
+  private int requests;             // responses received
+  private int errors;               // error responses
+  private int unchanged;            // responses same as the snapshot
+  private long startTicks;
+  private long endTicks;
+
+}
@@ -9,6 +9,9 @@
 package sedona.util;
 
 import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 
 /**
@@ -256,4 +259,33 @@ public class FileUtil
       throw new IOException("Cannot delete: " + file);
   }
 
+  /**
+   * Get the temp file to write the new content of
+   * a file to before it is put in place by replace().
+   */
+  public static File tempFile(File file)
+  {
+    return new File(file.getPath() + ".tmp");
+  }
+
+  /**
+   * Replace a file with the temp file written next to it
+   * in one atomic rename, so that a crash leaves either
+   * the old or the new content.  If the file system can't
+   * rename atomically fall back to a plain replace.
+   */
+  public static void replace(File temp, File file)
+    throws IOException
+  {
+    try
+    {
+      Files.move(temp.toPath(), file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (AtomicMoveNotSupportedException e)
+    {
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
 }
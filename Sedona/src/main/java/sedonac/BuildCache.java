@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2007 Tridium, Inc.
+ * Licensed under the Academic Free License version 3.0
+ *
+ */
+
+package sedonac;
+
+import java.io.*;
+import java.security.*;
+import java.util.*;
+import sedona.Env;
+import sedona.kit.*;
+import sedona.util.*;
+import sedona.xml.*;
+import sedonac.ast.*;
+
+/**
+ * BuildCache models the inputs of a kit compile: the kit.xml file,
+ * the hash of every source file, the checksums of the resolved
+ * dependency and include kits, and the compiler flags which affect
+ * the output.  If a cache file recorded by a previous compile matches
+ * the current inputs and its output kit is still on disk, then the
+ * kit is up to date and the rest of the pipeline can be skipped.
+ *
+ * Cache files are stored in {home}/cache/kits/{kitName}.xml, or under
+ * {outDir}/cache/kits when -outDir is used.
+ *
+ * Reuse is per kit, not per type: the types of a kit are resolved,
+ * checked and laid out against each other, so a change to one type
+ * can change the IR of the others, and an IrType cannot be reused
+ * on its own without redoing that work.  A kit with any changed
+ * input is compiled from scratch.
+ */
+public class BuildCache
+{
+
+////////////////////////////////////////////////////////////////
+// Construction
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Compute the current inputs of the specified compiler, which
+   * must have already run InitKitCompile.  Return null if some
+   * input cannot be resolved, in which case the kit is never
+   * considered up to date.
+   */
+  public static BuildCache make(Compiler c)
+  {
+    BuildCache cache = new BuildCache(c.ast.name);
+    try
+    {
+      cache.put("input", c.input.getPath());
+      cache.put("kitXml", hash(c.input));
+      cache.put("version", String.valueOf(c.ast.version));
+      cache.put("sedonac", Env.version);
+      cache.put("flags", flags(c));
+
+      DependDef[] depends = c.ast.depends;
+      for (int i=0; depends != null && i<depends.length; ++i)
+      {
+        KitFile f = KitDb.matchBest(depends[i].depend);
+        if (f == null) return null;
+        cache.put("depend:" + f.name, f.toString());
+      }
+
+      IncludeDef[] includes = c.ast.includes;
+      for (int i=0; includes != null && i<includes.length; ++i)
+      {
+        KitFile f = KitDb.matchBest(includes[i].depend);
+        if (f == null) return null;
+        cache.put("include:" + f.name, f.toString());
+      }
+
+      SourceFile[] files = c.sourceFiles;
+      for (int i=0; i<files.length; ++i)
+        cache.put("source:" + files[i].file.getPath(), hash(files[i].file) + (files[i].testOnly ? " testonly" : ""));
+
+      return cache;
+    }
+    catch (Exception e)
+    {
+      c.log.debug("    BuildCache: " + e);
+      return null;
+    }
+  }
+
+  /**
+   * Get the compiler options which affect what a kit compile
+   * writes or prints, any new such option must be added here.
+   */
+  static String flags(Compiler c)
+  {
+    return "doc=" + c.doc + " www=" + c.www + " optimize=" + c.optimize +
+      " layout=" + c.dumpLayout + " noChecksum=" + c.nochk + " stageSim=" + c.sim +
+      " lazyKits=" + c.lazyKits + " kitVersion=" + c.kitVersion + " outDir=" + c.outDir;
+  }
+
+  public BuildCache(String kitName)
+  {
+    this.kitName = kitName;
+  }
+
+////////////////////////////////////////////////////////////////
+// Access
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Get the file the cache for the specified kit is stored in.
+   */
+  public static File toFile(Compiler c, String kitName)
+  {
+    File base = c.outDir != null ? c.outDir : Env.home;
+    return new File(new File(new File(base, "cache"), "kits"), kitName + ".xml");
+  }
+
+  public void put(String key, String val)
+  {
+    inputs.put(key, val);
+  }
+
+  public String get(String key)
+  {
+    return (String)inputs.get(key);
+  }
+
+  /**
+   * Return the list of input keys which differ between this
+   * cache and the specified previous cache (empty if same).
+   */
+  public String[] diff(BuildCache prev)
+  {
+    ArrayList acc = new ArrayList();
+    Iterator it = inputs.keySet().iterator();
+    while (it.hasNext())
+    {
+      String key = (String)it.next();
+      if (!get(key).equals(prev.get(key))) acc.add(key);
+    }
+    it = prev.inputs.keySet().iterator();
+    while (it.hasNext())
+    {
+      String key = (String)it.next();
+      if (get(key) == null) acc.add(key);
+    }
+    return (String[])acc.toArray(new String[acc.size()]);
+  }
+
+  /**
+   * Return if the output kit recorded in this cache, and
+   * the docs if any were generated, are still on disk
+   * exactly as we wrote them.
+   */
+  public boolean outputExists()
+  {
+    if (output == null) return false;
+    if (!output.isFile() ||
+        output.length() != outputSize ||
+        output.lastModified() != outputModified) return false;
+    if (doc != null && (!doc.isFile() || doc.lastModified() != docModified)) return false;
+    return true;
+  }
+
+  /**
+   * Record the output kit file.
+   */
+  public void setOutput(File f)
+  {
+    this.output = f;
+    this.outputSize = f.length();
+    this.outputModified = f.lastModified();
+  }
+
+  /**
+   * Record the index file of the generated docs.
+   */
+  public void setDoc(File f)
+  {
+    this.doc = f;
+    this.docModified = f.lastModified();
+  }
+
+////////////////////////////////////////////////////////////////
+// IO
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Load the cache file or return null if not found or invalid.
+   */
+  public static BuildCache load(File f)
+  {
+    if (!f.exists()) return null;
+    try
+    {
+      XElem xml = XParser.make(f).parse();
+      BuildCache cache = new BuildCache(xml.get("kit"));
+      XElem xoutput = xml.elem("output");
+      if (xoutput != null)
+      {
+        cache.output = new File(xoutput.get("file"));
+        cache.outputSize = xoutput.getl("size");
+        cache.outputModified = xoutput.getl("modified");
+      }
+      XElem xdoc = xml.elem("doc");
+      if (xdoc != null)
+      {
+        cache.doc = new File(xdoc.get("file"));
+        cache.docModified = xdoc.getl("modified");
+      }
+      XElem[] xinputs = xml.elems("input");
+      for (int i=0; i<xinputs.length; ++i)
+        cache.put(xinputs[i].get("key"), xinputs[i].get("val"));
+      return cache;
+    }
+    catch (Exception e)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Save this cache to the specified file.
+   */
+  public void save(File f)
+    throws IOException
+  {
+    f.getParentFile().mkdirs();
+    XWriter out = new XWriter(f);
+    try
+    {
+      out.w("<?xml version='1.0'?>\n");
+      out.w("<buildCache ").attr("kit", kitName).w(">\n");
+      if (output != null)
+        out.w("  <output ").attr("file", output.getPath())
+           .w(" ").attr("size", String.valueOf(outputSize))
+           .w(" ").attr("modified", String.valueOf(outputModified)).w("/>\n");
+      if (doc != null)
+        out.w("  <doc ").attr("file", doc.getPath())
+           .w(" ").attr("modified", String.valueOf(docModified)).w("/>\n");
+      Iterator it = inputs.keySet().iterator();
+      while (it.hasNext())
+      {
+        String key = (String)it.next();
+        out.w("  <input ").attr("key", key).w(" ").attr("val", get(key)).w("/>\n");
+      }
+      out.w("</buildCache>\n");
+    }
+    finally
+    {
+      out.close();
+    }
+  }
+
+  /**
+   * Return the SHA-1 of the file's contents as a hex string.
+   */
+  static String hash(File f)
+    throws IOException, NoSuchAlgorithmException
+  {
+    MessageDigest md = MessageDigest.getInstance("SHA-1");
+    InputStream in = new FileInputStream(f);
+    try
+    {
+      byte[] buf = new byte[8192];
+      int n;
+      while ((n = in.read(buf)) > 0) md.update(buf, 0, n);
+    }
+    finally
+    {
+      in.close();
+    }
+    return TextUtil.toHexString(md.digest());
+  }
+
+////////////////////////////////////////////////////////////////
+// Fields
+////////////////////////////////////////////////////////////////
+
+  public final String kitName;
+  File output;
+  long outputSize;
+  long outputModified;
+  File doc;
+  long docModified;
+  LinkedHashMap inputs = new LinkedHashMap();
+
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2007 Tridium, Inc.
+ * Licensed under the Academic Free License version 3.0
+ *
+ */
+
+package sedonac;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import sedonac.ir.IrKitCache;
+
+/**
+ * CompileServer is a long running sedonac process which accepts
+ * compile requests from a thin client over a localhost socket.  This
+ * saves build scripts which invoke sedonac many times from paying the
+ * JVM startup and JIT warm-up on every run, and lets the server keep
+ * the tokenized IR of unchanged dependency kits in IrKitCache.
+ *
+ * The protocol is line based UTF-8 text.  A request is the client's
+ * working directory followed by one command line argument per line,
+ * terminated by an empty line.  The response is the compiler output
+ * followed by a final line of EXIT + the exit code.  Requests run one
+ * at a time since the compiler writes to System.out.  A request whose
+ * only argument is "-stop" shuts the server down, and requests for
+ * -server or -client are rejected.
+ */
+public class CompileServer
+{
+
+////////////////////////////////////////////////////////////////
+// Constructor
+////////////////////////////////////////////////////////////////
+
+  public CompileServer(int port)
+  {
+    this.port = port;
+  }
+
+////////////////////////////////////////////////////////////////
+// Server
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Accept and process requests until stopped.
+   */
+  public int serve()
+  {
+    ServerSocket server;
+    try
+    {
+      server = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+    }
+    catch (IOException e)
+    {
+      System.out.println("ERROR: Cannot open server port " + port + ": " + e);
+      return 1;
+    }
+
+    IrKitCache.enabled = true;
+    System.out.println("sedonac server listening on localhost:" + port);
+    try
+    {
+      while (!stopped)
+      {
+        Socket socket = server.accept();
+        try
+        {
+          handle(socket);
+        }
+        catch (Exception e)
+        {
+          System.out.println("ERROR: Compile server request failed");
+          e.printStackTrace();
+        }
+        finally
+        {
+          try { socket.close(); } catch (Exception e) {}
+        }
+      }
+      return 0;
+    }
+    catch (IOException e)
+    {
+      System.out.println("ERROR: Compile server failed");
+      e.printStackTrace();
+      return 1;
+    }
+    finally
+    {
+      try { server.close(); } catch (Exception e) {}
+      IrKitCache.enabled = false;
+      IrKitCache.clear();
+    }
+  }
+
+  private void handle(Socket socket)
+    throws IOException
+  {
+    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+    String dir = in.readLine();
+    if (dir == null) return;
+    ArrayList acc = new ArrayList();
+    while (true)
+    {
+      String line = in.readLine();
+      if (line == null || line.length() == 0) break;
+      acc.add(line);
+    }
+    String[] args = (String[])acc.toArray(new String[acc.size()]);
+
+    PrintStream out = new PrintStream(new BufferedOutputStream(socket.getOutputStream()), false, "UTF-8");
+    if (args.length == 1 && args[0].equals("-stop"))
+    {
+      stopped = true;
+      out.println(EXIT + 0);
+      out.flush();
+      return;
+    }
+
+    // a request can't start another server or forward itself, nor
+    // run a class's main which might System.exit the server
+    if (args.length > 0 && (args[0].equals("-server") || args[0].equals("-client") || Main.isMainClass(args[0])))
+    {
+      out.println("ERROR: " + args[0] + " not allowed in a compile server request");
+      out.println(EXIT + 1);
+      out.flush();
+      return;
+    }
+
+    long t1 = System.currentTimeMillis();
+    int code;
+    PrintStream oldOut = System.out;
+    PrintStream oldErr = System.err;
+    System.setOut(out);
+    System.setErr(out);
+    try
+    {
+      code = Main.doMain(args, new File(dir));
+    }
+    catch (Throwable e)
+    {
+      e.printStackTrace(out);
+      code = 1;
+    }
+    finally
+    {
+      System.setOut(oldOut);
+      System.setErr(oldErr);
+    }
+    out.println(EXIT + code);
+    out.flush();
+
+    long t2 = System.currentTimeMillis();
+    System.out.println("sedonac " + join(args) + " -> " + code + " [" + (t2-t1) + "ms] " + IrKitCache.stats());
+  }
+
+////////////////////////////////////////////////////////////////
+// Client
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Send the command line arguments to the server on the specified
+   * localhost port, echo its output and return its exit code.
+   */
+  public static int request(int port, String[] args)
+  {
+    Socket socket = null;
+    try
+    {
+      socket = new Socket(InetAddress.getByName("127.0.0.1"), port);
+      Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+      out.write(new File(".").getCanonicalPath());
+      out.write('\n');
+      for (int i=0; i<args.length; ++i)
+      {
+        out.write(args[i]);
+        out.write('\n');
+      }
+      out.write('\n');
+      out.flush();
+
+      BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+      String line;
+      while ((line = in.readLine()) != null)
+      {
+        if (line.startsWith(EXIT))
+          return Integer.parseInt(line.substring(EXIT.length()));
+        System.out.println(line);
+      }
+      System.out.println("ERROR: Compile server closed connection");
+      return 1;
+    }
+    catch (ConnectException e)
+    {
+      System.out.println("ERROR: No compile server on port " + port);
+      return 1;
+    }
+    catch (Exception e)
+    {
+      System.out.println("ERROR: Compile server request failed");
+      e.printStackTrace();
+      return 1;
+    }
+    finally
+    {
+      try { if (socket != null) socket.close(); } catch (Exception e) {}
+    }
+  }
+
+  private static String join(String[] args)
+  {
+    StringBuffer s = new StringBuffer();
+    for (int i=0; i<args.length; ++i)
+    {
+      if (i > 0) s.append(' ');
+      s.append(args[i]);
+    }
+    return s.toString();
+  }
+
+////////////////////////////////////////////////////////////////
+// Fields
+////////////////////////////////////////////////////////////////
+
+  static final String EXIT = "sedonac-exit: ";
+
+  final int port;
+  volatile boolean stopped;
+
+}
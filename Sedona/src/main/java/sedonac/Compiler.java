@@ -93,6 +93,24 @@ public class Compiler {
 
         // check for compile pipelines
         String rootElem = xml.name();
+        if (profile) profiler = new CompilerProfile(this, pipelineName(rootElem));
+        try {
+            compile(rootElem);
+        } finally {
+            closeKitLoaders();
+            if (profiler != null) profiler.save();
+        }
+    }
+
+    /**
+     * Release the files mapped by kits read with -lazyKits.
+     */
+    public void closeKitLoaders() {
+        for (int i = 0; kits != null && i < kits.length; ++i)
+            if (kits[i] != null && kits[i].loader != null) kits[i].loader.close();
+    }
+
+    private void compile(String rootElem) {
         if (rootElem.equals("sedonaKit")) {
             compileKit();
             return;
@@ -125,63 +143,89 @@ public class Compiler {
         throw err("Unknown XML input file type <" + rootElem + ">", new Location(xml));
     }
 
+    private static String pipelineName(String rootElem) {
+        if (rootElem.equals("sedonaKit")) return "kit";
+        if (rootElem.equals("sedonaCode")) return "image";
+        if (rootElem.equals("sedonaDir")) return "dir";
+        if (rootElem.equals("sedonaTranslate")) return "translate";
+        if (rootElem.equals("sedonaPlatform")) return "platform";
+        if (rootElem.equals("sedonaApp")) return "app";
+        if (rootElem.equals("toc")) return "doc";
+        return rootElem;
+    }
+
+    /**
+     * Run one step of a pipeline, recording it
+     * in the profile if -profile is enabled.
+     */
+    public void run(CompilerStep step) {
+        if (profiler != null)
+            profiler.run(step);
+        else
+            step.run();
+    }
+
     /**
      * Run the pipeline to compile a directory of Sedona
      * source files into a kit file containing the IR.
      */
     public void compileKit() {
-        new InitKitCompile(this).run();
-        new ResolveDepends(this).run();
-        new ResolveIncludes(this).run();
-        new OrderIrTypes(this).run();
-        new ResolveIR(this).run();
-        new Parse(this).run();
-        new MountAstIntoNamespace(this).run();
-        new ResolveTypes(this).run();
-        new OrderAstTypes(this).run();
-        new Inherit(this).run();
-        new InstanceInit(this).run();
-        new Normalize(this).run();
-        new ResolveExpr(this).run();
-        new ConstFolding(this).run();
-        new ResolveFacets(this).run();
-        new CheckErrors(this).run();
-        new NormalizeExpr(this).run();
-        new ResolveNatives(this).run();
-        new StaticAnalysis(this).run();
-        new Assemble(this).run();
-        new FieldLayout(this).run();
-        new BuildManifest(this).run();
-        new OptimizeIr(this).run();
-        new WriteKit(this).run();
-        new WriteDoc(this).run();
+        run(new InitKitCompile(this));
+        run(new CheckBuildCache(this));
+        if (upToDate) return;
+        run(new ResolveDepends(this));
+        run(new ResolveIncludes(this));
+        run(new Parse(this));
+        run(new LoadLazyTypes(this));
+        run(new OrderIrTypes(this));
+        run(new ResolveIR(this));
+        run(new MountAstIntoNamespace(this));
+        run(new ResolveTypes(this));
+        run(new OrderAstTypes(this));
+        run(new Inherit(this));
+        run(new InstanceInit(this));
+        run(new Normalize(this));
+        run(new ResolveExpr(this));
+        run(new ConstFolding(this));
+        run(new ResolveFacets(this));
+        run(new CheckErrors(this));
+        run(new NormalizeExpr(this));
+        run(new ResolveNatives(this));
+        run(new StaticAnalysis(this));
+        run(new Assemble(this));
+        run(new FieldLayout(this));
+        run(new BuildManifest(this));
+        run(new OptimizeIr(this));
+        run(new WriteKit(this));
+        run(new WriteDoc(this));
+        run(new WriteBuildCache(this));
     }
 
     /**
      * Run the pipeline to compile a set of kits into a scode image.
      */
     public void compileImage() {
-        new InitImageCompile(this).run();
-        new ReadKits(this).run();
-        new FilterTestClasses(this).run();
-        new OrderIrTypes(this).run();
-        new ResolveIR(this).run();
-        new Inherit(this).run();
-        new AssignSlotIds(this).run();
-        new OrderStaticInits(this).run();
-        new FieldLayout(this).run();
-        new VTableLayout(this).run();
-        new InlineConsts(this).run();
-        new FindTestCases(this).run();
-        new Generate(this).run();
-        new WriteImage(this).run();
+        run(new InitImageCompile(this));
+        run(new ReadKits(this));
+        run(new FilterTestClasses(this));
+        run(new OrderIrTypes(this));
+        run(new ResolveIR(this));
+        run(new Inherit(this));
+        run(new AssignSlotIds(this));
+        run(new OrderStaticInits(this));
+        run(new FieldLayout(this));
+        run(new VTableLayout(this));
+        run(new InlineConsts(this));
+        run(new FindTestCases(this));
+        run(new Generate(this));
+        run(new WriteImage(this));
     }
 
     /**
      * Run the pipeline to compile a directory of compiler targets.
      */
     public void compileDir() {
-        new CompileDir(this).run();
+        run(new CompileDir(this));
     }
 
     /**
@@ -189,107 +233,123 @@ public class Compiler {
      * code for a specific platform port.
      */
     public void stagePlatform() {
-        new InitStagePlatform(this).run();
-        new ReadKits(this).run();
-        new StageNatives(this).run();
-        new GenNativeTable(this).run();
-        new StagePlatform(this).run();
+        run(new InitStagePlatform(this));
+        run(new ReadKits(this));
+        run(new StageNatives(this));
+        run(new GenNativeTable(this));
+        run(new StagePlatform(this));
     }
 
     /**
      * Run the pipeline to compile a set of kits into Java or C code.
      */
     public void translate() {
-        new InitTranslate(this).run();
+        run(new InitTranslate(this));
 
         Translation t = translation;
 
         // NOTE: Translate supports many kits, but the compiler supports only one
-        for (int i = 0; i < t.kits.length; ++i) {
-            // Init translation for this particular kit
-            new InitKitTranslate(this, i).run();
-
-            // Reuse the compiler steps
-            new ResolveDepends(this).run();
-            new ResolveIncludes(this).run();
-
-            new OrderIrTypes(this).run();
-            new ResolveIR(this).run();
-            new Parse(this).run();
-            new MountAstIntoNamespace(this).run();
-            new ResolveTypes(this).run();
-            new OrderAstTypes(this).run();
-            new SortMethodsAndFields(this).run();
-
-            if (t.isCpp()) {
-                // C++: Lean inheritance (Sedona inherits ALL slots by default)
-                new InheritCpp(this).run();
-            } else {
-                new Inherit(this).run();
+        if (threads > 1 && t.kits.length > 1) {
+            // translate independent kits in parallel, each with its own compiler
+            run(new TranslateKits(this));
+        } else {
+            for (int i = 0; i < t.kits.length; ++i) {
+                translateKit(i);
             }
-            new InstanceInit(this).run();
-
-            // C++: Add missing constructors
-            new InheritCtors(this).run();
-
-            new Normalize(this).run();
-            if (t.isCpp()) {
-                new ResolveExprCpp(this).run();
-                // Replace 'a.equals(b)' (where a and b are of type Str) with 'a == b'
-                new ReplaceStrEquals(this).run();
-                new CreateGettersAndSetters(this).run();
-                new PublicToProtected(this).run();
-                new RemoveInitVirtAndComp(this).run();
-                // Add virtual destructors, if required
-                new AddDestructors(this).run();
-                // Add const flag to methods
-                new CheckMethodConst(this).run();
-            } else {
-                new ResolveExpr(this).run();
-            }
-            new ConstFolding(this).run();
-            new ResolveFacets(this).run();
-            if (t.isCpp()) {
-                if (!t.cppOptions.isDisableErrorCheck()) {
-                    // C++: Relaxed checking on parameter/return types (in Sedona byte and short are transferred via int)
-                    // C++: Relaxed checking on method modifiers (const/inline are possible)
-                    new CheckErrorsCpp(this).run();
-                } else {
-                    log.warn("ERROR CHECK IS DISABLED - Translation may be inconsistent!");
-                }
+        }
+        log.info("  Translate [" + t.filesWritten.get() + " files written, " + t.filesUnchanged.get() + " unchanged]");
+    }
+
+    /**
+     * Run the translation pipeline for one kit of the translation.
+     */
+    public void translateKit(int kitIndex) {
+        Translation t = translation;
+
+        // Init translation for this particular kit
+        run(new InitKitTranslate(this, kitIndex));
+
+        // Reuse the compiler steps
+        run(new ResolveDepends(this));
+        run(new ResolveIncludes(this));
+
+        run(new Parse(this));
+        run(new LoadLazyTypes(this));
+        run(new OrderIrTypes(this));
+        run(new ResolveIR(this));
+        run(new MountAstIntoNamespace(this));
+        run(new ResolveTypes(this));
+        run(new OrderAstTypes(this));
+        run(new SortMethodsAndFields(this));
+
+        if (t.isCpp()) {
+            // C++: Lean inheritance (Sedona inherits ALL slots by default)
+            run(new InheritCpp(this));
+        } else {
+            run(new Inherit(this));
+        }
+        run(new InstanceInit(this));
+
+        // C++: Add missing constructors
+        run(new InheritCtors(this));
+
+        run(new Normalize(this));
+        if (t.isCpp()) {
+            run(new ResolveExprCpp(this));
+            // Replace 'a.equals(b)' (where a and b are of type Str) with 'a == b'
+            run(new ReplaceStrEquals(this));
+            run(new CreateGettersAndSetters(this));
+            run(new PublicToProtected(this));
+            run(new RemoveInitVirtAndComp(this));
+            // Add virtual destructors, if required
+            run(new AddDestructors(this));
+            // Add const flag to methods
+            run(new CheckMethodConst(this));
+        } else {
+            run(new ResolveExpr(this));
+        }
+        run(new ConstFolding(this));
+        run(new ResolveFacets(this));
+        if (t.isCpp()) {
+            if (!t.cppOptions.isDisableErrorCheck()) {
+                // C++: Relaxed checking on parameter/return types (in Sedona byte and short are transferred via int)
+                // C++: Relaxed checking on method modifiers (const/inline are possible)
+                run(new CheckErrorsCpp(this));
             } else {
-                new CheckErrors(this).run();
+                log.warn("ERROR CHECK IS DISABLED - Translation may be inconsistent!");
             }
-            new NormalizeExpr(this).run();
-            new ResolveNatives(this).run();
-
-            // C++: Resolve enum types
-            new ResolveEnums(this).run();
-            // Now we can translate
-            new Translate(this).run();
+        } else {
+            run(new CheckErrors(this));
         }
+        run(new NormalizeExpr(this));
+        run(new ResolveNatives(this));
+
+        // C++: Resolve enum types
+        run(new ResolveEnums(this));
+        // Now we can translate
+        run(new Translate(this));
     }
 
     /**
      * Translate an application file from XML format to binary format.
      */
     public void appXmlToBinary() {
-        new ConvertAppFile(this).run();
+        run(new ConvertAppFile(this));
     }
 
     /**
      * Translate an application file from binary format to XML format.
      */
     public void appBinaryToXml() {
-        new ConvertAppFile(this).run();
+        run(new ConvertAppFile(this));
     }
 
     /**
      * Compile the HTML documentation.
      */
     public void compileDocs() {
-        new TableOfContents(this).run();
-        new CheckHtmlLinks(this).run();
+        run(new TableOfContents(this));
+        run(new CheckHtmlLinks(this));
     }
 
 ////////////////////////////////////////////////////////////////
@@ -406,9 +466,39 @@ public class Compiler {
         c.kitVersion = this.kitVersion;
         c.optimize = this.optimize;
         c.www = this.www;
+        c.threads = this.threads;
+        c.incremental = this.incremental;
+        c.lazyKits = this.lazyKits;
+        c.profile = this.profile;
         return c;
     }
 
+    /**
+     * Create a new compiler instance like spawn(), but with its
+     * own log, errors and warnings so that it can safely run on
+     * another thread.  Use merge() to fold its results back in.
+     */
+    public Compiler spawnDetached(CompilerLog log) {
+        Compiler c = spawn();
+        c.log = log;
+        c.errors = new ArrayList();
+        c.warnings = new ArrayList();
+        return c;
+    }
+
+    /**
+     * Merge the errors and warnings of a compiler created
+     * by spawnDetached() back into this compiler.
+     */
+    public void merge(Compiler child) {
+        synchronized (errors) {
+            errors.addAll(child.errors);
+        }
+        synchronized (warnings) {
+            warnings.addAll(child.warnings);
+        }
+    }
+
 ////////////////////////////////////////////////////////////////
 // Fields
 ////////////////////////////////////////////////////////////////
@@ -424,6 +514,11 @@ public class Compiler {
     public boolean www = false;      // env -www
     public boolean nochk = false;    // env -noChecksum
     public boolean sim = false;      // env -stageSim
+    public int threads = 1;          // env -threads
+    public boolean incremental;      // env -incremental
+    public boolean lazyKits;         // env -lazyKits
+    public boolean profile;          // env -profile
+    public CompilerProfile profiler; // compile() if profile
     public Namespace ns;             // ctor
     public XElem xml;                // compile(String)
     ArrayList errors;                // err()
@@ -435,6 +530,10 @@ public class Compiler {
     public boolean[] testOnly;       // InitKitCompile
     public IrKit ir;                 // Assemble
     public KitManifest manifest;     // BuildManifest
+    public File kitFile;             // WriteKit
+    public File docFile;             // WriteDoc
+    public BuildCache buildCache;    // CheckBuildCache
+    public boolean upToDate;         // CheckBuildCache
 
     // compile scode pipeline
     public IrKit[] kits;             // InitImageCompile/ReadKits
@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2007 Tridium, Inc.
+ * Licensed under the Academic Free License version 3.0
+ *
+ */
+
+package sedonac;
+
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+import sedona.Env;
+import sedonac.ast.*;
+import sedonac.ir.*;
+
+/**
+ * CompilerProfile records the wall time and allocated bytes of each
+ * CompilerStep of a pipeline when the -profile option is used, plus
+ * the size of the compiler's data structures once the pipeline is
+ * done.  The sizes are counted when the report is written, so walking
+ * the AST is neither part of a step's time nor of the total.  The
+ * report is written as JSON to {home}/profile/{target}.json, or under
+ * {outDir}/profile when -outDir is used, so that CI can track compile
+ * time regressions.
+ *
+ * Allocated bytes are measured for the compiler thread only, so work
+ * a step hands off to other threads (such as Parse with -threads) is
+ * not included.  It is -1 if the JVM doesn't support the measurement.
+ * The per-kit compilers TranslateKits runs on its worker threads are
+ * profiled on their own and write a "translateKit-{kit}" report each.
+ */
+public class CompilerProfile
+{
+
+////////////////////////////////////////////////////////////////
+// Constructor
+////////////////////////////////////////////////////////////////
+
+  public CompilerProfile(Compiler compiler, String pipeline)
+  {
+    this.compiler = compiler;
+    this.pipeline = pipeline;
+    this.started  = System.currentTimeMillis();
+    this.t0 = System.nanoTime();
+  }
+
+////////////////////////////////////////////////////////////////
+// Record
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Run the step and record its phase.
+   */
+  public void run(CompilerStep step)
+  {
+    Phase p = new Phase();
+    p.step = step.getClass().getName();
+    if (p.step.startsWith("sedonac.steps.")) p.step = p.step.substring("sedonac.steps.".length());
+    long a1 = allocated();
+    long t1 = System.nanoTime();
+    try
+    {
+      step.run();
+      p.ok = true;
+    }
+    finally
+    {
+      long t2 = System.nanoTime();
+      long a2 = allocated();
+      p.nanos = t2 - t1;
+      p.alloc = a1 < 0 || a2 < 0 ? -1 : a2 - a1;
+      phases.add(p);
+    }
+  }
+
+  /**
+   * Count the types, methods, ops and AST nodes the compiler holds.
+   */
+  private Counts count()
+  {
+    Counts counts = new Counts();
+    try
+    {
+      KitDef ast = compiler.ast;
+      if (ast != null && ast.types != null)
+      {
+        Counter c = new Counter();
+        for (int i=0; i<ast.types.length; ++i)
+          ast.types[i].walk(c, AstVisitor.WALK_TO_EXPRS);
+        counts.astTypes   = ast.types.length;
+        counts.astMethods = c.methods;
+        counts.astNodes   = c.nodes;
+      }
+
+      HashSet irTypes = new HashSet();
+      if (compiler.flat != null) irTypes.addAll(Arrays.asList(compiler.flat.types));
+      if (compiler.ir != null && compiler.ir.types != null) irTypes.addAll(Arrays.asList(compiler.ir.types));
+      Iterator it = irTypes.iterator();
+      while (it.hasNext())
+      {
+        IrType t = (IrType)it.next();
+        counts.irTypes++;
+        for (int i=0; t.declared != null && i<t.declared.length; ++i)
+        {
+          if (!(t.declared[i] instanceof IrMethod)) continue;
+          IrMethod m = (IrMethod)t.declared[i];
+          counts.irMethods++;
+          if (m.code != null) counts.irOps += m.code.length;
+        }
+      }
+    }
+    catch (RuntimeException e)
+    {
+      // counts are best effort on a partially built AST
+      compiler.log.debug("  CompilerProfile: " + e);
+    }
+    return counts;
+  }
+
+  private static long allocated()
+  {
+    ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+    if (!(mx instanceof com.sun.management.ThreadMXBean)) return -1;
+    return ((com.sun.management.ThreadMXBean)mx).getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+////////////////////////////////////////////////////////////////
+// Report
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Get the target name used for the report file name.
+   */
+  public String target()
+  {
+    String name;
+    if (compiler.ast != null && compiler.ast.name != null)
+      name = compiler.ast.name;
+    else if (compiler.input != null)
+    {
+      name = compiler.input.getName();
+      int dot = name.lastIndexOf('.');
+      if (dot > 0) name = name.substring(0, dot);
+      // kit.xml and dir.xml are named by their directory
+      if ((name.equals("kit") || name.equals("dir")) && compiler.input.getParentFile() != null)
+        name = compiler.input.getParentFile().getName();
+    }
+    else
+      name = "unknown";
+    return pipeline + "-" + name;
+  }
+
+  /**
+   * Get the file the report is written to.
+   */
+  public File toFile()
+  {
+    File base = compiler.outDir != null ? compiler.outDir : Env.home;
+    return new File(new File(base, "profile"), target() + ".json");
+  }
+
+  /**
+   * Write the report as JSON to toFile().
+   */
+  public void save()
+  {
+    File f = toFile();
+    try
+    {
+      f.getParentFile().mkdirs();
+      Writer out = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+      try
+      {
+        write(out);
+      }
+      finally
+      {
+        out.close();
+      }
+      compiler.log.info("  Profile [" + f + "]");
+    }
+    catch (IOException e)
+    {
+      compiler.log.warn("Cannot write profile " + f + ": " + e);
+    }
+  }
+
+  public void write(Writer out)
+    throws IOException
+  {
+    long total = System.nanoTime() - t0;
+    Counts counts = count();
+    boolean ok = compiler.errors.size() == 0;
+    for (int i=0; i<phases.size(); ++i)
+      if (!((Phase)phases.get(i)).ok) ok = false;
+
+    out.write("{\n");
+    out.write("  \"target\": " + str(target()) + ",\n");
+    out.write("  \"pipeline\": " + str(pipeline) + ",\n");
+    out.write("  \"input\": " + str(compiler.input == null ? null : compiler.input.getPath()) + ",\n");
+    out.write("  \"sedonacVersion\": " + str(Env.version) + ",\n");
+    out.write("  \"started\": " + started + ",\n");
+    out.write("  \"success\": " + ok + ",\n");
+    out.write("  \"errors\": " + compiler.errors.size() + ",\n");
+    out.write("  \"warnings\": " + compiler.warnings.size() + ",\n");
+    out.write("  \"threads\": " + compiler.threads + ",\n");
+    out.write("  \"totalMs\": " + ms(total) + ",\n");
+    out.write("  \"astTypes\": " + counts.astTypes + ",\n");
+    out.write("  \"astMethods\": " + counts.astMethods + ",\n");
+    out.write("  \"astNodes\": " + counts.astNodes + ",\n");
+    out.write("  \"irTypes\": " + counts.irTypes + ",\n");
+    out.write("  \"irMethods\": " + counts.irMethods + ",\n");
+    out.write("  \"irOps\": " + counts.irOps + ",\n");
+    out.write("  \"phases\": [");
+    for (int i=0; i<phases.size(); ++i)
+    {
+      Phase p = (Phase)phases.get(i);
+      out.write(i == 0 ? "\n" : ",\n");
+      out.write("    {\"step\": " + str(p.step) +
+        ", \"ms\": " + ms(p.nanos) +
+        ", \"allocBytes\": " + p.alloc +
+        (p.ok ? "" : ", \"failed\": true") + "}");
+    }
+    out.write("\n  ]\n");
+    out.write("}\n");
+  }
+
+  private static String ms(long nanos)
+  {
+    return String.valueOf(nanos / 1000L / 1000.0);
+  }
+
+  private static String str(String s)
+  {
+    if (s == null) return "null";
+    StringBuffer buf = new StringBuffer(s.length()+2);
+    buf.append('"');
+    for (int i=0; i<s.length(); ++i)
+    {
+      char c = s.charAt(i);
+      switch (c)
+      {
+        case '"':  buf.append("\\\""); break;
+        case '\\': buf.append("\\\\"); break;
+        case '\n': buf.append("\\n"); break;
+        case '\r': buf.append("\\r"); break;
+        case '\t': buf.append("\\t"); break;
+        default:
+          if (c < 0x20)
+          {
+            String hex = Integer.toHexString(c);
+            buf.append("\\u0000".substring(0, 6-hex.length())).append(hex);
+          }
+          else buf.append(c);
+      }
+    }
+    return buf.append('"').toString();
+  }
+
+////////////////////////////////////////////////////////////////
+// Phase
+////////////////////////////////////////////////////////////////
+
+  static class Phase
+  {
+    String step;
+    boolean ok;
+    long nanos;
+    long alloc;
+  }
+
+  static class Counts
+  {
+    int astTypes;
+    int astMethods;
+    int astNodes;
+    int irTypes;
+    int irMethods;
+    int irOps;
+  }
+
+  static class Counter extends AstVisitor
+  {
+    public void enterType(TypeDef t) { nodes++; }
+    public void enterMethod(MethodDef m) { nodes++; methods++; }
+    public void enterField(FieldDef f) { nodes++; }
+    public void enterStmt(Stmt s) { nodes++; }
+    public Expr expr(Expr expr) { nodes++; return expr; }
+
+    int methods;
+    int nodes;
+  }
+
+////////////////////////////////////////////////////////////////
+// Fields
+////////////////////////////////////////////////////////////////
+
+  final Compiler compiler;
+  final String pipeline;
+  final long started;
+  final long t0;
+  final ArrayList phases = new ArrayList();
+
+}
@@ -26,6 +26,8 @@ public class Main
   {
     println("usage:");
     println("  sedonac [options] <input file>");
+    println("  sedonac -server <port>                         run a compile server on localhost");
+    println("  sedonac -client <port> [options] <input file>  compile using a running server");
     println("inputs:");
     println("  dir          directory containing kit.xml file");
     println("  kit.xml      compile Sedona source files into kit file");
@@ -44,13 +46,26 @@ public class Main
     println("  -noOptimize  skip const folding and optimization steps");
     println("  -noChecksum  exclude checksums from sax if input is sab file");
     println("  -stageSim    stage platform for simulated SVM build");
+    println("  -threads     number of worker threads (compile dir.xml targets, translate kits and types in parallel)");
+    println("  -incremental skip kit compile if sources, depends and flags are unchanged");
+    println("  -lazyKits    only load the dependency types a kit compile uses");
+    println("  -profile     write per step timing and counts to {home}/profile/{target}.json");
   }
 
   private static void errUsage(String err)
   {
     if (err != null) println("ERROR: " + err + '\n');
     usage();
-    System.exit(1);
+    throw new UsageException();
+  }
+
+  /**
+   * Thrown by errUsage to unwind doMain with an exit code of 1
+   * (rather than calling System.exit which would kill a server).
+   */
+  static class UsageException extends RuntimeException
+  {
+    private static final long serialVersionUID = 1L;
   }
 
   public static void println(String msg)
@@ -59,6 +74,43 @@ public class Main
   }
 
   public static int doMain(String args[])
+  {
+    return doMain(args, null);
+  }
+
+  /**
+   * Run the compiler resolving relative file arguments against
+   * the specified directory (or the current directory if null).
+   */
+  public static int doMain(String args[], File dir)
+  {
+    try
+    {
+      return run(args, dir);
+    }
+    catch (UsageException e)
+    {
+      return 1;
+    }
+  }
+
+  /**
+   * Return if the argument names a class whose main to run
+   * instead of the compiler.
+   */
+  static boolean isMainClass(String arg)
+  {
+    return arg.startsWith("sedona.") || arg.startsWith("sedonac.");
+  }
+
+  private static File toFile(File dir, String path)
+  {
+    File f = new File(path);
+    if (dir == null || f.isAbsolute()) return f;
+    return new File(dir, path);
+  }
+
+  private static int run(String args[], File dir)
   {
     // check vm version
     if (!Env.checkJavaVersion())
@@ -73,7 +125,7 @@ public class Main
 
     // if first arg is class name, then run that main (so
     // launcher can always use this entry point)
-    if (args[0].startsWith("sedona.") || args[0].startsWith("sedonac."))
+    if (isMainClass(args[0]))
     {
       try
       {
@@ -95,6 +147,30 @@ public class Main
       return 0;
     }
 
+    // compile server and its thin client
+    if (args[0].equals("-server") || args[0].equals("-client"))
+    {
+      if (args.length < 2) errUsage("Missing port option");
+      int port;
+      try
+      {
+        port = Integer.parseInt(args[1]);
+      }
+      catch (NumberFormatException e)
+      {
+        errUsage("Invalid port option " + args[1]);
+        return 1;
+      }
+      String[] a = new String[args.length-2];
+      System.arraycopy(args, 2, a, 0, a.length);
+      if (args[0].equals("-server"))
+        return new CompileServer(port).serve();
+      // mains may call System.exit, so never run them in the server
+      if (a.length > 0 && isMainClass(a[0]))
+        return run(a, dir);
+      return CompileServer.request(port, a);
+    }
+
     // init compiler
     Compiler compiler = new Compiler();
     String input = null;
@@ -117,7 +193,7 @@ public class Main
         if (i+1 >= args.length)
           errUsage("Missing outDir option");
         else
-          compiler.outDir = new File(args[++i]);
+          compiler.outDir = toFile(dir, args[++i]);
       }
       else if (arg.equals("-ver"))
       {
@@ -161,6 +237,36 @@ public class Main
       {
         compiler.sim = true;
       }
+      else if (arg.equals("-incremental"))
+      {
+        compiler.incremental = true;
+      }
+      else if (arg.equals("-lazyKits"))
+      {
+        compiler.lazyKits = true;
+      }
+      else if (arg.equals("-profile"))
+      {
+        compiler.profile = true;
+      }
+      else if (arg.equals("-threads"))
+      {
+        if (i+1 >= args.length)
+          errUsage("Missing threads option");
+        else
+        {
+          try
+          {
+            compiler.threads = Integer.parseInt(args[++i]);
+          }
+          catch (NumberFormatException e)
+          {
+            errUsage("Invalid threads option " + args[i]);
+          }
+          if (compiler.threads < 1)
+            errUsage("Invalid threads option " + args[i]);
+        }
+      }
       else if (arg.startsWith("-"))
       {
         errUsage("Unrecognized option " + arg);
@@ -183,7 +289,7 @@ public class Main
     // run compiler as setup by arguments
     try
     {
-      compiler.compile(new File(input));
+      compiler.compile(toFile(dir, input));
       int num = compiler.warnings.size();
       if (num > 0)
         System.out.println("*** Success with " + num + " warning(s) ***");
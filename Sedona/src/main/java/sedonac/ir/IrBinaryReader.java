@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2007 Tridium, Inc.
+ * Licensed under the Academic Free License version 3.0
+ *
+ */
+
+package sedonac.ir;
+
+import java.io.*;
+import java.util.*;
+import sedona.Buf;
+import sedona.Facets;
+import sedona.Value;
+import sedonac.*;
+import sedonac.Compiler;
+import sedonac.ast.*;
+import sedonac.namespace.*;
+
+/**
+ * IrBinaryReader decodes the binary IR format written by
+ * IrBinaryWriter.  It produces the same IrType structure as
+ * IrReader does for the text format, but in a single linear
+ * pass over the bytes without tokenizing.
+ */
+public class IrBinaryReader
+  extends CompilerSupport
+{
+
+////////////////////////////////////////////////////////////////
+// Constructor
+////////////////////////////////////////////////////////////////
+
+  public IrBinaryReader(Compiler compiler, Location loc, byte[] buf)
+  {
+    super(compiler);
+    this.loc = loc;
+    this.in  = new DataInputStream(new ByteArrayInputStream(buf));
+  }
+
+////////////////////////////////////////////////////////////////
+// Read
+////////////////////////////////////////////////////////////////
+
+  public IrType readType(IrKit kit)
+  {
+    try
+    {
+      if (in.readInt() != IrBinaryWriter.MAGIC)
+        throw err("Invalid binary IR magic", loc);
+      int version = in.readUnsignedShort();
+      if (version != IrBinaryWriter.VERSION)
+        throw err("Unsupported binary IR version " + version, loc);
+
+      strings = new String[in.readUnsignedShort()];
+      types = new Type[strings.length];
+      for (int i=0; i<strings.length; ++i)
+        strings[i] = in.readUTF();
+
+      Facets facets = readFacets();
+      int flags = in.readInt();
+      String name = str();
+      int baseIndex = in.readUnsignedShort();
+
+      IrType t = new IrType(kit, flags, name, facets);
+      t.base = baseIndex == IrBinaryWriter.NONE ? null : type(baseIndex);
+
+      int numSlots = in.readUnsignedShort();
+      IrSlot[] declared = new IrSlot[numSlots];
+      HashMap slotsByName = new HashMap();
+      for (int i=0; i<numSlots; ++i)
+      {
+        IrSlot slot = readSlot(t);
+        declared[i] = slot;
+        slotsByName.put(slot.name, slot);
+      }
+      t.declared = declared;
+      t.slots = new ArrayList(Arrays.asList(declared));
+      t.slotsByName = slotsByName;
+      return t;
+    }
+    catch (IOException e)
+    {
+      throw err("Cannot read binary IR", loc, e);
+    }
+  }
+
+  private IrSlot readSlot(IrType parent)
+    throws IOException
+  {
+    int kind = in.readUnsignedByte();
+    Facets facets = readFacets();
+    int flags = in.readInt();
+    String name = str();
+    Type type = type(in.readUnsignedShort());
+    if (kind == 'm')
+      return readMethod(parent, flags, name, facets, type);
+    if (kind == 'f')
+      return readField(parent, flags, name, facets, type);
+    throw err("Invalid binary IR slot kind " + kind, loc);
+  }
+
+  private IrField readField(IrType parent, int flags, String name, Facets facets, Type type)
+    throws IOException
+  {
+    IrField f = new IrField(parent, flags, name, facets, type);
+    f.define = readLiteral(type);
+    if (f.define != null) f.define.isNullLiteral(type);  // coerce null value into correct type
+    f.arrayInit = in.readBoolean();
+    f.ctorLengthParam = in.readInt();
+    switch (in.readUnsignedByte())
+    {
+      case 0: break;
+      case 1: f.ctorLengthArg = readLiteral(null); break;
+      case 2: f.ctorLengthArg = new Expr.Name(loc, null, str()); break;
+      default: throw err("Invalid binary IR ctorLengthArg", loc);
+    }
+    return f;
+  }
+
+  private IrMethod readMethod(IrType parent, int flags, String name, Facets facets, Type ret)
+    throws IOException
+  {
+    Type[] params = new Type[in.readUnsignedByte()];
+    for (int i=0; i<params.length; ++i)
+      params[i] = type(in.readUnsignedShort());
+
+    IrMethod m = new IrMethod(parent, flags, name, facets, ret, params);
+    if (in.readBoolean())
+      m.nativeId = new NativeId(loc, in.readShort(), in.readShort());
+
+    m.maxLocals = in.readUnsignedShort();
+    int numOps = in.readUnsignedShort();
+    if (numOps != IrBinaryWriter.NONE)
+    {
+      IrOp[] code = new IrOp[numOps];
+      for (int i=0; i<numOps; ++i)
+      {
+        IrOp op = new IrOp();
+        op.index  = in.readInt();
+        op.opcode = in.readUnsignedByte();
+        int arg = in.readUnsignedShort();
+        if (arg != IrBinaryWriter.NONE) op.arg = strings[arg];
+        code[i] = op;
+      }
+      m.code = code;
+    }
+    return m;
+  }
+
+  private Facets readFacets()
+    throws IOException
+  {
+    Facets facets = new Facets();
+    int num = in.readUnsignedByte();
+    for (int i=0; i<num; ++i)
+    {
+      String name = str();
+      int typeId = in.readUnsignedByte();
+      byte[] bytes = new byte[in.readUnsignedShort()];
+      in.readFully(bytes);
+      facets.set(name, Value.defaultForType(typeId).decodeBinary(new Buf(bytes)));
+    }
+    return facets;
+  }
+
+  /**
+   * Read a literal written by IrBinaryWriter.writeLiteral or
+   * return null for NONE_LITERAL.  The array type is required
+   * to decode an array literal.
+   */
+  private Expr.Literal readLiteral(Type type)
+    throws IOException
+  {
+    int id = in.readUnsignedByte();
+    if (id == IrBinaryWriter.NONE_LITERAL) return null;
+    if (id == Expr.ARRAY_LITERAL)
+    {
+      Object[] array = new Object[in.readUnsignedShort()];
+      for (int i=0; i<array.length; ++i)
+        array[i] = readLiteralValue(in.readUnsignedByte());
+      return new Expr.Literal(loc, Expr.ARRAY_LITERAL, type, array);
+    }
+    return new Expr.Literal(loc, ns, id, readLiteralValue(id));
+  }
+
+  private Object readLiteralValue(int id)
+    throws IOException
+  {
+    switch (id)
+    {
+      case Expr.TRUE_LITERAL:   return Boolean.TRUE;
+      case Expr.FALSE_LITERAL:  return Boolean.FALSE;
+      case Expr.NULL_LITERAL:   return null;
+      case Expr.INT_LITERAL:    return java.lang.Integer.valueOf(in.readInt());
+      case Expr.LONG_LITERAL:
+      case Expr.TIME_LITERAL:   return java.lang.Long.valueOf(in.readLong());
+      case Expr.FLOAT_LITERAL:  return java.lang.Float.valueOf(in.readFloat());
+      case Expr.DOUBLE_LITERAL: return java.lang.Double.valueOf(in.readDouble());
+      case Expr.STR_LITERAL:    return str();
+      case Expr.BUF_LITERAL:
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return new Buf(bytes);
+      default:
+        throw err("Invalid binary IR literal id " + id, loc);
+    }
+  }
+
+////////////////////////////////////////////////////////////////
+// Strings and Types
+////////////////////////////////////////////////////////////////
+
+  private String str()
+    throws IOException
+  {
+    return strings[in.readUnsignedShort()];
+  }
+
+  /**
+   * Map a signature in the string table to a type exactly as
+   * Parser.type() would: primitives resolve to the namespace,
+   * everything else is an UnresolvedType (or ArrayType of one)
+   * left for ResolveIR.  Array types are resolved in place so
+   * each use gets its own instance; other types are shared.
+   */
+  private Type type(int index)
+  {
+    Type t = types[index];
+    if (t != null) return t;
+    t = parseSig(strings[index]);
+    if (!t.isArray()) types[index] = t;
+    return t;
+  }
+
+  private Type parseSig(String sig)
+  {
+    if (sig.endsWith("]"))
+    {
+      int lbracket = sig.lastIndexOf('[');
+      Type of = parseSig(sig.substring(0, lbracket));
+      String len = sig.substring(lbracket+1, sig.length()-1);
+      if (len.length() == 0)
+        return new ArrayType(loc, of, null);
+      if (Character.isDigit(len.charAt(0)))
+        return new ArrayType(loc, of, new ArrayType.LiteralLen(Integer.parseInt(len)));
+      return new ArrayType(loc, of, new ArrayType.UnresolvedLen(len));
+    }
+
+    if (sig.equals("bool"))   return ns.boolType;
+    if (sig.equals("byte"))   return ns.byteType;
+    if (sig.equals("short"))  return ns.shortType;
+    if (sig.equals("int"))    return ns.intType;
+    if (sig.equals("long"))   return ns.longType;
+    if (sig.equals("float"))  return ns.floatType;
+    if (sig.equals("double")) return ns.doubleType;
+    if (sig.equals("void"))   return ns.voidType;
+    return new UnresolvedType(loc, sig);
+  }
+
+////////////////////////////////////////////////////////////////
+// Fields
+////////////////////////////////////////////////////////////////
+
+  private final Location loc;
+  private final DataInputStream in;
+  private String[] strings;
+  private Type[] types;
+
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) 2007 Tridium, Inc.
+ * Licensed under the Academic Free License version 3.0
+ *
+ */
+
+package sedonac.ir;
+
+import java.io.*;
+import java.util.*;
+import sedona.Buf;
+import sedona.Facets;
+import sedona.Value;
+import sedonac.ast.*;
+import sedonac.namespace.*;
+
+/**
+ * IrBinaryWriter encodes an IrType into the compact binary IR format
+ * stored in kit files as "{type}.irb" next to the text "{type}.ir"
+ * entry written by IrWriter.  Unlike the text form it is decoded by
+ * IrBinaryReader in one linear pass without the tokenizer.
+ *
+ * All values are big endian:
+ * <pre>
+ *   type:
+ *     u4       magic 'SIRB'
+ *     u2       version
+ *     u2       numStrings, utf[numStrings]
+ *     facets
+ *     u4       flags
+ *     u2       name
+ *     u2       base signature (NONE if sys::Obj)
+ *     u2       numSlots, slot[numSlots]
+ *   slot:
+ *     u1       'f' or 'm'
+ *     facets
+ *     u4       flags
+ *     u2       name
+ *     u2       field type or method return signature
+ *   field:
+ *     literal  define (NONE_LITERAL if not a define)
+ *     u1       arrayInit
+ *     s4       ctorLengthParam
+ *     u1       ctorLengthArg: 0 none, 1 literal, 2 define qname
+ *   method:
+ *     u1       numParams, u2 signature[numParams]
+ *     u1       hasNativeId, [s2 kitId, s2 methodId]
+ *     u2       maxLocals
+ *     u2       numOps (NONE if no body), op[numOps]
+ *   op:
+ *     u4 index, u1 opcode, u2 arg (NONE if no arg)
+ *   facets:
+ *     u1       numFacets, (u2 name, u1 typeId, u2 len, u1[len] Value.encodeBinary)[]
+ *   literal:
+ *     u1       Expr id, then value by id (see writeLiteral)
+ * </pre>
+ * The u2 name, signature and arg values are indexes into the string table.
+ */
+public class IrBinaryWriter
+{
+
+//////////////////////////////////////////////////////////////////////////
+// Constants
+//////////////////////////////////////////////////////////////////////////
+
+  public static final int MAGIC   = 0x53495242;  // 'SIRB'
+  public static final int VERSION = 1;
+  public static final int NONE    = 0xffff;
+  public static final int NONE_LITERAL = 0xff;
+
+//////////////////////////////////////////////////////////////////////////
+// Write
+//////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Encode the type into a byte array.
+   */
+  public static byte[] encode(IrType t)
+    throws IOException
+  {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+    new IrBinaryWriter().writeType(t, out);
+    return out.toByteArray();
+  }
+
+  /**
+   * Write the type to the output stream.
+   */
+  public void writeType(IrType t, OutputStream os)
+    throws IOException
+  {
+    ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+    out = new DataOutputStream(body);
+
+    writeFacets(t.facets);
+    out.writeInt(t.flags);
+    str(t.name);
+    if (t.base != null) sig(t.base); else out.writeShort(NONE);
+    IrSlot[] slots = t.declared;
+    out.writeShort(slots.length);
+    for (int i=0; i<slots.length; ++i)
+    {
+      if (slots[i] instanceof IrMethod)
+        writeMethod((IrMethod)slots[i]);
+      else
+        writeField((IrField)slots[i]);
+    }
+    out.flush();
+
+    DataOutputStream dout = new DataOutputStream(os);
+    dout.writeInt(MAGIC);
+    dout.writeShort(VERSION);
+    dout.writeShort(strings.size());
+    for (int i=0; i<strings.size(); ++i)
+      dout.writeUTF((String)strings.get(i));
+    body.writeTo(dout);
+    dout.flush();
+  }
+
+  private void writeField(IrField f)
+    throws IOException
+  {
+    out.writeByte('f');
+    writeFacets(f.facets);
+    out.writeInt(f.flags);
+    str(f.name);
+    sig(f.type);
+
+    if (f.isDefine() && f.define != null && (f.type instanceof UnresolvedType || !f.type.isLog()))
+      writeLiteral(f.define);
+    else
+      out.writeByte(NONE_LITERAL);
+    out.writeBoolean(f.arrayInit);
+    out.writeInt(f.ctorLengthParam);
+
+    Expr arg = f.ctorLengthArg;
+    if (arg == null)
+    {
+      out.writeByte(0);
+    }
+    else if (arg instanceof Expr.Literal)
+    {
+      out.writeByte(1);
+      writeLiteral((Expr.Literal)arg);
+    }
+    else
+    {
+      out.writeByte(2);
+      str(arg instanceof Expr.Field ? ((Expr.Field)arg).field.qname() : ((Expr.Name)arg).name);
+    }
+  }
+
+  private void writeMethod(IrMethod m)
+    throws IOException
+  {
+    out.writeByte('m');
+    writeFacets(m.facets);
+    out.writeInt(m.flags);
+    str(m.name);
+    sig(m.ret);
+
+    out.writeByte(m.params.length);
+    for (int i=0; i<m.params.length; ++i)
+      sig(m.params[i]);
+
+    out.writeBoolean(m.nativeId != null);
+    if (m.nativeId != null)
+    {
+      out.writeShort(m.nativeId.kitId);
+      out.writeShort(m.nativeId.methodId);
+    }
+
+    out.writeShort(m.maxLocals);
+    IrOp[] code = m.code;
+    if (code == null)
+    {
+      out.writeShort(NONE);
+      return;
+    }
+    out.writeShort(code.length);
+    for (int i=0; i<code.length; ++i)
+    {
+      IrOp op = code[i];
+      out.writeInt(op.index);
+      out.writeByte(op.opcode);
+      if (op.arg != null) str(op.arg); else out.writeShort(NONE);
+    }
+  }
+
+  private void writeFacets(Facets facets)
+    throws IOException
+  {
+    String[] keys = facets.keys();
+    out.writeByte(keys.length);
+    for (int i=0; i<keys.length; ++i)
+    {
+      Value val = facets.get(keys[i]);
+      Buf buf = new Buf();
+      val.encodeBinary(buf);
+      str(keys[i]);
+      out.writeByte(val.typeId());
+      out.writeShort(buf.size);
+      out.write(buf.bytes, 0, buf.size);
+    }
+  }
+
+  /**
+   * Write the literal as its Expr id followed by the value:
+   * nothing for true/false/null, s4 int, s8 long and time,
+   * f4 float, f8 double, u2 string index for Str, u2 len +
+   * bytes for Buf, and u2 count + tagged values for arrays.
+   */
+  private void writeLiteral(Expr.Literal literal)
+    throws IOException
+  {
+    if (literal.id == Expr.ARRAY_LITERAL)
+    {
+      out.writeByte(Expr.ARRAY_LITERAL);
+      Object[] array = literal.asArray();
+      out.writeShort(array.length);
+      for (int i=0; i<array.length; ++i)
+        writeValue(array[i]);
+      return;
+    }
+    out.writeByte(literal.id);
+    writeLiteralValue(literal.id, literal.value);
+  }
+
+  private void writeValue(Object v)
+    throws IOException
+  {
+    int id;
+    if (v instanceof Boolean)                 id = ((Boolean)v).booleanValue() ? Expr.TRUE_LITERAL : Expr.FALSE_LITERAL;
+    else if (v instanceof java.lang.Integer)  id = Expr.INT_LITERAL;
+    else if (v instanceof java.lang.Long)     id = Expr.LONG_LITERAL;
+    else if (v instanceof java.lang.Float)    id = Expr.FLOAT_LITERAL;
+    else if (v instanceof java.lang.Double)   id = Expr.DOUBLE_LITERAL;
+    else if (v instanceof String)             id = Expr.STR_LITERAL;
+    else if (v instanceof Buf)                id = Expr.BUF_LITERAL;
+    else if (v == null)                       id = Expr.NULL_LITERAL;
+    else throw new IOException("Unsupported array literal value: " + v.getClass().getName());
+    out.writeByte(id);
+    writeLiteralValue(id, v);
+  }
+
+  private void writeLiteralValue(int id, Object v)
+    throws IOException
+  {
+    switch (id)
+    {
+      case Expr.TRUE_LITERAL:
+      case Expr.FALSE_LITERAL:
+      case Expr.NULL_LITERAL:
+        return;
+      case Expr.INT_LITERAL:    out.writeInt(((java.lang.Integer)v).intValue()); return;
+      case Expr.LONG_LITERAL:
+      case Expr.TIME_LITERAL:   out.writeLong(((java.lang.Long)v).longValue()); return;
+      case Expr.FLOAT_LITERAL:  out.writeFloat(((java.lang.Float)v).floatValue()); return;
+      case Expr.DOUBLE_LITERAL: out.writeDouble(((java.lang.Double)v).doubleValue()); return;
+      case Expr.STR_LITERAL:    str(v.toString()); return;
+      case Expr.BUF_LITERAL:
+        Buf buf = (Buf)v;
+        out.writeShort(buf.size);
+        out.write(buf.bytes, 0, buf.size);
+        return;
+      default:
+        throw new IOException("Unsupported literal id: " + id);
+    }
+  }
+
+//////////////////////////////////////////////////////////////////////////
+// String Table
+//////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Write the type signature.  Types of IR just read from a kit
+   * are still unresolved, in which case we use the qname as read.
+   */
+  private void sig(Type t)
+    throws IOException
+  {
+    String sig = t instanceof UnresolvedType ? t.toString() : t.signature();
+    if (sig.startsWith("const ")) sig = sig.substring(6);
+    str(sig);
+  }
+
+  private void str(String s)
+    throws IOException
+  {
+    java.lang.Integer index = (java.lang.Integer)stringIndex.get(s);
+    if (index == null)
+    {
+      if (strings.size() >= NONE) throw new IOException("String table overflow");
+      index = java.lang.Integer.valueOf(strings.size());
+      stringIndex.put(s, index);
+      strings.add(s);
+    }
+    out.writeShort(index.intValue());
+  }
+
+//////////////////////////////////////////////////////////////////////////
+// Fields
+//////////////////////////////////////////////////////////////////////////
+
+  private DataOutputStream out;
+  private final ArrayList strings = new ArrayList();
+  private final HashMap stringIndex = new HashMap();
+
+}
@@ -64,7 +64,11 @@ public class IrKit
   public Type type(String name) 
   { 
     if (typesByName != null)
-      return (Type)typesByName.get(name); 
+    {
+      Type t = (Type)typesByName.get(name);
+      if (t == null && loader != null) t = loader.load(this, name);
+      return t;
+    }
     
     System.out.println("WARNING: IrKit.typesByName not set yet");
     for (int i=0; i<types.length; ++i)
@@ -115,5 +119,6 @@ public class IrKit
   public HashMap typesByName;
   public int blockIndex;
   public KitManifest manifest;
+  public IrKitLoader loader;  // if types are loaded on demand
 
 }
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2007 Tridium, Inc.
+ * Licensed under the Academic Free License version 3.0
+ *
+ */
+
+package sedonac.ir;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+import sedona.util.FileUtil;
+import sedona.xml.*;
+import sedonac.*;
+import sedonac.Compiler;
+import sedonac.parser.*;
+
+/**
+ * IrKitCache keeps the manifest and the tokenized (or binary) IR
+ * entries of kit files in memory so that a long running compile server (see
+ * CompileServer) doesn't re-open and re-tokenize unchanged kit zips
+ * on every request.  An entry is reloaded whenever the kit file's
+ * modified time or size changes.
+ *
+ * Only immutable data is cached: every compile still builds fresh
+ * IrKit/IrType instances from the tokens since the pipeline steps
+ * mutate them (layout, ids, resolved types).
+ */
+public class IrKitCache
+{
+
+////////////////////////////////////////////////////////////////
+// Access
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Is the cache enabled (it is only used by the compile server).
+   */
+  public static boolean enabled = false;
+
+  /**
+   * Get the cached entry for the specified kit file,
+   * loading it if not cached or if the file has changed.
+   */
+  public static Entry get(Compiler compiler, File file)
+    throws Exception
+  {
+    String key = file.getCanonicalPath();
+    synchronized (cache)
+    {
+      Entry entry = (Entry)cache.get(key);
+      if (entry != null && entry.isCurrent(file, compiler.doc))
+      {
+        hits++;
+        return entry;
+      }
+      misses++;
+    }
+
+    Entry entry = load(compiler, file);
+    synchronized (cache) { cache.put(key, entry); }
+    return entry;
+  }
+
+  /**
+   * Drop all cached entries.
+   */
+  public static void clear()
+  {
+    synchronized (cache) { cache.clear(); }
+  }
+
+  /**
+   * Return a one line summary for debug logging.
+   */
+  public static String stats()
+  {
+    synchronized (cache)
+    {
+      return "IrKitCache [" + cache.size() + " kits, " + hits + " hits, " + misses + " misses]";
+    }
+  }
+
+////////////////////////////////////////////////////////////////
+// Load
+////////////////////////////////////////////////////////////////
+
+  private static Entry load(Compiler compiler, File file)
+    throws Exception
+  {
+    Entry entry = new Entry();
+    entry.modified = file.lastModified();
+    entry.size     = file.length();
+    entry.doc      = compiler.doc;
+
+    ZipFile zip = new ZipFile(file);
+    try
+    {
+      ZipEntry manifest = zip.getEntry("manifest.xml");
+      if (manifest == null) throw compiler.err("Missing 'manifest.xml' manifest", new Location(file));
+      Location loc = new Location(file, manifest);
+      InputStream in = zip.getInputStream(manifest);
+      try
+      {
+        entry.manifest = XParser.make(loc.file, in).parse();
+      }
+      finally
+      {
+        in.close();
+      }
+
+      // keep the raw bytes of binary IR entries if the kit has
+      // them, otherwise the tokens of the text IR entries
+      boolean binary = false;
+      for (Enumeration it = zip.entries(); it.hasMoreElements() && !binary; )
+        binary = ((ZipEntry)it.nextElement()).getName().endsWith(".irb");
+      String ext = binary ? ".irb" : ".ir";
+
+      ArrayList names = new ArrayList();
+      ArrayList data = new ArrayList();
+      Enumeration it = zip.entries();
+      while (it.hasMoreElements())
+      {
+        ZipEntry ze = (ZipEntry)it.nextElement();
+        if (!ze.getName().endsWith(ext)) continue;
+        loc = new Location(file, ze);
+        in = zip.getInputStream(ze);
+        try
+        {
+          if (binary)
+            data.add(FileUtil.read(in, ze.getSize()));
+          else
+            data.add(IrReader.tokenize(compiler, loc, in));
+          names.add(loc.file);
+        }
+        finally
+        {
+          in.close();
+        }
+      }
+      entry.irNames = (String[])names.toArray(new String[names.size()]);
+      if (binary)
+        entry.irBytes = (byte[][])data.toArray(new byte[data.size()][]);
+      else
+        entry.irTokens = (Token[][])data.toArray(new Token[data.size()][]);
+    }
+    finally
+    {
+      zip.close();
+    }
+    return entry;
+  }
+
+////////////////////////////////////////////////////////////////
+// Entry
+////////////////////////////////////////////////////////////////
+
+  public static class Entry
+  {
+    boolean isCurrent(File file, boolean doc)
+    {
+      return file.lastModified() == modified && file.length() == size && this.doc == doc;
+    }
+
+    long modified;
+    long size;
+    boolean doc;
+    public XElem manifest;
+    public String[] irNames;
+    public Token[][] irTokens;   // text IR, or null if irBytes
+    public byte[][] irBytes;     // binary IR, or null if irTokens
+  }
+
+////////////////////////////////////////////////////////////////
+// Fields
+////////////////////////////////////////////////////////////////
+
+  private static final HashMap cache = new HashMap();
+  private static int hits;
+  private static int misses;
+
+}
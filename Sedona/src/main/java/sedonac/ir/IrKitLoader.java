@@ -0,0 +1,374 @@
+/*
+ * Copyright (c) 2007 Tridium, Inc.
+ * Licensed under the Academic Free License version 3.0
+ *
+ */
+
+package sedonac.ir;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.zip.*;
+import sedona.xml.*;
+import sedonac.*;
+import sedonac.Compiler;
+import sedonac.steps.ResolveIR;
+
+/**
+ * IrKitLoader loads the types of an IrKit on demand.  The kit file
+ * is memory mapped and only its zip central directory and manifest
+ * are read up front; an individual type's IR entry is decoded the
+ * first time IrKit.type() is asked for it.  Binary ".irb" entries
+ * are preferred (WriteKit stores them uncompressed so they decode
+ * straight out of the mapped region), otherwise the text ".ir"
+ * entries are inflated and parsed.
+ *
+ * Lazy kits hold only the types which have been loaded in their
+ * types array, kept in the same order as the zip entries so that
+ * it matches the inheritance order of an eagerly read kit.  The
+ * array is rebuilt by sync() rather than on every load, which
+ * LoadLazyTypes calls once it has loaded the types a compile uses.
+ *
+ * After that LoadLazyTypes seals the loader: the steps which follow
+ * expect every dependency type to be resolved by ResolveIR, so a type
+ * looked up later was missed by the closure.  In that case the loader
+ * falls back to loading the whole kit and resolving the new types.
+ *
+ * The mapped region is released by close() once every type has been
+ * decoded or the compile is done (the mapping itself goes away when
+ * the buffer is garbage collected).
+ */
+public class IrKitLoader
+{
+
+////////////////////////////////////////////////////////////////
+// Open
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Map the kit's file, read its manifest and index its IR entries.
+   */
+  public static IrKitLoader open(Compiler compiler, IrKit kit)
+    throws IOException
+  {
+    File file = kit.file.file;
+    ByteBuffer buf;
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try
+    {
+      FileChannel ch = raf.getChannel();
+      buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+    }
+    finally
+    {
+      raf.close();
+    }
+    buf.order(ByteOrder.LITTLE_ENDIAN);
+
+    IrKitLoader loader = new IrKitLoader(compiler, file, buf);
+    loader.readCentralDirectory();
+    return loader;
+  }
+
+  private IrKitLoader(Compiler compiler, File file, ByteBuffer buf)
+  {
+    this.compiler = compiler;
+    this.file = file;
+    this.buf  = buf;
+  }
+
+////////////////////////////////////////////////////////////////
+// Access
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Parse the kit's manifest.xml entry.
+   */
+  public XElem readManifest()
+    throws Exception
+  {
+    Entry entry = (Entry)entries.get("manifest.xml");
+    if (entry == null) throw compiler.err("Missing 'manifest.xml' manifest", new Location(file));
+    InputStream in = new ByteArrayInputStream(bytes(entry));
+    return XParser.make(entry.loc.file, in).parse();
+  }
+
+  /**
+   * Return if the kit contains the specified type.
+   */
+  public boolean has(String typeName)
+  {
+    return types.containsKey(typeName);
+  }
+
+  /**
+   * Return the names of all the types in the kit.
+   */
+  public String[] typeNames()
+  {
+    return (String[])types.keySet().toArray(new String[types.size()]);
+  }
+
+  /**
+   * Number of types decoded so far.
+   */
+  public int numLoaded()
+  {
+    return numLoaded;
+  }
+
+  /**
+   * Decode the specified type, add it to the kit and return it,
+   * or return null if the kit doesn't contain the type.  This
+   * is called by IrKit.type() when the type isn't loaded yet.
+   */
+  public IrType load(IrKit kit, String typeName)
+  {
+    Entry entry = (Entry)types.get(typeName);
+    if (entry == null) return null;
+    if (loaded[entry.ordinal] != null) return loaded[entry.ordinal];
+    if (sealed) return loadMissed(kit, typeName);
+
+    IrType t;
+    try
+    {
+      if (binary)
+        t = new IrBinaryReader(compiler, entry.loc, bytes(entry)).readType(kit);
+      else
+        t = new IrReader(compiler, entry.loc, new ByteArrayInputStream(bytes(entry))).readType(kit);
+    }
+    catch (CompilerException e)
+    {
+      throw e;
+    }
+    catch (Exception e)
+    {
+      throw compiler.err("Cannot read IR", entry.loc, e);
+    }
+
+    // slot by zip entry order, kit.types is rebuilt by sync()
+    loaded[entry.ordinal] = t;
+    numLoaded++;
+    kit.typesByName.put(t.name, t);
+    return t;
+  }
+
+  /**
+   * Load every remaining type of the kit, update its types
+   * array and release the mapped file.
+   */
+  public void loadAll(IrKit kit)
+  {
+    Iterator it = types.keySet().iterator();
+    while (it.hasNext())
+      kit.type((String)it.next());
+    sync(kit);
+    close();
+  }
+
+  /**
+   * Update kit.types to the loaded types in zip entry order.
+   */
+  public void sync(IrKit kit)
+  {
+    IrType[] acc = new IrType[numLoaded];
+    int n = 0;
+    for (int i=0; i<loaded.length; ++i)
+      if (loaded[i] != null) acc[n++] = loaded[i];
+    kit.types = acc;
+  }
+
+  /**
+   * Called by LoadLazyTypes once the closure of types used by the
+   * compile is loaded, see loadMissed().
+   */
+  public void seal()
+  {
+    sealed = true;
+  }
+
+  /**
+   * Release the mapped kit file.  All types must be loaded or the
+   * compile done since no more entries can be decoded afterwards.
+   */
+  public void close()
+  {
+    buf = null;
+  }
+
+  /**
+   * A type was looked up after the loader was sealed, so the closure
+   * computed by LoadLazyTypes missed it and ResolveIR never saw it.
+   * Rather than hand back an unresolved type, load every type of the
+   * kit and resolve the ones which are new.  Resolving them may miss
+   * types of other lazy kits in turn, which fall back the same way.
+   */
+  private IrType loadMissed(IrKit kit, String typeName)
+  {
+    compiler.log.debug("    LoadLazyTypes missed " + kit.name + "::" + typeName + ", loading whole kit");
+    boolean[] old = new boolean[loaded.length];
+    for (int i=0; i<loaded.length; ++i) old[i] = loaded[i] != null;
+
+    sealed = false;
+    loadAll(kit);
+
+    ArrayList added = new ArrayList();
+    for (int i=0; i<loaded.length; ++i)
+      if (loaded[i] != null && !old[i]) added.add(loaded[i]);
+    new ResolveIR(compiler).resolve((IrType[])added.toArray(new IrType[added.size()]));
+    return (IrType)kit.typesByName.get(typeName);
+  }
+
+////////////////////////////////////////////////////////////////
+// Zip
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Walk the zip central directory to build the entry index.
+   */
+  private void readCentralDirectory()
+    throws IOException
+  {
+    // find the end of central directory record, which is
+    // followed by a comment of up to 64KB
+    int end = -1;
+    int min = Math.max(0, buf.limit() - 22 - 0xffff);
+    for (int i=buf.limit()-22; i>=min; --i)
+      if (buf.getInt(i) == END_SIG) { end = i; break; }
+    if (end < 0) throw new ZipException("Missing end of central directory: " + file);
+
+    int num = buf.getShort(end+10) & 0xffff;
+    int pos = buf.getInt(end+16);
+    for (int i=0; i<num; ++i)
+    {
+      if (buf.getInt(pos) != CEN_SIG) throw new ZipException("Invalid central directory: " + file);
+      Entry e = new Entry();
+      e.method  = buf.getShort(pos+10) & 0xffff;
+      e.csize   = buf.getInt(pos+20);
+      e.size    = buf.getInt(pos+24);
+      int nameLen    = buf.getShort(pos+28) & 0xffff;
+      int extraLen   = buf.getShort(pos+30) & 0xffff;
+      int commentLen = buf.getShort(pos+32) & 0xffff;
+      e.offset  = buf.getInt(pos+42);
+      e.name    = name(pos+46, nameLen);
+      e.ordinal = i;
+      e.loc     = new Location(file.getPath() + "|" + e.name);
+      if (e.csize < 0 || e.size < 0 || e.offset < 0) throw new ZipException("Zip64 not supported: " + file);
+      entries.put(e.name, e);
+      pos += 46 + nameLen + extraLen + commentLen;
+    }
+
+    // index the binary IR if the kit has it, else the text IR
+    binary = false;
+    Iterator it = entries.keySet().iterator();
+    while (it.hasNext() && !binary)
+      binary = ((String)it.next()).endsWith(".irb");
+    String ext = binary ? ".irb" : ".ir";
+    it = entries.values().iterator();
+    while (it.hasNext())
+    {
+      Entry e = (Entry)it.next();
+      if (e.name.endsWith(ext))
+        types.put(e.name.substring(0, e.name.length()-ext.length()), e);
+    }
+    loaded = new IrType[num];
+  }
+
+  /**
+   * Get the uncompressed bytes of the entry.  Stored entries
+   * are copied directly out of the mapped region.
+   */
+  private byte[] bytes(Entry e)
+    throws IOException
+  {
+    if (buf == null) throw new IOException("Kit loader closed: " + e.loc);
+    if (buf.getInt(e.offset) != LOC_SIG) throw new ZipException("Invalid local header: " + e.loc);
+    int nameLen  = buf.getShort(e.offset+26) & 0xffff;
+    int extraLen = buf.getShort(e.offset+28) & 0xffff;
+    int data = e.offset + 30 + nameLen + extraLen;
+
+    byte[] result = new byte[e.size];
+    if (e.method == ZipEntry.STORED)
+    {
+      ByteBuffer dup = buf.duplicate();
+      dup.position(data);
+      dup.get(result);
+      return result;
+    }
+    if (e.method != ZipEntry.DEFLATED)
+      throw new ZipException("Unsupported compression method " + e.method + ": " + e.loc);
+
+    byte[] compressed = new byte[e.csize];
+    ByteBuffer dup = buf.duplicate();
+    dup.position(data);
+    dup.get(compressed);
+    Inflater inflater = new Inflater(true);
+    try
+    {
+      inflater.setInput(compressed);
+      int n = 0;
+      while (n < result.length)
+      {
+        int r = inflater.inflate(result, n, result.length-n);
+        if (r == 0 && (inflater.finished() || inflater.needsInput())) break;
+        n += r;
+      }
+      if (n != result.length) throw new ZipException("Truncated entry: " + e.loc);
+      return result;
+    }
+    catch (DataFormatException ex)
+    {
+      throw new ZipException("Invalid deflate data: " + e.loc);
+    }
+    finally
+    {
+      inflater.end();
+    }
+  }
+
+  private String name(int pos, int len)
+    throws IOException
+  {
+    byte[] b = new byte[len];
+    ByteBuffer dup = buf.duplicate();
+    dup.position(pos);
+    dup.get(b);
+    return new String(b, "UTF-8");
+  }
+
+////////////////////////////////////////////////////////////////
+// Entry
+////////////////////////////////////////////////////////////////
+
+  static class Entry
+  {
+    String name;
+    Location loc;
+    int ordinal;
+    int method;
+    int csize;
+    int size;
+    int offset;
+  }
+
+////////////////////////////////////////////////////////////////
+// Fields
+////////////////////////////////////////////////////////////////
+
+  static final int LOC_SIG = 0x04034b50;
+  static final int CEN_SIG = 0x02014b50;
+  static final int END_SIG = 0x06054b50;
+
+  final Compiler compiler;
+  final File file;
+  ByteBuffer buf;                          // null once closed
+  final HashMap entries = new HashMap();   // zip entry name -> Entry
+  final HashMap types = new HashMap();     // type name -> Entry
+  IrType[] loaded;                         // by Entry.ordinal
+  int numLoaded;
+  boolean binary;
+  boolean sealed;
+
+}
@@ -40,6 +40,22 @@ public class IrReader
     super(compiler, loc, in);
   }
 
+  /**
+   * Constructor for tokens cached by IrKitCache.
+   */
+  public IrReader(Compiler compiler, String filename, Token[] tokens)
+  {
+    super(compiler, filename, tokens);
+  }
+
+  /**
+   * Tokenize an IR file without parsing it.
+   */
+  public static Token[] tokenize(Compiler compiler, Location loc, InputStream in)
+  {
+    return new Tokenizer(compiler, loc.file, Tokenizer.readFile(loc, in)).tokenize();
+  }
+
 //////////////////////////////////////////////////////////////////////////
 // Parse
 //////////////////////////////////////////////////////////////////////////
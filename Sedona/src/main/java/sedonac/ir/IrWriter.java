@@ -39,7 +39,7 @@ public class IrWriter
   public void writeType(IrType t)
   {                              
     writeFacets(t.facets);
-    w(TypeUtil.flagsToString(t));
+    writeTypeFlags(t.flags);
     w("class ").w(t.name);
     if (t.base != null) w(" extends ").w(t.base);    
     nl();
@@ -64,9 +64,40 @@ public class IrWriter
       writeField((IrField)slot);
   }
 
+  /**
+   * Write the type modifiers as Parser.typeFlags reads them back.
+   */
+  public void writeTypeFlags(int flags)
+  {
+    if ((flags & sedona.Type.INTERNAL) != 0) w("internal ");
+    if ((flags & sedona.Type.PUBLIC) != 0)   w("public ");
+    if ((flags & sedona.Type.ABSTRACT) != 0) w("abstract ");
+    if ((flags & sedona.Type.CONST) != 0)    w("const ");
+    if ((flags & sedona.Type.FINAL) != 0)    w("final ");
+  }
+
+  /**
+   * Write the slot modifiers as Parser.slotFlags reads them back.
+   * Modifiers implied by another one are left out since the parser
+   * reports them as errors (and adds them back itself).
+   */
   public void writeFlags(IrSlot slot)
   {
-    w(TypeUtil.flagsToString(slot));
+    int flags = slot.flags;
+    if ((flags & Slot.INTERNAL) != 0)  w("internal ");
+    if ((flags & Slot.PRIVATE) != 0)   w("private ");
+    if ((flags & Slot.PROTECTED) != 0) w("protected ");
+    if ((flags & Slot.PUBLIC) != 0    && (flags & (Slot.ACTION|Slot.PROPERTY)) == 0) w("public ");
+    if ((flags & Slot.ABSTRACT) != 0)  w("abstract ");
+    if ((flags & Slot.ACTION) != 0)    w("action ");
+    if ((flags & Slot.CONST) != 0)     w("const ");
+    if ((flags & Slot.DEFINE) != 0)    w("define ");
+    if ((flags & Slot.INLINE) != 0    && (flags & Slot.PROPERTY) == 0) w("inline ");
+    if ((flags & Slot.NATIVE) != 0)    w("native ");
+    if ((flags & Slot.OVERRIDE) != 0)  w("override ");
+    if ((flags & Slot.PROPERTY) != 0)  w("property ");
+    if ((flags & Slot.STATIC) != 0    && (flags & Slot.DEFINE) == 0) w("static ");
+    if ((flags & Slot.VIRTUAL) != 0   && (flags & (Slot.ABSTRACT|Slot.ACTION)) == 0) w("virtual ");
   }
 
   public void writeField(IrField field)
@@ -76,7 +107,7 @@ public class IrWriter
     writeFlags(field);                     
     w(field.type);
     w(" ").w(field.name);
-    if (field.isDefine() && !field.type.isLog())
+    if (field.isDefine() && field.define != null && (field.type instanceof UnresolvedType || !field.type.isLog()))
       w(" = ").w(field.define.toCodeString());
     if (field.arrayInit)
       w(" = {...}");
@@ -164,7 +195,8 @@ public class IrWriter
 
   public IrWriter w(Type t)
   {
-    String sig = t.signature();                       
+    // IR just read from a kit still has unresolved types
+    String sig = t instanceof UnresolvedType ? t.toString() : t.signature();
     if (sig.startsWith("const ")) sig = sig.substring(6);
     print(sig);
     return this;
@@ -53,6 +53,17 @@ public class Parser
     this.tokenizer = new Tokenizer(compiler, filename, Tokenizer.readFile(loc, in));
   }
 
+  /**
+   * Pre-tokenized constructor, used to re-parse
+   * tokens cached by IrKitCache.
+   */
+  public Parser(Compiler compiler, String filename, Token[] tokens)
+  {
+    super(compiler);
+    this.filename = filename;
+    this.tokens = tokens;
+  }
+
   /**
    * Test constructor.
    */
@@ -1383,7 +1394,7 @@ public class Parser
    */
   public void readTokens()
   {
-    this.tokens = tokenizer.tokenize();
+    if (tokenizer != null) this.tokens = tokenizer.tokenize();
     this.numTokens = tokens.length;
     reset(0);
   }
@@ -59,16 +59,17 @@ public class Tokenizer
 
   /**
    * Read a file into a normalized char array
-   * with all newlines represented as '\n'
+   * with all newlines represented as '\n'.  The buffers
+   * are allocated per call so files may be read
+   * concurrently by the parallel Parse step.
    */
-  private static final CharArrayWriter chars = new CharArrayWriter(1024);
-  private static final char[] charBuf = new char[1024];
   public static char[] readFile(Location loc, InputStream inputStream)
   {
     BufferedReader in = null;
     try
     {
-      chars.reset();
+      CharArrayWriter chars = new CharArrayWriter(4096);
+      char[] charBuf = new char[4096];
       in = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
       int n;
       while ((n = in.read(charBuf)) != -1)
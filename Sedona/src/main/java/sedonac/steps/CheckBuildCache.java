@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2007 Tridium, Inc.
+ * Licensed under the Academic Free License version 3.0
+ *
+ */
+
+package sedonac.steps;
+
+import sedonac.BuildCache;
+import sedonac.Compiler;
+import sedonac.CompilerStep;
+
+/**
+ * CheckBuildCache compares the inputs of an -incremental kit compile
+ * against the cache written by the last successful compile.  If nothing
+ * changed and the output kit (and docs with -doc) are still on disk
+ * then compiler.upToDate is set and the rest of the pipeline is skipped
+ * (the kit zip is not rewritten).
+ */
+public class CheckBuildCache
+  extends CompilerStep
+{
+
+  public CheckBuildCache(Compiler compiler)
+  {
+    super(compiler);
+  }
+
+  public void run()
+  {
+    if (!compiler.incremental) return;
+
+    BuildCache cur = BuildCache.make(compiler);
+    compiler.buildCache = cur;
+    if (cur == null) return;
+
+    BuildCache prev = BuildCache.load(BuildCache.toFile(compiler, cur.kitName));
+    if (prev == null)
+    {
+      log.debug("  CheckBuildCache [no cache]");
+      return;
+    }
+
+    String[] changed = cur.diff(prev);
+    if (changed.length > 0)
+    {
+      log.info("  CheckBuildCache [" + changed.length + " inputs changed]");
+      for (int i=0; i<changed.length; ++i)
+        log.debug("    " + changed[i]);
+      return;
+    }
+
+    if (!prev.outputExists())
+    {
+      log.info("  CheckBuildCache [output kit or docs modified or missing]");
+      return;
+    }
+
+    log.info("  Up to date [" + compiler.ast.name + "]");
+    compiler.upToDate = true;
+  }
+
+}
@@ -10,6 +10,7 @@ package sedonac.steps;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import sedona.xml.*;
 import sedonac.*;
 import sedonac.Compiler;
@@ -17,8 +18,14 @@ import sedonac.ir.*;
 import sedonac.scode.*;
 
 /**
- * CompileDir is used to group a set of compiler targets 
+ * CompileDir is used to group a set of compiler targets
  * together - such as a directory containing a bunch of kits.
+ *
+ * If the compiler is configured with more than one thread
+ * (-threads), then the targets are compiled in parallel:
+ * each kit target waits only on the earlier targets which
+ * produce the kits it depends on, while any other target
+ * (image, platform, nested dir) waits on everything before it.
  */
 public class CompileDir
   extends CompilerStep
@@ -37,6 +44,11 @@ public class CompileDir
     try
     {
       XElem[] targets = xml.elems("target");
+      if (compiler.threads > 1 && targets.length > 1)
+      {
+        compileParallel(targets);
+        return;
+      }
       for (int i=0; i<targets.length; ++i)
         compileTarget(targets[i].get("name"));
     }
@@ -44,16 +56,229 @@ public class CompileDir
     {
       throw err(e);
     }
-  }                   
-  
+  }
+
   public void compileTarget(String name)
   {
-    log.info("Compile [" + name + "]");  
+    log.info("Compile [" + name + "]");
     Compiler c = compiler.spawn();
     c.compile(new File(xmlDir, name));
     System.out.println();
   }
 
+////////////////////////////////////////////////////////////////
+// Parallel
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Compile the targets on a pool of worker threads in
+   * dependency order.  Each target logs into its own buffer
+   * which is flushed as one block when the target completes.
+   * On the first failure no new targets are started.
+   */
+  private void compileParallel(XElem[] xtargets)
+  {
+    Target[] targets = new Target[xtargets.length];
+    for (int i=0; i<targets.length; ++i)
+      targets[i] = new Target(xtargets[i].get("name"));
+    computeDepends(targets);
+
+    int numThreads = Math.min(compiler.threads, targets.length);
+    log.info("Compile " + targets.length + " targets [" + numThreads + " threads]");
+
+    long t1 = System.currentTimeMillis();
+    ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+    CompletionService done = new ExecutorCompletionService(pool);
+    Target failed = null;
+    try
+    {
+      int running = 0;
+      for (int i=0; i<targets.length; ++i)
+        if (targets[i].waiting == 0) { done.submit(targets[i], targets[i]); ++running; }
+
+      while (running > 0)
+      {
+        Target t = (Target)done.take().get();
+        --running;
+        flush(t);
+        if (t.failure != null)
+        {
+          if (failed == null) failed = t;
+          continue;
+        }
+        if (failed != null) continue;
+
+        for (int i=0; i<t.dependents.size(); ++i)
+        {
+          Target x = (Target)t.dependents.get(i);
+          if (--x.waiting == 0) { done.submit(x, x); ++running; }
+        }
+      }
+    }
+    catch (InterruptedException e)
+    {
+      throw err("Interrupted compiling targets", new Location(xmlFile), e);
+    }
+    catch (ExecutionException e)
+    {
+      throw err("Internal error compiling targets", new Location(xmlFile), e.getCause());
+    }
+    finally
+    {
+      pool.shutdownNow();
+    }
+    long t2 = System.currentTimeMillis();
+
+    if (failed != null)
+    {
+      if (failed.failure instanceof CompilerException)
+        throw (CompilerException)failed.failure;
+      throw err("Internal error compiling [" + failed.name + "]", new Location(xmlFile), failed.failure);
+    }
+
+    log.info("Compiled " + targets.length + " targets in " + (t2-t1) + "ms " +
+             "[critical path " + criticalPath(targets) + "ms]");
+  }
+
+  /**
+   * Wire up the dependency DAG.  A kit target depends on the earlier
+   * kit targets it declares a <depend> on, and on every earlier non-kit
+   * target.  A non-kit target depends on all earlier targets.  Only
+   * earlier targets are considered, which matches the sequential order.
+   */
+  private void computeDepends(Target[] targets)
+  {
+    for (int i=0; i<targets.length; ++i)
+    {
+      Target t = targets[i];
+      for (int j=0; j<i; ++j)
+      {
+        Target x = targets[j];
+        boolean dep;
+        if (t.depends == null || x.kitName == null)
+          dep = true;
+        else
+          dep = t.depends.contains(x.kitName);
+        if (!dep) continue;
+        t.prereqs.add(x);
+        x.dependents.add(t);
+        t.waiting++;
+      }
+    }
+  }
+
+  /**
+   * Return the longest chain of target compile times through the DAG.
+   */
+  private static long criticalPath(Target[] targets)
+  {
+    // targets only depend on earlier targets, so a single pass works
+    long max = 0;
+    for (int i=0; i<targets.length; ++i)
+    {
+      Target t = targets[i];
+      long before = 0;
+      for (int j=0; j<t.prereqs.size(); ++j)
+        before = Math.max(before, ((Target)t.prereqs.get(j)).pathTime);
+      t.pathTime = before + t.time;
+      max = Math.max(max, t.pathTime);
+    }
+    return max;
+  }
+
+  private void flush(Target t)
+  {
+    synchronized (log.out)
+    {
+      log.out.print(t.buf.toString());
+      log.out.println();
+      log.out.flush();
+    }
+  }
+
+////////////////////////////////////////////////////////////////
+// Target
+////////////////////////////////////////////////////////////////
+
+  class Target
+    implements Runnable
+  {
+    Target(String name)
+    {
+      this.name  = name;
+      this.file  = new File(xmlDir, name);
+      readKitXml();
+    }
+
+    /**
+     * If this target is a kit, then read its name and
+     * depends from the kit.xml file.  Otherwise leave
+     * kitName and depends null.
+     */
+    private void readKitXml()
+    {
+      File f = file;
+      if (f.isDirectory()) f = new File(f, "kit.xml");
+      if (!f.isFile()) return;
+      try
+      {
+        XElem x = XParser.make(f).parse();
+        if (!x.name().equals("sedonaKit")) return;
+        kitName = x.get("name");
+        depends = new HashSet();
+        XElem[] xdepends = x.elems("depend");
+        for (int i=0; i<xdepends.length; ++i)
+          depends.add(xdepends[i].getDepend("on").name());
+      }
+      catch (Exception e)
+      {
+        // let the target's own compile report the problem; just
+        // treat it as a barrier so nothing runs ahead of it
+        kitName = null;
+        depends = null;
+      }
+    }
+
+    public void run()
+    {
+      CompilerLog tlog = new CompilerLog(new PrintStream(buf, true));
+      tlog.severity = log.severity;
+      Compiler c = compiler.spawnDetached(tlog);
+      long t1 = System.currentTimeMillis();
+      try
+      {
+        tlog.info("Compile [" + name + "]");
+        c.compile(file);
+      }
+      catch (CompilerException e)
+      {
+        failure = e;
+      }
+      catch (Throwable e)
+      {
+        tlog.error("Internal compiler error", e);
+        failure = e;
+      }
+      finally
+      {
+        time = System.currentTimeMillis() - t1;
+        compiler.merge(c);
+      }
+    }
+
+    final String name;
+    final File file;
+    final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    final ArrayList prereqs = new ArrayList();
+    final ArrayList dependents = new ArrayList();
+    String kitName;         // null if not a kit target
+    HashSet depends;        // null if not a kit target
+    int waiting;            // prereqs not yet complete
+    long time;              // compile time in ms
+    long pathTime;          // critical path ending here in ms
+    Throwable failure;
+  }
+
   File xmlFile;
   File xmlDir;
   XElem xml;
@@ -79,7 +79,7 @@ public class InitKitTranslate
         }
     }
 
-    private File getKitXml(String kitName) {
+    static File getKitXml(String kitName) {
         File sedonaHome = Env.home;
         final String sourcePathName = sedonaHome.getAbsolutePath() + File.separator + "src" + File.separator + kitName + File.separator + "kit.xml";
         File sourcePath = new File(sourcePathName);
@@ -80,6 +80,8 @@ public class InitTranslate
             t.cppOptions.setMemberPostfix(cppOptions.get("memberPostfix", ""));
             t.cppOptions.setGenerateMethodImpl("true".equalsIgnoreCase(cppOptions.get("generateMethodImpl", "")));
             t.cppOptions.setGenerateTests("true".equalsIgnoreCase(cppOptions.get("generateTests", "")));
+            t.cppOptions.setSkipUnchanged(!"false".equalsIgnoreCase(cppOptions.get("skipUnchanged", "")));
+            t.cppOptions.setStableHeader("true".equalsIgnoreCase(cppOptions.get("stableHeader", "")));
 
             log.info("    " + t.cppOptions.toString());
         } else {
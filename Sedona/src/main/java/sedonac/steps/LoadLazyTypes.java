@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2007 Tridium, Inc.
+ * Licensed under the Academic Free License version 3.0
+ *
+ */
+
+package sedonac.steps;
+
+import java.util.*;
+import sedonac.*;
+import sedonac.Compiler;
+import sedonac.ast.*;
+import sedonac.ir.*;
+import sedonac.namespace.*;
+import sedonac.scode.*;
+
+/**
+ * LoadLazyTypes loads the dependency types a compile actually uses
+ * from kits read lazily by ResolveDepends (see -lazyKits).  Starting
+ * with every type name referenced by the parsed AST it decodes the
+ * matching IR types, then transitively every type referenced by their
+ * base types, slot signatures and code.  This is the same closure
+ * ResolveIR and ResolveTypes would touch, so after this step the
+ * lazy kits look like eagerly read kits to the rest of the pipeline.
+ * If a later step still looks up a type the closure missed, its kit
+ * falls back to loading every type (see IrKitLoader.seal).
+ */
+public class LoadLazyTypes
+  extends CompilerStep
+{
+
+//////////////////////////////////////////////////////////////////////////
+// Constructor
+//////////////////////////////////////////////////////////////////////////
+
+  public LoadLazyTypes(Compiler compiler)
+  {
+    super(compiler);
+  }
+
+//////////////////////////////////////////////////////////////////////////
+// Run
+//////////////////////////////////////////////////////////////////////////
+
+  public void run()
+  {
+    IrKit[] kits = compiler.kits;
+    boolean anyLazy = false;
+    for (int i=0; kits != null && i<kits.length; ++i)
+      if (kits[i] != null && kits[i].loader != null) anyLazy = true;
+    if (!anyLazy) return;
+
+    log.debug("  LoadLazyTypes");
+
+    // types of lazy kits already touched while mounting
+    for (int i=0; i<kits.length; ++i)
+    {
+      if (kits[i].loader == null) continue;
+      kits[i].loader.sync(kits[i]);
+      todo.addAll(Arrays.asList(kits[i].types));
+    }
+
+    // roots referenced by the AST
+    walkAst(WALK_TO_EXPRS);
+
+    // transitive closure through the IR
+    while (!todo.isEmpty())
+      scan((IrType)todo.removeFirst());
+
+    // from here on a type the closure missed makes
+    // its kit fall back to loading every type
+    for (int i=0; i<kits.length; ++i)
+    {
+      IrKitLoader loader = kits[i].loader;
+      if (loader == null) continue;
+      loader.sync(kits[i]);
+      loader.seal();
+      log.debug("    " + kits[i].name + ": " + loader.numLoaded() + "/" + loader.typeNames().length + " types");
+    }
+    quitIfErrors();
+  }
+
+//////////////////////////////////////////////////////////////////////////
+// AST Roots
+//////////////////////////////////////////////////////////////////////////
+
+  public Type type(Type type)
+  {
+    if (type instanceof ArrayType)
+    {
+      ArrayType array = (ArrayType)type;
+      type(array.of);
+      if (array.len instanceof ArrayType.UnresolvedLen)
+        loadDefine(((ArrayType.UnresolvedLen)array.len).id);
+    }
+    else if (type instanceof UnresolvedType)
+    {
+      loadName(((UnresolvedType)type).name);
+    }
+    return type;
+  }
+
+  public Expr expr(Expr expr)
+  {
+    // same check as ResolveTypes: a name without a
+    // target might be a type name such as Sys.ticks()
+    if (expr.id == Expr.NAME && ((Expr.Name)expr).target == null)
+      loadName(((Expr.Name)expr).name);
+    return expr;
+  }
+
+  /**
+   * Load a type by qname, or by simple name from every lazy
+   * kit the way Namespace.resolveTypeBySimpleName matches it.
+   */
+  private void loadName(String name)
+  {
+    if (name.indexOf("::") > 0)
+    {
+      loadQName(name);
+      return;
+    }
+    IrKit[] kits = compiler.kits;
+    for (int i=0; i<kits.length; ++i)
+      load(kits[i], name);
+  }
+
+  /**
+   * Load the type of a define used as an array length,
+   * such as "MAX", "Foo.MAX" or "foo::Foo.MAX".
+   */
+  private void loadDefine(String id)
+  {
+    int dot = id.indexOf('.');
+    if (dot > 0) loadName(id.substring(0, dot));
+  }
+
+//////////////////////////////////////////////////////////////////////////
+// IR Closure
+//////////////////////////////////////////////////////////////////////////
+
+  private void scan(IrType t)
+  {
+    ref(t.base);
+    IrSlot[] slots = t.declared;
+    for (int i=0; i<slots.length; ++i)
+    {
+      if (slots[i] instanceof IrField)
+      {
+        IrField f = (IrField)slots[i];
+        ref(f.type);
+        if (f.ctorLengthArg instanceof Expr.Name)
+          loadQName(((Expr.Name)f.ctorLengthArg).name);
+      }
+      else
+      {
+        IrMethod m = (IrMethod)slots[i];
+        ref(m.ret);
+        for (int j=0; j<m.params.length; ++j) ref(m.params[j]);
+        IrOp[] code = m.code;
+        for (int j=0; code != null && j<code.length; ++j)
+        {
+          switch (code[j].argType())
+          {
+            case SCode.typeArg:
+            case SCode.slotArg:
+            case SCode.methodArg:
+            case SCode.fieldArg:
+              loadQName(code[j].arg);
+              break;
+          }
+        }
+      }
+    }
+  }
+
+  private void ref(Type type)
+  {
+    if (type instanceof ArrayType)
+    {
+      ArrayType array = (ArrayType)type;
+      ref(array.of);
+      if (array.len instanceof ArrayType.UnresolvedLen)
+        loadQName(((ArrayType.UnresolvedLen)array.len).id);
+    }
+    else if (type instanceof UnresolvedType)
+    {
+      loadQName(((UnresolvedType)type).name);
+    }
+  }
+
+  /**
+   * Load the type of a qualified type, slot or array signature
+   * such as "foo::Bar", "foo::Bar.baz" or "foo::Bar[]".
+   */
+  private void loadQName(String qname)
+  {
+    if (qname == null) return;
+    int colon = qname.indexOf("::");
+    if (colon <= 0) return;
+    int end = colon+2;
+    while (end < qname.length() && qname.charAt(end) != '.' && qname.charAt(end) != '[') ++end;
+    Kit kit = ns.resolveKit(qname.substring(0, colon));
+    if (kit instanceof IrKit)
+      load((IrKit)kit, qname.substring(colon+2, end));
+  }
+
+  private void load(IrKit kit, String typeName)
+  {
+    if (kit.loader == null || kit.typesByName.get(typeName) != null) return;
+    IrType t = (IrType)kit.type(typeName);
+    if (t != null) todo.add(t);
+  }
+
+//////////////////////////////////////////////////////////////////////////
+// Fields
+//////////////////////////////////////////////////////////////////////////
+
+  private final LinkedList todo = new LinkedList();
+
+}
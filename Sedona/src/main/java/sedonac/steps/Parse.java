@@ -9,6 +9,7 @@
 package sedonac.steps;
 
 import java.util.*;
+import java.util.concurrent.*;
 import sedonac.*;
 import sedonac.Compiler;
 import sedonac.ast.*;
@@ -33,13 +34,76 @@ public class Parse
 
     SourceFile[] files = compiler.sourceFiles;
     ArrayList types = new ArrayList(Arrays.asList(compiler.ast.types));
-    for (int i=0; i<files.length; ++i)
-      parse(files[i], types);
+    if (compiler.threads > 1 && files.length > 1)
+      parseParallel(files, types);
+    else
+      for (int i=0; i<files.length; ++i)
+        parse(files[i], types);
 
     quitIfErrors();
     compiler.ast.types = (TypeDef[])types.toArray(new TypeDef[types.size()]);
   }
 
+  /**
+   * Parse each file on a worker pool with its own detached
+   * compiler (sharing our namespace and kit), then merge the
+   * types, errors and warnings back in source file order so the
+   * result is identical to a sequential run.
+   */
+  void parseParallel(SourceFile[] files, ArrayList types)
+  {
+    ArrayList tasks = new ArrayList(files.length);
+    for (int i=0; i<files.length; ++i)
+      tasks.add(new ParseTask(files[i]));
+
+    ExecutorService pool = Executors.newFixedThreadPool(Math.min(compiler.threads, files.length));
+    try
+    {
+      List results = pool.invokeAll(tasks);
+      for (int i=0; i<results.size(); ++i)
+      {
+        ParseTask task = (ParseTask)((Future)results.get(i)).get();
+        types.addAll(task.types);
+        compiler.merge(task.compiler);
+      }
+    }
+    catch (InterruptedException e)
+    {
+      throw err("Interrupted parsing source files", new Location(compiler.input), e);
+    }
+    catch (ExecutionException e)
+    {
+      throw err("Cannot parse", new Location(compiler.input), e.getCause());
+    }
+    finally
+    {
+      pool.shutdown();
+    }
+  }
+
+  class ParseTask
+    implements Callable
+  {
+    ParseTask(SourceFile file)
+    {
+      this.file = file;
+      this.compiler = Parse.this.compiler.spawnDetached(Parse.this.log);
+      this.compiler.ns  = Parse.this.compiler.ns;
+      this.compiler.ast = Parse.this.compiler.ast;
+      this.compiler.input = Parse.this.compiler.input;
+    }
+
+    public Object call()
+    {
+      new Parse(compiler).parse(file, types);
+      return this;
+    }
+
+    final SourceFile file;
+    final Compiler compiler;
+    final ArrayList types = new ArrayList();
+  }
+
   void parse(SourceFile file, ArrayList types)
   {
     try
@@ -15,6 +15,7 @@ import java.util.zip.*;
 import sedona.Env;
 import sedona.manifest.*;
 import sedona.kit.*;
+import sedona.util.FileUtil;
 import sedona.xml.*;
 import sedonac.*;
 import sedonac.Compiler;
@@ -57,6 +58,16 @@ public class ReadKits
             throw err("Cannot find kit '" + kit.file + "'", kit.loc);
         File file = kit.file.file;
 
+        if (lazy && !kit.name.equals("sys")) {
+            readLazyKit(kit);
+            return;
+        }
+
+        if (IrKitCache.enabled) {
+            readCachedKit(kit, file);
+            return;
+        }
+
         try {
             // open kit file as a zip file
             ZipFile zip = new ZipFile(file);
@@ -66,15 +77,21 @@ public class ReadKits
             if (manifest == null) throw err("Missing 'manifest.xml' manifest", new Location(file));
             readManifest(new Location(file, manifest), kit, zip.getInputStream(manifest));
 
-            // read types
+            // read types, preferring the binary .irb entries
+            // over the text .ir entries if the kit has them
+            boolean binary = hasBinaryIr(zip);
+            String ext = binary ? ".irb" : ".ir";
             ArrayList acc = new ArrayList();
             HashMap map = new HashMap();
             Enumeration it = zip.entries();
             while (it.hasMoreElements()) {
                 ZipEntry entry = (ZipEntry) it.nextElement();
                 String name = entry.getName();
-                if (name.endsWith(".ir")) {
-                    IrType type = readType(new Location(file, entry), kit, zip.getInputStream(entry));
+                if (name.endsWith(ext)) {
+                    Location loc = new Location(file, entry);
+                    IrType type = binary ?
+                            readBinaryType(loc, kit, zip.getInputStream(entry), entry.getSize()) :
+                            readType(loc, kit, zip.getInputStream(entry));
                     map.put(type.name, type);
                     acc.add(type);
                 }
@@ -95,6 +112,70 @@ public class ReadKits
             ns.mount(kit);
     }
 
+    /**
+     * Read only the manifest and the type index of the kit,
+     * its types are decoded by IrKitLoader when first used.
+     */
+    private void readLazyKit(IrKit kit) {
+        try {
+            IrKitLoader loader = IrKitLoader.open(compiler, kit);
+            KitManifest manifest = new KitManifest(kit.name);
+            manifest.decodeXml(loader.readManifest());
+            kit.manifest = manifest;
+            kit.version = manifest.version;
+            kit.loader = loader;
+            kit.types = new IrType[0];
+            kit.typesByName = new HashMap();
+        } catch (XException e) {
+            throw err(e);
+        } catch (CompilerException e) {
+            throw e;
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw err("Cannot read kit file", new Location(kit.file.file), e);
+        }
+
+        if (autoMountKitIntoNamespace)
+            ns.mount(kit);
+    }
+
+    /**
+     * Read the kit from the binary IR or tokens held by IrKitCache
+     * rather than from the zip file.
+     */
+    private void readCachedKit(IrKit kit, File file) {
+        try {
+            IrKitCache.Entry entry = IrKitCache.get(compiler, file);
+
+            KitManifest manifest = new KitManifest(kit.name);
+            manifest.decodeXml(entry.manifest);
+            kit.manifest = manifest;
+            kit.version = manifest.version;
+
+            IrType[] types = new IrType[entry.irNames.length];
+            HashMap map = new HashMap();
+            for (int i = 0; i < types.length; ++i) {
+                if (entry.irBytes != null)
+                    types[i] = new IrBinaryReader(compiler, new Location(entry.irNames[i]), entry.irBytes[i]).readType(kit);
+                else
+                    types[i] = new IrReader(compiler, entry.irNames[i], entry.irTokens[i]).readType(kit);
+                map.put(types[i].name, types[i]);
+            }
+            kit.types = types;
+            kit.typesByName = map;
+        } catch (XException e) {
+            throw err(e);
+        } catch (CompilerException e) {
+            throw e;
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw err("Cannot read kit file", new Location(file), e);
+        }
+
+        if (autoMountKitIntoNamespace)
+            ns.mount(kit);
+    }
+
     private void readManifest(Location loc, IrKit kit, InputStream in)
             throws Exception {
         try {
@@ -129,5 +210,33 @@ public class ReadKits
         }
     }
 
+    private IrType readBinaryType(Location loc, IrKit kit, InputStream in, long size)
+            throws Exception {
+        try {
+            return new IrBinaryReader(compiler, loc, FileUtil.read(in, size)).readType(kit);
+        } catch (CompilerException e) {
+            throw e;
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw err("Cannot read binary IR", loc, e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Return if the kit zip contains binary IR entries.  Kits
+     * written by older compilers only have the text form.
+     */
+    static boolean hasBinaryIr(ZipFile zip) {
+        Enumeration it = zip.entries();
+        while (it.hasMoreElements()) {
+            if (((ZipEntry) it.nextElement()).getName().endsWith(".irb"))
+                return true;
+        }
+        return false;
+    }
+
     protected boolean autoMountKitIntoNamespace = true;
+    protected boolean lazy;  // load types on demand (sys is always eager)
 }
@@ -25,6 +25,7 @@ public class ResolveDepends
   public ResolveDepends(Compiler compiler)
   {
     super(compiler);
+    this.lazy = compiler.lazyKits;
   }
 
   public void run()
@@ -68,6 +68,27 @@ public class ResolveIR
     flat.postResolve();
   }
 
+  /**
+   * Resolve types decoded after this step ran, which happens when
+   * a lazy kit falls back to loading every type (see IrKitLoader).
+   */
+  public void resolve(IrType[] types)
+  {
+    for (int i=0; i<types.length; ++i) resolveBase(types[i]);
+    for (int i=0; i<types.length; ++i)
+    {
+      IrSlot[] slots = types[i].declared;
+      for (int j=0; j<slots.length; ++j)
+      {
+        if (slots[j] instanceof IrMethod)
+          resolveMethod((IrMethod)slots[j]);
+        else
+          resolveField((IrField)slots[j]);
+      }
+    }
+    quitIfErrors();
+  }
+
 //////////////////////////////////////////////////////////////////////////
 // Slot Resolution
 //////////////////////////////////////////////////////////////////////////
@@ -9,6 +9,9 @@
 package sedonac.steps;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
 
 import sedonac.*;
 import sedonac.Compiler;
@@ -18,6 +21,9 @@ import sedonac.translate.*;
 
 /**
  * The Translate step translate Sedona AST into Java or C code.
+ * If the compiler is configured with more than one thread (-threads), the
+ * types are translated in parallel. Every type writes its own files, so the
+ * output is the same as for a sequential run.
  */
 public class Translate
         extends CompilerStep {
@@ -39,9 +45,13 @@ public class Translate
             log.info("  Translate [" + kit.name + "]");
             log.info("  Translate [" + kit.types.length + " types]");
             // Translate all types
-            for (int j = 0; j < kit.types.length; ++j) {
-                TypeDef type = kit.types[j];
-                translate(type);
+            if (compiler.threads > 1 && kit.types.length > 1) {
+                translateParallel(kit.types);
+            } else {
+                for (int j = 0; j < kit.types.length; ++j) {
+                    TypeDef type = kit.types[j];
+                    translate(type);
+                }
             }
             // Translate kit
             translate(kit);
@@ -54,6 +64,65 @@ public class Translate
         }
     }
 
+    /**
+     * Translates the types on a worker pool. Each task uses its own detached compiler
+     * (sharing our namespace, AST and translation) and binds the C++ options of the
+     * translation to its worker thread. Errors and warnings are merged back in type order.
+     *
+     * @param types the types to translate
+     */
+    private void translateParallel(TypeDef[] types) {
+        List<TranslateTask> tasks = new ArrayList<>(types.length);
+        for (TypeDef type : types) {
+            tasks.add(new TranslateTask(type));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(compiler.threads, types.length));
+        try {
+            List<Future<TranslateTask>> results = pool.invokeAll(tasks);
+            for (Future<TranslateTask> result : results) {
+                compiler.merge(result.get().compiler);
+            }
+        } catch (InterruptedException e) {
+            throw err("Interrupted translating types", new Location(compiler.translation.outDir), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CompilerException) {
+                throw (CompilerException) e.getCause();
+            }
+            throw err("Cannot translate", new Location(compiler.translation.outDir), e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        quitIfErrors();
+    }
+
+    private class TranslateTask implements Callable<TranslateTask> {
+        TranslateTask(TypeDef type) {
+            this.type = type;
+            this.compiler = Translate.this.compiler.spawnDetached(Translate.this.log);
+            this.compiler.ns = Translate.this.compiler.ns;
+            this.compiler.ast = Translate.this.compiler.ast;
+            this.compiler.input = Translate.this.compiler.input;
+            this.compiler.translation = Translate.this.compiler.translation;
+        }
+
+        public TranslateTask call() throws IOException {
+            CppDefaults.setCppOptions(compiler.translation.cppOptions);
+            try {
+                new Translate(compiler).translate(type);
+            } catch (CompilerException e) {
+                // just accumulate, the error is in our compiler
+                if (log.isDebug()) log.debug("  no log: " + e);
+            } finally {
+                CppDefaults.setCppOptions(null);
+            }
+            return this;
+        }
+
+        final TypeDef type;
+        final Compiler compiler;
+    }
+
     /**
      * Translates the given kit. In general there is nothing to translate here, but
      * this hook is useful to generate a build script or other artifacts with a 'kit' scope.
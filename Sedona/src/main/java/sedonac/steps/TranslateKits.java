@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2007 Tridium, Inc.
+ * Licensed under the Academic Free License version 3.0
+ *
+ */
+
+package sedonac.steps;
+
+import sedona.xml.XElem;
+import sedona.xml.XParser;
+import sedonac.Compiler;
+import sedonac.CompilerException;
+import sedonac.CompilerLog;
+import sedonac.CompilerProfile;
+import sedonac.CompilerStep;
+import sedonac.Location;
+import sedonac.translate.CppDefaults;
+import sedonac.translate.Translation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.*;
+
+/**
+ * TranslateKits runs the translation pipeline ({@link Compiler#translateKit(int)}) of every kit
+ * of the translation on a pool of worker threads (-threads). Each kit gets its own compiler, since
+ * the compiler can only process one kit at a time. A kit waits for the kits of the translation it
+ * declares a &lt;depend&gt; on, while kits without a mutual dependency are translated concurrently.
+ * Each kit logs into its own buffer which is flushed as one block when the kit completes.
+ */
+public class TranslateKits
+        extends CompilerStep {
+
+    public TranslateKits(Compiler compiler) {
+        super(compiler);
+    }
+
+    public void run() {
+        Translation t = compiler.translation;
+        KitTask[] kits = new KitTask[t.kits.length];
+        for (int i = 0; i < kits.length; ++i) {
+            kits[i] = new KitTask(i, t.kits[i].name);
+        }
+        computeDepends(kits);
+
+        int numThreads = Math.min(compiler.threads, kits.length);
+        log.info("  Translate " + kits.length + " kits [" + numThreads + " threads]");
+
+        long tStart = System.currentTimeMillis();
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        CompletionService<KitTask> done = new ExecutorCompletionService<>(pool);
+        KitTask failed = null;
+        try {
+            int running = 0;
+            for (KitTask k : kits) {
+                if (k.waiting == 0) {
+                    done.submit(k, k);
+                    ++running;
+                }
+            }
+
+            while (running > 0) {
+                KitTask k = done.take().get();
+                --running;
+                flush(k);
+                if (k.failure != null) {
+                    if (failed == null) failed = k;
+                    continue;
+                }
+                if (failed != null) continue;
+
+                for (KitTask x : k.dependents) {
+                    if (--x.waiting == 0) {
+                        done.submit(x, x);
+                        ++running;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            throw err("Interrupted translating kits", new Location(compiler.input), e);
+        } catch (ExecutionException e) {
+            throw err("Internal error translating kits", new Location(compiler.input), e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        if (failed != null) {
+            if (failed.failure instanceof CompilerException) {
+                throw (CompilerException) failed.failure;
+            }
+            throw err("Internal error translating [" + failed.name + "]", new Location(compiler.input), failed.failure);
+        }
+        quitIfErrors();
+
+        long tStop = System.currentTimeMillis();
+        log.info(String.format("  Translated %d kits [%d ms]", kits.length, (tStop - tStart)));
+    }
+
+    /**
+     * Wire up the dependency DAG. A kit depends on the earlier kits of the translation it declares
+     * a &lt;depend&gt; on. If the kit.xml of a kit can't be read, it depends on all earlier kits.
+     */
+    private void computeDepends(KitTask[] kits) {
+        for (int i = 0; i < kits.length; ++i) {
+            KitTask k = kits[i];
+            for (int j = 0; j < i; ++j) {
+                KitTask x = kits[j];
+                if (k.depends != null && !k.depends.contains(x.name)) continue;
+                x.dependents.add(k);
+                k.waiting++;
+            }
+        }
+    }
+
+    private void flush(KitTask k) {
+        synchronized (log.out) {
+            log.out.print(k.buf.toString());
+            log.out.flush();
+        }
+    }
+
+    private class KitTask implements Runnable {
+        KitTask(int index, String name) {
+            this.index = index;
+            this.name = name;
+            readKitXml();
+        }
+
+        /**
+         * Read the depends of the kit from its kit.xml file, leave depends null if that fails.
+         */
+        private void readKitXml() {
+            File f = InitKitTranslate.getKitXml(name);
+            if (f == null) return;
+            try {
+                XElem x = XParser.make(f).parse();
+                depends = new HashSet<>();
+                XElem[] xdepends = x.elems("depend");
+                for (XElem xdepend : xdepends) {
+                    depends.add(xdepend.getDepend("on").name());
+                }
+            } catch (Exception e) {
+                // let the kit's own translation report the problem
+                depends = null;
+            }
+        }
+
+        public void run() {
+            CompilerLog tlog = new CompilerLog(new PrintStream(buf, true));
+            tlog.severity = log.severity;
+            Compiler c = compiler.spawnDetached(tlog);
+            c.translation = compiler.translation;
+            if (c.profile) c.profiler = new CompilerProfile(c, "translateKit");
+            CppDefaults.setCppOptions(c.translation.cppOptions);
+            try {
+                c.translateKit(index);
+            } catch (CompilerException e) {
+                failure = e;
+            } catch (Throwable e) {
+                tlog.error("Internal compiler error", e);
+                failure = e;
+            } finally {
+                c.closeKitLoaders();
+                if (c.profiler != null) c.profiler.save();
+                CppDefaults.setCppOptions(null);
+                compiler.merge(c);
+            }
+        }
+
+        final int index;
+        final String name;
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        final ArrayList<KitTask> dependents = new ArrayList<>();
+        HashSet<String> depends;    // null if the kit.xml can't be read
+        int waiting;                // depends not yet translated
+        Throwable failure;
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2007 Tridium, Inc.
+ * Licensed under the Academic Free License version 3.0
+ *
+ */
+
+package sedonac.steps;
+
+import java.io.File;
+
+import sedonac.BuildCache;
+import sedonac.Compiler;
+import sedonac.CompilerStep;
+
+/**
+ * WriteBuildCache records the inputs computed by CheckBuildCache
+ * along with the kit file written by WriteKit and the docs written by
+ * WriteDoc, so that the next -incremental compile can detect that
+ * nothing changed.
+ */
+public class WriteBuildCache
+  extends CompilerStep
+{
+
+  public WriteBuildCache(Compiler compiler)
+  {
+    super(compiler);
+  }
+
+  public void run()
+  {
+    BuildCache cache = compiler.buildCache;
+    if (!compiler.incremental || cache == null || compiler.kitFile == null) return;
+
+    File file = BuildCache.toFile(compiler, cache.kitName);
+    log.debug("  WriteBuildCache [" + file + "]");
+    try
+    {
+      cache.setOutput(compiler.kitFile);
+      if (compiler.docFile != null) cache.setDoc(compiler.docFile);
+      cache.save(file);
+    }
+    catch (Exception e)
+    {
+      // the cache is only an optimization
+      warn("Cannot write build cache: " + e);
+    }
+  }
+
+}
@@ -187,6 +187,7 @@ public class WriteDoc
       XWriter out = new XWriter(f);
       index(out);
       out.close();
+      compiler.docFile = f;
     }
     catch (Exception e)
     {
@@ -15,6 +15,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -28,6 +29,7 @@ import sedonac.Compiler;
 import sedonac.CompilerStep;
 import sedonac.Location;
 import sedonac.SourceFile;
+import sedonac.ir.IrBinaryWriter;
 import sedonac.ir.IrKit;
 import sedonac.ir.IrType;
 import sedonac.ir.IrWriter;
@@ -96,6 +98,7 @@ public class WriteKit
         writeSource(zout);
 
       zout.close();
+      compiler.kitFile = file;
     }
     catch (Exception e)
     {
@@ -122,6 +125,21 @@ public class WriteKit
     out.writeType(t);
     out.flush();
     zout.closeEntry();
+
+    // binary form read by ReadKits; text form above kept for debugging.
+    // It is stored uncompressed so IrKitLoader can decode it directly
+    // from the memory mapped kit file
+    byte[] irb = IrBinaryWriter.encode(t);
+    CRC32 crc = new CRC32();
+    crc.update(irb);
+    ZipEntry entry = new ZipEntry(t.name + ".irb");
+    entry.setMethod(ZipEntry.STORED);
+    entry.setSize(irb.length);
+    entry.setCompressedSize(irb.length);
+    entry.setCrc(crc.getValue());
+    zout.putNextEntry(entry);
+    zout.write(irb);
+    zout.closeEntry();
   }
 
   private void writeSource(ZipOutputStream zout)
@@ -11,6 +11,7 @@ package sedonac.test;
 import java.io.*;
 import sedona.*;
 import sedona.offline.*;
+import sedona.sox.SoxComponent;
 import sedona.util.*;
 import sedona.xml.*;
 
@@ -92,6 +93,83 @@ public class AppTest
     verify(ex != null);
   }
   
+  public void testPackedSlots()
+    throws Exception
+  {
+    Schema schema = Schema.load(new KitPart[] { KitPart.forLocalKit("sys") });
+    Type type = schema.type("sys::TestComp");
+    SoxComponent boxed  = new SoxComponent(null, 1, type, false);
+    SoxComponent packed = new SoxComponent(null, 1, type, true);
+    verify(!boxed.isPacked());
+    verify(packed.isPacked());
+    verifySameSlots(boxed, packed);
+
+    Slot[] props = type.props();
+    for (int i=0; i<props.length; ++i)
+    {
+      Slot slot = props[i];
+      Value[] vals;
+      switch (slot.type.id)
+      {
+        case Type.boolId:   vals = new Value[] { Bool.TRUE, Bool.FALSE, Bool.NULL }; break;
+        case Type.byteId:   vals = new Value[] { sedona.Byte.make(0), sedona.Byte.make(255) }; break;
+        case Type.shortId:  vals = new Value[] { sedona.Short.make(7), sedona.Short.make(0xffff) }; break;
+        case Type.intId:    vals = new Value[] { Int.make(-1), Int.make(Integer.MIN_VALUE) }; break;
+        case Type.longId:   vals = new Value[] { sedona.Long.make(-1), sedona.Long.make(java.lang.Long.MAX_VALUE) }; break;
+        case Type.floatId:  vals = new Value[] { sedona.Float.make(-2.5f), sedona.Float.make(0f), sedona.Float.NULL }; break;
+        case Type.doubleId: vals = new Value[] { sedona.Double.make(1e300), sedona.Double.NULL }; break;
+        default: continue;
+      }
+
+      for (int j=0; j<vals.length; ++j)
+      {
+        // set boxed
+        boxed.set(slot, vals[j]);
+        packed.set(slot, vals[j]);
+        verifySameSlots(boxed, packed);
+
+        // decode in place
+        Buf buf = new Buf();
+        vals[j].encodeBinary(buf);
+        buf.flip();
+        packed.set(slot, slot.def());
+        packed.decodeBinary(slot, buf);
+        verifySameSlots(boxed, packed);
+      }
+    }
+
+    // typed setters
+    Slot f1 = type.slot("f1");
+    packed.setFloat(f1, 4.08f);
+    verify(packed.getFloat(f1) == 4.08f);
+    verifyEq(packed.get(f1), sedona.Float.make(4.08f));
+    packed.setFloat(f1, java.lang.Float.NaN);
+    verify(packed.get(f1) == sedona.Float.NULL);
+
+    Slot i1 = type.slot("i1");
+    packed.setInt(i1, 0xfedcba08);
+    verifyEq(packed.getInt(i1), 0xfedcba08);
+
+    Slot b1 = type.slot("b1");
+    packed.setInt(b1, 0xf0);
+    verifyEq(packed.getInt(b1), 0xf0);
+    Exception ex = null; try { packed.setInt(b1, 256); } catch (Exception e) { ex = e; }
+    verify(ex != null);
+    verifyEq(packed.getInt(b1), 0xf0);
+  }
+
+  void verifySameSlots(Component a, Component b)
+  {
+    Slot[] slots = a.type.slots;
+    for (int i=0; i<slots.length; ++i)
+    {
+      if (!slots[i].isProp()) continue;
+      Value x = a.get(slots[i]), y = b.get(slots[i]);
+      if (x instanceof Bool) verify(x == y);
+      else verifyEq(x, y);
+    }
+  }
+
   public void buildApp()          
     throws Exception
   {
@@ -51,6 +51,421 @@ public class DaspTest
     }
   }
 
+  public void testNio()
+    throws Exception
+  {
+    // same black-box tests over the NIO transport
+    System.out.println();
+    local = InetAddress.getLocalHost();
+    group = new DaspEventLoopGroup(2);
+    try
+    {
+      startServer(DaspSocket.SESSION_QUEUING);
+      verifyConnect();
+      verifyDatagrams();
+      verifyClose();
+      stopServer();
+
+      startServer(DaspSocket.SOCKET_QUEUING);
+      verifyConnect();
+      verifyDatagrams();
+      verifyClose();
+    }
+    finally
+    {
+      stopServer();
+      group.close();
+      group = null;
+    }
+  }
+
+  public void testLockFree()
+    throws Exception
+  {
+    // same black-box tests with lock free queues and windows
+    System.out.println();
+    local = InetAddress.getLocalHost();
+    lockFree = true;
+    try
+    {
+      startServer(DaspSocket.SESSION_QUEUING);
+      verify(socket.isLockFree());
+      verifyConnect();
+      verifyDatagrams();
+      verifyClose();
+      stopServer();
+
+      startServer(DaspSocket.SOCKET_QUEUING);
+      verifyConnect();
+      verifyDatagrams();
+      verifyClose();
+    }
+    finally
+    {
+      stopServer();
+      lockFree = false;
+    }
+  }
+
+  public void testDispatchThreads()
+    throws Exception
+  {
+    // same black-box tests with datagrams processed on session
+    // affine worker threads, which must keep them in order
+    System.out.println();
+    local = InetAddress.getLocalHost();
+    dispatchThreads = 3;
+    try
+    {
+      startServer(DaspSocket.SESSION_QUEUING);
+      verifyEq(socket.dispatchThreads(), 3);
+      verifyConnect();
+      verifyDatagrams();
+      verifyOrder();
+      verifyClose();
+      stopServer();
+
+      startServer(DaspSocket.SOCKET_QUEUING);
+      verifyConnect();
+      verifyDatagrams();
+      verifyOrder();
+      verifyClose();
+    }
+    finally
+    {
+      stopServer();
+      dispatchThreads = 0;
+    }
+  }
+
+//////////////////////////////////////////////////////////////////////////
+// NIO Load
+//////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Simulate many devices on loopback, each its own DaspSocket
+   * with an acceptor, and one supervisor socket with a session
+   * to every device - all on a two thread DaspEventLoopGroup.
+   * The supervisor sends datagrams to every device which echos
+   * them back.  Use -Ddasp.loadDevices and -Ddasp.loadMsgs to
+   * run it with a bigger load.
+   */
+  public void testNioLoad()
+    throws Exception
+  {
+    int numDevices = Integer.getInteger("dasp.loadDevices", 50).intValue();
+    int numMsgs    = Integer.getInteger("dasp.loadMsgs", 20).intValue();
+    local = InetAddress.getLocalHost();
+    user = "bob";
+    pass = "secret";
+
+    final DaspEventLoopGroup g = new DaspEventLoopGroup(2);
+    final DaspSocket[] devices = new DaspSocket[numDevices];
+    DaspSocket supervisor = null;
+    Thread echo = null;
+    final boolean[] stop = new boolean[1];
+    try
+    {
+      DaspAcceptor acceptor = new DaspAcceptor()
+      {
+        public byte[] credentials(String u) { return u.equals(user) ? UserUtil.credentials(user, pass) : null; }
+        public Hashtable options() { return new Hashtable(); }
+      };
+      for (int i=0; i<devices.length; ++i)
+        devices[i] = DaspSocket.open(new NioDaspSocketInterface(g, -1), acceptor, DaspSocket.SOCKET_QUEUING);
+      supervisor = DaspSocket.open(new NioDaspSocketInterface(g, -1), null, DaspSocket.SESSION_QUEUING);
+
+      // connect a session to every device
+      long t1 = System.currentTimeMillis();
+      DaspSession[] sessions = new DaspSession[devices.length];
+      for (int i=0; i<devices.length; ++i)
+        sessions[i] = supervisor.connect(local, devices[i].port(), user, pass);
+      long t2 = System.currentTimeMillis();
+
+      // one thread echos for all the devices
+      echo = new Thread("DaspTest.echo")
+      {
+        public void run()
+        {
+          while (!stop[0])
+          {
+            boolean idle = true;
+            for (int i=0; i<devices.length; ++i)
+            {
+              try
+              {
+                DaspMessage m = devices[i].receive(0);
+                if (m == null) continue;
+                idle = false;
+                m.session().send(m.payload());
+                m.release();
+              }
+              catch (Exception e)
+              {
+                if (!stop[0]) e.printStackTrace();
+              }
+            }
+            if (idle) try { Thread.sleep(1); } catch (InterruptedException e) { return; }
+          }
+        }
+      };
+      echo.start();
+
+      // send to every device and wait for the echos
+      for (int j=0; j<numMsgs; ++j)
+        for (int i=0; i<sessions.length; ++i)
+          sessions[i].send(("m " + i + " " + j).getBytes("UTF-8"));
+      // retried datagrams may arrive out of order
+      int received = 0;
+      for (int i=0; i<sessions.length; ++i)
+      {
+        HashSet expected = new HashSet();
+        for (int j=0; j<numMsgs; ++j) expected.add("m " + i + " " + j);
+        for (int j=0; j<numMsgs; ++j)
+        {
+          DaspMessage m = sessions[i].receive(10000);
+          verify(m != null);
+          verify(expected.remove(new String(m.payload(), "UTF-8")));
+          m.release();
+          received++;
+        }
+      }
+      long t3 = System.currentTimeMillis();
+      verifyEq(received, numDevices * numMsgs);
+      verifyEq(supervisor.sessions().length, numDevices);
+
+      long ms = Math.max(1, t3-t2);
+      System.out.println();
+      System.out.println("  " + numDevices + " devices connected in " + (t2-t1) + "ms, " +
+        received + " round trips in " + ms + "ms [" + (received * 1000L / ms) + "/sec, " +
+        g.numThreads() + " threads]");
+
+      // every session keeps its receive timeout and keep-alive
+      // timers pending on the wheel of its event loop
+      DaspSocketInterface iface = supervisor.interfaces()[0];
+      verify(iface.timerQueueSize() >= 2*numDevices);
+      System.out.println("  timers: " + iface.timerQueueSize() + " pending, " +
+        iface.maxTimerQueueSize() + " max, " + iface.maxTimerTickLag() + "ms max tick lag");
+    }
+    finally
+    {
+      stop[0] = true;
+      if (echo != null) echo.join();
+      if (supervisor != null) supervisor.close();
+      for (int i=0; i<devices.length; ++i)
+        if (devices[i] != null) devices[i].close();
+      g.close();
+    }
+  }
+
+//////////////////////////////////////////////////////////////////////////
+// Load
+//////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Short DaspLoad run over a lossy, reordering link: every
+   * round trip completes and is timed, and the losses show
+   * up as retries.
+   */
+  public void testLoad()
+    throws Exception
+  {
+    DaspLoad load = new DaspLoad();
+    load.devices = 4;
+    load.clients = 2;
+    load.time    = 1000;
+    load.warmup  = 200;
+    load.loss    = 0.02;
+    load.reorder = 0.05;
+    load.latency = 1;
+    DaspLoad.Result r = load.run();
+    System.out.println();
+    System.out.println(r);
+    verify(r.roundTrips > 0);
+    verify(r.latency.max() > 0 && r.throughput() > 0);
+    verify(r.dropped > 0 && r.retries > 0);
+    verifyEq(r.errors, 0L);
+  }
+
+//////////////////////////////////////////////////////////////////////////
+// Lossy Link
+//////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Stream datagrams one way over a simulated link which drops
+   * some of the datagrams in both directions, once acking every
+   * datagram as it is received and once with the default delayed,
+   * coalesced acks, and compare the datagrams it takes per KB.
+   */
+  public void testLossyLink()
+    throws Exception
+  {
+    System.out.println();
+    user = "bob";
+    pass = "secret";
+    double immediate = lossyTransfer("0");
+    double coalesced = lossyTransfer(null);
+    verify(coalesced < immediate * 0.9);
+  }
+
+  /**
+   * Return the datagrams sent either way per KB transferred.
+   */
+  double lossyTransfer(String ackDelay)
+    throws Exception
+  {
+    final int numMsgs = 300;
+    final int size    = 256;
+    final double loss = 0.05;
+
+    final Hashtable options = new Hashtable();
+    if (ackDelay != null) options.put("dasp.ackDelay", ackDelay);
+    LossyLink link = new LossyLink(loss);
+    DaspSocket server = DaspSocket.open(link.a, new DaspAcceptor()
+    {
+      public byte[] credentials(String u) { return u.equals(user) ? UserUtil.credentials(user, pass) : null; }
+      public Hashtable options() { return options; }
+    }, DaspSocket.SESSION_QUEUING);
+    DaspSocket client = DaspSocket.open(link.b, null, DaspSocket.SESSION_QUEUING);
+    Thread sender = null;
+    try
+    {
+      // handshake on a clean link, then start dropping
+      final DaspSession c = client.connect(LossyLink.HOST, link.a.localPort(), user, pass, options);
+      DaspSession s = server.sessions()[0];
+      link.lossy = true;
+
+      long t1 = System.currentTimeMillis();
+      sender = new Thread("DaspTest.sender")
+      {
+        public void run()
+        {
+          try
+          {
+            for (int i=0; i<numMsgs; ++i)
+            {
+              byte[] payload = new byte[size];
+              payload[0] = (byte)(i >> 8);
+              payload[1] = (byte)i;
+              c.send(payload);
+            }
+          }
+          catch (Exception e)
+          {
+            e.printStackTrace();
+          }
+        }
+      };
+      sender.start();
+
+      // every datagram is delivered once, resent ones out of order
+      boolean[] received = new boolean[numMsgs];
+      for (int i=0; i<numMsgs; ++i)
+      {
+        DaspMessage m = s.receive(10000);
+        verify(m != null);
+        byte[] payload = m.payload();
+        verifyEq(payload.length, size);
+        int n = ((payload[0] & 0xff) << 8) | (payload[1] & 0xff);
+        verify(!received[n]);
+        received[n] = true;
+        m.release();
+      }
+      long t2 = System.currentTimeMillis();
+
+      // metrics saw the losses and every datagram's queue wait
+      DaspMetrics.Snapshot cm = c.metrics(), sm = s.metrics(), socket = server.metrics();
+      verify(cm.retries > 0 && cm.rtt.count() > 0 && cm.retriesPerPacket.max() > 0);
+      verifyEq(sm.queueWait.count(), numMsgs);
+      verify(socket.sessions == 1 && socket.received >= sm.received && socket.smoothedRtt == -1);
+
+      double kb = numMsgs * size / 1024.0;
+      int total = link.a.numSent + link.b.numSent;
+      double perKb = total / kb;
+      System.out.println("  ackDelay=" + (ackDelay == null ? "default" : ackDelay) + ": " +
+        (int)kb + "KB in " + (t2-t1) + "ms, " + link.b.numSent + " data + " +
+        link.a.numSent + " ack datagrams, " + s.numAcks() + " standalone acks, " +
+        (link.a.numDropped + link.b.numDropped) + " dropped, " +
+        ((int)(perKb * 10) / 10.0) + " datagrams/KB");
+      return perKb;
+    }
+    finally
+    {
+      if (sender != null) sender.join(5000);
+      client.close();
+      server.close();
+    }
+  }
+
+  /**
+   * LossyLink connects two in-memory interfaces which drop
+   * the given fraction of datagrams sent once lossy is set.
+   */
+  static class LossyLink
+  {
+    static InetAddress HOST;
+    static
+    {
+      try { HOST = InetAddress.getByName("127.0.0.1"); } catch (Exception e) { throw new RuntimeException(e.toString()); }
+    }
+
+    LossyLink(double loss)
+    {
+      this.loss = loss;
+      a = new End(1);
+      b = new End(2);
+      a.peer = b;
+      b.peer = a;
+    }
+
+    class End extends DaspSocketInterface
+    {
+      End(int port) { this.port = port; }
+
+      public boolean routes(InetAddress addr, int port) { return true; }
+
+      public int localPort() { return port; }
+
+      public void send(DatagramPacket p)
+      {
+        synchronized (rand)
+        {
+          numSent++;
+          if (lossy && rand.nextDouble() < loss) { numDropped++; return; }
+        }
+        byte[] copy = new byte[p.getLength()];
+        System.arraycopy(p.getData(), p.getOffset(), copy, 0, copy.length);
+        peer.inbound.add(copy);
+      }
+
+      protected void receive(DatagramPacket p)
+        throws IOException
+      {
+        byte[] buf;
+        try { buf = (byte[])inbound.poll(100, java.util.concurrent.TimeUnit.MILLISECONDS); }
+        catch (InterruptedException e) { throw new InterruptedIOException(); }
+        if (buf == null) throw new SocketTimeoutException();
+        System.arraycopy(buf, 0, p.getData(), 0, buf.length);
+        p.setLength(buf.length);
+        p.setAddress(HOST);
+        p.setPort(peer.port);
+      }
+
+      public void close() {}
+
+      final int port;
+      final java.util.concurrent.LinkedBlockingQueue inbound = new java.util.concurrent.LinkedBlockingQueue();
+      End peer;
+      int numSent;
+      int numDropped;
+    }
+
+    final double loss;
+    final Random rand = new Random(8);
+    final End a, b;
+    volatile boolean lossy;
+  }
+
 //////////////////////////////////////////////////////////////////////////
 // Connect
 //////////////////////////////////////////////////////////////////////////
@@ -148,6 +563,33 @@ public class DaspTest
     verify(true);            
   }                    
   
+  /**
+   * Stream datagrams without drops, they must be received in order.
+   */
+  private void verifyOrder()
+    throws Exception
+  {
+    final int n = 200;
+    Thread t = new Thread("DaspTest.order")
+    {
+      public void run()
+      {
+        try
+        {
+          for (int i=0; i<n; ++i) client.send(("order " + i).getBytes("UTF-8"));
+        }
+        catch (Exception e)
+        {
+          e.printStackTrace();
+        }
+      }
+    };
+    t.start();
+    for (int i=0; i<n; ++i)
+      verifyEq(new String(receive(10000), "UTF-8"), "order " + i);
+    t.join();
+  }
+
   private byte[] receive(long timeout)
     throws Exception
   {   
@@ -215,7 +657,10 @@ public class DaspTest
   void startServer(int qMode)
     throws Exception
   {                  
-    socket = DaspSocket.open(-1, new DaspAcceptor() 
+    DaspSocketInterface iface = group == null ?
+      (DaspSocketInterface)new DefaultDaspSocketInterface(-1) :
+      (DaspSocketInterface)new NioDaspSocketInterface(group, -1);
+    socket = DaspSocket.open(iface, new DaspAcceptor() 
     {  
       public byte[] credentials(String u)
       {                                
@@ -227,6 +672,8 @@ public class DaspTest
       {                       
         Hashtable options = new Hashtable();    
         options.put("dasp.test", new TestHooks());
+        if (lockFree) options.put("dasp.lockFree", "true");
+        if (dispatchThreads > 0) options.put("dasp.dispatchThreads", String.valueOf(dispatchThreads));
         return options;
       }            
     }, qMode);                 
@@ -340,6 +787,9 @@ public class DaspTest
   String user;         // for acceptor 
   String pass;         // for acceptor                               
   InetAddress local;   // localhost                                       
+  DaspEventLoopGroup group; // null for the default transport
+  boolean lockFree;    // open the server socket with dasp.lockFree
+  int dispatchThreads; // open the server socket with dasp.dispatchThreads
   TestHooks clientHooks;
   TestHooks serverHooks;
 
@@ -11,6 +11,8 @@ package sedonac.test;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import sedona.*;
 import sedona.Byte;
 import sedona.Short;
@@ -39,8 +41,10 @@ public class SoxTest
     verifySchema();
     verifyVersion();
     verifyLoad();              
+    verifyLoadTree();
     verifyWrite();       
     verifyInvoke();       
+    verifyAsync();
     verifyUpdate();
     verifySubscribe();
     verifyAdd();
@@ -51,6 +55,7 @@ public class SoxTest
     verifyQuery();              
     verifyFileTransfer(); 
     verifyBinaryTransfer();
+    verifyResumeTransfer();
     verifyFileRename();
     verifyClose();
   }
@@ -200,6 +205,79 @@ public class SoxTest
     verifyEq(ca.childrenIds().length, 2);
   }
 
+//////////////////////////////////////////////////////////////////////////
+// Load Tree
+//////////////////////////////////////////////////////////////////////////
+
+  private void verifyLoadTree()
+    throws Exception
+  {
+    int n = 0;
+    for (int i=0; i<=app.maxId(); ++i)
+      if (app.lookup(i) != null) n++;
+
+    // use a second client to keep the test client's cache hollow
+    SoxClient c = new SoxClient(sock, InetAddress.getLocalHost(), 1876, "admin", "pw");
+    c.connect();
+    try
+    {
+      final int[] progress = new int[1];
+      TreeLoader loader = c.loadAppTree(CONFIG|LINKS, new TreeLoader.Listener()
+      {
+        public void progress(TreeLoader l) { progress[0]++; }
+      });
+      verifyEq(loader.found(), n);
+      verifyEq(loader.loaded(), n);
+      verifyEq(loader.errors(), 0);
+      verifyEq(loader.requests(), 3*n);
+      verifyEq(loader.outstanding(), 0);
+      verifyEq(progress[0], 3*n);
+      verify(loader.requestsPerSec() > 0);
+
+      // everything is in the cache without any more requests
+      for (int i=0; i<=app.maxId(); ++i)
+      {
+        OfflineComponent x = app.lookup(i);
+        if (x == null) continue;
+        SoxComponent sc = c.cache(i);
+        verifyEq(sc.name(), x.name());
+        verifyEq(sc.parentId(), x.parent() == null ? Component.nullId : x.parent().id());
+      }
+      SoxComponent ca = c.cache(a.id());
+      verifyEq(ca.links().length, 1);
+      verifyLink(ca.links()[0], a, "b1", aa, "b2");
+      verify(c.cache(soxTestId).path().equals("/service/sox/soxtest"));
+    }
+    finally
+    {
+      c.close();
+    }
+
+    // snapshot restored on reconnect only needs the trees validated
+    File dir = new File(testDir(), "snapshot");
+    FileUtil.delete(dir, null);
+    for (int pass=0; pass<2; ++pass)
+    {
+      c = new SoxClient(sock, InetAddress.getLocalHost(), 1876, "admin", "pw");
+      c.setSnapshotDir(dir);
+      c.connect();
+      try
+      {
+        TreeLoader loader = c.loadAppTree(CONFIG|LINKS, null);
+        verifyEq(loader.loaded(), n);
+        verifyEq(loader.requests(), pass == 0 ? 3*n : n);
+        verifyEq(loader.unchanged(), pass == 0 ? 0 : n);
+        SoxComponent ca = c.cache(a.id());
+        verifyEq(ca.links().length, 1);
+        verifyLink(ca.links()[0], a, "b1", aa, "b2");
+      }
+      finally
+      {
+        c.close();
+      }
+    }
+  }
+
 //////////////////////////////////////////////////////////////////////////
 // Write
 //////////////////////////////////////////////////////////////////////////
@@ -311,6 +389,52 @@ public class SoxTest
     verifyEq(readBuf(aa, "bufA"), new Buf(new byte[] { (byte)0xca, (byte)0xfe, (byte)0xba, (byte)0xbe}));
   }
 
+//////////////////////////////////////////////////////////////////////////
+// Async
+//////////////////////////////////////////////////////////////////////////
+
+  private void verifyAsync()
+    throws Exception
+  {
+    Slot i1 = aa.type.slot("i1", true);
+    Slot s2 = aa.type.slot("s2", true);
+
+    // more invokes outstanding than there are reply numbers
+    client.write(aa.id(), i1, Int.make(0));
+    CompletableFuture[] invokes = new CompletableFuture[300];
+    for (int i=0; i<invokes.length; ++i)
+      invokes[i] = client.invokeAsync(aa.id(), aa.type.slot("incI1", true), null);
+    CompletableFuture.allOf(invokes).get();
+    verifyEq(readInt(aa, "i1"), 300);
+
+    // requests are processed in the order sent
+    CompletableFuture<Void> write = client.writeAsync(aa.id(), s2, sedona.Short.make(4321));
+    CompletableFuture<Value> read = client.readPropAsync(aa.id(), s2);
+    verifyEq(((sedona.Short)read.get()).val, 4321);
+    verify(write.isDone());
+
+    // sync calls proceed while async ones are outstanding
+    read = client.readPropAsync(aa.id(), i1);
+    verifyEq(readShort(aa, "s2"), 4321);
+    verifyEq(((Int)read.get()).val, 300);
+
+    // load
+    SoxComponent[] comps = client.loadAsync(new int[] { a.id(), aa.id(), b.id() }).get();
+    verifyEq(comps.length, 3);
+    verifyEq(comps[0].name(), "a");
+    verifyEq(comps[1].name(), "aa");
+    verifyEq(comps[2].name(), "b");
+
+    // error responses
+    comps = client.loadAsync(new int[] { 9999, a.id() }, false).get();
+    verify(comps[0] == null);
+    verifyEq(comps[1].name(), "a");
+    Throwable ex = null;
+    try { client.loadAsync(new int[] { 9999 }).get(); } catch (ExecutionException e) { ex = e.getCause(); }
+    verify(ex instanceof SoxException);
+    verify(!client.isClosed());
+  }
+
 //////////////////////////////////////////////////////////////////////////
 // Update
 //////////////////////////////////////////////////////////////////////////
@@ -1057,6 +1181,111 @@ public class SoxTest
   
   private SoxFile memFile(String s) { return SoxFile.make(new Buf(s.getBytes())); }
 
+  private void verifyResumeTransfer()
+    throws Exception
+  {
+    // write test file of 100 chunks to app's directory
+    StringBuffer sb = new StringBuffer();
+    for (int i=0; i<5000; ++i) sb.append((char)('a'+(i%26)));
+    String data = sb.toString();
+    File f = new File(testDir(), "resume.txt");
+    PrintWriter out = new PrintWriter( openFileWriter(f) );
+    out.print(data);
+    out.close();
+
+    Properties reqProps = new Properties();
+    reqProps.put("chunkSize", "50");
+    reqProps.put("resume", "true");
+
+    // get with a second client closed half way through
+    File g = new File(testDir(), "resume-get.txt");
+    File state = new File(g.getPath() + ".xfer");
+    g.delete();
+    state.delete();
+    interruptTransfer(GETFILE, "resume.txt", SoxFile.make(g), reqProps);
+    verify(state.exists());
+
+    // get only the missing chunks
+    client.getFile("resume.txt", SoxFile.make(g), reqProps, null);
+    TransferStats stats = client.transferStats();
+    verify(stats.isOk());
+    verify(stats.resumed() >= 50);
+    verify(stats.chunks() <= 50);
+    verifyEq(stats.numChunks(), 100);
+    verifyEq(data, readToStr(g));
+    verify(!state.exists());
+
+    // the state of a get whose local file is gone is dropped
+    g.delete();
+    interruptTransfer(GETFILE, "resume.txt", SoxFile.make(g), reqProps);
+    verify(state.exists());
+    g.delete();
+    client.getFile("resume.txt", SoxFile.make(g), reqProps, null);
+    stats = client.transferStats();
+    verify(stats.isOk());
+    verifyEq(stats.resumed(), 0);
+    verifyEq(stats.chunks(), 100);
+    verifyEq(data, readToStr(g));
+    verify(!state.exists());
+
+    // put interrupted half way through, then only the missing chunks
+    File p = new File(testDir(), "resume-put.txt");
+    File putState = new File(f.getPath() + ".xfer");
+    p.delete();
+    putState.delete();
+    interruptTransfer(PUTFILE, "resume-put.txt", SoxFile.make(f), reqProps);
+    verify(putState.exists());
+    Thread.sleep(100); // give server a chance to close
+    client.putFile("resume-put.txt", SoxFile.make(f), reqProps, null);
+    stats = client.transferStats();
+    verify(stats.isOk());
+    verify(stats.isPut());
+    verify(stats.resumed() >= 50);
+    verify(stats.chunks() <= 50);
+    verify(!putState.exists());
+    Thread.sleep(100); // give server a chance to close
+    verifyEq(data, readToStr(p));
+
+    // put from a memory mapped file
+    client.putFile("resume-put.txt", SoxFile.makeMapped(f), reqProps, null);
+    stats = client.transferStats();
+    verify(stats.isPut());
+    verifyEq(stats.bytes(), f.length());
+    Thread.sleep(100); // give server a chance to close
+    verifyEq(data, readToStr(p));
+  }
+
+  /**
+   * Run a resumable transfer with a second client
+   * which is closed half way through it.
+   */
+  private void interruptTransfer(int which, String uri, SoxFile file, Properties reqProps)
+    throws Exception
+  {
+    final SoxClient c = new SoxClient(sock, InetAddress.getLocalHost(), 1876, "admin", "pw");
+    c.connect();
+    ISoxComm.TransferListener listener = new ISoxComm.TransferListener()
+    {
+      public void progress(int soFar, int total) { if (soFar*2 >= total) c.close(); }
+    };
+    Exception ex = null;
+    try
+    {
+      if (which == GETFILE) c.getFile(uri, file, reqProps, listener);
+      else c.putFile(uri, file, reqProps, listener);
+    }
+    catch (Exception e)
+    {
+      ex = e;
+    }
+    finally
+    {
+      c.close();
+    }
+    verify(ex != null);
+    verify(!c.transferStats().isOk());
+  }
+
   private void verifyFileNotFound()
     throws Exception
   {
@@ -16,7 +16,6 @@ import sedonac.namespace.StubType;
 import sedonac.namespace.Type;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.Date;
@@ -45,14 +44,15 @@ public abstract class AbstractKitTranslator extends CompilerSupport {
             throws IOException {
         File file = toFile();
         log.debug("    Translate [" + file + "]");
-        out = new PrintWriter(new FileWriter(file));
+        TranslationOutput output = new TranslationOutput(compiler.translation, file);
+        out = output;
         try {
             header(getHeaderText());
             doTranslate();
-            log.debug("    Wrote [" + file.getAbsolutePath() + "]");
         } finally {
             out.close();
         }
+        output.commit(compiler.translation, log);
     }
 
     /**
@@ -70,10 +70,19 @@ public abstract class AbstractKitTranslator extends CompilerSupport {
         w(" * " + COPY_RIGHT).nl();
         w(" * Tag      : $Id$").nl();
         w(" * Namespace: " + kit.name).nl();
-        w(" * Generated: " + new Date()).nl();
+        generated(" * Generated: " + new Date());
         w(" *********************************************************/").nl().nl();
     }
 
+    /**
+     * Writes the timestamp line of a file header. The line is ignored when checking
+     * for unchanged files, and omitted if the translation uses a stable header.
+     * @param line the line to write
+     */
+    protected void generated(String line) {
+        TranslationOutput.generated(compiler.translation, out, line);
+    }
+
     //region Output
     public AbstractKitTranslator w(Object s) {
         out.print(s);
@@ -59,14 +59,15 @@ public abstract class AbstractTranslator
 
         File file = toFile();
         log.debug("    Translate [" + file + "]");
-        out = new PrintWriter(new FileWriter(file));
+        TranslationOutput output = new TranslationOutput(compiler.translation, file);
+        out = output;
         try {
             header();
             doTranslate();
-            log.debug("    Wrote [" + file.getAbsolutePath() + "]");
         } finally {
             out.close();
         }
+        output.commit(compiler.translation, log);
     }
 
     public abstract File toFile();
@@ -102,10 +103,19 @@ public abstract class AbstractTranslator
     public void header() {
         w("//").nl();
         w("// sedonac translation").nl();
-        w("// " + Env.timestamp()).nl();
+        generated("// " + Env.timestamp());
         w("//").nl();
         nl();
     }
+
+    /**
+     * Writes the timestamp line of a file header. The line is ignored when checking
+     * for unchanged files, and omitted if the translation uses a stable header.
+     * @param line the line to write
+     */
+    protected void generated(String line) {
+        TranslationOutput.generated(compiler.translation, out, line);
+    }
     //endregion
 
 
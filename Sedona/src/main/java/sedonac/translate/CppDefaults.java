@@ -56,14 +56,37 @@ public class CppDefaults {
     public static final String COPY_RIGHT = "(C) My Company 2019";
 
     //region Options
-    private static CppOptions cppOptions;
+    /**
+     * Options of the translation running on the current thread. Translations (and the
+     * worker threads of a parallel translation) bind their own options, so concurrent
+     * translations with different options don't interfere.
+     */
+    private static final ThreadLocal<CppOptions> cppOptions = new ThreadLocal<>();
+
+    /**
+     * Options used if no translation is bound to the current thread.
+     */
+    private static final CppOptions DEFAULT_OPTIONS = new CppOptions();
 
+    /**
+     * Gets the C++ options of the translation bound to the current thread.
+     * @return the options, or the default options if none are bound
+     */
     public static CppOptions getCppOptions() {
-        return cppOptions;
+        CppOptions options = cppOptions.get();
+        return options != null ? options : DEFAULT_OPTIONS;
     }
 
-    public static void setCppOptions(CppOptions cppOptions) {
-        CppDefaults.cppOptions = cppOptions;
+    /**
+     * Binds the C++ options of a translation to the current thread.
+     * @param options the options, or null to unbind them
+     */
+    public static void setCppOptions(CppOptions options) {
+        if (options != null) {
+            cppOptions.set(options);
+        } else {
+            cppOptions.remove();
+        }
     }
     //endregion
 
@@ -73,7 +96,7 @@ public class CppDefaults {
      * @return the array type
      */
     static String getStdVarArrayType() {
-        return getStdVarArrayType(cppOptions.requiresNamespaceInSource());
+        return getStdVarArrayType(getCppOptions().requiresNamespaceInSource());
     }
 
     /**
@@ -118,7 +141,7 @@ public class CppDefaults {
      * @return the string type
      */
     public static String getStringType() {
-        return getStringType(cppOptions.requiresNamespaceInSource());
+        return getStringType(getCppOptions().requiresNamespaceInSource());
     }
 
     /**
@@ -135,7 +158,7 @@ public class CppDefaults {
      * @return the file extension
      */
     static String getSourceExtension() {
-        return cppOptions.getSourceExt();
+        return getCppOptions().getSourceExt();
     }
 
     /**
@@ -143,7 +166,7 @@ public class CppDefaults {
      * @return the file extension
      */
     static String getHeaderExtension() {
-        return cppOptions.getHeaderExt();
+        return getCppOptions().getHeaderExt();
     }
 
     /**
@@ -151,7 +174,7 @@ public class CppDefaults {
      * @return the file extension
      */
     static String getObjectFileExtension() {
-        return cppOptions.getObjectExt();
+        return getCppOptions().getObjectExt();
     }
 
     private CppDefaults() {
@@ -130,7 +130,7 @@ public class CppMakefileTranslator extends AbstractCppKitTranslator {
         w("# " + COPY_RIGHT).nl();
         w("# Tag      : $Id$").nl();
         w("# Namespace: " + kit.name).nl();
-        w("# Generated: " + new Date()).nl();
+        generated("# Generated: " + new Date());
         w("##########################################################/").nl().nl();
     }
 
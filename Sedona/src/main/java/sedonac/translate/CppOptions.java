@@ -27,12 +27,22 @@ public class CppOptions {
     /** If true, error check is disabled - USE WITH CARE! */
     private boolean disableErrorCheck = false;
 
+    /** If true, files whose content didn't change are not rewritten (and keep their timestamp) */
+    private boolean skipUnchanged = true;
+    /** If true, no 'generated' timestamp is written into the file headers */
+    private boolean stableHeader = false;
+
     /**
      * Prefix for class members
      */
     private String memberPrefix = "";
     private String memberPostfix = "_";
 
+    /**
+     * Sedona to C++ type mapping for these options, created on first use
+     */
+    private CppTypeMap typeMap;
+
     public CppOptions() {
     }
 
@@ -66,6 +76,7 @@ public class CppOptions {
 
     public void setUsingStd(boolean usingStd) {
         this.usingStd = usingStd;
+        this.typeMap = null;
     }
 
     public String getMemberPrefix() {
@@ -108,6 +119,34 @@ public class CppOptions {
         this.disableErrorCheck = disableErrorCheck;
     }
 
+    public boolean isSkipUnchanged() {
+        return skipUnchanged;
+    }
+
+    public void setSkipUnchanged(boolean skipUnchanged) {
+        this.skipUnchanged = skipUnchanged;
+    }
+
+    public boolean isStableHeader() {
+        return stableHeader;
+    }
+
+    public void setStableHeader(boolean stableHeader) {
+        this.stableHeader = stableHeader;
+    }
+
+    /**
+     * Gets the Sedona to C++ type mapping for these options. It is created once per
+     * options instance (i. e. per translation) and shared by all worker threads.
+     * @return the type map
+     */
+    synchronized CppTypeMap getTypeMap() {
+        if (typeMap == null) {
+            typeMap = new CppTypeMap(this);
+        }
+        return typeMap;
+    }
+
     @Override
     public String toString() {
         return "C++ {" +
@@ -118,6 +157,8 @@ public class CppOptions {
                 ", disableErrorCheck=" + disableErrorCheck +
                 ", impl=" + generateMethodImpl +
                 ", tests=" + generateTests +
+                ", skipUnchanged=" + skipUnchanged +
+                ", stableHeader=" + stableHeader +
                 ", prefix='" + memberPrefix + '\'' +
                 ", postfix='" + memberPostfix + '\'' +
                 '}';
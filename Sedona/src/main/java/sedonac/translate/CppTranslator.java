@@ -161,7 +161,7 @@ public class CppTranslator extends CTranslator {
         w(" * Tag      : $Id$").nl();
         w(" * Namespace: " + type.kit.name).nl();
         w(" * Class    : " + type.name).nl();
-        w(" * Generated: " + new Date()).nl();
+        generated(" * Generated: " + new Date());
         w(" *********************************************************/").nl().nl();
     }
 
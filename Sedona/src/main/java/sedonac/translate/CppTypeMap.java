@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2007 Tridium, Inc.
+ * Copyright (c) 2019. Oliver Wieland (translation support)
+ * Licensed under the Academic Free License version 3.0
+ *
+ */
+
+package sedonac.translate;
+
+import java.util.HashMap;
+
+/**
+ * Maps Sedona types and literals to their C++ counterparts. The mapping depends on the
+ * {@link CppOptions} (e. g. whether 'std::' is required in source files), so every
+ * translation owns its own instance via {@link CppOptions#getTypeMap()}. The maps are
+ * filled in the constructor and only read afterwards, so an instance can be shared by
+ * the worker threads of a translation.
+ */
+class CppTypeMap {
+    final HashMap<String, String> sedonaBaseClasses = new HashMap<>();
+    final HashMap<String, String> sedonaToCppTypes = new HashMap<>();
+    final HashMap<String, String> sedonaToCppLiterals = new HashMap<>();
+
+    CppTypeMap(CppOptions options) {
+        final boolean withNamespace = options.requiresNamespaceInSource();
+
+        //sedonaToCppTypes.put("sys::Buf", CppDefaults.STRING_TYPE);
+        sedonaToCppTypes.put("sys::Str", CppDefaults.getStringType(withNamespace));
+        /*
+        sedonaToCppTypes.put("sys::InStream", CppDefaults.STD_NS + "istream");
+        sedonaToCppTypes.put("sys::OutStream", CppDefaults.STD_NS + "ostream");
+        sedonaToCppTypes.put("sys::BufInStream", CppDefaults.STD_NS + "istringstream");
+        sedonaToCppTypes.put("sys::BufOutStream", CppDefaults.STD_NS + "ostringstream");
+        sedonaToCppTypes.put("sys::StdOutStream", CppDefaults.STD_NS + "ostringstream");
+        sedonaToCppTypes.put("sys::NullInStream", CppDefaults.STD_NS + "istream");
+        sedonaToCppTypes.put("sys::NullOutStream", CppDefaults.STD_NS + "ostream");
+        sedonaToCppTypes.put("sys::FileInStream", CppDefaults.STD_NS + "ifstream");
+        sedonaToCppTypes.put("sys::FileOutStream", CppDefaults.STD_NS + "ofstream");
+        */
+
+        sedonaToCppTypes.put("sys::File", CppDefaults.STD_NS + "fstream");
+        sedonaToCppTypes.put("sys::FileStore", CppDefaults.STD_NS + "fstream");
+        sedonaToCppTypes.put("sys::MemoryFile", CppDefaults.STD_NS + "fstream");
+        sedonaToCppTypes.put("sys::MemoryFileStore", CppDefaults.STD_NS + "fstream");
+
+        // This eases up compile, but should be removed later
+        sedonaToCppTypes.put("sys::Type", CppDefaults.getStringType(withNamespace));
+
+        sedonaBaseClasses.put("sys::Buf", CppDefaults.getStdVarArrayType(withNamespace) + "<uint8_t>");
+
+        // FIXME: Remove fields in FilterRedundantTypes
+        sedonaToCppTypes.put("sys::Obj", null);
+        sedonaToCppTypes.put("sys::Units", null);
+        sedonaToCppTypes.put("sys::Virtual", null);
+
+        sedonaToCppLiterals.put("null", CppDefaults.CPP_NULL_LITERAL);
+        sedonaToCppLiterals.put("sizeof", "sizeOf");
+        sedonaToCppLiterals.put("or", "opRead");
+        sedonaToCppLiterals.put("ow", "opWrite");
+        sedonaToCppLiterals.put("oi", "opInvoke");
+        sedonaToCppLiterals.put("ar", "admRead");
+        sedonaToCppLiterals.put("aw", "admWrite");
+        sedonaToCppLiterals.put("ai", "admInvoke");
+    }
+}
@@ -240,7 +240,7 @@ public class PlantUmlTranslator extends AbstractCppKitTranslator {
         w("' " + COPY_RIGHT).nl();
         w("' Tag      : $Id$").nl();
         w("' Namespace: " + kit.name).nl();
-        w("' Generated: " + new Date()).nl();
+        generated("' Generated: " + new Date());
 
     }
 
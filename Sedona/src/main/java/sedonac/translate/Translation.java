@@ -12,6 +12,7 @@ package sedonac.translate;
 
 import java.io.*;
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import sedonac.ast.*;
 
@@ -29,6 +30,10 @@ public class Translation
 
   public CppOptions cppOptions = new CppOptions();
 
+  // output files written and skipped as unchanged (see TranslationOutput)
+  public final AtomicInteger filesWritten = new AtomicInteger();
+  public final AtomicInteger filesUnchanged = new AtomicInteger();
+
   public boolean isCpp() {
     return "c++".equals(target) || "cpp".equals(target);
   }
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2007 Tridium, Inc.
+ * Licensed under the Academic Free License version 3.0
+ *
+ */
+
+package sedonac.translate;
+
+import java.io.*;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import sedonac.CompilerLog;
+
+/**
+ * Writer for a translated file. The content is rendered into a buffer and only written to the
+ * file by {@link #commit()} if it differs from the existing file, so unchanged files keep their
+ * modification time and make/CMake only rebuild the translation units which actually changed.
+ * Lines written with {@link #volatileLine(String)} (such as 'Generated: ...' timestamps) are
+ * ignored by the comparison. Files are written and compared as UTF-8.
+ */
+public class TranslationOutput extends PrintWriter {
+
+    static final Charset CHARSET = StandardCharsets.UTF_8;
+
+    /**
+     * Creates the output for a file of the given translation, honoring its '-skipUnchanged' option.
+     */
+    public TranslationOutput(Translation translation, File file) {
+        this(file, translation.cppOptions.isSkipUnchanged());
+    }
+
+    public TranslationOutput(File file, boolean skipUnchanged) {
+        this(new StringWriter(), file, skipUnchanged);
+    }
+
+    private TranslationOutput(StringWriter buf, File file, boolean skipUnchanged) {
+        super(buf);
+        this.buf = buf;
+        this.file = file;
+        this.skipUnchanged = skipUnchanged;
+    }
+
+    /**
+     * Writes a line which changes on every run and shall not count as a content change.
+     * @param line the line without line separator
+     */
+    public void volatileLine(String line) {
+        flush();
+        volatileLines.set(countLines(buffer()));
+        println(line);
+    }
+
+    /**
+     * Writes the timestamp line of a file header: as volatile line if the output is a
+     * TranslationOutput, and not at all if the translation uses a stable header.
+     * @param translation the translation the file belongs to
+     * @param out the output of the file
+     * @param line the line without line separator
+     */
+    public static void generated(Translation translation, PrintWriter out, String line) {
+        if (translation.cppOptions.isStableHeader()) {
+            return;
+        }
+        if (out instanceof TranslationOutput) {
+            ((TranslationOutput) out).volatileLine(line);
+        } else {
+            out.println(line);
+        }
+    }
+
+    /**
+     * Writes the buffered content to the file, unless the file already has the same content.
+     * @return true, if the file was written; false if it was unchanged
+     * @throws IOException if the file cannot be written
+     */
+    public boolean commit() throws IOException {
+        close();
+        String content = buffer();
+        if (skipUnchanged && file.isFile() && sameContent(content)) {
+            return false;
+        }
+        Writer w = new OutputStreamWriter(new FileOutputStream(file), CHARSET);
+        try {
+            w.write(content);
+        } finally {
+            w.close();
+        }
+        return true;
+    }
+
+    /**
+     * Commits the output and counts the file as written or unchanged in the translation.
+     * @param translation the translation the file belongs to
+     * @param log the log to report the file to
+     * @return true, if the file was written; false if it was unchanged
+     * @throws IOException if the file cannot be written
+     */
+    public boolean commit(Translation translation, CompilerLog log) throws IOException {
+        if (commit()) {
+            translation.filesWritten.incrementAndGet();
+            log.debug("    Wrote [" + file.getAbsolutePath() + "]");
+            return true;
+        }
+        translation.filesUnchanged.incrementAndGet();
+        log.debug("    Unchanged [" + file.getAbsolutePath() + "]");
+        return false;
+    }
+
+    private boolean sameContent(String content) throws IOException {
+        List<String> existing;
+        try {
+            existing = Files.readAllLines(file.toPath(), CHARSET);
+        } catch (CharacterCodingException e) {
+            // not written by us (or by an older sedonac with another charset)
+            return false;
+        }
+        List<String> rendered = lines(content);
+        if (existing.size() != rendered.size()) {
+            return false;
+        }
+        for (int i = 0; i < rendered.size(); ++i) {
+            if (!volatileLines.get(i) && !rendered.get(i).equals(existing.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<String> lines(String s) throws IOException {
+        List<String> lines = new ArrayList<>();
+        BufferedReader in = new BufferedReader(new StringReader(s));
+        for (String line = in.readLine(); line != null; line = in.readLine()) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    private static int countLines(String s) {
+        int n = 0;
+        for (int i = 0; i < s.length(); ++i) {
+            if (s.charAt(i) == '\n') ++n;
+        }
+        return n;
+    }
+
+    private String buffer() {
+        return buf.toString();
+    }
+
+    private final StringWriter buf;
+    private final File file;
+    private final boolean skipUnchanged;
+    private final BitSet volatileLines = new BitSet();
+}
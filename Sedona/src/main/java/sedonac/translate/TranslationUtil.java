@@ -92,51 +92,11 @@ public class TranslationUtil {
     //endregion
 
     //region C++ support
-    private static HashMap<String, String> sedonaBaseClasses;
-    private static HashMap<String, String> sedonaToCppTypes;
-    private static HashMap<String, String> sedonaToCppLiterals;
-
-    static {
-        sedonaToCppTypes = new HashMap<>();
-        //sedonaToCppTypes.put("sys::Buf", CppDefaults.STRING_TYPE);
-        sedonaToCppTypes.put("sys::Str", CppDefaults.getStringType());
-        /*
-        sedonaToCppTypes.put("sys::InStream", CppDefaults.STD_NS + "istream");
-        sedonaToCppTypes.put("sys::OutStream", CppDefaults.STD_NS + "ostream");
-        sedonaToCppTypes.put("sys::BufInStream", CppDefaults.STD_NS + "istringstream");
-        sedonaToCppTypes.put("sys::BufOutStream", CppDefaults.STD_NS + "ostringstream");
-        sedonaToCppTypes.put("sys::StdOutStream", CppDefaults.STD_NS + "ostringstream");
-        sedonaToCppTypes.put("sys::NullInStream", CppDefaults.STD_NS + "istream");
-        sedonaToCppTypes.put("sys::NullOutStream", CppDefaults.STD_NS + "ostream");
-        sedonaToCppTypes.put("sys::FileInStream", CppDefaults.STD_NS + "ifstream");
-        sedonaToCppTypes.put("sys::FileOutStream", CppDefaults.STD_NS + "ofstream");
-        */
-
-        sedonaToCppTypes.put("sys::File", CppDefaults.STD_NS + "fstream");
-        sedonaToCppTypes.put("sys::FileStore", CppDefaults.STD_NS + "fstream");
-        sedonaToCppTypes.put("sys::MemoryFile", CppDefaults.STD_NS + "fstream");
-        sedonaToCppTypes.put("sys::MemoryFileStore", CppDefaults.STD_NS + "fstream");
-
-        // This eases up compile, but should be removed later
-        sedonaToCppTypes.put("sys::Type", CppDefaults.getStringType());
-
-        sedonaBaseClasses = new HashMap<>();
-        sedonaBaseClasses.put("sys::Buf", CppDefaults.getStdVarArrayType() + "<uint8_t>");
-
-        // FIXME: Remove fields in FilterRedundantTypes
-        sedonaToCppTypes.put("sys::Obj", null);
-        sedonaToCppTypes.put("sys::Units", null);
-        sedonaToCppTypes.put("sys::Virtual", null);
-
-        sedonaToCppLiterals = new HashMap<>();
-        sedonaToCppLiterals.put("null", CppDefaults.CPP_NULL_LITERAL);
-        sedonaToCppLiterals.put("sizeof", "sizeOf");
-        sedonaToCppLiterals.put("or", "opRead");
-        sedonaToCppLiterals.put("ow", "opWrite");
-        sedonaToCppLiterals.put("oi", "opInvoke");
-        sedonaToCppLiterals.put("ar", "admRead");
-        sedonaToCppLiterals.put("aw", "admWrite");
-        sedonaToCppLiterals.put("ai", "admInvoke");
+    /**
+     * Gets the type map of the translation bound to the current thread.
+     */
+    private static CppTypeMap typeMap() {
+        return CppDefaults.getCppOptions().getTypeMap();
     }
 
     /**
@@ -146,7 +106,7 @@ public class TranslationUtil {
      * @return the replaced or the original type
      */
     public static boolean isCppType(String typeName) {
-        return sedonaToCppTypes.containsKey(typeName);
+        return typeMap().sedonaToCppTypes.containsKey(typeName);
     }
 
 
@@ -157,7 +117,7 @@ public class TranslationUtil {
      * @return the replaced or the original type
      */
     public static String toCppType(String typeName) {
-        return sedonaToCppTypes.getOrDefault(typeName, typeName);
+        return typeMap().sedonaToCppTypes.getOrDefault(typeName, typeName);
     }
 
     /**
@@ -167,7 +127,7 @@ public class TranslationUtil {
      * @return the replaced or the original type
      */
     static String toCppBaseType(String typeName, String defaultBaseType) {
-        return sedonaBaseClasses.getOrDefault(typeName, defaultBaseType);
+        return typeMap().sedonaBaseClasses.getOrDefault(typeName, defaultBaseType);
     }
 
     /**
@@ -177,7 +137,7 @@ public class TranslationUtil {
      * @return true, if given shall use a different base type
      */
     static boolean hasCppBaseType(String typeName) {
-        return sedonaBaseClasses.containsKey(typeName);
+        return typeMap().sedonaBaseClasses.containsKey(typeName);
     }
 
     /**
@@ -187,7 +147,7 @@ public class TranslationUtil {
      * @return the replaced or the original literal
      */
     static String toCppLiteral(String literal) {
-        return sedonaToCppLiterals.getOrDefault(literal, literal);
+        return typeMap().sedonaToCppLiterals.getOrDefault(literal, literal);
     }
     //endregion
 
@@ -0,0 +1,180 @@
+//
+// Copyright (c) 2007 Tridium, Inc.
+// Licensed under the Academic Free License version 3.0
+//
+
+package sedonac.util;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+import sedona.kit.*;
+import sedona.util.FileUtil;
+import sedona.xml.*;
+import sedonac.*;
+import sedonac.Compiler;
+import sedonac.ir.*;
+
+/**
+ * IrBenchmark compares the time to load the IR of a set of kits
+ * from the text ".ir" format (IrReader) versus the binary ".irb"
+ * format (IrBinaryReader).  The zip entries are read into memory
+ * up front so only the decode is timed.  Kits compiled before the
+ * binary format existed are converted in memory from their text IR.
+ *
+ * usage: IrBenchmark [-n iterations] [kitName|kitFile]*
+ * If no kits are specified then every kit in the kit database is used.
+ */
+public class IrBenchmark
+{
+
+  public static void main(String[] args)
+    throws Exception
+  {
+    int iterations = 20;
+    ArrayList files = new ArrayList();
+    for (int i=0; i<args.length; ++i)
+    {
+      if (args[i].equals("-n") && i+1 < args.length)
+        iterations = Integer.parseInt(args[++i]);
+      else if (args[i].endsWith(".kit"))
+        files.add(new File(args[i]));
+      else
+      {
+        KitFile kf = KitDb.matchBest(args[i]);
+        if (kf == null) { System.out.println("ERROR: Unknown kit: " + args[i]); return; }
+        files.add(kf.file);
+      }
+    }
+    if (files.size() == 0)
+    {
+      String[] kits = KitDb.kits();
+      for (int i=0; i<kits.length; ++i)
+      {
+        KitFile kf = KitDb.matchBest(kits[i]);
+        if (kf != null) files.add(kf.file);
+      }
+    }
+
+    Compiler compiler = new Compiler();
+    ArrayList kits = new ArrayList();
+    long textBytes = 0, binaryBytes = 0;
+    for (int i=0; i<files.size(); ++i)
+    {
+      Entries e = load(compiler, (File)files.get(i));
+      kits.add(e);
+      for (int j=0; j<e.text.length; ++j)
+      {
+        textBytes += e.text[j].length;
+        binaryBytes += e.binary[j].length;
+      }
+    }
+
+    System.out.println("IrBenchmark: " + files.size() + " kits, " + iterations + " iterations");
+    System.out.println("  text:   " + textBytes + " bytes");
+    System.out.println("  binary: " + binaryBytes + " bytes");
+
+    // warm up both paths before timing
+    run(compiler, kits, false, 3);
+    run(compiler, kits, true, 3);
+
+    long textTime = run(compiler, kits, false, iterations);
+    long binaryTime = run(compiler, kits, true, iterations);
+    System.out.println("  text:   " + (textTime / iterations) + "us/iteration");
+    System.out.println("  binary: " + (binaryTime / iterations) + "us/iteration");
+    if (binaryTime > 0)
+      System.out.println("  speedup: " + (textTime * 100 / binaryTime / 100.0) + "x");
+  }
+
+  /**
+   * Decode every type of every kit the specified number of
+   * times and return the total elapsed time in microseconds.
+   */
+  static long run(Compiler compiler, ArrayList kits, boolean binary, int iterations)
+  {
+    long t1 = System.nanoTime();
+    for (int n=0; n<iterations; ++n)
+    {
+      for (int i=0; i<kits.size(); ++i)
+      {
+        Entries e = (Entries)kits.get(i);
+        IrKit kit = new IrKit(new Location(e.file), e.kitName);
+        for (int j=0; j<e.names.length; ++j)
+        {
+          Location loc = new Location(e.names[j]);
+          if (binary)
+            new IrBinaryReader(compiler, loc, e.binary[j]).readType(kit);
+          else
+            new IrReader(compiler, loc, new ByteArrayInputStream(e.text[j])).readType(kit);
+        }
+      }
+    }
+    return (System.nanoTime() - t1) / 1000L;
+  }
+
+  /**
+   * Read the text and binary IR entries of a kit file into memory.
+   * The kit is named from its manifest rather than the file name
+   * since the readers special case the "sys" kit (sys::Obj has
+   * no base type).
+   */
+  static Entries load(Compiler compiler, File file)
+    throws Exception
+  {
+    HashMap text = new HashMap();
+    HashMap binary = new HashMap();
+    String kitName = null;
+    ZipFile zip = new ZipFile(file);
+    try
+    {
+      ZipEntry manifest = zip.getEntry("manifest.xml");
+      if (manifest == null) throw new IOException("Missing 'manifest.xml' manifest: " + file);
+      kitName = XParser.make(file.getPath(), zip.getInputStream(manifest)).parse().get("name");
+
+      Enumeration it = zip.entries();
+      while (it.hasMoreElements())
+      {
+        ZipEntry entry = (ZipEntry)it.nextElement();
+        String name = entry.getName();
+        if (name.endsWith(".ir"))
+          text.put(name.substring(0, name.length()-3), FileUtil.read(zip.getInputStream(entry), entry.getSize()));
+        else if (name.endsWith(".irb"))
+          binary.put(name.substring(0, name.length()-4), FileUtil.read(zip.getInputStream(entry), entry.getSize()));
+      }
+    }
+    finally
+    {
+      zip.close();
+    }
+
+    Entries e = new Entries();
+    e.file    = file;
+    e.kitName = kitName;
+    e.names   = (String[])text.keySet().toArray(new String[text.size()]);
+    e.text    = new byte[e.names.length][];
+    e.binary  = new byte[e.names.length][];
+    IrKit kit = new IrKit(new Location(file), kitName);
+    for (int i=0; i<e.names.length; ++i)
+    {
+      e.text[i] = (byte[])text.get(e.names[i]);
+      e.binary[i] = (byte[])binary.get(e.names[i]);
+      if (e.binary[i] == null)
+      {
+        Location loc = new Location(file.getPath() + "|" + e.names[i] + ".ir");
+        IrType t = new IrReader(compiler, loc, new ByteArrayInputStream(e.text[i])).readType(kit);
+        e.binary[i] = IrBinaryWriter.encode(t);
+      }
+    }
+    return e;
+  }
+
+  static class Entries
+  {
+    File file;
+    String kitName;
+    String[] names;
+    byte[][] text;
+    byte[][] binary;
+  }
+
+}
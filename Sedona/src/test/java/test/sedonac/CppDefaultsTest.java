@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2007 Tridium, Inc.
+ * Licensed under the Academic Free License version 3.0
+ *
+ */
+
+package test.sedonac;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+import sedonac.translate.CppDefaults;
+import sedonac.translate.CppOptions;
+import sedonac.translate.TranslationUtil;
+
+import java.util.concurrent.*;
+
+/**
+ * Checks that the C++ options and type mapping are bound per translation (thread),
+ * so that translations with different options can run concurrently.
+ */
+public class CppDefaultsTest {
+
+    @AfterMethod
+    public void unbind() {
+        CppDefaults.setCppOptions(null);
+    }
+
+    @Test
+    public void testDefaultOptions() {
+        Assert.assertNotNull(CppDefaults.getCppOptions());
+        Assert.assertEquals(CppDefaults.getStringType(), "string");
+    }
+
+    @Test
+    public void testTypeMapFollowsOptions() {
+        CppDefaults.setCppOptions(options(true));
+        Assert.assertEquals(TranslationUtil.toCppType("sys::Str"), "string");
+
+        CppDefaults.setCppOptions(options(false));
+        Assert.assertEquals(TranslationUtil.toCppType("sys::Str"), "std::string");
+        Assert.assertEquals(TranslationUtil.toCppType("my::Foo"), "my::Foo");
+    }
+
+    @Test
+    public void testConcurrentTranslations() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> withStd = pool.submit(new TypeOf(options(true)));
+            Future<String> withoutStd = pool.submit(new TypeOf(options(false)));
+            Assert.assertEquals(withStd.get(), "string");
+            Assert.assertEquals(withoutStd.get(), "std::string");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static CppOptions options(boolean usingStd) {
+        CppOptions options = new CppOptions();
+        options.setUsingStd(usingStd);
+        return options;
+    }
+
+    private static class TypeOf implements Callable<String> {
+        TypeOf(CppOptions options) {
+            this.options = options;
+        }
+
+        public String call() {
+            CppDefaults.setCppOptions(options);
+            try {
+                String result = null;
+                for (int i = 0; i < 1000; ++i) {
+                    result = TranslationUtil.toCppType("sys::Str");
+                }
+                return result;
+            } finally {
+                CppDefaults.setCppOptions(null);
+            }
+        }
+
+        final CppOptions options;
+    }
+
+}
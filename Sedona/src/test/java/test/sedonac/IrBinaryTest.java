@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2007 Tridium, Inc.
+ * Licensed under the Academic Free License version 3.0
+ *
+ */
+
+package test.sedonac;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import sedona.Facets;
+import sedonac.Compiler;
+import sedonac.Location;
+import sedonac.ast.Expr;
+import sedonac.ir.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+
+/**
+ * Checks that the text IR (IrWriter/IrReader) and the binary IR
+ * (IrBinaryWriter/IrBinaryReader) decode to the same IrTypes.
+ */
+public class IrBinaryTest {
+
+    static final String OBJ =
+            "@niagaraIcon=\"obj.png\"\n" +
+            "public abstract class Obj\n" +
+            "{\n" +
+            "  native int hashCode() = 0::1\n" +
+            "  abstract void run()\n" +
+            "  virtual void go(int,sys::Str)\n" +
+            "  {\n" +
+            "    .maxLocals = 2\n" +
+            "    0:   LoadParam0\n" +
+            "    1:   LoadIntU1 3\n" +
+            "    3:   Call sys::Obj.hashCode\n" +
+            "    6:   ReturnVoid\n" +
+            "  }\n" +
+            "  define int Max = 5\n" +
+            "  define sys::Str Name = \"obj\"\n" +
+            "  private static inline sys::Buf buf\n" +
+            "  {\n" +
+            "    .ctorLengthParam = 1\n" +
+            "    .ctorLengthArg = 8\n" +
+            "  }\n" +
+            "  protected int[4] arr\n" +
+            "}\n";
+
+    static final String COMPONENT =
+            "internal const final class Component extends sys::Obj\n" +
+            "{\n" +
+            "  @config\n" +
+            "  @min=0\n" +
+            "  property float level\n" +
+            "  property sys::Buf data\n" +
+            "  action void reset()\n" +
+            "  {\n" +
+            "    0:   ReturnVoid\n" +
+            "  }\n" +
+            "  override static int count(sys::Obj[])\n" +
+            "  {\n" +
+            "    0:   LoadI0\n" +
+            "    1:   ReturnPop\n" +
+            "  }\n" +
+            "}\n";
+
+    @Test
+    public void testSysObj() throws Exception {
+        verifyRoundTrip(OBJ);
+    }
+
+    @Test
+    public void testComponent() throws Exception {
+        verifyRoundTrip(COMPONENT);
+    }
+
+    /**
+     * Read the text IR, then check that both the binary encoding of
+     * it and the text IrWriter writes for it read back the same type.
+     */
+    private void verifyRoundTrip(String ir) throws Exception {
+        Compiler compiler = new Compiler();
+        IrKit kit = new IrKit(new Location("sys"), "sys");
+
+        IrType text = readText(compiler, kit, ir);
+        IrType binary = new IrBinaryReader(compiler, new Location("binary"), IrBinaryWriter.encode(text)).readType(kit);
+        verifyEquals(binary, text);
+
+        StringWriter out = new StringWriter();
+        IrWriter w = new IrWriter(out);
+        w.writeType(text);
+        w.flush();
+        verifyEquals(readText(compiler, kit, out.toString()), text);
+
+        Assert.assertEquals(compiler.errors().length, 0);
+    }
+
+    private static IrType readText(Compiler compiler, IrKit kit, String ir) throws Exception {
+        return new IrReader(compiler, new Location("text"), new ByteArrayInputStream(ir.getBytes("UTF-8"))).readType(kit);
+    }
+
+    private static void verifyEquals(IrType a, IrType b) {
+        Assert.assertEquals(a.name, b.name);
+        Assert.assertEquals(a.flags, b.flags, "flags of " + b.name);
+        Assert.assertEquals(String.valueOf(a.base), String.valueOf(b.base));
+        verifyEquals(a.facets, b.facets);
+        Assert.assertEquals(a.declared.length, b.declared.length);
+        for (int i = 0; i < b.declared.length; ++i) {
+            IrSlot sa = a.declared[i];
+            IrSlot sb = b.declared[i];
+            Assert.assertEquals(sa.name, sb.name);
+            Assert.assertEquals(sa.flags, sb.flags, "flags of " + sb.name);
+            Assert.assertEquals(sa.getClass(), sb.getClass());
+            Assert.assertSame(a.slot(sa.name), sa);
+            verifyEquals(sa.facets, sb.facets);
+            if (sb instanceof IrField)
+                verifyEquals((IrField) sa, (IrField) sb);
+            else
+                verifyEquals((IrMethod) sa, (IrMethod) sb);
+        }
+    }
+
+    private static void verifyEquals(IrField a, IrField b) {
+        Assert.assertEquals(a.type.toString(), b.type.toString());
+        Assert.assertEquals(code(a.define), code(b.define));
+        Assert.assertEquals(a.arrayInit, b.arrayInit);
+        Assert.assertEquals(a.ctorLengthParam, b.ctorLengthParam);
+        Assert.assertEquals(code(a.ctorLengthArg), code(b.ctorLengthArg));
+    }
+
+    private static void verifyEquals(IrMethod a, IrMethod b) {
+        Assert.assertEquals(a.ret.toString(), b.ret.toString());
+        Assert.assertEquals(a.params.length, b.params.length);
+        for (int i = 0; i < b.params.length; ++i)
+            Assert.assertEquals(a.params[i].toString(), b.params[i].toString());
+        Assert.assertEquals(String.valueOf(a.nativeId), String.valueOf(b.nativeId));
+        Assert.assertEquals(a.maxLocals, b.maxLocals);
+        if (b.code == null) {
+            Assert.assertNull(a.code);
+            return;
+        }
+        Assert.assertEquals(a.code.length, b.code.length);
+        for (int i = 0; i < b.code.length; ++i) {
+            Assert.assertEquals(a.code[i].index, b.code[i].index);
+            Assert.assertEquals(a.code[i].opcode, b.code[i].opcode);
+            Assert.assertEquals(a.code[i].arg, b.code[i].arg);
+        }
+    }
+
+    private static void verifyEquals(Facets a, Facets b) {
+        String[] keys = b.keys();
+        Assert.assertEquals(a.keys().length, keys.length);
+        for (int i = 0; i < keys.length; ++i)
+            Assert.assertEquals(a.get(keys[i]).toCode(), b.get(keys[i]).toCode());
+    }
+
+    private static String code(Expr expr) {
+        if (expr == null) return null;
+        if (expr instanceof Expr.Literal) return ((Expr.Literal) expr).toCodeString();
+        return expr.toString();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2007 Tridium, Inc.
+ * Licensed under the Academic Free License version 3.0
+ *
+ */
+
+package test.sedonac;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+import sedona.Env;
+import sedona.util.FileUtil;
+import sedonac.ast.UnresolvedType;
+import sedonac.ir.IrField;
+import sedonac.ir.IrKit;
+import sedonac.ir.IrType;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Compiles a kit against a dependency read with -lazyKits: only the
+ * dependency types the kit uses are loaded, and a type the closure
+ * missed makes the dependency fall back to loading (and resolving)
+ * every type.
+ */
+public class LazyKitsTest extends CompileTest {
+    private static final String DEP = "sedonacLazyDep";
+    private static final String USER = "sedonacLazyUser";
+
+    private File dir;
+
+    @AfterMethod
+    public void cleanup() throws IOException {
+        String[] kits = {DEP, USER};
+        for (int i = 0; i < kits.length; ++i) {
+            FileUtil.delete(new File(new File(Env.home, "kits"), kits[i]), null);
+            FileUtil.delete(new File(new File(Env.home, "manifests"), kits[i]), null);
+        }
+        if (dir != null) FileUtil.delete(dir, null);
+    }
+
+    @Test
+    public void testCompileAgainstLazyKit() throws IOException {
+        dir = Files.createTempDirectory("sedonac-lazy").toFile();
+
+        // dependency, compiled as usual
+        File depXml = writeKit(new File(dir, DEP), DEP, new String[]{"sys 1.0+"},
+                "class Base extends Virtual\n" +
+                "{\n" +
+                "  virtual int get() { return x }\n" +
+                "  int x\n" +
+                "}\n" +
+                "class Used extends Base\n" +
+                "{\n" +
+                "  Other other\n" +
+                "}\n" +
+                "class Other\n" +
+                "{\n" +
+                "  int y\n" +
+                "}\n" +
+                "class Unused\n" +
+                "{\n" +
+                "  Base base\n" +
+                "  static int count(Other o) { return o.y }\n" +
+                "}\n");
+        compiler = new TestCompiler();
+        compiler.compile(depXml);
+        verifyEq(compiler.errors().length, 0);
+
+        // kit using part of it, read lazily
+        File userXml = writeKit(new File(dir, USER), USER, new String[]{"sys 1.0+", DEP + " 1.0+"},
+                "class User\n" +
+                "{\n" +
+                "  static int run() { return used.get() + used.other.y }\n" +
+                "  static inline " + DEP + "::Used used\n" +
+                "}\n");
+        compiler = new TestCompiler() {
+            // keep the dependency mapped to look up more types below
+            public void closeKitLoaders() { }
+        };
+        compiler.lazyKits = true;
+        compiler.compile(userXml);
+        verifyEq(compiler.errors().length, 0);
+        verify(compiler.kitFile != null && compiler.kitFile.exists());
+
+        IrKit dep = null;
+        for (int i = 0; i < compiler.kits.length; ++i)
+            if (compiler.kits[i].name.equals(DEP)) dep = compiler.kits[i];
+        verify(dep != null && dep.loader != null);
+        verifyEq(dep.loader.numLoaded(), 3);
+        verifyEq(dep.types.length, 3);
+        verify(dep.typesByName.get("Unused") == null);
+
+        // a lookup the closure missed loads and resolves the whole kit
+        IrType unused = (IrType) dep.type("Unused");
+        verify(unused != null);
+        verifyEq(dep.loader.numLoaded(), 4);
+        verifyEq(dep.types.length, 4);
+        IrField base = (IrField) unused.slot("base");
+        verify(!(base.type instanceof UnresolvedType));
+        verify(base.type == dep.type("Base"));
+        verifyEq(compiler.errors().length, 0);
+    }
+
+    private File writeKit(File kitDir, String name, String[] depends, String src) throws IOException {
+        kitDir.mkdirs();
+        File xml = new File(kitDir, "kit.xml");
+        FileWriter out = openFileWriter(xml);
+        out.write("<sedonaKit name=\"" + name + "\" vendor=\"Tridium\" description=\"\" version=\"1.0\">");
+        for (int i = 0; i < depends.length; ++i)
+            out.write("<depend on=\"" + depends[i] + "\" />");
+        out.write("<source dir=\".\" /></sedonaKit>");
+        out.close();
+        out = openFileWriter(new File(kitDir, name + ".sedona"));
+        out.write(src);
+        out.close();
+        return xml;
+    }
+}
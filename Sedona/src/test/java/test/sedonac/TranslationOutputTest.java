@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2007 Tridium, Inc.
+ * Licensed under the Academic Free License version 3.0
+ *
+ */
+
+package test.sedonac;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import sedona.util.FileUtil;
+import sedonac.translate.TranslationOutput;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that TranslationOutput leaves files with unchanged content
+ * untouched (ignoring volatile lines) and rewrites changed ones.
+ */
+public class TranslationOutputTest {
+
+    private static final long OLD = 946684800000L;  // 2000-01-01
+
+    private File dir;
+    private File file;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("sedonac-output").toFile();
+        file = new File(dir, "Foo.h");
+        Assert.assertTrue(write("// Generated: yesterday", "int foo(); // \u00e4"));
+        Assert.assertTrue(file.setLastModified(OLD));
+    }
+
+    @AfterMethod
+    public void cleanup() throws IOException {
+        FileUtil.delete(dir, null);
+    }
+
+    @Test
+    public void testUnchanged() throws IOException {
+        Assert.assertFalse(write("// Generated: yesterday", "int foo(); // \u00e4"));
+        Assert.assertEquals(file.lastModified(), OLD);
+    }
+
+    @Test
+    public void testVolatileLineOnly() throws IOException {
+        Assert.assertFalse(write("// Generated: today", "int foo(); // \u00e4"));
+        Assert.assertEquals(file.lastModified(), OLD);
+        Assert.assertEquals(read(), Arrays.asList("// Generated: yesterday", "int foo(); // \u00e4"));
+    }
+
+    @Test
+    public void testChanged() throws IOException {
+        Assert.assertTrue(write("// Generated: today", "int bar(); // \u00e4"));
+        Assert.assertNotEquals(file.lastModified(), OLD);
+        Assert.assertEquals(read(), Arrays.asList("// Generated: today", "int bar(); // \u00e4"));
+    }
+
+    @Test
+    public void testAlwaysWritten() throws IOException {
+        TranslationOutput out = new TranslationOutput(file, false);
+        out.volatileLine("// Generated: yesterday");
+        out.println("int foo(); // \u00e4");
+        Assert.assertTrue(out.commit());
+        Assert.assertNotEquals(file.lastModified(), OLD);
+    }
+
+    /**
+     * Render a file header and body through a TranslationOutput skipping unchanged files.
+     * The file was backdated in setUp, so a rewrite shows in its modification time.
+     */
+    private boolean write(String generated, String line) throws IOException {
+        TranslationOutput out = new TranslationOutput(file, true);
+        out.volatileLine(generated);
+        out.println(line);
+        return out.commit();
+    }
+
+    private List<String> read() throws IOException {
+        return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    }
+}